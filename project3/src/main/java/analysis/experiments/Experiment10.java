@@ -0,0 +1,167 @@
+package analysis.experiments;
+
+import analysis.utils.AnalysisUtils;
+import analysis.utils.CsvWriter;
+import datastructures.interfaces.IList;
+import search.analyzers.PositionalIndex;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures how quickly we can intersect the posting lists of two words, as
+ * the number of indexed pages grows.
+ *
+ * Each posting list is a random, sorted set of page ids, as PositionalIndex
+ * stores them. A "frequent" word appears in half of all pages; a "rare" word
+ * appears in RARE_PAGES pages.
+ *
+ * Test 1 and test 2 intersect two frequent words, using PositionalIndex's
+ * galloping intersection and a plain linear merge, respectively.
+ *
+ * Test 3 and test 4 intersect a rare word with a frequent word, again using
+ * the galloping intersection and a linear merge.
+ *
+ * Test 5 subtracts a frequent word from another (as in "a NOT b") using
+ * PositionalIndex.subtract.
+ *
+ * Every test returns the average time to perform one operation, in nanoseconds.
+ */
+public class Experiment10 {
+    public static final int NUM_TRIALS = 5;
+    public static final int NUM_PAIRS = 50;
+    public static final int NUM_REPEATS = 20;
+    public static final int RARE_PAGES = 20;
+    public static final long MAX_NUM_PAGES = 1000000;
+    public static final long STEP = 50000;
+
+    public static void main(String[] args) {
+        IList<Long> numPages = AnalysisUtils.makeList(STEP, MAX_NUM_PAGES + 1, STEP);
+
+        System.out.println("Starting test");
+
+        IList<Long> test1Results = AnalysisUtils.runTrials(numPages, Experiment10::test1, NUM_TRIALS);
+        IList<Long> test2Results = AnalysisUtils.runTrials(numPages, Experiment10::test2, NUM_TRIALS);
+        IList<Long> test3Results = AnalysisUtils.runTrials(numPages, Experiment10::test3, NUM_TRIALS);
+        IList<Long> test4Results = AnalysisUtils.runTrials(numPages, Experiment10::test4, NUM_TRIALS);
+        IList<Long> test5Results = AnalysisUtils.runTrials(numPages, Experiment10::test5, NUM_TRIALS);
+
+        System.out.println("Saving experiment results to file");
+        CsvWriter writer = new CsvWriter();
+        writer.addColumn("NumPages", numPages);
+        writer.addColumn("Test1Result", test1Results);
+        writer.addColumn("Test2Result", test2Results);
+        writer.addColumn("Test3Result", test3Results);
+        writer.addColumn("Test4Result", test4Results);
+        writer.addColumn("Test5Result", test5Results);
+        writer.writeToFile("experimentdata/experiment10.csv");
+
+        System.out.println("All done!");
+    }
+
+    public static long test1(long numPages) {
+        return timePairs(numPages, numPages / 2, Operation.GALLOP);
+    }
+
+    public static long test2(long numPages) {
+        return timePairs(numPages, numPages / 2, Operation.MERGE);
+    }
+
+    public static long test3(long numPages) {
+        return timePairs(numPages, RARE_PAGES, Operation.GALLOP);
+    }
+
+    public static long test4(long numPages) {
+        return timePairs(numPages, RARE_PAGES, Operation.MERGE);
+    }
+
+    public static long test5(long numPages) {
+        return timePairs(numPages, numPages / 2, Operation.SUBTRACT);
+    }
+
+    private enum Operation { GALLOP, MERGE, SUBTRACT }
+
+    /**
+     * Returns the average time, in nanoseconds, to apply the given operation
+     * to the posting lists of a word in 'firstSize' pages and a frequent word.
+     */
+    private static long timePairs(long numPages, long firstSize, Operation operation) {
+        Random rand = new Random(373);
+        int[][] firsts = new int[NUM_PAIRS][];
+        int[][] seconds = new int[NUM_PAIRS][];
+        for (int i = 0; i < NUM_PAIRS; i++) {
+            firsts[i] = makePostings(rand, (int) numPages, (int) firstSize);
+            seconds[i] = makePostings(rand, (int) numPages, (int) (numPages / 2));
+        }
+
+        // Summing the results keeps the JIT from skipping any work
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (int repeat = 0; repeat < NUM_REPEATS; repeat++) {
+            for (int i = 0; i < NUM_PAIRS; i++) {
+                switch (operation) {
+                    case GALLOP:
+                        checksum += PositionalIndex.intersect(firsts[i], seconds[i]).length;
+                        break;
+                    case MERGE:
+                        checksum += mergeIntersect(firsts[i], seconds[i]).length;
+                        break;
+                    default:
+                        checksum += PositionalIndex.subtract(firsts[i], seconds[i]).length;
+                        break;
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (checksum < 0) {
+            System.out.println(checksum);
+        }
+        return elapsed / (NUM_REPEATS * NUM_PAIRS);
+    }
+
+    /**
+     * Returns 'size' distinct page ids below 'numPages', in sorted order.
+     */
+    private static int[] makePostings(Random rand, int numPages, int size) {
+        if (size * 2 > numPages) {
+            // Choosing which pages to skip is faster for dense lists
+            int[] skipped = makePostings(rand, numPages, numPages - size);
+            int[] pages = new int[size];
+            int next = 0;
+            int skip = 0;
+            for (int pageId = 0; pageId < numPages; pageId++) {
+                if (skip < skipped.length && skipped[skip] == pageId) {
+                    skip++;
+                } else {
+                    pages[next] = pageId;
+                    next++;
+                }
+            }
+            return pages;
+        }
+        return rand.ints(0, numPages).distinct().limit(size).sorted().toArray();
+    }
+
+    /**
+     * Intersects two sorted arrays by walking through both of them in step.
+     */
+    private static int[] mergeIntersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[size] = a[i];
+                size++;
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+}
@@ -0,0 +1,147 @@
+package analysis.experiments;
+
+import analysis.utils.AnalysisUtils;
+import analysis.utils.CsvWriter;
+import datastructures.concrete.ChainedHashSet;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import datastructures.interfaces.ISet;
+import search.Main;
+import search.SearchEngine;
+import search.models.Query;
+import search.models.Result;
+import search.models.Webpage;
+
+import java.net.URI;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Compares the TF-IDF and BM25 scorers, as we index larger and larger
+ * subsets of the corpus.
+ *
+ * Test 1 and test 2 measure the average time (in microseconds) to answer a
+ * query using the TF-IDF and BM25 scorers, respectively. Every query is made
+ * of one to three random words from a random page.
+ *
+ * Test 3 measures how much the two scorers agree: the average percentage of
+ * the top NUM_RESULTS results that both of them return for the same query.
+ */
+public class Experiment11 {
+    public static final int NUM_TRIALS = 5;
+    public static final int NUM_QUERIES = 200;
+    public static final int NUM_RESULTS = 20;
+    public static final long MAX_NUM_PAGES = 5000;
+    public static final long STEP = 500;
+
+    private static ISet<Webpage> corpus;
+
+    public static void main(String[] args) {
+        corpus = SearchEngine.collectWebpages(Paths.get("data", Main.DATA_FOLDER_NAME));
+        IList<Long> numPages = AnalysisUtils.makeList(STEP, Math.min(MAX_NUM_PAGES, corpus.size()) + 1, STEP);
+
+        System.out.println("Starting test");
+
+        IList<Long> test1Results = AnalysisUtils.runTrials(numPages, Experiment11::test1, NUM_TRIALS);
+        IList<Long> test2Results = AnalysisUtils.runTrials(numPages, Experiment11::test2, NUM_TRIALS);
+
+        // The overlap is deterministic, so a single trial is enough
+        IList<Long> test3Results = AnalysisUtils.runSingleTrial(numPages, Experiment11::test3);
+
+        System.out.println("Saving experiment results to file");
+        CsvWriter writer = new CsvWriter();
+        writer.addColumn("NumPages", numPages);
+        writer.addColumn("Test1Result", test1Results);
+        writer.addColumn("Test2Result", test2Results);
+        writer.addColumn("Test3Result", test3Results);
+        writer.writeToFile("experimentdata/experiment11.csv");
+
+        System.out.println("All done!");
+    }
+
+    public static long test1(long numPages) {
+        return timeQueries(numPages, SearchEngine.TF_IDF_SCORER);
+    }
+
+    public static long test2(long numPages) {
+        return timeQueries(numPages, SearchEngine.BM25_SCORER);
+    }
+
+    public static long test3(long numPages) {
+        ISet<Webpage> subset = makeSubset(numPages);
+        SearchEngine engine = new SearchEngine(subset, 1);
+
+        long totalPercent = 0;
+        for (Query query : makeQueries(subset)) {
+            IList<Result> tfIdf = engine.getTopKResults(query, NUM_RESULTS, SearchEngine.TF_IDF_SCORER);
+            IList<Result> bm25 = engine.getTopKResults(query, NUM_RESULTS, SearchEngine.BM25_SCORER);
+
+            ISet<URI> tfIdfUris = new ChainedHashSet<>();
+            for (Result result : tfIdf) {
+                tfIdfUris.add(result.getUri());
+            }
+            int shared = 0;
+            for (Result result : bm25) {
+                if (tfIdfUris.contains(result.getUri())) {
+                    shared++;
+                }
+            }
+            totalPercent += 100L * shared / Math.max(1, Math.max(tfIdf.size(), bm25.size()));
+        }
+        return totalPercent / NUM_QUERIES;
+    }
+
+    /**
+     * Returns the average time, in microseconds, to answer NUM_QUERIES
+     * queries against the first 'numPages' pages using the given scorer.
+     */
+    private static long timeQueries(long numPages, String scorer) {
+        ISet<Webpage> subset = makeSubset(numPages);
+        Query[] queries = makeQueries(subset);
+
+        SearchEngine engine = new SearchEngine(subset, 1);
+        long start = System.nanoTime();
+        for (Query query : queries) {
+            // We want to measure the search itself, not the cache
+            engine.getQueryCache().clear();
+            engine.getTopKResults(query, NUM_RESULTS, scorer);
+        }
+        return (System.nanoTime() - start) / 1000 / NUM_QUERIES;
+    }
+
+    private static Query[] makeQueries(ISet<Webpage> subset) {
+        Webpage[] pages = new Webpage[subset.size()];
+        int i = 0;
+        for (Webpage page : subset) {
+            pages[i] = page;
+            i++;
+        }
+
+        Random rand = new Random(373);
+        Query[] queries = new Query[NUM_QUERIES];
+        for (int q = 0; q < NUM_QUERIES; q++) {
+            IList<String> words;
+            do {
+                words = pages[rand.nextInt(pages.length)].getWords();
+            } while (words.isEmpty());
+
+            IList<String> terms = new DoubleLinkedList<>();
+            for (int j = 1 + rand.nextInt(3); j > 0; j--) {
+                terms.add(words.get(rand.nextInt(words.size())));
+            }
+            queries[q] = Query.fromTerms(terms);
+        }
+        return queries;
+    }
+
+    private static ISet<Webpage> makeSubset(long numPages) {
+        ISet<Webpage> subset = new ChainedHashSet<>();
+        for (Webpage page : corpus) {
+            if (subset.size() == numPages) {
+                break;
+            }
+            subset.add(page);
+        }
+        return subset;
+    }
+}
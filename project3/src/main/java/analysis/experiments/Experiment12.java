@@ -0,0 +1,223 @@
+package analysis.experiments;
+
+import analysis.utils.AnalysisUtils;
+import analysis.utils.CsvWriter;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import search.analyzers.CompletionIndex;
+import search.analyzers.TermDictionary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures how quickly CompletionIndex answers search-as-you-type requests,
+ * as the vocabulary grows.
+ *
+ * The vocabulary is made of random lowercase words, weighted so a few are
+ * very common and most are rare, as document frequencies are. Each request
+ * asks for the top MAX_RESULTS completions of a random one to three letter
+ * prefix: the short prefixes people type first, and the ones that match the
+ * most words.
+ *
+ * Test 1 answers requests one at a time from a single thread.
+ *
+ * Test 2 answers the same requests from NUM_THREADS threads at once, to
+ * simulate a high request rate, and reports the wall-clock time divided by
+ * the number of requests.
+ *
+ * Test 3 answers requests by scanning and sorting every matching word, as we
+ * would without the precomputed top completions.
+ *
+ * Every test returns the average time to answer one request, in nanoseconds.
+ */
+public class Experiment12 {
+    public static final int NUM_TRIALS = 5;
+    public static final int NUM_REQUESTS = 100000;
+    public static final int NUM_SCAN_REQUESTS = 200;
+    public static final int NUM_THREADS = 8;
+    public static final int MAX_RESULTS = 10;
+    public static final long MAX_VOCABULARY_SIZE = 1000000;
+    public static final long STEP = 100000;
+
+    public static void main(String[] args) {
+        IList<Long> sizes = AnalysisUtils.makeList(STEP, MAX_VOCABULARY_SIZE + 1, STEP);
+
+        System.out.println("Starting test");
+
+        IList<Long> test1Results = AnalysisUtils.runTrials(sizes, Experiment12::test1, NUM_TRIALS);
+        IList<Long> test2Results = AnalysisUtils.runTrials(sizes, Experiment12::test2, NUM_TRIALS);
+        IList<Long> test3Results = AnalysisUtils.runTrials(sizes, Experiment12::test3, NUM_TRIALS);
+
+        System.out.println("Saving experiment results to file");
+        CsvWriter writer = new CsvWriter();
+        writer.addColumn("VocabularySize", sizes);
+        writer.addColumn("Test1Result", test1Results);
+        writer.addColumn("Test2Result", test2Results);
+        writer.addColumn("Test3Result", test3Results);
+        writer.writeToFile("experimentdata/experiment12.csv");
+
+        System.out.println("All done!");
+    }
+
+    public static long test1(long vocabularySize) {
+        Vocabulary vocabulary = new Vocabulary((int) vocabularySize);
+        CompletionIndex index = vocabulary.buildIndex();
+        String[] prefixes = makePrefixes(NUM_REQUESTS);
+
+        // Summing the results keeps the JIT from skipping any work
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (String prefix : prefixes) {
+            checksum += index.complete(prefix, MAX_RESULTS).size();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (checksum < 0) {
+            System.out.println(checksum);
+        }
+        return elapsed / NUM_REQUESTS;
+    }
+
+    public static long test2(long vocabularySize) {
+        Vocabulary vocabulary = new Vocabulary((int) vocabularySize);
+        CompletionIndex index = vocabulary.buildIndex();
+        String[] prefixes = makePrefixes(NUM_REQUESTS);
+
+        ExecutorService pool = Executors.newFixedThreadPool(NUM_THREADS);
+        try {
+            List<Future<Long>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int thread = 0; thread < NUM_THREADS; thread++) {
+                int first = thread;
+                futures.add(pool.submit(() -> {
+                    long checksum = 0;
+                    for (int i = first; i < prefixes.length; i += NUM_THREADS) {
+                        checksum += index.complete(prefixes[i], MAX_RESULTS).size();
+                    }
+                    return checksum;
+                }));
+            }
+            long checksum = 0;
+            for (Future<Long> future : futures) {
+                checksum += future.get();
+            }
+            long elapsed = System.nanoTime() - start;
+            if (checksum < 0) {
+                System.out.println(checksum);
+            }
+            return elapsed / NUM_REQUESTS;
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public static long test3(long vocabularySize) {
+        Vocabulary vocabulary = new Vocabulary((int) vocabularySize);
+        String[] sorted = Arrays.copyOf(vocabulary.words, vocabulary.words.length);
+        Arrays.sort(sorted);
+        String[] prefixes = makePrefixes(NUM_SCAN_REQUESTS);
+
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (String prefix : prefixes) {
+            // Find the range of matching words by binary search, then sort
+            // the whole range by weight
+            int from = lowerBound(sorted, prefix);
+            int to = from;
+            while (to < sorted.length && sorted[to].startsWith(prefix)) {
+                to++;
+            }
+            Integer[] range = new Integer[to - from];
+            for (int i = 0; i < range.length; i++) {
+                range[i] = from + i;
+            }
+            Arrays.sort(range, (a, b) -> Integer.compare(
+                    vocabulary.getWeight(sorted[b]), vocabulary.getWeight(sorted[a])));
+            checksum += Math.min(MAX_RESULTS, range.length);
+        }
+        long elapsed = System.nanoTime() - start;
+        if (checksum < 0) {
+            System.out.println(checksum);
+        }
+        return elapsed / NUM_SCAN_REQUESTS;
+    }
+
+    private static int lowerBound(String[] sorted, String key) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static String[] makePrefixes(int count) {
+        Random rand = new Random(373);
+        String[] prefixes = new String[count];
+        for (int i = 0; i < count; i++) {
+            prefixes[i] = randomWord(rand, 1 + rand.nextInt(3));
+        }
+        return prefixes;
+    }
+
+    private static String randomWord(Random rand, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + rand.nextInt(26));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * A vocabulary of distinct random words, weighted by Zipf's law: the
+     * i-th word appears on about 1/i as many pages as the first.
+     */
+    private static class Vocabulary {
+        public final String[] words;
+        public final TermDictionary terms;
+        public final int[] weights;
+
+        public Vocabulary(int size) {
+            Random rand = new Random(size);
+            Set<String> seen = new HashSet<>();
+            this.words = new String[size];
+            IList<String> list = new DoubleLinkedList<>();
+            int count = 0;
+            while (count < size) {
+                String word = randomWord(rand, 3 + rand.nextInt(10));
+                if (seen.add(word)) {
+                    this.words[count] = word;
+                    list.add(word);
+                    count++;
+                }
+            }
+            this.terms = new TermDictionary(list);
+            this.weights = new int[size];
+            for (int i = 0; i < size; i++) {
+                this.weights[this.terms.getId(this.words[i])] = 1 + (size / (i + 1));
+            }
+        }
+
+        public int getWeight(String word) {
+            return this.weights[this.terms.getId(word)];
+        }
+
+        public CompletionIndex buildIndex() {
+            return new CompletionIndex(this.terms, this.weights, MAX_RESULTS);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package analysis.experiments;
+
+import analysis.utils.AnalysisUtils;
+import analysis.utils.CsvWriter;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import search.analyzers.SpellingCorrector;
+import search.analyzers.TermDictionary;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Measures how quickly SpellingCorrector finds corrections for a misspelled
+ * word, as the vocabulary grows.
+ *
+ * The vocabulary is made of random lowercase words of 3 to 12 letters. Each
+ * query is a word from the vocabulary with one or two random typos (an
+ * insertion, deletion, substitution or swap of adjacent letters), as a user
+ * might type it.
+ *
+ * Test 1 and test 2 look up the top MAX_CORRECTIONS corrections within one
+ * and two typos, respectively.
+ *
+ * Test 3 finds the corrections within two typos by checking the distance to
+ * every word in the vocabulary, as we would without the deletion index.
+ *
+ * Every test returns the average time to correct one word, in nanoseconds.
+ */
+public class Experiment13 {
+    public static final int NUM_TRIALS = 5;
+    public static final int NUM_QUERIES = 20000;
+    public static final int NUM_SCAN_QUERIES = 20;
+    public static final int MAX_CORRECTIONS = 3;
+    public static final long MAX_VOCABULARY_SIZE = 1000000;
+    public static final long STEP = 100000;
+
+    public static void main(String[] args) {
+        IList<Long> sizes = AnalysisUtils.makeList(STEP, MAX_VOCABULARY_SIZE + 1, STEP);
+
+        System.out.println("Starting test");
+
+        IList<Long> test1Results = AnalysisUtils.runTrials(sizes, Experiment13::test1, NUM_TRIALS);
+        IList<Long> test2Results = AnalysisUtils.runTrials(sizes, Experiment13::test2, NUM_TRIALS);
+        IList<Long> test3Results = AnalysisUtils.runTrials(sizes, Experiment13::test3, NUM_TRIALS);
+
+        System.out.println("Saving experiment results to file");
+        CsvWriter writer = new CsvWriter();
+        writer.addColumn("VocabularySize", sizes);
+        writer.addColumn("Test1Result", test1Results);
+        writer.addColumn("Test2Result", test2Results);
+        writer.addColumn("Test3Result", test3Results);
+        writer.writeToFile("experimentdata/experiment13.csv");
+
+        System.out.println("All done!");
+    }
+
+    public static long test1(long vocabularySize) {
+        return timeCorrections((int) vocabularySize, 1);
+    }
+
+    public static long test2(long vocabularySize) {
+        return timeCorrections((int) vocabularySize, 2);
+    }
+
+    public static long test3(long vocabularySize) {
+        String[] words = makeWords((int) vocabularySize);
+        String[] queries = makeQueries(words, NUM_SCAN_QUERIES);
+
+        // Summing the results keeps the JIT from skipping any work
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (String query : queries) {
+            for (String word : words) {
+                if (SpellingCorrector.computeDistance(query, word, 2) <= 2) {
+                    checksum++;
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (checksum < 0) {
+            System.out.println(checksum);
+        }
+        return elapsed / NUM_SCAN_QUERIES;
+    }
+
+    private static long timeCorrections(int vocabularySize, int maxDistance) {
+        String[] words = makeWords(vocabularySize);
+        IList<String> vocabulary = new DoubleLinkedList<>();
+        for (String word : words) {
+            vocabulary.add(word);
+        }
+        TermDictionary terms = new TermDictionary(vocabulary);
+        int[] weights = new int[terms.size()];
+        for (int i = 0; i < words.length; i++) {
+            weights[terms.getId(words[i])] = 1 + vocabularySize / (i + 1);
+        }
+        SpellingCorrector corrector = new SpellingCorrector(terms, weights, 2);
+        String[] queries = makeQueries(words, NUM_QUERIES);
+
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (String query : queries) {
+            checksum += corrector.findCorrections(query, maxDistance, MAX_CORRECTIONS).size();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (checksum < 0) {
+            System.out.println(checksum);
+        }
+        return elapsed / NUM_QUERIES;
+    }
+
+    private static String[] makeWords(int count) {
+        Random rand = new Random(count);
+        Set<String> seen = new HashSet<>();
+        String[] words = new String[count];
+        int size = 0;
+        while (size < count) {
+            char[] chars = new char[3 + rand.nextInt(10)];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (char) ('a' + rand.nextInt(26));
+            }
+            String word = new String(chars);
+            if (seen.add(word)) {
+                words[size] = word;
+                size++;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Returns 'count' words from the vocabulary, each with one or two typos.
+     */
+    private static String[] makeQueries(String[] words, int count) {
+        Random rand = new Random(373);
+        String[] queries = new String[count];
+        for (int i = 0; i < count; i++) {
+            StringBuilder word = new StringBuilder(words[rand.nextInt(words.length)]);
+            for (int typos = 1 + rand.nextInt(2); typos > 0; typos--) {
+                int position = rand.nextInt(word.length());
+                char letter = (char) ('a' + rand.nextInt(26));
+                switch (rand.nextInt(4)) {
+                    case 0:
+                        word.insert(position, letter);
+                        break;
+                    case 1:
+                        if (word.length() > 1) {
+                            word.deleteCharAt(position);
+                        }
+                        break;
+                    case 2:
+                        word.setCharAt(position, letter);
+                        break;
+                    default:
+                        if (position + 1 < word.length()) {
+                            char next = word.charAt(position + 1);
+                            word.setCharAt(position + 1, word.charAt(position));
+                            word.setCharAt(position, next);
+                        }
+                        break;
+                }
+            }
+            queries[i] = word.toString();
+        }
+        return queries;
+    }
+}
@@ -0,0 +1,165 @@
+package analysis.experiments;
+
+import analysis.utils.AnalysisUtils;
+import analysis.utils.CsvWriter;
+import com.google.re2j.Pattern;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import search.scraper.UriMatchRule;
+
+import java.util.Random;
+
+/**
+ * Measures how quickly we can check a path against robots.txt, as the number
+ * of Disallow rules grows.
+ *
+ * Rules and paths are made of random lowercase segments, like
+ * "/abc/defg/hi". Half the paths start with a rule, so are disallowed. A
+ * quarter of the rules contain a '*' in place of a segment.
+ *
+ * Test 1 checks paths against UriMatchRule, with rules without wildcards.
+ *
+ * Test 2 checks paths against UriMatchRule, with a quarter of the rules
+ * using wildcards.
+ *
+ * Test 3 checks the same paths and rules as test 2 against a single regular
+ * expression joining every rule, as we did before compiling rules to a trie.
+ *
+ * Every test returns the average time to check one path, in nanoseconds.
+ */
+public class Experiment14 {
+    public static final int NUM_TRIALS = 5;
+    public static final int NUM_PATHS = 100000;
+    public static final long MAX_RULES = 1000;
+    public static final long STEP = 100;
+
+    public static void main(String[] args) {
+        IList<Long> counts = AnalysisUtils.makeList(STEP, MAX_RULES + 1, STEP);
+
+        System.out.println("Starting test");
+
+        IList<Long> test1Results = AnalysisUtils.runTrials(counts, Experiment14::test1, NUM_TRIALS);
+        IList<Long> test2Results = AnalysisUtils.runTrials(counts, Experiment14::test2, NUM_TRIALS);
+        IList<Long> test3Results = AnalysisUtils.runTrials(counts, Experiment14::test3, NUM_TRIALS);
+
+        System.out.println("Saving experiment results to file");
+        CsvWriter writer = new CsvWriter();
+        writer.addColumn("NumRules", counts);
+        writer.addColumn("Test1Result", test1Results);
+        writer.addColumn("Test2Result", test2Results);
+        writer.addColumn("Test3Result", test3Results);
+        writer.writeToFile("experimentdata/experiment14.csv");
+
+        System.out.println("All done!");
+    }
+
+    public static long test1(long numRules) {
+        return timeTrie(makeRules((int) numRules, false));
+    }
+
+    public static long test2(long numRules) {
+        return timeTrie(makeRules((int) numRules, true));
+    }
+
+    public static long test3(long numRules) {
+        String[] rules = makeRules((int) numRules, true);
+        String[] paths = makePaths(rules, NUM_PATHS);
+
+        // Matching a prefix of the path, with the literal parts of each rule
+        // quoted and '*' matching anything
+        StringBuilder out = new StringBuilder();
+        String separator = "";
+        for (String rule : rules) {
+            out.append(separator);
+            separator = "|";
+            String[] parts = rule.split("\\*", -1);
+            for (int i = 0; i < parts.length; i++) {
+                if (i > 0) {
+                    out.append(".*");
+                }
+                out.append(Pattern.quote(parts[i]));
+            }
+        }
+        Pattern pattern = Pattern.compile(out.toString());
+
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (String path : paths) {
+            if (pattern.matcher(path).lookingAt()) {
+                checksum++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (checksum < 0) {
+            System.out.println(checksum);
+        }
+        return elapsed / NUM_PATHS;
+    }
+
+    private static long timeTrie(String[] rules) {
+        IList<String> disallowed = new DoubleLinkedList<>();
+        for (String rule : rules) {
+            disallowed.add(rule);
+        }
+        UriMatchRule rule = new UriMatchRule(null, disallowed);
+        String[] paths = makePaths(rules, NUM_PATHS);
+
+        // Summing the results keeps the JIT from skipping any work
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (String path : paths) {
+            if (rule.matches(path)) {
+                checksum++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (checksum < 0) {
+            System.out.println(checksum);
+        }
+        return elapsed / NUM_PATHS;
+    }
+
+    private static String[] makeRules(int count, boolean useWildcards) {
+        Random rand = new Random(count);
+        String[] rules = new String[count];
+        for (int i = 0; i < count; i++) {
+            StringBuilder rule = new StringBuilder();
+            int numSegments = 1 + rand.nextInt(3);
+            int wildcard = useWildcards && rand.nextInt(4) == 0 ? rand.nextInt(numSegments) : -1;
+            for (int j = 0; j < numSegments; j++) {
+                rule.append('/');
+                rule.append(j == wildcard ? "*" : makeSegment(rand));
+            }
+            rules[i] = rule.toString();
+        }
+        return rules;
+    }
+
+    /**
+     * Returns 'count' paths, half of which start with one of the rules.
+     */
+    private static String[] makePaths(String[] rules, int count) {
+        Random rand = new Random(373);
+        String[] paths = new String[count];
+        for (int i = 0; i < count; i++) {
+            StringBuilder path = new StringBuilder();
+            if (rand.nextBoolean()) {
+                path.append(rules[rand.nextInt(rules.length)].replace("*", makeSegment(rand)));
+            }
+            for (int j = 1 + rand.nextInt(4); j > 0; j--) {
+                path.append('/');
+                path.append(makeSegment(rand));
+            }
+            paths[i] = path.toString();
+        }
+        return paths;
+    }
+
+    private static String makeSegment(Random rand) {
+        char[] chars = new char[2 + rand.nextInt(8)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('a' + rand.nextInt(26));
+        }
+        return new String(chars);
+    }
+}
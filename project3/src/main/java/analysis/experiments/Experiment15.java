@@ -0,0 +1,217 @@
+package analysis.experiments;
+
+import analysis.utils.AnalysisUtils;
+import analysis.utils.CsvWriter;
+import datastructures.concrete.ChainedHashSet;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import datastructures.interfaces.ISet;
+import search.SearchEngine;
+import search.Webapp;
+import search.models.Webpage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Load-tests the search endpoint of a running Webapp, as the number of
+ * clients sending searches at once grows.
+ *
+ * The engine holds NUM_PAGES random pages of 'NUM_WORDS_PER_PAGE' words,
+ * drawn from a vocabulary where a few words are far more common than the
+ * rest. Each client sends NUM_REQUESTS_PER_CLIENT searches of two or three
+ * words, one after another, over HTTP. A fifth of the searches are one of a
+ * handful of popular queries, so many identical searches are in flight at
+ * once; the rest are random.
+ *
+ * Test 1 returns the median time to get a response, in microseconds.
+ *
+ * Test 2 returns the 99th percentile time to get a response, in microseconds.
+ *
+ * Test 3 returns the percentage of searches turned away with 503 Service
+ * Unavailable because the server was overloaded.
+ */
+public class Experiment15 {
+    public static final int NUM_TRIALS = 3;
+    public static final int NUM_PAGES = 5000;
+    public static final int NUM_WORDS_PER_PAGE = 200;
+    public static final int VOCABULARY_SIZE = 20000;
+    public static final int NUM_POPULAR_QUERIES = 5;
+    public static final int NUM_REQUESTS_PER_CLIENT = 20;
+    public static final long MAX_CLIENTS = 64;
+    public static final long STEP = 16;
+
+    private static String baseUrl;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        IList<Long> counts = AnalysisUtils.makeList(STEP, MAX_CLIENTS + 1, STEP);
+
+        System.out.println("Starting server");
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        Webapp webapp = new Webapp(new SearchEngine(makePages(), 4), "Experiment 15", port);
+        webapp.launch();
+        baseUrl = "http://localhost:" + port + "/search?scorer=bm25&query=";
+        waitForServer();
+
+        System.out.println("Starting test");
+
+        IList<Long> test1Results = AnalysisUtils.runTrials(counts, Experiment15::test1, NUM_TRIALS);
+        IList<Long> test2Results = AnalysisUtils.runTrials(counts, Experiment15::test2, NUM_TRIALS);
+        IList<Long> test3Results = AnalysisUtils.runTrials(counts, Experiment15::test3, NUM_TRIALS);
+        webapp.stop();
+
+        System.out.println("Saving experiment results to file");
+        CsvWriter writer = new CsvWriter();
+        writer.addColumn("NumClients", counts);
+        writer.addColumn("Test1Result", test1Results);
+        writer.addColumn("Test2Result", test2Results);
+        writer.addColumn("Test3Result", test3Results);
+        writer.writeToFile("experimentdata/experiment15.csv");
+
+        System.out.println("All done!");
+    }
+
+    public static long test1(long numClients) {
+        return percentile(runLoad((int) numClients), 0.50);
+    }
+
+    public static long test2(long numClients) {
+        return percentile(runLoad((int) numClients), 0.99);
+    }
+
+    public static long test3(long numClients) {
+        long[] latencies = runLoad((int) numClients);
+        long numRejected = Arrays.stream(latencies).filter(latency -> latency < 0).count();
+        return 100 * numRejected / latencies.length;
+    }
+
+    /**
+     * Sends every client's searches at once, and returns how long each took
+     * in microseconds, negated if it was turned away.
+     */
+    private static long[] runLoad(int numClients) {
+        ExecutorService clients = Executors.newFixedThreadPool(numClients);
+        try {
+            IList<Future<long[]>> futures = new DoubleLinkedList<>();
+            for (int i = 0; i < numClients; i++) {
+                Random rand = new Random(System.nanoTime() + i);
+                futures.add(clients.submit(() -> {
+                    long[] latencies = new long[NUM_REQUESTS_PER_CLIENT];
+                    for (int j = 0; j < latencies.length; j++) {
+                        latencies[j] = search(makeQuery(rand));
+                    }
+                    return latencies;
+                }));
+            }
+
+            long[] output = new long[numClients * NUM_REQUESTS_PER_CLIENT];
+            int size = 0;
+            for (Future<long[]> future : futures) {
+                long[] latencies = future.get();
+                System.arraycopy(latencies, 0, output, size, latencies.length);
+                size += latencies.length;
+            }
+            return output;
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    private static long search(String query) throws IOException {
+        long start = System.nanoTime();
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+                baseUrl + URLEncoder.encode(query, "UTF-8")).openConnection();
+        int status = connection.getResponseCode();
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            byte[] chunk = new byte[8192];
+            while (in != null && in.read(chunk) >= 0) {
+                // Read the whole response, as a browser would
+            }
+        }
+        long elapsed = (System.nanoTime() - start) / 1000;
+        if (status == 503) {
+            return -Math.max(1, elapsed);
+        } else if (status != 200) {
+            throw new IOException("Search failed with status " + status + ": " + query);
+        }
+        return elapsed;
+    }
+
+    /**
+     * Returns the given percentile of the searches that were answered.
+     */
+    private static long percentile(long[] latencies, double fraction) {
+        long[] answered = Arrays.stream(latencies).filter(latency -> latency >= 0).sorted().toArray();
+        if (answered.length == 0) {
+            return 0;
+        }
+        return answered[Math.min(answered.length - 1, (int) (fraction * answered.length))];
+    }
+
+    private static void waitForServer() throws IOException, InterruptedException {
+        while (true) {
+            try {
+                search("warmup");
+                return;
+            } catch (ConnectException ex) {
+                // Spark starts listening in the background
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static String makeQuery(Random rand) {
+        if (rand.nextInt(5) == 0) {
+            int popular = rand.nextInt(NUM_POPULAR_QUERIES);
+            return word(popular) + " " + word(popular + NUM_POPULAR_QUERIES);
+        }
+        StringBuilder query = new StringBuilder(word(pickWord(rand)));
+        for (int i = 2 + rand.nextInt(2); i > 1; i--) {
+            query.append(' ').append(word(pickWord(rand)));
+        }
+        return query.toString();
+    }
+
+    private static ISet<Webpage> makePages() {
+        Random rand = new Random(15);
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        for (int i = 0; i < NUM_PAGES; i++) {
+            IList<String> words = new DoubleLinkedList<>();
+            for (int j = 0; j < NUM_WORDS_PER_PAGE; j++) {
+                words.add(word(pickWord(rand)));
+            }
+            IList<URI> links = new DoubleLinkedList<>();
+            links.add(URI.create("http://example.com/" + rand.nextInt(NUM_PAGES) + ".html"));
+            pages.add(new Webpage(URI.create("http://example.com/" + i + ".html"),
+                    links, words, "Page " + i, "Blurb " + i));
+        }
+        return pages;
+    }
+
+    /**
+     * Returns a word number, roughly following Zipf's law.
+     */
+    private static int pickWord(Random rand) {
+        return (int) Math.pow(VOCABULARY_SIZE, rand.nextDouble()) - 1;
+    }
+
+    private static String word(int number) {
+        return "word" + number;
+    }
+}
@@ -0,0 +1,166 @@
+package analysis.experiments;
+
+import analysis.utils.AnalysisUtils;
+import analysis.utils.CsvWriter;
+import datastructures.interfaces.IList;
+import search.misc.TemplateRenderer;
+import spark.ModelAndView;
+import spark.template.mustache.MustacheTemplateEngine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures the cost of rendering a search results page, as the number of
+ * results on it grows.
+ *
+ * Each result has a title, URI, snippet and score, like those the engine
+ * returns. Pages are written to a stream that discards them, standing in for
+ * the response.
+ *
+ * Test 1 and test 2 render pages as we did before TemplateRenderer: with a
+ * new MustacheTemplateEngine every time, which reads and compiles the
+ * template again, and encodes the page as a String.
+ *
+ * Test 3 and test 4 render pages with a TemplateRenderer, which compiled the
+ * template once, through the thread's reusable buffer.
+ *
+ * Tests 1 and 3 return the average time to render one page, in nanoseconds.
+ * Tests 2 and 4 return the average number of bytes allocated to render one
+ * page.
+ */
+public class Experiment16 {
+    public static final int NUM_TRIALS = 5;
+    public static final int NUM_RENDERS = 2000;
+    public static final long MAX_RESULTS = 100;
+    public static final long STEP = 10;
+
+    private static final String TEMPLATE_FILES = "webapp/templates";
+    private static final String TEMPLATE_NAME = "search.mustache";
+
+    public static void main(String[] args) {
+        IList<Long> counts = AnalysisUtils.makeList(STEP, MAX_RESULTS + 1, STEP);
+
+        System.out.println("Starting test");
+
+        IList<Long> test1Results = AnalysisUtils.runTrials(counts, Experiment16::test1, NUM_TRIALS);
+        IList<Long> test2Results = AnalysisUtils.runTrials(counts, Experiment16::test2, NUM_TRIALS);
+        IList<Long> test3Results = AnalysisUtils.runTrials(counts, Experiment16::test3, NUM_TRIALS);
+        IList<Long> test4Results = AnalysisUtils.runTrials(counts, Experiment16::test4, NUM_TRIALS);
+
+        System.out.println("Saving experiment results to file");
+        CsvWriter writer = new CsvWriter();
+        writer.addColumn("NumResults", counts);
+        writer.addColumn("Test1Result", test1Results);
+        writer.addColumn("Test2Result", test2Results);
+        writer.addColumn("Test3Result", test3Results);
+        writer.addColumn("Test4Result", test4Results);
+        writer.writeToFile("experimentdata/experiment16.csv");
+
+        System.out.println("All done!");
+    }
+
+    public static long test1(long numResults) {
+        return measure((int) numResults, false, Experiment16::renderPerRequest)[0];
+    }
+
+    public static long test2(long numResults) {
+        return measure((int) numResults, true, Experiment16::renderPerRequest)[1];
+    }
+
+    public static long test3(long numResults) {
+        TemplateRenderer renderer = new TemplateRenderer(TEMPLATE_FILES, null, TEMPLATE_NAME);
+        return measure((int) numResults, false, model -> renderPrecompiled(renderer, model))[0];
+    }
+
+    public static long test4(long numResults) {
+        TemplateRenderer renderer = new TemplateRenderer(TEMPLATE_FILES, null, TEMPLATE_NAME);
+        return measure((int) numResults, true, model -> renderPrecompiled(renderer, model))[1];
+    }
+
+    private static long renderPerRequest(Map<String, Object> model) {
+        String page = new MustacheTemplateEngine(TEMPLATE_FILES).render(new ModelAndView(model, TEMPLATE_NAME));
+        byte[] bytes = page.getBytes(StandardCharsets.UTF_8);
+        try {
+            DISCARD.write(bytes);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return bytes.length;
+    }
+
+    private static long renderPrecompiled(TemplateRenderer renderer, Map<String, Object> model) {
+        try {
+            return renderer.render(TEMPLATE_NAME, model, DISCARD);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Renders NUM_RENDERS pages, and returns the average time and bytes
+     * allocated per page.
+     */
+    private static long[] measure(int numResults, boolean isCountingBytes, Renderer renderer) {
+        Map<String, Object> model = makeModel(numResults);
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        // Summing the page sizes keeps the JIT from skipping any work
+        long checksum = 0;
+        long startBytes = isCountingBytes ? threads.getThreadAllocatedBytes(threadId) : 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < NUM_RENDERS; i++) {
+            checksum += renderer.render(model);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = isCountingBytes ? threads.getThreadAllocatedBytes(threadId) - startBytes : 0;
+        if (checksum < 0) {
+            System.out.println(checksum);
+        }
+        return new long[] {elapsed / NUM_RENDERS, allocated / NUM_RENDERS};
+    }
+
+    private static Map<String, Object> makeModel(int numResults) {
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (int i = 0; i < numResults; i++) {
+            Map<String, Object> result = new HashMap<>();
+            result.put("uri", "http://example.com/wiki/Page_" + i);
+            result.put("title", "Page " + i + " - Example");
+            result.put("snippet", "... the <b>quick</b> brown <b>fox</b> jumps over the lazy dog " + i + " ...");
+            result.put("blurb", "The quick brown fox jumps over the lazy dog.");
+            result.put("score", 1.0 / (i + 1));
+            results.add(result);
+        }
+        Map<String, Object> model = new HashMap<>();
+        model.put("siteTitle", "Noodle");
+        model.put("results", results);
+        model.put("initialQuery", "quick fox");
+        model.put("scorer", "bm25");
+        return model;
+    }
+
+    private interface Renderer {
+        long render(Map<String, Object> model);
+    }
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+            // Discarded
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            // Discarded
+        }
+    };
+}
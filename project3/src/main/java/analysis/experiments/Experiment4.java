@@ -0,0 +1,48 @@
+package analysis.experiments;
+
+import analysis.utils.AnalysisUtils;
+import analysis.utils.CsvWriter;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import search.Main;
+import search.SearchEngine;
+
+/**
+ * Measures how many pages per second the search engine can load and index
+ * when given 1, 4, and 16 indexing threads.
+ *
+ * Note: pages are only parsed from their original HTML the first time they're
+ * loaded; afterwards, they're read from their '.cache' file. To measure raw
+ * parsing throughput, delete the cache files in the data folder first.
+ */
+public class Experiment4 {
+    public static final int NUM_TRIALS = 3;
+    public static final long[] THREAD_COUNTS = {1, 4, 16};
+
+    public static void main(String[] args) {
+        IList<Long> threadCounts = new DoubleLinkedList<>();
+        for (long count : THREAD_COUNTS) {
+            threadCounts.add(count);
+        }
+
+        System.out.println("Starting test");
+        IList<Long> testResults = AnalysisUtils.runTrials(
+                threadCounts, Experiment4::test, NUM_TRIALS);
+
+        System.out.println("Saving experiment results to file");
+        CsvWriter writer = new CsvWriter();
+        writer.addColumn("NumThreads", threadCounts);
+        writer.addColumn("PagesPerSecond", testResults);
+        writer.writeToFile("experimentdata/experiment4.csv");
+
+        System.out.println("All done!");
+    }
+
+    public static long test(long numThreads) {
+        long start = System.currentTimeMillis();
+        SearchEngine engine = new SearchEngine(Main.DATA_FOLDER_NAME, (int) numThreads);
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+
+        return engine.getNumPages() * 1000L / elapsed;
+    }
+}
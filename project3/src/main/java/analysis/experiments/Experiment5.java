@@ -0,0 +1,54 @@
+package analysis.experiments;
+
+import analysis.utils.AnalysisUtils;
+import analysis.utils.CsvWriter;
+import datastructures.concrete.ChainedHashSet;
+import datastructures.interfaces.IList;
+import datastructures.interfaces.ISet;
+import search.Main;
+import search.SearchEngine;
+import search.analyzers.TfIdfAnalyzer;
+import search.models.Webpage;
+
+import java.nio.file.Paths;
+
+/**
+ * Measures the approximate heap used by a TfIdfAnalyzer per indexed document,
+ * as we index larger and larger subsets of the corpus.
+ */
+public class Experiment5 {
+    public static final long MAX_NUM_PAGES = 5000;
+    public static final long STEP = 500;
+
+    private static ISet<Webpage> corpus;
+
+    public static void main(String[] args) {
+        corpus = SearchEngine.collectWebpages(Paths.get("data", Main.DATA_FOLDER_NAME));
+        IList<Long> numPages = AnalysisUtils.makeList(STEP, Math.min(MAX_NUM_PAGES, corpus.size()) + 1, STEP);
+
+        // Memory usage is deterministic, so a single trial is enough
+        System.out.println("Starting test");
+        IList<Long> testResults = AnalysisUtils.runSingleTrial(numPages, Experiment5::test);
+
+        System.out.println("Saving experiment results to file");
+        CsvWriter writer = new CsvWriter();
+        writer.addColumn("NumPages", numPages);
+        writer.addColumn("BytesPerPage", testResults);
+        writer.writeToFile("experimentdata/experiment5.csv");
+
+        System.out.println("All done!");
+    }
+
+    public static long test(long numPages) {
+        ISet<Webpage> subset = new ChainedHashSet<>();
+        for (Webpage page : corpus) {
+            if (subset.size() == numPages) {
+                break;
+            }
+            subset.add(page);
+        }
+
+        TfIdfAnalyzer analyzer = new TfIdfAnalyzer(subset);
+        return AnalysisUtils.getApproximateMemoryUsed(analyzer) / numPages;
+    }
+}
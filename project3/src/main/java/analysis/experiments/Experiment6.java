@@ -0,0 +1,104 @@
+package analysis.experiments;
+
+import analysis.utils.AnalysisUtils;
+import analysis.utils.CsvWriter;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import search.SearchEngine;
+import search.analyzers.LinkGraph;
+import search.analyzers.PageRankAnalyzer;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how long it takes to compute page ranks over a synthetic
+ * 5-million-page graph as we add more threads.
+ *
+ * A thread count of 0 means we use the sequential, push-style iteration;
+ * any other count uses the parallel, pull-style iteration on a pool of that
+ * many threads.
+ *
+ * Note: the graph takes several hundred megabytes, so run this with a large
+ * enough heap (e.g. -Xmx4g).
+ */
+public class Experiment6 {
+    public static final int NUM_TRIALS = 3;
+    public static final long[] THREAD_COUNTS = {0, 1, 2, 4, 8, 16};
+
+    public static final int NUM_PAGES = 5000000;
+    public static final int MAX_OUT_DEGREE = 16;
+
+    private static LinkGraph graph;
+
+    public static void main(String[] args) {
+        IList<Long> threadCounts = new DoubleLinkedList<>();
+        for (long count : THREAD_COUNTS) {
+            threadCounts.add(count);
+        }
+
+        System.out.println("Building synthetic graph");
+        graph = makeSyntheticGraph(NUM_PAGES, MAX_OUT_DEGREE, new Random(373));
+
+        System.out.println("Starting test");
+        IList<Long> testResults = AnalysisUtils.runTrials(threadCounts, Experiment6::test, NUM_TRIALS);
+
+        System.out.println("Saving experiment results to file");
+        CsvWriter writer = new CsvWriter();
+        writer.addColumn("NumThreads", threadCounts);
+        writer.addColumn("TestResult", testResults);
+        writer.writeToFile("experimentdata/experiment6.csv");
+
+        System.out.println("All done!");
+    }
+
+    public static long test(long numThreads) {
+        ForkJoinPool pool = numThreads == 0 ? null : new ForkJoinPool((int) numThreads);
+        try {
+            long start = System.currentTimeMillis();
+            PageRankAnalyzer.computePageRanks(
+                    graph,
+                    SearchEngine.PAGE_RANK_DECAY,
+                    SearchEngine.PAGE_RANK_EPSILON,
+                    SearchEngine.PAGE_RANK_ITERATION_LIMIT,
+                    pool);
+            return System.currentTimeMillis() - start;
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Builds a random graph where low-numbered pages are far more likely to
+     * be linked to than high-numbered ones, loosely mimicking the skew of
+     * real link graphs. About 1 in 17 pages has no out-links.
+     */
+    private static LinkGraph makeSyntheticGraph(int numPages, int maxOutDegree, Random rand) {
+        int[] offsets = new int[numPages + 1];
+        int[] targets = new int[numPages * maxOutDegree];
+        int[] row = new int[maxOutDegree];
+
+        for (int v = 0; v < numPages; v++) {
+            int degree = rand.nextInt(maxOutDegree + 1);
+            for (int i = 0; i < degree; i++) {
+                double skewed = rand.nextDouble();
+                row[i] = (int) (numPages * skewed * skewed);
+            }
+            Arrays.sort(row, 0, degree);
+
+            int next = offsets[v];
+            for (int i = 0; i < degree; i++) {
+                boolean isDuplicate = next > offsets[v] && targets[next - 1] == row[i];
+                if (row[i] != v && !isDuplicate) {
+                    targets[next] = row[i];
+                    next++;
+                }
+            }
+            offsets[v + 1] = next;
+        }
+        return LinkGraph.fromCsr(offsets, Arrays.copyOf(targets, offsets[numPages]));
+    }
+}
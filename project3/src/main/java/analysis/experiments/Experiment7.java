@@ -0,0 +1,120 @@
+package analysis.experiments;
+
+import analysis.utils.AnalysisUtils;
+import analysis.utils.CsvWriter;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import org.jsoup.Jsoup;
+import search.Main;
+import search.misc.WordTokenizer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Measures how many words per second we can tokenize from the body text of
+ * the corpus, as we tokenize more and more pages.
+ *
+ * Test 1 uses the original regex-based tokenizer, test 2 uses
+ * WordTokenizer.extract, and test 3 counts words with WordTokenizer.tokenize
+ * without building any strings at all.
+ */
+public class Experiment7 {
+    public static final int NUM_TRIALS = 5;
+    public static final long MAX_NUM_PAGES = 2000;
+    public static final long STEP = 200;
+
+    private static String[] bodies;
+
+    public static void main(String[] args) {
+        bodies = loadBodies(Paths.get("data", Main.DATA_FOLDER_NAME), (int) MAX_NUM_PAGES);
+        IList<Long> numPages = AnalysisUtils.makeList(STEP, bodies.length + 1, STEP);
+
+        System.out.println("Starting test");
+        IList<Long> test1Results = AnalysisUtils.runTrials(numPages, Experiment7::test1, NUM_TRIALS);
+        IList<Long> test2Results = AnalysisUtils.runTrials(numPages, Experiment7::test2, NUM_TRIALS);
+        IList<Long> test3Results = AnalysisUtils.runTrials(numPages, Experiment7::test3, NUM_TRIALS);
+
+        System.out.println("Saving experiment results to file");
+        CsvWriter writer = new CsvWriter();
+        writer.addColumn("NumPages", numPages);
+        writer.addColumn("Test1Result", test1Results);
+        writer.addColumn("Test2Result", test2Results);
+        writer.addColumn("Test3Result", test3Results);
+        writer.writeToFile("experimentdata/experiment7.csv");
+
+        System.out.println("All done!");
+    }
+
+    public static long test1(long numPages) {
+        long start = System.nanoTime();
+        long numWords = 0;
+        for (int i = 0; i < numPages; i++) {
+            numWords += extractWithRegex(bodies[i]).size();
+        }
+        return wordsPerSecond(numWords, System.nanoTime() - start);
+    }
+
+    public static long test2(long numPages) {
+        long start = System.nanoTime();
+        long numWords = 0;
+        for (int i = 0; i < numPages; i++) {
+            numWords += WordTokenizer.extract(bodies[i]).size();
+        }
+        return wordsPerSecond(numWords, System.nanoTime() - start);
+    }
+
+    public static long test3(long numPages) {
+        long start = System.nanoTime();
+        long[] numWords = new long[1];
+        for (int i = 0; i < numPages; i++) {
+            WordTokenizer.tokenize(bodies[i], (buffer, length) -> numWords[0]++);
+        }
+        return wordsPerSecond(numWords[0], System.nanoTime() - start);
+    }
+
+    private static long wordsPerSecond(long numWords, long nanos) {
+        return numWords * 1000000000L / Math.max(nanos, 1);
+    }
+
+    /**
+     * The tokenizer WordTokenizer originally used, kept here for comparison.
+     */
+    private static IList<String> extractWithRegex(String input) {
+        IList<String> out = new DoubleLinkedList<>();
+        for (String word : input.toLowerCase().split("\\s+")) {
+            word = word.replaceAll("\\p{Punct}", "");
+            if (!word.isEmpty()) {
+                out.add(word);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Returns the body text of (at most) the first 'limit' HTML pages under
+     * the given folder.
+     */
+    private static String[] loadBodies(Path root, int limit) {
+        try (Stream<Path> files = Files.walk(root)) {
+            List<Path> paths = files
+                    .filter(Files::isRegularFile)
+                    .filter(path -> path.toString().endsWith(".htm") || path.toString().endsWith(".html"))
+                    .limit(limit)
+                    .collect(Collectors.toList());
+
+            String[] output = new String[paths.size()];
+            for (int i = 0; i < output.length; i++) {
+                output[i] = Jsoup.parse(paths.get(i).toFile(), "UTF-8").body().text();
+            }
+            return output;
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package analysis.experiments;
+
+import analysis.utils.AnalysisUtils;
+import analysis.utils.CsvWriter;
+import com.chimbori.crux.articles.ArticleExtractor;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import search.Main;
+import search.misc.WebUtils;
+import search.misc.WordTokenizer;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Measures the time and memory it takes to turn a page's HTML into its
+ * links, words, and readable article, as we ingest more and more pages.
+ *
+ * Test 1 uses the original approach: it builds the full body text before
+ * tokenizing it, searches the document again for links, and re-serializes the
+ * document so Crux can parse it a second time. Test 2 walks the document once
+ * and hands the parsed document straight to Crux.
+ *
+ * Times are in microseconds per page, and allocations in bytes per page.
+ */
+public class Experiment8 {
+    public static final int NUM_TRIALS = 5;
+    public static final long MAX_NUM_PAGES = 1000;
+    public static final long STEP = 100;
+
+    private static URI[] uris;
+    private static String[] htmls;
+
+    public static void main(String[] args) {
+        loadHtml(Paths.get("data", Main.DATA_FOLDER_NAME), (int) MAX_NUM_PAGES);
+        IList<Long> numPages = AnalysisUtils.makeList(STEP, htmls.length + 1, STEP);
+
+        System.out.println("Starting test");
+        IList<Long> test1Results = AnalysisUtils.runTrials(numPages, Experiment8::test1, NUM_TRIALS);
+        IList<Long> test2Results = AnalysisUtils.runTrials(numPages, Experiment8::test2, NUM_TRIALS);
+
+        // Allocation is (nearly) deterministic, so a single trial is enough
+        IList<Long> test1Bytes = AnalysisUtils.runSingleTrial(numPages, n -> bytesPerPage(n, Experiment8::ingestOld));
+        IList<Long> test2Bytes = AnalysisUtils.runSingleTrial(numPages, n -> bytesPerPage(n, Experiment8::ingestNew));
+
+        System.out.println("Saving experiment results to file");
+        CsvWriter writer = new CsvWriter();
+        writer.addColumn("NumPages", numPages);
+        writer.addColumn("Test1Result", test1Results);
+        writer.addColumn("Test2Result", test2Results);
+        writer.addColumn("Test1Bytes", test1Bytes);
+        writer.addColumn("Test2Bytes", test2Bytes);
+        writer.writeToFile("experimentdata/experiment8.csv");
+
+        System.out.println("All done!");
+    }
+
+    public static long test1(long numPages) {
+        long start = System.nanoTime();
+        for (int i = 0; i < numPages; i++) {
+            ingestOld(i);
+        }
+        return (System.nanoTime() - start) / 1000 / numPages;
+    }
+
+    public static long test2(long numPages) {
+        long start = System.nanoTime();
+        for (int i = 0; i < numPages; i++) {
+            ingestNew(i);
+        }
+        return (System.nanoTime() - start) / 1000 / numPages;
+    }
+
+    private static long ingestOld(int i) {
+        Document document = Jsoup.parse(htmls[i], uris[i].toString());
+        IList<URI> links = WebUtils.extractLinks(uris[i], document);
+        IList<String> words = WordTokenizer.extract(document.body().text());
+        ArticleExtractor.with(uris[i].toString(), document.html()).extractMetadata().extractContent().article();
+        return links.size() + words.size();
+    }
+
+    private static long ingestNew(int i) {
+        Document document = Jsoup.parse(htmls[i], uris[i].toString());
+        IList<URI> links = new DoubleLinkedList<>();
+        IList<String> words = new DoubleLinkedList<>();
+        WebUtils.extractLinksAndWords(uris[i], document, links, words);
+        ArticleExtractor.with(uris[i].toString(), document).extractMetadata().extractContent().article();
+        return links.size() + words.size();
+    }
+
+    /**
+     * Returns the average number of bytes allocated by the current thread
+     * to ingest each of the first 'numPages' pages.
+     */
+    private static long bytesPerPage(long numPages, Function<Integer, Long> ingest) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < numPages; i++) {
+            ingest.apply(i);
+        }
+        return (threads.getThreadAllocatedBytes(threadId) - before) / numPages;
+    }
+
+    /**
+     * Reads the HTML of (at most) the first 'limit' pages under the given folder.
+     */
+    private static void loadHtml(Path root, int limit) {
+        try (Stream<Path> files = Files.walk(root)) {
+            List<Path> paths = files
+                    .filter(Files::isRegularFile)
+                    .filter(path -> path.toString().endsWith(".htm") || path.toString().endsWith(".html"))
+                    .limit(limit)
+                    .collect(Collectors.toList());
+
+            uris = new URI[paths.size()];
+            htmls = new String[paths.size()];
+            for (int i = 0; i < paths.size(); i++) {
+                uris[i] = paths.get(i).toUri();
+                htmls[i] = new String(Files.readAllBytes(paths.get(i)), StandardCharsets.UTF_8);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package analysis.experiments;
+
+import analysis.utils.AnalysisUtils;
+import analysis.utils.CsvWriter;
+import datastructures.concrete.ChainedHashSet;
+import datastructures.interfaces.IList;
+import datastructures.interfaces.ISet;
+import search.Main;
+import search.SearchEngine;
+import search.analyzers.PositionalIndex;
+import search.analyzers.TfIdfAnalyzer;
+import search.misc.QueryParser;
+import search.models.Query;
+import search.models.Webpage;
+
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Measures what phrase and proximity queries cost, as we index larger and
+ * larger subsets of the corpus.
+ *
+ * Test 1 and test 2 measure the approximate heap used per page by a
+ * TfIdfAnalyzer and by a PositionalIndex, respectively, so the overhead of
+ * storing word positions is test 2 over test 1.
+ *
+ * Test 3, 4 and 5 measure the average time (in microseconds) to answer a
+ * two-word query as plain words, as a "quoted phrase", and as a NEAR/5
+ * clause. Every query is made of two adjacent words from a random page, so
+ * each one matches at least one page.
+ */
+public class Experiment9 {
+    public static final int NUM_TRIALS = 5;
+    public static final int NUM_QUERIES = 200;
+    public static final int NUM_RESULTS = 20;
+    public static final long MAX_NUM_PAGES = 5000;
+    public static final long STEP = 500;
+
+    private static ISet<Webpage> corpus;
+
+    public static void main(String[] args) {
+        corpus = SearchEngine.collectWebpages(Paths.get("data", Main.DATA_FOLDER_NAME));
+        IList<Long> numPages = AnalysisUtils.makeList(STEP, Math.min(MAX_NUM_PAGES, corpus.size()) + 1, STEP);
+
+        System.out.println("Starting test");
+
+        // Memory usage is deterministic, so a single trial is enough
+        IList<Long> test1Results = AnalysisUtils.runSingleTrial(numPages, Experiment9::test1);
+        IList<Long> test2Results = AnalysisUtils.runSingleTrial(numPages, Experiment9::test2);
+        IList<Long> test3Results = AnalysisUtils.runTrials(numPages, Experiment9::test3, NUM_TRIALS);
+        IList<Long> test4Results = AnalysisUtils.runTrials(numPages, Experiment9::test4, NUM_TRIALS);
+        IList<Long> test5Results = AnalysisUtils.runTrials(numPages, Experiment9::test5, NUM_TRIALS);
+
+        System.out.println("Saving experiment results to file");
+        CsvWriter writer = new CsvWriter();
+        writer.addColumn("NumPages", numPages);
+        writer.addColumn("Test1Result", test1Results);
+        writer.addColumn("Test2Result", test2Results);
+        writer.addColumn("Test3Result", test3Results);
+        writer.addColumn("Test4Result", test4Results);
+        writer.addColumn("Test5Result", test5Results);
+        writer.writeToFile("experimentdata/experiment9.csv");
+
+        System.out.println("All done!");
+    }
+
+    public static long test1(long numPages) {
+        TfIdfAnalyzer analyzer = new TfIdfAnalyzer(makeSubset(numPages));
+        return AnalysisUtils.getApproximateMemoryUsed(analyzer) / numPages;
+    }
+
+    public static long test2(long numPages) {
+        ISet<Webpage> subset = makeSubset(numPages);
+        PositionalIndex index = new PositionalIndex(subset, new TfIdfAnalyzer(subset).getTermDictionary());
+        return AnalysisUtils.getApproximateMemoryUsed(index) / numPages;
+    }
+
+    public static long test3(long numPages) {
+        return timeQueries(numPages, (words) -> QueryParser.parse(words[0] + " " + words[1]));
+    }
+
+    public static long test4(long numPages) {
+        return timeQueries(numPages, (words) -> QueryParser.parse("\"" + words[0] + " " + words[1] + "\""));
+    }
+
+    public static long test5(long numPages) {
+        return timeQueries(numPages, (words) -> QueryParser.parse(words[0] + " NEAR/5 " + words[1]));
+    }
+
+    /**
+     * Returns the average time, in microseconds, to answer NUM_QUERIES
+     * queries built from pairs of adjacent words in the first 'numPages' pages.
+     */
+    private static long timeQueries(long numPages, Function<String[], Query> makeQuery) {
+        ISet<Webpage> subset = makeSubset(numPages);
+        Webpage[] pages = new Webpage[subset.size()];
+        int i = 0;
+        for (Webpage page : subset) {
+            pages[i] = page;
+            i++;
+        }
+
+        Random rand = new Random(373);
+        Query[] queries = new Query[NUM_QUERIES];
+        for (int q = 0; q < NUM_QUERIES; q++) {
+            IList<String> words;
+            do {
+                words = pages[rand.nextInt(pages.length)].getWords();
+            } while (words.size() < 2);
+            int start = rand.nextInt(words.size() - 1);
+            queries[q] = makeQuery.apply(new String[] {words.get(start), words.get(start + 1)});
+        }
+
+        SearchEngine engine = new SearchEngine(subset, 1);
+        long start = System.nanoTime();
+        for (Query query : queries) {
+            // We want to measure the search itself, not the cache
+            engine.getQueryCache().clear();
+            engine.getTopKResults(query, NUM_RESULTS);
+        }
+        return (System.nanoTime() - start) / 1000 / NUM_QUERIES;
+    }
+
+    private static ISet<Webpage> makeSubset(long numPages) {
+        ISet<Webpage> subset = new ChainedHashSet<>();
+        for (Webpage page : corpus) {
+            if (subset.size() == numPages) {
+                break;
+            }
+            subset.add(page);
+        }
+        return subset;
+    }
+}
@@ -243,6 +243,31 @@ public class DoubleLinkedList<T> implements IList<T> {
     		return (indexOf(other) != -1);
     }
 
+    /**
+     * Moves every element of 'other' onto the end of this list in constant time.
+     *
+     * This relinks the nodes of 'other' rather than copying them, so 'other'
+     * is left empty afterwards.
+     */
+    public void append(DoubleLinkedList<T> other) {
+        if (other == this || other.size == 0) {
+            return;
+        }
+
+        if (this.size == 0) {
+            this.front = other.front;
+        } else {
+            this.back.next = other.front;
+            other.front.prev = this.back;
+        }
+        this.back = other.back;
+        this.size += other.size;
+
+        other.front = null;
+        other.back = null;
+        other.size = 0;
+    }
+
     @Override
     public Iterator<T> iterator() {
         // Note: we have provided a part of the implementation of
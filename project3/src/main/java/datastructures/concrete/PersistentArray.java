@@ -0,0 +1,142 @@
+package datastructures.concrete;
+
+/**
+ * An array that never changes once constructed. Changing an element or
+ * appending one returns a new array instead, leaving this one untouched.
+ *
+ * The elements are stored in a tree where every node has up to 32 children,
+ * and a new array shares every node with the old one except those on the
+ * path to the changed element. So 'get', 'with' and 'plus' all take time
+ * proportional to log32(n), which is at most 4 for any array with fewer
+ * than a million elements, and changing one element copies only a handful
+ * of small nodes rather than the whole array.
+ *
+ * Since nothing ever changes, any number of threads may use an array at once.
+ */
+public class PersistentArray<T> {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    // The leaves hold up to WIDTH elements each; every other node holds up
+    // to WIDTH children. Element i is found by following bits
+    // [shift, shift + BITS) of i from the root, then the next BITS down,
+    // and so on.
+    private final Object[] root;
+    private final int shift;
+    private final int size;
+
+    /**
+     * Creates an empty array.
+     */
+    public PersistentArray() {
+        this(new Object[WIDTH], 0, 0);
+    }
+
+    /**
+     * Creates an array containing the given elements, in order.
+     */
+    public PersistentArray(T[] elements) {
+        if (elements.length == 0) {
+            this.root = new Object[WIDTH];
+            this.shift = 0;
+            this.size = 0;
+            return;
+        }
+
+        // Build the tree bottom-up, one level at a time
+        Object[] level = elements;
+        int shift = 0;
+        while (true) {
+            Object[] nodes = new Object[(level.length + MASK) / WIDTH];
+            for (int i = 0; i < nodes.length; i++) {
+                Object[] node = new Object[WIDTH];
+                System.arraycopy(level, i * WIDTH, node, 0, Math.min(WIDTH, level.length - i * WIDTH));
+                nodes[i] = node;
+            }
+            if (nodes.length == 1) {
+                this.root = (Object[]) nodes[0];
+                break;
+            }
+            level = nodes;
+            shift += BITS;
+        }
+        this.shift = shift;
+        this.size = elements.length;
+    }
+
+    private PersistentArray(Object[] root, int shift, int size) {
+        this.root = root;
+        this.shift = shift;
+        this.size = size;
+    }
+
+    /**
+     * Returns the number of elements in this array.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the element at the given index.
+     *
+     * @throws IndexOutOfBoundsException  if index < 0 or index >= this.size()
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        this.checkIndex(index);
+        Object[] node = this.root;
+        for (int level = this.shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(index >>> level) & MASK];
+        }
+        return (T) node[index & MASK];
+    }
+
+    /**
+     * Returns a copy of this array with the element at the given index
+     * replaced by the given one.
+     *
+     * @throws IndexOutOfBoundsException  if index < 0 or index >= this.size()
+     */
+    public PersistentArray<T> with(int index, T element) {
+        this.checkIndex(index);
+        return new PersistentArray<>(store(this.root, this.shift, index, element), this.shift, this.size);
+    }
+
+    /**
+     * Returns a copy of this array with the given element appended.
+     */
+    public PersistentArray<T> plus(T element) {
+        Object[] root = this.root;
+        int shift = this.shift;
+        if (this.size == 1 << (shift + BITS)) {
+            // The tree is full, so it grows a level
+            root = new Object[WIDTH];
+            root[0] = this.root;
+            shift += BITS;
+        }
+        return new PersistentArray<>(store(root, shift, this.size, element), shift, this.size + 1);
+    }
+
+    /**
+     * Returns a copy of the given node (or a new node, if null) with the
+     * given element stored at the given index below it.
+     */
+    private static Object[] store(Object[] node, int level, int index, Object element) {
+        Object[] copy = node == null ? new Object[WIDTH] : node.clone();
+        int slot = (index >>> level) & MASK;
+        if (level == 0) {
+            copy[slot] = element;
+        } else {
+            copy[slot] = store((Object[]) copy[slot], level - BITS, index, element);
+        }
+        return copy;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + this.size);
+        }
+    }
+}
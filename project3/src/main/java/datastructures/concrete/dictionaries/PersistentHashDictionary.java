@@ -0,0 +1,370 @@
+package datastructures.concrete.dictionaries;
+
+import datastructures.concrete.KVPair;
+import misc.exceptions.NoSuchKeyException;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * A hash dictionary that never changes once constructed. Adding or removing
+ * a key returns a new dictionary instead, leaving this one untouched.
+ *
+ * This is a hash array mapped trie: each node branches on the next 5 bits of
+ * a key's hash, and stores only the children it actually has, alongside a
+ * bitmap of which ones those are. A new dictionary shares every node with the
+ * old one except those on the path to the changed key, so 'get', 'plus' and
+ * 'minus' take time proportional to log32(n), and adding or removing one key
+ * copies only a handful of small nodes rather than the whole dictionary.
+ *
+ * Keys whose hashes are identical are kept in a list at the bottom of the
+ * trie. Since nothing ever changes, any number of threads may use a
+ * dictionary at once.
+ */
+public class PersistentHashDictionary<K, V> implements Iterable<KVPair<K, V>> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    // The deepest a trie can be: after this many levels, every bit of the
+    // hash has been used
+    private static final int MAX_DEPTH = (32 + BITS - 1) / BITS;
+
+    private static final Node EMPTY = new Node(0, new Object[0]);
+
+    private final Node root;
+    private final int size;
+
+    /**
+     * Creates an empty dictionary.
+     */
+    public PersistentHashDictionary() {
+        this(EMPTY, 0);
+    }
+
+    private PersistentHashDictionary(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Returns the number of key-value pairs in this dictionary.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns 'true' if this dictionary is empty and 'false' otherwise.
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Returns the value corresponding to the given key.
+     *
+     * @throws NoSuchKeyException  if the dictionary does not contain the given key
+     */
+    public V get(K key) {
+        Leaf<K, V> leaf = this.find(key);
+        if (leaf == null) {
+            throw new NoSuchKeyException();
+        }
+        return leaf.value;
+    }
+
+    /**
+     * Returns the value corresponding to the given key, or the given default
+     * value if the dictionary does not contain the key.
+     */
+    public V getOrDefault(K key, V defaultValue) {
+        Leaf<K, V> leaf = this.find(key);
+        return leaf == null ? defaultValue : leaf.value;
+    }
+
+    /**
+     * Returns 'true' if the dictionary contains the given key and 'false' otherwise.
+     */
+    public boolean containsKey(K key) {
+        return this.find(key) != null;
+    }
+
+    /**
+     * Returns a copy of this dictionary where the given key maps to the given
+     * value, replacing its old value if it had one.
+     */
+    public PersistentHashDictionary<K, V> plus(K key, V value) {
+        boolean[] isAdded = new boolean[1];
+        Node root = this.root.plus(0, hash(key), key, value, isAdded);
+        return new PersistentHashDictionary<>(root, isAdded[0] ? this.size + 1 : this.size);
+    }
+
+    /**
+     * Returns a copy of this dictionary without the given key.
+     *
+     * @throws NoSuchKeyException  if the dictionary does not contain the given key
+     */
+    public PersistentHashDictionary<K, V> minus(K key) {
+        Node root = this.root.minus(0, hash(key), key);
+        return new PersistentHashDictionary<>(root == null ? EMPTY : root, this.size - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Leaf<K, V> find(K key) {
+        int hash = hash(key);
+        Node node = this.root;
+        for (int shift = 0; ; shift += BITS) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((node.bitmap & bit) == 0) {
+                return null;
+            }
+            Object child = node.children[Integer.bitCount(node.bitmap & (bit - 1))];
+            if (child instanceof Node) {
+                node = (Node) child;
+                continue;
+            }
+            Leaf<K, V> leaf = (Leaf<K, V>) child;
+            if (leaf.hash != hash) {
+                return null;
+            }
+            while (leaf != null && !Objects.equals(leaf.key, key)) {
+                leaf = leaf.next;
+            }
+            return leaf;
+        }
+    }
+
+    private static int hash(Object key) {
+        // Spread the high bits downwards, since we branch on the low bits first
+        int hash = Objects.hashCode(key);
+        return hash ^ (hash >>> 16);
+    }
+
+    @Override
+    public Iterator<KVPair<K, V>> iterator() {
+        return new PersistentHashIterator<>(this.root);
+    }
+
+    /**
+     * An inner node of the trie. Its children are Nodes or Leaves, stored in
+     * the order of the 5-bit hash chunk that leads to each.
+     */
+    private static class Node {
+        public final int bitmap;
+        public final Object[] children;
+
+        public Node(int bitmap, Object[] children) {
+            this.bitmap = bitmap;
+            this.children = children;
+        }
+
+        /**
+         * Returns a copy of this node with the given key mapped to the given
+         * value. Sets isAdded[0] if the key wasn't already present.
+         */
+        @SuppressWarnings("unchecked")
+        public <K, V> Node plus(int shift, int hash, K key, V value, boolean[] isAdded) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int index = Integer.bitCount(this.bitmap & (bit - 1));
+            if ((this.bitmap & bit) == 0) {
+                isAdded[0] = true;
+                Object[] children = new Object[this.children.length + 1];
+                System.arraycopy(this.children, 0, children, 0, index);
+                children[index] = new Leaf<>(hash, key, value, null);
+                System.arraycopy(this.children, index, children, index + 1, this.children.length - index);
+                return new Node(this.bitmap | bit, children);
+            }
+
+            Object child = this.children[index];
+            Object replacement;
+            if (child instanceof Node) {
+                replacement = ((Node) child).plus(shift + BITS, hash, key, value, isAdded);
+            } else {
+                Leaf<K, V> leaf = (Leaf<K, V>) child;
+                if (leaf.hash == hash) {
+                    replacement = leaf.plus(key, value, isAdded);
+                } else {
+                    isAdded[0] = true;
+                    replacement = split(shift + BITS, leaf, new Leaf<>(hash, key, value, null));
+                }
+            }
+            return this.withChild(index, replacement);
+        }
+
+        /**
+         * Returns a copy of this node without the given key, or null if that
+         * would leave it empty.
+         *
+         * @throws NoSuchKeyException  if the key is not below this node
+         */
+        @SuppressWarnings("unchecked")
+        public <K> Node minus(int shift, int hash, K key) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((this.bitmap & bit) == 0) {
+                throw new NoSuchKeyException();
+            }
+            int index = Integer.bitCount(this.bitmap & (bit - 1));
+
+            Object child = this.children[index];
+            Object replacement;
+            if (child instanceof Node) {
+                Node node = ((Node) child).minus(shift + BITS, hash, key);
+                // A node left holding a single leaf is replaced by that leaf,
+                // so removing keys shrinks the trie back down
+                replacement = node != null && node.children.length == 1 && node.children[0] instanceof Leaf
+                        ? node.children[0]
+                        : node;
+            } else {
+                Leaf<K, ?> leaf = (Leaf<K, ?>) child;
+                if (leaf.hash != hash) {
+                    throw new NoSuchKeyException();
+                }
+                replacement = leaf.minus(key);
+            }
+
+            if (replacement != null) {
+                return this.withChild(index, replacement);
+            } else if (this.children.length == 1) {
+                return null;
+            }
+            Object[] children = new Object[this.children.length - 1];
+            System.arraycopy(this.children, 0, children, 0, index);
+            System.arraycopy(this.children, index + 1, children, index, children.length - index);
+            return new Node(this.bitmap & ~bit, children);
+        }
+
+        private Node withChild(int index, Object child) {
+            Object[] children = this.children.clone();
+            children[index] = child;
+            return new Node(this.bitmap, children);
+        }
+
+        /**
+         * Returns a node containing both of the given leaves, which have
+         * different hashes.
+         */
+        private static Node split(int shift, Leaf<?, ?> first, Leaf<?, ?> second) {
+            int firstChunk = (first.hash >>> shift) & MASK;
+            int secondChunk = (second.hash >>> shift) & MASK;
+            if (firstChunk == secondChunk) {
+                return new Node(1 << firstChunk, new Object[] {split(shift + BITS, first, second)});
+            } else if (firstChunk < secondChunk) {
+                return new Node((1 << firstChunk) | (1 << secondChunk), new Object[] {first, second});
+            } else {
+                return new Node((1 << firstChunk) | (1 << secondChunk), new Object[] {second, first});
+            }
+        }
+    }
+
+    /**
+     * A list of the key-value pairs whose keys have exactly the given hash.
+     * Almost every list has just one pair.
+     */
+    private static class Leaf<K, V> {
+        public final int hash;
+        public final K key;
+        public final V value;
+        public final Leaf<K, V> next;
+
+        public Leaf(int hash, K key, V value, Leaf<K, V> next) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+
+        /**
+         * Returns a copy of this list with the given key mapped to the given
+         * value. Sets isAdded[0] if the key wasn't already present.
+         */
+        public Leaf<K, V> plus(K key, V value, boolean[] isAdded) {
+            if (Objects.equals(this.key, key)) {
+                return new Leaf<>(this.hash, key, value, this.next);
+            } else if (this.next == null) {
+                isAdded[0] = true;
+                return new Leaf<>(this.hash, key, value, this);
+            }
+            return new Leaf<>(this.hash, this.key, this.value, this.next.plus(key, value, isAdded));
+        }
+
+        /**
+         * Returns a copy of this list without the given key, or null if that
+         * would leave it empty.
+         *
+         * @throws NoSuchKeyException  if the list doesn't contain the key
+         */
+        public Leaf<K, V> minus(K key) {
+            if (Objects.equals(this.key, key)) {
+                return this.next;
+            } else if (this.next == null) {
+                throw new NoSuchKeyException();
+            }
+            return new Leaf<>(this.hash, this.key, this.value, this.next.minus(key));
+        }
+    }
+
+    /**
+     * Walks the trie depth-first, keeping the path to the current leaf.
+     */
+    private static class PersistentHashIterator<K, V> implements Iterator<KVPair<K, V>> {
+        private final Node[] nodes;
+        private final int[] positions;
+        private int depth;
+        private Leaf<K, V> leaf;
+
+        public PersistentHashIterator(Node root) {
+            this.nodes = new Node[MAX_DEPTH + 1];
+            this.positions = new int[MAX_DEPTH + 1];
+            this.nodes[0] = root;
+            this.positions[0] = 0;
+            this.depth = 0;
+            this.leaf = null;
+            this.advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.leaf != null;
+        }
+
+        @Override
+        public KVPair<K, V> next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            KVPair<K, V> pair = new KVPair<>(this.leaf.key, this.leaf.value);
+            this.leaf = this.leaf.next;
+            if (this.leaf == null) {
+                this.advance();
+            }
+            return pair;
+        }
+
+        /**
+         * Moves to the next leaf in the trie, or sets 'leaf' to null if there
+         * are none left.
+         */
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            while (this.depth >= 0) {
+                Node node = this.nodes[this.depth];
+                int position = this.positions[this.depth];
+                if (position == node.children.length) {
+                    this.depth--;
+                    continue;
+                }
+                this.positions[this.depth]++;
+                Object child = node.children[position];
+                if (child instanceof Node) {
+                    this.depth++;
+                    this.nodes[this.depth] = (Node) child;
+                    this.positions[this.depth] = 0;
+                } else {
+                    this.leaf = (Leaf<K, V>) child;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -13,12 +13,17 @@ public class Main {
     // and know what ports are, feel free to change this if it's convenient.
     public static final int PORT = 8081;
 
+    // If true, the web server reads its templates and static files from
+    // 'src/main/resources' on every request, so you can edit them and just
+    // reload the page. Leave this false when not working on the website.
+    public static final boolean DEV_MODE = false;
+
     public static void main(String[] args) {
         System.out.println("Indexing web pages...");
         SearchEngine engine = new SearchEngine(DATA_FOLDER_NAME);
 
         System.out.println("Setting up web server...");
-        Webapp app = new Webapp(engine, SITE_TITLE, PORT);
+        Webapp app = new Webapp(engine, SITE_TITLE, PORT, DEV_MODE);
 
         System.out.println(String.format(
                 "Ready! Opening 'http://localhost:%d' in your web browser now.",
@@ -0,0 +1,125 @@
+package search;
+
+import search.misc.PageArchive;
+import search.misc.exceptions.DataExtractionException;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Moves every page saved as its own HTML file in a data folder into a
+ * PageArchive, pages.warc, in that folder.
+ *
+ * Usage: PackCorpus [--compress] [--keep-originals] [--delete-caches] [folder name]
+ *
+ * The folder name defaults to Main.DATA_FOLDER_NAME. Once the archive is
+ * written, the original files are deleted unless --keep-originals is given.
+ * The ".cache" files Webpage made for them are only deleted if
+ * --delete-caches is given. Pages loaded from the archive are cached in a
+ * PageCache next to it instead. Running this again on the same folder adds
+ * any new files to the same archive.
+ */
+public class PackCorpus {
+    private static final String METADATA_START = "<!-- METADATA\n";
+    private static final String METADATA_END = "-->\n";
+
+    public static void main(String[] args) throws IOException {
+        boolean isCompressed = false;
+        boolean keepOriginals = false;
+        boolean deleteCaches = false;
+        String folderName = Main.DATA_FOLDER_NAME;
+        for (String arg : args) {
+            if (arg.equals("--compress")) {
+                isCompressed = true;
+            } else if (arg.equals("--keep-originals")) {
+                keepOriginals = true;
+            } else if (arg.equals("--delete-caches")) {
+                deleteCaches = true;
+            } else {
+                folderName = arg;
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        int count = pack(Paths.get("data", folderName), isCompressed, !keepOriginals, deleteCaches);
+        long end = System.currentTimeMillis() - start;
+        System.out.println("Packed " + count + " pages (" + (end / 1000.0) + " sec)");
+    }
+
+    /**
+     * Appends every HTML file under the given folder to its archive, and
+     * returns how many there were. Once every one of them is in the archive,
+     * the files are deleted if 'deleteOriginals' is true, and their ".cache"
+     * files are deleted if 'deleteCaches' is true.
+     */
+    public static int pack(Path folder, boolean isCompressed, boolean deleteOriginals, boolean deleteCaches)
+            throws IOException {
+        List<Path> paths;
+        try (Stream<Path> files = Files.walk(folder)) {
+            paths = files
+                    .filter(Files::isRegularFile)
+                    .filter(path -> path.toString().endsWith(".htm") || path.toString().endsWith(".html"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        Path archivePath = folder.resolve("pages" + PageArchive.ARCHIVE_SUFFIX);
+        try (PageArchive archive = new PageArchive(archivePath, isCompressed)) {
+            for (Path path : paths) {
+                byte[] bytes = Files.readAllBytes(path);
+                int headerEnd = findHeaderEnd(bytes, path);
+                URI uri = extractUri(new String(bytes, 0, headerEnd, StandardCharsets.UTF_8), path);
+                byte[] html = new byte[bytes.length - headerEnd];
+                System.arraycopy(bytes, headerEnd, html, 0, html.length);
+                archive.append(uri, html);
+            }
+        }
+
+        for (Path path : paths) {
+            if (deleteOriginals) {
+                Files.delete(path);
+            }
+            if (deleteCaches) {
+                String name = path.getFileName().toString();
+                Files.deleteIfExists(path.resolveSibling(name.substring(0, name.lastIndexOf('.')) + ".cache"));
+            }
+        }
+        return paths.size();
+    }
+
+    /**
+     * Returns the index of the first byte after the metadata header of the
+     * given saved page.
+     */
+    private static int findHeaderEnd(byte[] bytes, Path path) {
+        String start = new String(bytes, 0, Math.min(bytes.length, METADATA_START.length()), StandardCharsets.UTF_8);
+        if (!start.equals(METADATA_START)) {
+            throw new DataExtractionException("Local webpage does not start with metadata header: " + path);
+        }
+        byte[] end = METADATA_END.getBytes(StandardCharsets.UTF_8);
+        for (int i = METADATA_START.length(); i + end.length <= bytes.length; i++) {
+            // The header ends at the first line that is exactly "-->"
+            if (bytes[i - 1] == '\n' && bytes[i] == end[0] && bytes[i + 1] == end[1]
+                    && bytes[i + 2] == end[2] && bytes[i + 3] == end[3]) {
+                return i + end.length;
+            }
+        }
+        throw new DataExtractionException("Metadata header never ends: " + path);
+    }
+
+    private static URI extractUri(String header, Path path) {
+        for (String line : header.split("\n")) {
+            if (line.startsWith("uri: ")) {
+                return URI.create(line.substring("uri: ".length()).trim());
+            }
+        }
+        throw new DataExtractionException("Metadata header has no uri: " + path);
+    }
+}
@@ -0,0 +1,294 @@
+package search;
+
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.concrete.dictionaries.ChainedHashDictionary;
+import datastructures.interfaces.IDictionary;
+import datastructures.interfaces.IList;
+import search.models.Query;
+import search.models.Result;
+
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded cache of search results, keyed by query.
+ *
+ * Two queries share an entry if they contain the same words the same number
+ * of times, in any order, since they score every page identically. An entry
+ * computed for the top k results can also answer any query for fewer results.
+ *
+ * Entries are evicted least-recently-used first once the cache holds more than
+ * 'maxEntries' entries or more than (roughly) 'maxBytes' bytes, and expire
+ * 'ttlMillis' milliseconds after they were computed. The index owning this
+ * cache must call 'clear' whenever its pages change.
+ *
+ * All methods are synchronized, so one cache can be shared across threads.
+ */
+public class QueryCache {
+    // Rough per-object costs, in bytes, used to estimate the size of an entry.
+    // Results share their summaries with the index, so we don't count those,
+    // but we do count their snippets.
+    private static final long ENTRY_OVERHEAD = 128;
+    private static final long BYTES_PER_RESULT = 40;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+
+    private IDictionary<String, Entry> entries;
+
+    // The entries, from most to least recently used. 'head' and 'tail' are
+    // sentinels, so we never need to special-case the ends of the list.
+    private final Entry head;
+    private final Entry tail;
+    private long totalBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+    private long invalidations;
+
+    /**
+     * Creates a new, empty cache.
+     *
+     * @param maxEntries  The most entries this cache will hold at once.
+     * @param maxBytes    The most bytes (estimated) this cache will hold at once.
+     * @param ttlMillis   How long an entry stays valid after it is computed. If
+     *                    this is zero or negative, entries never expire.
+     */
+    public QueryCache(int maxEntries, long maxBytes, long ttlMillis) {
+        this(maxEntries, maxBytes, ttlMillis, System::currentTimeMillis);
+    }
+
+    /**
+     * Creates a new, empty cache that reads the current time from the given clock.
+     */
+    QueryCache(int maxEntries, long maxBytes, long ttlMillis, LongSupplier clock) {
+        if (maxEntries < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("Cache limits must be non-negative");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+
+        this.head = new Entry(null, null, 0, 0);
+        this.tail = new Entry(null, null, 0, 0);
+        this.entries = new ChainedHashDictionary<>();
+        this.unlinkAll();
+    }
+
+    /**
+     * Returns the key shared by every query with the same words as this one.
+     */
+    public static String makeKey(IList<String> query) {
+        String[] words = new String[query.size()];
+        int i = 0;
+        for (String word : query) {
+            words[i] = word;
+            i++;
+        }
+        Arrays.sort(words);
+        // Words never contain whitespace, so this can't be ambiguous
+        return String.join(" ", words);
+    }
+
+    /**
+     * Returns the key shared by every query with the same words and filter as
+     * this one.
+     */
+    public static String makeKey(Query query) {
+        // Words are always lowercase, so the filter can't be confused with
+        // plain words
+        String key = makeKey(query.getTerms());
+        if (query.getFilter() != null) {
+            key += " WHERE " + query.getFilter();
+        }
+        return key;
+    }
+
+    /**
+     * Returns the top k results for the query with the given key, best first,
+     * or null if the cache can't answer that query.
+     */
+    public synchronized IList<Result> get(String key, int k) {
+        Entry entry = this.entries.getOrDefault(key, null);
+        if (entry != null && this.isExpired(entry)) {
+            this.removeEntry(entry);
+            this.expirations++;
+            entry = null;
+        }
+        // An entry with fewer than k results holds every page there is, so it
+        // can answer queries for any number of results.
+        if (entry == null || (k > entry.k && entry.results.length == entry.k)) {
+            this.misses++;
+            return null;
+        }
+
+        this.hits++;
+        this.unlink(entry);
+        this.linkFirst(entry);
+
+        IList<Result> output = new DoubleLinkedList<>();
+        for (int i = 0; i < Math.min(k, entry.results.length); i++) {
+            output.add(entry.results[i]);
+        }
+        return output;
+    }
+
+    /**
+     * Stores the top k results (best first) for the query with the given key,
+     * replacing any previous entry for that key.
+     */
+    public synchronized void put(String key, int k, IList<Result> results) {
+        Result[] copy = new Result[results.size()];
+        int i = 0;
+        for (Result result : results) {
+            copy[i] = result;
+            i++;
+        }
+
+        if (this.entries.containsKey(key)) {
+            this.removeEntry(this.entries.get(key));
+        }
+        Entry entry = new Entry(key, copy, k, this.clock.getAsLong());
+        if (entry.bytes > this.maxBytes || this.maxEntries == 0) {
+            // Caching this would just evict everything else
+            return;
+        }
+
+        this.entries.put(key, entry);
+        this.linkFirst(entry);
+        this.totalBytes += entry.bytes;
+
+        while (this.entries.size() > this.maxEntries || this.totalBytes > this.maxBytes) {
+            this.removeEntry(this.tail.prev);
+            this.evictions++;
+        }
+    }
+
+    /**
+     * Removes every entry. Call this whenever the underlying index changes.
+     */
+    public synchronized void clear() {
+        this.entries = new ChainedHashDictionary<>();
+        this.unlinkAll();
+        this.totalBytes = 0;
+        this.invalidations++;
+    }
+
+    /**
+     * Returns the number of entries currently cached.
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Returns the estimated number of bytes currently cached.
+     */
+    public synchronized long getBytes() {
+        return this.totalBytes;
+    }
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * Returns the number of entries removed to stay within this cache's size limits.
+     */
+    public synchronized long getEvictions() {
+        return this.evictions;
+    }
+
+    /**
+     * Returns the number of entries removed because they were too old.
+     */
+    public synchronized long getExpirations() {
+        return this.expirations;
+    }
+
+    /**
+     * Returns the number of times this cache was cleared.
+     */
+    public synchronized long getInvalidations() {
+        return this.invalidations;
+    }
+
+    /**
+     * Returns every counter in this cache, one "name value" pair per line.
+     */
+    public synchronized String formatStats() {
+        return "query_cache_entries " + this.entries.size() + "\n"
+                + "query_cache_bytes " + this.totalBytes + "\n"
+                + "query_cache_hits " + this.hits + "\n"
+                + "query_cache_misses " + this.misses + "\n"
+                + "query_cache_evictions " + this.evictions + "\n"
+                + "query_cache_expirations " + this.expirations + "\n"
+                + "query_cache_invalidations " + this.invalidations + "\n";
+    }
+
+    private boolean isExpired(Entry entry) {
+        return this.ttlMillis > 0 && this.clock.getAsLong() - entry.createdAt >= this.ttlMillis;
+    }
+
+    private void removeEntry(Entry entry) {
+        this.entries.remove(entry.key);
+        this.unlink(entry);
+        this.totalBytes -= entry.bytes;
+    }
+
+    private void unlinkAll() {
+        this.head.next = this.tail;
+        this.tail.prev = this.head;
+    }
+
+    private void linkFirst(Entry entry) {
+        entry.prev = this.head;
+        entry.next = this.head.next;
+        this.head.next.prev = entry;
+        this.head.next = entry;
+    }
+
+    private void unlink(Entry entry) {
+        entry.prev.next = entry.next;
+        entry.next.prev = entry.prev;
+    }
+
+    private static class Entry {
+        public final String key;
+        public final Result[] results;
+        public final int k;
+        public final long createdAt;
+        public final long bytes;
+
+        public Entry prev;
+        public Entry next;
+
+        public Entry(String key, Result[] results, int k, long createdAt) {
+            this.key = key;
+            this.results = results;
+            this.k = k;
+            this.createdAt = createdAt;
+            this.bytes = key == null ? 0 : estimateBytes(key, results);
+        }
+
+        private static long estimateBytes(String key, Result[] results) {
+            long bytes = ENTRY_OVERHEAD + 2L * key.length() + BYTES_PER_RESULT * results.length;
+            for (Result result : results) {
+                // Unlike summaries, snippets belong to the entry
+                if (result.getSnippet() != null) {
+                    bytes += 2L * result.getSnippet().length();
+                }
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package search;
+
+import search.misc.exceptions.OverloadedException;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Runs searches on a fixed pool of threads, separate from the threads
+ * serving requests, with admission control and deadlines.
+ *
+ * At most 'queueCapacity' searches wait for a thread at once; any more are
+ * turned away at once with an OverloadedException, rather than joining a
+ * queue that only grows. A caller waits at most 'deadlineMillis' for its
+ * result, and a search still queued when its deadline passes is skipped, so
+ * a backlog clears quickly once the load drops.
+ *
+ * Searches with the same key that are in flight at the same time are only
+ * computed once ("single flight"): later callers wait for the first
+ * caller's result instead of queueing their own. Each caller still waits
+ * until its own deadline, and a shared search is only skipped once every
+ * caller waiting on it is past theirs.
+ *
+ * All methods are thread-safe.
+ */
+public class QueryExecutor<T> {
+    private final ThreadPoolExecutor pool;
+    private final long deadlineMillis;
+
+    // Every search queued or running, by key
+    private final ConcurrentHashMap<String, Flight<T>> inFlight;
+
+    private final AtomicLong numComputed;
+    private final AtomicLong numCoalesced;
+    private final AtomicLong numRejected;
+    private final AtomicLong numTimedOut;
+
+    /**
+     * Creates an executor running searches on 'numThreads' threads.
+     *
+     * @param numThreads      The most searches that may run at once.
+     * @param queueCapacity   The most searches that may wait to run at once.
+     * @param deadlineMillis  How long a caller waits for its result.
+     */
+    public QueryExecutor(int numThreads, int queueCapacity, long deadlineMillis) {
+        if (numThreads < 1 || queueCapacity < 1 || deadlineMillis < 1) {
+            throw new IllegalArgumentException("Need at least one thread, queue slot and millisecond");
+        }
+        AtomicInteger numStarted = new AtomicInteger(0);
+        this.pool = new ThreadPoolExecutor(
+                numThreads, numThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                task -> {
+                    Thread thread = new Thread(task, "search-" + numStarted.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.deadlineMillis = deadlineMillis;
+        this.inFlight = new ConcurrentHashMap<>();
+        this.numComputed = new AtomicLong(0);
+        this.numCoalesced = new AtomicLong(0);
+        this.numRejected = new AtomicLong(0);
+        this.numTimedOut = new AtomicLong(0);
+    }
+
+    /**
+     * Returns the result of 'search', computed on this executor's threads,
+     * or of a search with the same key already in flight.
+     *
+     * A search that throws a RuntimeException throws it here too, to every
+     * caller waiting on it.
+     *
+     * @throws OverloadedException  if too many searches are waiting already,
+     *                              or the result isn't ready by the deadline
+     */
+    public T execute(String key, Supplier<T> search) {
+        return this.execute(key, search, System.currentTimeMillis() + this.deadlineMillis);
+    }
+
+    private T execute(String key, Supplier<T> search, long deadline) {
+        Flight<T> flight = new Flight<>(deadline);
+        Flight<T> existing = this.inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            this.numCoalesced.incrementAndGet();
+            existing.extendDeadline(deadline);
+            return this.await(existing, key, search, deadline);
+        }
+
+        CompletableFuture<T> result = flight.result;
+        try {
+            this.pool.execute(() -> {
+                T value = null;
+                Throwable error = null;
+                try {
+                    if (System.currentTimeMillis() >= flight.deadline.get()) {
+                        error = new SkippedException();
+                    } else {
+                        value = search.get();
+                        this.numComputed.incrementAndGet();
+                    }
+                } catch (Throwable ex) {
+                    error = ex;
+                }
+
+                // Stop sharing this result before publishing it, so nobody
+                // arriving afterwards gets a result computed before they asked
+                this.inFlight.remove(key, flight);
+                if (error == null) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(error);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            this.inFlight.remove(key, flight);
+            this.numRejected.incrementAndGet();
+            OverloadedException overloaded = new OverloadedException("Too many searches waiting", ex);
+            result.completeExceptionally(overloaded);
+            throw overloaded;
+        }
+        return this.await(flight, key, search, deadline);
+    }
+
+    /**
+     * Returns the number of searches waiting for a thread.
+     */
+    public int getQueueDepth() {
+        return this.pool.getQueue().size();
+    }
+
+    /**
+     * Returns every counter in this executor, one "name value" pair per line.
+     */
+    public String formatStats() {
+        return "search_executor_computed " + this.numComputed.get() + "\n"
+                + "search_executor_coalesced " + this.numCoalesced.get() + "\n"
+                + "search_executor_rejected " + this.numRejected.get() + "\n"
+                + "search_executor_timed_out " + this.numTimedOut.get() + "\n"
+                + "search_executor_queue_depth " + this.getQueueDepth() + "\n"
+                + "search_executor_active " + this.pool.getActiveCount() + "\n";
+    }
+
+    /**
+     * Stops every thread, abandoning any searches still queued or running.
+     */
+    public void shutdown() {
+        this.pool.shutdownNow();
+    }
+
+    /**
+     * Waits until the given deadline for the result of the given search. If
+     * the search was skipped before this caller's deadline (it can only have
+     * checked an earlier one), runs it again.
+     */
+    private T await(Flight<T> flight, String key, Supplier<T> search, long deadline) {
+        try {
+            return flight.result.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            // The search keeps running, so its results still reach the
+            // engine's cache for the next caller
+            this.numTimedOut.incrementAndGet();
+            throw new OverloadedException("Search missed its deadline", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new OverloadedException("Interrupted while waiting for search", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof SkippedException) {
+                if (System.currentTimeMillis() < deadline) {
+                    return this.execute(key, search, deadline);
+                }
+                throw new OverloadedException("Search waited past its deadline", cause);
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * A search queued or running, and the latest deadline of any caller
+     * waiting for it.
+     */
+    private static class Flight<T> {
+        public final CompletableFuture<T> result;
+        public final AtomicLong deadline;
+
+        public Flight(long deadline) {
+            this.result = new CompletableFuture<>();
+            this.deadline = new AtomicLong(deadline);
+        }
+
+        public void extendDeadline(long deadline) {
+            this.deadline.accumulateAndGet(deadline, Math::max);
+        }
+    }
+
+    /**
+     * Completes a search that was still queued when every caller waiting for
+     * it had passed its deadline, as far as it could tell.
+     */
+    private static class SkippedException extends RuntimeException {
+        public SkippedException() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -24,5 +24,6 @@ public class Scrape {
         }
 
         scraper.run(60 * 5);
+        System.out.print(scraper.formatStats());
     }
 }
@@ -1,56 +1,328 @@
 package search;
 
-import datastructures.concrete.ChainedHashSet;
+import datastructures.concrete.ArrayHeap;
 import datastructures.concrete.DoubleLinkedList;
+import datastructures.concrete.KVPair;
+import datastructures.concrete.dictionaries.ChainedHashDictionary;
+import datastructures.concrete.dictionaries.PersistentHashDictionary;
+import datastructures.interfaces.IDictionary;
 import datastructures.interfaces.IList;
+import datastructures.interfaces.IPriorityQueue;
 import datastructures.interfaces.ISet;
-import misc.Searcher;
+import misc.exceptions.NoSuchKeyException;
+import search.analyzers.Bm25Scorer;
+import search.analyzers.CompletionIndex;
+import search.analyzers.DuplicateDetector;
 import search.analyzers.PageRankAnalyzer;
+import search.analyzers.PositionalIndex;
+import search.analyzers.Scorer;
+import search.analyzers.SpellingCorrector;
+import search.analyzers.TermDictionary;
 import search.analyzers.TfIdfAnalyzer;
+import search.analyzers.TfIdfScorer;
 import search.misc.Bridge;
+import search.misc.PageArchive;
+import search.misc.PageCache;
 import search.misc.exceptions.DataExtractionException;
+import search.models.Query;
 import search.models.Result;
 import search.models.Webpage;
 import search.models.WebpageSummary;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class SearchEngine {
     public static final double PAGE_RANK_DECAY = 0.85;
     public static final double PAGE_RANK_EPSILON = 0.0001;
     public static final int PAGE_RANK_ITERATION_LIMIT = 200;
 
-    private ISet<WebpageSummary> pages;
-    private TfIdfAnalyzer tfIdfAnalyzer;
-    private PageRankAnalyzer pageRankAnalyzer;
+    // By default, we parse and index pages using one thread per core.
+    public static final int DEFAULT_INDEXING_THREADS = Runtime.getRuntime().availableProcessors();
+
+    // Bounds on the cache of recent search results. Entries never expire on
+    // their own: the cache is cleared whenever the index changes instead.
+    public static final int QUERY_CACHE_MAX_ENTRIES = 10000;
+    public static final long QUERY_CACHE_MAX_BYTES = 64L * 1024 * 1024;
+    public static final long QUERY_CACHE_TTL_MILLIS = 0;
+
+    // How many snippets of recent results we keep around.
+    public static final int SNIPPET_CACHE_MAX_ENTRIES = 20000;
+
+    // How much to boost pages whose query words appear close together. A
+    // page with every pair of query words adjacent scores this much more
+    // (proportionally) than one where they're far apart.
+    public static final double PROXIMITY_WEIGHT = 0.5;
+
+    // The names of the ways we can score a page's text against a query.
+    public static final String TF_IDF_SCORER = "tfidf";
+    public static final String BM25_SCORER = "bm25";
+    public static final String DEFAULT_SCORER = TF_IDF_SCORER;
+
+    // The usual BM25 parameters: how quickly repeated words stop counting,
+    // and how much long pages are penalized. See Bm25Scorer.
+    public static final double BM25_K1 = 1.2;
+    public static final double BM25_B = 0.75;
+
+    // The most completions we precompute, and so can return, for one prefix.
+    public static final int MAX_SUGGESTIONS = 10;
+
+    // Query words found on no page are replaced by up to MAX_CORRECTIONS
+    // indexed words within a typo or two of them (one for words of up to
+    // SHORT_WORD_LENGTH chars, which have many neighbours, and
+    // MAX_EDIT_DISTANCE otherwise). A correction 'd' typos away counts
+    // CORRECTION_WEIGHT^d as much as a word the user actually typed.
+    public static final int MAX_EDIT_DISTANCE = 2;
+    public static final int MAX_CORRECTIONS = 3;
+    public static final int MIN_CORRECTED_LENGTH = 3;
+    public static final int SHORT_WORD_LENGTH = 4;
+    public static final double CORRECTION_WEIGHT = 0.5;
+
+    // The index every query currently runs against. An index never changes
+    // once published: updates build a new one and swap it in, so queries can
+    // run in parallel without locking, and each sees one consistent index.
+    private volatile Index index;
+
+    // Held while building a new index, so concurrent updates don't lose each
+    // other's changes. Queries never take this lock.
+    private final Object updateLock;
+
+    private final QueryCache queryCache;
+    private final SnippetGenerator snippetGenerator;
 
     public SearchEngine(String dataFolderName) {
-        long start = System.currentTimeMillis();
-        ISet<Webpage> webpages = this.collectWebpages(Paths.get("data", dataFolderName));
-        long end = System.currentTimeMillis() - start;
-        System.out.println("Done loading pages (" + (end / 1000.0) + " sec)");
+        this(dataFolderName, DEFAULT_INDEXING_THREADS);
+    }
+
+    /**
+     * Loads and indexes every page in the given data folder, using at most
+     * 'numThreads' threads to parse pages, gather term statistics and compute
+     * page ranks.
+     *
+     * Pages with the same or nearly the same text as another page are
+     * collapsed onto one canonical page (see DuplicateDetector), so crawling
+     * the same content under several URIs doesn't count it several times.
+     */
+    public SearchEngine(String dataFolderName, int numThreads) {
+        this(loadWebpages(Paths.get("data", dataFolderName), numThreads), numThreads);
+    }
+
+    /**
+     * Indexes the given pages, using at most 'numThreads' threads to gather
+     * term statistics and compute page ranks.
+     */
+    public SearchEngine(ISet<Webpage> webpages, int numThreads) {
+        this.updateLock = new Object();
+        this.queryCache = new QueryCache(
+                QUERY_CACHE_MAX_ENTRIES, QUERY_CACHE_MAX_BYTES, QUERY_CACHE_TTL_MILLIS);
+        this.snippetGenerator = new SnippetGenerator(SNIPPET_CACHE_MAX_ENTRIES);
 
-        this.pages = this.extractWebpageSummaries(webpages);
+        PersistentHashDictionary<URI, WebpageSummary> pages = this.extractWebpageSummaries(webpages);
         System.out.println("Done extracting");
 
-        start = System.currentTimeMillis();
-        this.tfIdfAnalyzer = new TfIdfAnalyzer(webpages);
-        this.pageRankAnalyzer = new PageRankAnalyzer(
-                webpages,
-                PAGE_RANK_DECAY,
-                PAGE_RANK_EPSILON,
-                PAGE_RANK_ITERATION_LIMIT);
-        end = System.currentTimeMillis() - start;
-        System.out.println("Done indexing (" + (end / 1000.0) + " sec)");
+        ForkJoinPool indexingPool = new ForkJoinPool(numThreads);
+        try {
+            long start = System.currentTimeMillis();
+            TfIdfAnalyzer tfIdfAnalyzer = runInPool(indexingPool, () -> new TfIdfAnalyzer(webpages));
+            PositionalIndex positionalIndex = new PositionalIndex(webpages, tfIdfAnalyzer.getTermDictionary());
+            PageRankAnalyzer pageRankAnalyzer = new PageRankAnalyzer(
+                    webpages,
+                    PAGE_RANK_DECAY,
+                    PAGE_RANK_EPSILON,
+                    PAGE_RANK_ITERATION_LIMIT,
+                    numThreads > 1 ? indexingPool : null);
+            long end = System.currentTimeMillis() - start;
+            System.out.println("Done indexing (" + (end / 1000.0) + " sec)");
+
+            // Suggest and correct to words by the number of pages they appear on.
+            TermDictionary terms = tfIdfAnalyzer.getTermDictionary();
+            int[] documentFrequencies = new int[terms.size()];
+            for (int id = 0; id < terms.size(); id++) {
+                documentFrequencies[id] = positionalIndex.getPages(id).length;
+            }
+            this.index = new Index(
+                    0,
+                    pages,
+                    tfIdfAnalyzer,
+                    pageRankAnalyzer,
+                    positionalIndex,
+                    new CompletionIndex(terms, documentFrequencies, MAX_SUGGESTIONS),
+                    new SpellingCorrector(terms, documentFrequencies, MAX_EDIT_DISTANCE));
+        } finally {
+            indexingPool.shutdown();
+        }
+    }
+
+    private static ISet<Webpage> loadWebpages(Path root, int numThreads) {
+        ForkJoinPool loadingPool = new ForkJoinPool(numThreads);
+        try {
+            long start = System.currentTimeMillis();
+            ISet<Webpage> webpages = runInPool(loadingPool, () -> collectWebpages(root));
+            long end = System.currentTimeMillis() - start;
+            System.out.println("Done loading pages (" + (end / 1000.0) + " sec)");
+
+            DuplicateDetector duplicates = runInPool(loadingPool, () -> new DuplicateDetector(webpages));
+            System.out.println("Collapsed " + duplicates.getNumDuplicates() + " duplicate pages");
+            return duplicates.collapse(webpages);
+        } finally {
+            loadingPool.shutdown();
+        }
+    }
+
+    /**
+     * Returns the number of pages this engine has indexed.
+     */
+    public int getNumPages() {
+        return this.index.pages.size();
+    }
+
+    /**
+     * Returns the cache this engine answers repeated queries from.
+     */
+    public QueryCache getQueryCache() {
+        return this.queryCache;
+    }
+
+    /**
+     * Returns the generator this engine builds result snippets with.
+     */
+    public SnippetGenerator getSnippetGenerator() {
+        return this.snippetGenerator;
+    }
+
+    /**
+     * Returns up to 'limit' ways to finish typing the given query, most
+     * popular first, for search-as-you-type.
+     *
+     * Only the last word of the query is completed, with the words that
+     * start with it and appear on the most pages; the rest of the query is
+     * kept as it is. If the query ends in whitespace, there is nothing to
+     * complete, and we return no suggestions.
+     *
+     * @throws IllegalArgumentException  if limit < 0 or limit > MAX_SUGGESTIONS
+     */
+    public IList<String> getSuggestions(String query, int limit) {
+        if (limit < 0 || limit > MAX_SUGGESTIONS) {
+            throw new IllegalArgumentException("limit must be between 0 and " + MAX_SUGGESTIONS);
+        }
+        String lower = query.toLowerCase();
+        int split = lower.length();
+        while (split > 0 && !Character.isWhitespace(lower.charAt(split - 1))) {
+            split--;
+        }
+        String head = lower.substring(0, split);
+        String prefix = lower.substring(split);
+
+        IList<String> output = new DoubleLinkedList<>();
+        if (prefix.isEmpty()) {
+            return output;
+        }
+        for (String word : this.index.completionIndex.complete(prefix, limit)) {
+            output.add(head + word);
+        }
+        return output;
+    }
+
+    /**
+     * Indexes the given page, replacing any page previously indexed under the
+     * same URI.
+     */
+    public void addOrUpdate(Webpage page) {
+        IList<Webpage> added = new DoubleLinkedList<>();
+        added.add(page);
+        this.update(added, new DoubleLinkedList<>());
+    }
+
+    /**
+     * Removes the page with the given URI from the index.
+     *
+     * @throws NoSuchKeyException  if no page with that URI is indexed
+     */
+    public void remove(URI uri) {
+        IList<URI> removed = new DoubleLinkedList<>();
+        removed.add(uri);
+        this.update(new DoubleLinkedList<>(), removed);
+    }
+
+    /**
+     * Removes the pages with the given URIs, then indexes the given pages
+     * (replacing any pages previously indexed under the same URIs).
+     *
+     * Queries keep running against the old index while we build the new one,
+     * and see every change at once when it's done. The new index shares
+     * everything the changes don't touch with the old one, so most of the
+     * work is proportional to the size of the pages added and removed. Page
+     * ranks are the exception: they are recomputed over the whole link graph
+     * (starting from the old ranks), so batch changes together where possible.
+     *
+     * @throws NoSuchKeyException  if a URI in 'removed' belongs to no indexed
+     *                             page; the index is left unchanged
+     */
+    public void update(IList<Webpage> added, IList<URI> removed) {
+        synchronized (this.updateLock) {
+            Index old = this.index;
+
+            PersistentHashDictionary<URI, WebpageSummary> pages = old.pages;
+            for (URI uri : removed) {
+                pages = pages.minus(uri);
+            }
+            for (Webpage page : added) {
+                pages = pages.plus(page.getUri(), page.getSummary());
+            }
+
+            TfIdfAnalyzer tfIdfAnalyzer = old.tfIdfAnalyzer.update(added, removed);
+            TermDictionary terms = tfIdfAnalyzer.getTermDictionary();
+            PositionalIndex positionalIndex = old.positionalIndex.update(added, removed, terms);
+            this.index = new Index(
+                    old.version + 1,
+                    pages,
+                    tfIdfAnalyzer,
+                    old.pageRankAnalyzer.update(added, removed),
+                    positionalIndex,
+                    old.completionIndex.update(
+                            terms, positionalIndex.getUpdatedTerms(), getDocumentFrequencies(positionalIndex)),
+                    old.spellingCorrector.update(terms, getDocumentFrequencies(positionalIndex)));
+            this.queryCache.clear();
+            this.snippetGenerator.clear();
+        }
     }
 
     public double computeScore(IList<String> query, URI uri) {
-        double tfIdf = this.tfIdfAnalyzer.computeRelevance(query, uri);
-        double pageRank = this.pageRankAnalyzer.computePageRank(uri);
+        return this.computeScore(query, uri, DEFAULT_SCORER);
+    }
+
+    /**
+     * Scores the given page against the given query, using the scorer with
+     * the given name to judge the page's text.
+     *
+     * @throws IllegalArgumentException  if there is no scorer with that name
+     */
+    public double computeScore(IList<String> query, URI uri, String scorerName) {
+        Index current = this.index;
+        return computeScore(current, current.getScorer(scorerName).prepare(query), uri);
+    }
+
+    /**
+     * Scores the given page against a query that has already been prepared
+     * by one of the given index's scorers.
+     */
+    private static double computeScore(Index index, Scorer.PreparedQuery query, URI uri) {
+        double relevance = query.score(uri);
+        double pageRank = index.pageRankAnalyzer.computePageRank(uri);
 
         if (pageRank <= 0.0) {
             throw new IllegalStateException(String.format(
@@ -73,51 +345,389 @@ public class SearchEngine {
         // to be skewed -- popular pages tend to have abnormally high
         // ranks, other pages have very small ones. So, we take the square
         // root to "normalize" these extremes, then multiply it against
-        // the tfIdf score to scale it accordingly.
+        // the relevance score to scale it accordingly.
         //
         // That's the underlying justification for why we chose this formula,
         // but it's still a pretty ad-hoc approach. Feel free to adjust or
         // change this formula: we will be grading your TfIdfAnalyzer and
         // PageRankAnalyzer classes separately, but not this method.
-        return tfIdf * Math.sqrt(pageRank);
+        return relevance * Math.sqrt(pageRank);
     }
 
     public IList<Result> getTopKResults(IList<String> query, int k) {
+        return this.getTopKResults(Query.fromTerms(query), k);
+    }
+
+    public IList<Result> getTopKResults(Query query, int k) {
+        return this.getTopKResults(query, k, DEFAULT_SCORER);
+    }
+
+    /**
+     * Returns the k pages that best match the given query, best first, using
+     * the scorer with the given name to judge each page's text.
+     *
+     * If the query has a filter (phrases, proximity clauses or boolean
+     * operators), only pages matching it are returned. Otherwise, every page
+     * is a candidate.
+     *
+     * @throws IllegalArgumentException  if k < 0, or there is no scorer with that name
+     */
+    public IList<Result> getTopKResults(Query query, int k, String scorerName) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must be non-negative");
+        }
+
+        // Read the index once, so every page is scored against the same one
+        Index current = this.index;
+        Scorer scorer = current.getScorer(scorerName);
+
+        // Tagging the key with the index version means results computed
+        // against an older index can never be served, even if they were
+        // cached after the index changed.
+        String key = current.version + ":" + scorerName + ":" + QueryCache.makeKey(query);
+        IList<Result> cached = this.queryCache.get(key, k);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Resolve the query's words once, not once per page
+        IDictionary<String, Double> weights = new ChainedHashDictionary<>();
+        IList<String> terms = correctSpelling(current, query.getTerms(), weights);
+        Scorer.PreparedQuery prepared = scorer.prepare(terms, weights);
+        int[] termIds = findDistinctTermIds(current, terms);
+        TopK topK = new TopK(current, prepared, termIds, k);
+        if (query.hasClauses()) {
+            // Only pages passing the filter are scored at all
+            int[] pageIds = current.positionalIndex.findPages(
+                    query.getFilter(), current.tfIdfAnalyzer.getTermDictionary());
+            for (int pageId : pageIds) {
+                topK.offer(current.pages.get(current.positionalIndex.getUri(pageId)));
+            }
+        } else {
+            for (KVPair<URI, WebpageSummary> pair : current.pages) {
+                topK.offer(pair.getValue());
+            }
+        }
+
+        // Snippets are relatively expensive, so we only build them for the
+        // results we actually return
         IList<Result> results = new DoubleLinkedList<>();
+        for (Result result : topK.removeAll()) {
+            String snippet = this.snippetGenerator.getSnippet(
+                    current.version,
+                    current.positionalIndex,
+                    current.tfIdfAnalyzer.getTermDictionary(),
+                    result.getUri(),
+                    termIds);
+            results.add(result.withSnippet(snippet));
+        }
+        this.queryCache.put(key, k, results);
+        return results;
+    }
+
+    /**
+     * Keeps the k best results offered to it, like Searcher.topKSort.
+     *
+     * A page can only score as high as its scorer's maximum, times the square
+     * root of its page rank, times the largest proximity boost. Once we have k
+     * results, we skip scoring any page whose bound is no better than the
+     * worst of them: topKSort would never have kept it anyway, so the results
+     * are exactly the same.
+     */
+    private static class TopK {
+        private final Index index;
+        private final Scorer.PreparedQuery query;
+        private final int[] termIds;
+        private final int k;
+        private final IPriorityQueue<Result> heap;
+        private final double maxScore;
 
-        for (WebpageSummary summary: this.pages) {
-            double score = this.computeScore(query, summary.getUri());
-            results.add(new Result(summary, score));
+        public TopK(Index index, Scorer.PreparedQuery query, int[] termIds, int k) {
+            this.index = index;
+            this.query = query;
+            this.termIds = termIds;
+            this.k = k;
+            this.heap = new ArrayHeap<>();
+            this.maxScore = query.getMaxScore() * (termIds.length >= 2 ? 1.0 + PROXIMITY_WEIGHT : 1.0);
         }
 
-        IList<Result> topK = Searcher.topKSort(k, results);
+        public void offer(WebpageSummary summary) {
+            if (this.k == 0) {
+                return;
+            }
+            if (this.heap.size() == this.k) {
+                double pageRank = this.index.pageRankAnalyzer.computePageRank(summary.getUri());
+                double bound = this.maxScore * Math.sqrt(pageRank);
+                if (bound <= this.heap.peekMin().getScore()) {
+                    return;
+                }
+            }
 
-        IList<Result> reversed = new DoubleLinkedList<>();
-        for (Result res : topK) {
-            reversed.insert(0, res);
+            double score = computeScore(this.index, this.query, this.termIds, summary.getUri());
+            Result result = new Result(summary, score);
+            if (this.heap.size() < this.k) {
+                this.heap.insert(result);
+            } else if (this.heap.peekMin().compareTo(result) < 0) {
+                this.heap.removeMin();
+                this.heap.insert(result);
+            }
         }
 
-        return reversed;
+        /**
+         * Returns every result kept, best first.
+         */
+        public IList<Result> removeAll() {
+            IList<Result> output = new DoubleLinkedList<>();
+            while (!this.heap.isEmpty()) {
+                output.insert(0, this.heap.removeMin());
+            }
+            return output;
+        }
     }
 
-    private ISet<Webpage> collectWebpages(Path root) {
-        try {
-            return Files.walk(root)
+    /**
+     * Scores the given page like computeScore, then boosts it if the query's
+     * words appear close together within it.
+     */
+    private static double computeScore(Index index, Scorer.PreparedQuery query, int[] termIds, URI uri) {
+        double score = computeScore(index, query, uri);
+        if (score > 0.0 && termIds.length >= 2) {
+            score *= 1.0 + PROXIMITY_WEIGHT * computeProximity(index.positionalIndex, termIds, uri);
+        }
+        return score;
+    }
+
+    /**
+     * Returns the average, over every pair of the given words, of one over the
+     * smallest distance between them in the given page. This is 1 if every
+     * pair appears side by side, and 0 if no pair appears at all.
+     *
+     * The result doesn't depend on the order of the words, so queries that
+     * share a cache entry also share proximity scores.
+     */
+    private static double computeProximity(PositionalIndex positionalIndex, int[] termIds, URI uri) {
+        int pageId = positionalIndex.getPageId(uri);
+        int[][] positions = new int[termIds.length][];
+        for (int i = 0; i < termIds.length; i++) {
+            positions[i] = positionalIndex.getPositions(termIds[i], pageId);
+        }
+
+        double total = 0.0;
+        for (int i = 0; i < termIds.length; i++) {
+            for (int j = i + 1; j < termIds.length; j++) {
+                int distance = PositionalIndex.findMinDistance(positions[i], positions[j]);
+                if (distance != Integer.MAX_VALUE) {
+                    total += 1.0 / distance;
+                }
+            }
+        }
+        int numPairs = termIds.length * (termIds.length - 1) / 2;
+        return total / numPairs;
+    }
+
+    /**
+     * Returns the given query words, with each word that appears on no page
+     * replaced by its likeliest corrections (see MAX_CORRECTIONS). The weight
+     * of every correction is added to 'weights'.
+     *
+     * A correction the user also typed elsewhere in the query is dropped,
+     * since it is already counted at full weight.
+     */
+    private static IList<String> correctSpelling(
+            Index index, IList<String> words, IDictionary<String, Double> weights) {
+        TermDictionary termDictionary = index.tfIdfAnalyzer.getTermDictionary();
+        IList<String> output = new DoubleLinkedList<>();
+        for (String word : words) {
+            if (index.positionalIndex.getPages(termDictionary.getId(word)).length > 0
+                    || word.length() < MIN_CORRECTED_LENGTH) {
+                output.add(word);
+                continue;
+            }
+            int maxDistance = word.length() <= SHORT_WORD_LENGTH ? 1 : MAX_EDIT_DISTANCE;
+            for (KVPair<String, Integer> correction
+                    : index.spellingCorrector.findCorrections(word, maxDistance, MAX_CORRECTIONS)) {
+                String corrected = correction.getKey();
+                if (!words.contains(corrected) && !weights.containsKey(corrected)) {
+                    output.add(corrected);
+                    weights.put(corrected, Math.pow(CORRECTION_WEIGHT, correction.getValue()));
+                }
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Returns the ids of the distinct words in the given list that appear in
+     * at least one indexed page.
+     */
+    private static int[] findDistinctTermIds(Index index, IList<String> words) {
+        TermDictionary termDictionary = index.tfIdfAnalyzer.getTermDictionary();
+        int[] termIds = new int[words.size()];
+        int size = 0;
+        for (String word : words) {
+            int termId = termDictionary.getId(word);
+            if (termId != TermDictionary.NO_SUCH_TERM) {
+                termIds[size] = termId;
+                size++;
+            }
+        }
+        Arrays.sort(termIds, 0, size);
+
+        int numDistinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (numDistinct == 0 || termIds[numDistinct - 1] != termIds[i]) {
+                termIds[numDistinct] = termIds[i];
+                numDistinct++;
+            }
+        }
+        return Arrays.copyOf(termIds, numDistinct);
+    }
+
+    /**
+     * Loads every HTML page under the given folder, and every page in the
+     * PageArchives under it. Any parallel work runs on the calling thread's
+     * ForkJoinPool, or the common pool otherwise.
+     */
+    public static ISet<Webpage> collectWebpages(Path root) {
+        // We gather the paths up front so the parallel stream below is backed
+        // by an array and splits evenly; the stream Files.walk returns can
+        // only be split into large sequential batches.
+        List<Path> paths;
+        try (Stream<Path> files = Files.walk(root)) {
+            paths = files
                     .filter(Files::isRegularFile)
-                    .filter(path -> path.toString().endsWith(".htm") || path.toString().endsWith(".html"))
-                    .map(Path::toUri)
-                    .map(Webpage::load)
-                    .collect(Bridge.toISet());
+                    .filter(path -> path.toString().endsWith(".htm")
+                            || path.toString().endsWith(".html")
+                            || path.toString().endsWith(PageArchive.ARCHIVE_SUFFIX))
+                    .collect(Collectors.toList());
         } catch (IOException ex) {
             throw new DataExtractionException("Could not find given root folder", ex);
         }
+
+        // Each page in an archive is read with a positional read, so any
+        // number of threads can load pages from the same archive at once.
+        // Each archive has a PageCache next to it, so we only parse each of
+        // its pages the first time we load them.
+        List<Closeable> openFiles = new ArrayList<>();
+        List<Supplier<Webpage>> loaders = new ArrayList<>();
+        try {
+            for (Path path : paths) {
+                if (!path.toString().endsWith(PageArchive.ARCHIVE_SUFFIX)) {
+                    loaders.add(() -> Webpage.load(path.toUri()));
+                    continue;
+                }
+                PageArchive archive = new PageArchive(path);
+                openFiles.add(archive);
+                PageCache cache = new PageCache(PageCache.getCachePath(path));
+                openFiles.add(cache);
+                for (URI uri : archive.getUris()) {
+                    loaders.add(() -> loadFromArchive(archive, cache, uri));
+                }
+            }
+
+            return loaders.parallelStream()
+                    .map(Supplier::get)
+                    .collect(Bridge.toISet());
+        } catch (IOException ex) {
+            throw new DataExtractionException("Could not open page archive", ex);
+        } finally {
+            for (Closeable file : openFiles) {
+                try {
+                    file.close();
+                } catch (IOException ex) {
+                    // We've read everything we need from it
+                }
+            }
+        }
+    }
+
+    private static Webpage loadFromArchive(PageArchive archive, PageCache cache, URI uri) {
+        try {
+            return cache.load(archive, uri);
+        } catch (IOException ex) {
+            throw new DataExtractionException("Could not read " + uri + " from page archive", ex);
+        }
     }
 
-    private ISet<WebpageSummary> extractWebpageSummaries(ISet<Webpage> webpages) {
-        ISet<WebpageSummary> output = new ChainedHashSet<>();
+    /**
+     * Runs the given task on the given pool and waits for it to finish.
+     *
+     * Any parallel streams the task uses run on that same pool, which lets us
+     * bound how many threads indexing uses.
+     */
+    private static <T> T runInPool(ForkJoinPool pool, Callable<T> task) {
+        try {
+            return pool.submit(task).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DataExtractionException("Interrupted while indexing", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new DataExtractionException(ex.getCause());
+        }
+    }
+
+    /**
+     * Returns the number of pages each word appears on, by id, which is how
+     * we weight the words we suggest and correct to.
+     */
+    private static IntUnaryOperator getDocumentFrequencies(PositionalIndex positionalIndex) {
+        return termId -> positionalIndex.getPages(termId).length;
+    }
+
+    private PersistentHashDictionary<URI, WebpageSummary> extractWebpageSummaries(ISet<Webpage> webpages) {
+        PersistentHashDictionary<URI, WebpageSummary> output = new PersistentHashDictionary<>();
         for (Webpage page : webpages) {
-            output.add(page.getSummary());
+            output = output.plus(page.getUri(), page.getSummary());
         }
         return output;
     }
+
+    /**
+     * A complete, immutable index: every page we can return, and the
+     * analyzers we score them with.
+     */
+    private static class Index {
+        public final long version;
+        public final PersistentHashDictionary<URI, WebpageSummary> pages;
+        public final TfIdfAnalyzer tfIdfAnalyzer;
+        public final PageRankAnalyzer pageRankAnalyzer;
+        public final PositionalIndex positionalIndex;
+        public final IDictionary<String, Scorer> scorers;
+        public final CompletionIndex completionIndex;
+        public final SpellingCorrector spellingCorrector;
+
+        public Index(long version, PersistentHashDictionary<URI, WebpageSummary> pages,
+                     TfIdfAnalyzer tfIdfAnalyzer, PageRankAnalyzer pageRankAnalyzer,
+                     PositionalIndex positionalIndex, CompletionIndex completionIndex,
+                     SpellingCorrector spellingCorrector) {
+            this.version = version;
+            this.pages = pages;
+            this.tfIdfAnalyzer = tfIdfAnalyzer;
+            this.pageRankAnalyzer = pageRankAnalyzer;
+            this.positionalIndex = positionalIndex;
+            this.completionIndex = completionIndex;
+            this.spellingCorrector = spellingCorrector;
+
+            this.scorers = new ChainedHashDictionary<>();
+            this.scorers.put(TF_IDF_SCORER, new TfIdfScorer(tfIdfAnalyzer));
+            this.scorers.put(BM25_SCORER, new Bm25Scorer(
+                    positionalIndex, tfIdfAnalyzer.getTermDictionary(), BM25_K1, BM25_B));
+        }
+
+        /**
+         * Returns the scorer with the given name.
+         *
+         * @throws IllegalArgumentException  if there is no scorer with that name
+         */
+        public Scorer getScorer(String name) {
+            Scorer scorer = this.scorers.getOrDefault(name, null);
+            if (scorer == null) {
+                throw new IllegalArgumentException("Unknown scorer: " + name);
+            }
+            return scorer;
+        }
+    }
 }
@@ -0,0 +1,218 @@
+package search;
+
+import search.analyzers.PositionalIndex;
+import search.analyzers.TermDictionary;
+import search.misc.WordTokenizer;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds query-dependent snippets: a short window of a page's text that
+ * contains as many of the query's words as possible, with those words
+ * highlighted.
+ *
+ * Snippets are cut from the page's text as written, with its case and
+ * punctuation, wherever the index has it (see 'PositionalIndex.getText').
+ * Otherwise they show the page's lowercased words.
+ *
+ * Snippets are cached, least-recently-used first, since the same pages tend
+ * to show up for many similar queries. The cache is keyed by index version,
+ * so snippets of pages that have since changed are never served.
+ *
+ * All methods are thread-safe.
+ */
+public class SnippetGenerator {
+    // How many words of a page a snippet shows
+    public static final int WINDOW_SIZE = 30;
+
+    private final Map<String, String> cache;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates a new generator that caches at most 'maxEntries' snippets.
+     */
+    public SnippetGenerator(int maxEntries) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("Cache limits must be non-negative");
+        }
+        this.cache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return this.size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns an HTML snippet of the given page showing the words with the
+     * given ids, or null if the page contains none of them.
+     *
+     * @param version  The version of the index 'index' belongs to.
+     * @param termIds  The sorted, distinct ids of the query's words.
+     */
+    public String getSnippet(long version, PositionalIndex index, TermDictionary termDictionary,
+                             URI uri, int[] termIds) {
+        String key = version + ":" + uri + ":" + Arrays.toString(termIds);
+        synchronized (this) {
+            if (this.cache.containsKey(key)) {
+                this.hits++;
+                return this.cache.get(key);
+            }
+            this.misses++;
+        }
+
+        // We build the snippet outside the lock, so threads can build
+        // snippets in parallel. Two threads may occasionally build the same
+        // one, but they get the same result.
+        String snippet = buildSnippet(index, termDictionary, index.getPageId(uri), termIds);
+        synchronized (this) {
+            this.cache.put(key, snippet);
+        }
+        return snippet;
+    }
+
+    private static String buildSnippet(PositionalIndex index, TermDictionary termDictionary,
+                                       int pageId, int[] termIds) {
+        int start = index.findBestWindow(pageId, termIds, WINDOW_SIZE);
+        if (start == -1) {
+            return null;
+        }
+        int length = index.getPageLength(pageId);
+        int end = Math.min(start + WINDOW_SIZE, length);
+
+        StringBuilder out = new StringBuilder();
+        if (start > 0) {
+            out.append("... ");
+        }
+        int[] window = index.getTermIds(pageId, start, end);
+        String text = index.getText(pageId);
+        int[] spans = index.getWordSpans(pageId, start, end);
+        for (int i = 0; i < window.length; i++) {
+            boolean isMatch = Arrays.binarySearch(termIds, window[i]) >= 0;
+            if (spans == null) {
+                if (i > 0) {
+                    out.append(' ');
+                }
+                String word = termDictionary.getTerm(window[i]);
+                if (isMatch) {
+                    out.append("<b>");
+                    escapeHtml(out, word, 0, word.length());
+                    out.append("</b>");
+                } else {
+                    escapeHtml(out, word, 0, word.length());
+                }
+            } else {
+                if (i > 0) {
+                    appendGap(out, text, spans[2 * i - 1], spans[2 * i]);
+                }
+                appendWord(out, text, spans[2 * i], spans[2 * i + 1], isMatch);
+            }
+        }
+        if (end < length) {
+            out.append(" ...");
+        }
+        return out.toString();
+    }
+
+    /**
+     * Appends the chars of 'text' between two words: whitespace, and any
+     * words that were nothing but punctuation. Every run of whitespace
+     * becomes a single space.
+     */
+    private static void appendGap(StringBuilder out, String text, int from, int to) {
+        boolean isSpace = false;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c <= ' ') {
+                if (!isSpace) {
+                    out.append(' ');
+                }
+                isSpace = true;
+            } else {
+                escapeHtml(out, text, i, i + 1);
+                isSpace = false;
+            }
+        }
+    }
+
+    /**
+     * Appends the word in 'text' between the given offsets. If it matched
+     * the query, we highlight it, but not any punctuation around it.
+     */
+    private static void appendWord(StringBuilder out, String text, int from, int to, boolean isMatch) {
+        if (!isMatch) {
+            escapeHtml(out, text, from, to);
+            return;
+        }
+        int first = from;
+        while (first < to && WordTokenizer.isPunctuation(text.charAt(first))) {
+            first++;
+        }
+        int last = to;
+        while (last > first && WordTokenizer.isPunctuation(text.charAt(last - 1))) {
+            last--;
+        }
+        escapeHtml(out, text, from, first);
+        out.append("<b>");
+        escapeHtml(out, text, first, last);
+        out.append("</b>");
+        escapeHtml(out, text, last, to);
+    }
+
+    /**
+     * Appends the chars of 'text' between the given offsets, escaped to be
+     * shown as HTML.
+     */
+    private static void escapeHtml(StringBuilder out, String text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c == '<') {
+                out.append("&lt;");
+            } else if (c == '>') {
+                out.append("&gt;");
+            } else if (c == '&') {
+                out.append("&amp;");
+            } else if (c == '"') {
+                out.append("&quot;");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    /**
+     * Removes every cached snippet.
+     */
+    public synchronized void clear() {
+        this.cache.clear();
+    }
+
+    /**
+     * Returns the number of snippets currently cached.
+     */
+    public synchronized int size() {
+        return this.cache.size();
+    }
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * Returns every counter in this cache, one "name value" pair per line.
+     */
+    public synchronized String formatStats() {
+        return "snippet_cache_entries " + this.cache.size() + "\n"
+                + "snippet_cache_hits " + this.hits + "\n"
+                + "snippet_cache_misses " + this.misses + "\n";
+    }
+}
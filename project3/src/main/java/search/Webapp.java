@@ -1,16 +1,22 @@
 package search;
 
 import datastructures.interfaces.IList;
-import search.misc.WordTokenizer;
+import search.misc.QueryParser;
+import search.misc.StaticAssets;
+import search.misc.TemplateRenderer;
+import search.misc.exceptions.OverloadedException;
+import search.models.Query;
 import search.models.Result;
-import spark.ModelAndView;
 import spark.Request;
 import spark.Response;
 import spark.Service;
-import spark.template.mustache.MustacheTemplateEngine;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -29,10 +35,41 @@ public class Webapp {
      */
     private static final String TEMPLATE_FILES = "webapp/templates";
 
+    /**
+     * Every template we render. They are all compiled up front, so a missing
+     * or malformed template stops the webapp from starting at all.
+     */
+    private static final String[] TEMPLATE_NAMES = {"main.mustache", "search.mustache", "error.mustache"};
+
+    /**
+     * Where the static and template files live in the source tree. In dev
+     * mode, we read them from here on every request, so edits show up
+     * without a restart.
+     */
+    private static final String SOURCE_RESOURCES = "src/main/resources";
+
+    /**
+     * How long browsers may use a static file without checking whether it
+     * changed. After that, they revalidate it with its ETag.
+     */
+    private static final int STATIC_MAX_AGE_SECONDS = 3600;
+
+    /**
+     * The most searches we score at once, the most we let wait for a thread,
+     * and how long a request waits for its results before we give up and
+     * respond with 503 Service Unavailable.
+     */
+    private static final int SEARCH_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int SEARCH_QUEUE_CAPACITY = 64;
+    private static final long SEARCH_DEADLINE_MILLIS = 2000;
+
     private final String siteName;
     private final SearchEngine engine;
     private final Service http;
     private final int port;
+    private final QueryExecutor<IList<Result>> searches;
+    private final TemplateRenderer templates;
+    private final StaticAssets assets;
 
     /**
      * Creates a new instance of this class.
@@ -42,16 +79,35 @@ public class Webapp {
      * @param port      The port to serve our website on.
      */
     public Webapp(SearchEngine engine, String siteName, int port) {
+        this(engine, siteName, port, false);
+    }
+
+    /**
+     * Creates a new instance of this class.
+     *
+     * @param engine     The SearchEngine we will be using to answer user queries
+     * @param siteName   The name of our website
+     * @param port       The port to serve our website on.
+     * @param isDevMode  If true, templates and static files are read from
+     *                   SOURCE_RESOURCES again on every request.
+     */
+    public Webapp(SearchEngine engine, String siteName, int port, boolean isDevMode) {
         this.engine = engine;
         this.siteName = siteName;
         this.port = port;
+        this.searches = new QueryExecutor<>(SEARCH_THREADS, SEARCH_QUEUE_CAPACITY, SEARCH_DEADLINE_MILLIS);
+        this.templates = new TemplateRenderer(
+                TEMPLATE_FILES, findSourceFolder(TEMPLATE_FILES, isDevMode), TEMPLATE_NAMES);
+        this.assets = new StaticAssets(STATIC_FILES, findSourceFolder(STATIC_FILES, isDevMode));
 
-        this.http = Service.ignite()
-                .staticFileLocation(STATIC_FILES)
-                .port(port);
+        this.http = Service.ignite().port(port);
         this.http.initExceptionHandler(this::handleFatalError);
         this.http.get("/", this::handleMain);
         this.http.get("/search", this::handleSearch);
+        this.http.get("/suggest", this::handleSuggest);
+        this.http.get("/stats", this::handleStats);
+        this.http.get("/*", this::handleStatic);
+        this.http.exception(OverloadedException.class, this::handleOverload);
         this.http.exception(Exception.class, this::handleError);
     }
 
@@ -62,35 +118,130 @@ public class Webapp {
         this.http.init();
     }
 
+    /**
+     * Stops running this website, and the threads answering its searches.
+     */
+    public void stop() {
+        this.http.stop();
+        this.searches.shutdown();
+    }
+
     /**
      * Handles all incoming requests for our home page.
      */
-    private String handleMain(Request req, Response res) {
+    private String handleMain(Request req, Response res) throws IOException {
         Map<String, Object> model = new HashMap<>();
         model.put("siteTitle", this.siteName);
 
-        return this.render("main.mustache", model);
+        return this.respond(res, "main.mustache", model);
     }
 
     /**
      * Handles all incoming user queries.
      */
-    private String handleSearch(Request req, Response res) {
+    private String handleSearch(Request req, Response res) throws IOException {
         // Get search query
         String query = req.queryParams("query");
         int numResults = Integer.parseInt(req.queryParamOrDefault("num_results", "20"));
+        String scorer = req.queryParamOrDefault("scorer", SearchEngine.DEFAULT_SCORER);
 
-        // Perform core search
-        IList<String> queryTerms = WordTokenizer.extract(query);
-        IList<Result> results = this.engine.getTopKResults(queryTerms, numResults);
+        // Perform core search. Quoted phrases and NEAR/k operators
+        // restrict which pages match; see QueryParser. The 'scorer'
+        // parameter picks how page text is scored ("tfidf" or "bm25").
+        //
+        // Scoring runs on its own bounded pool, not on the thread serving
+        // this request; identical searches already in flight share a result.
+        Query parsed = QueryParser.parse(query);
+        String key = scorer + ":" + numResults + ":" + QueryCache.makeKey(parsed);
+        IList<Result> results = this.searches.execute(
+                key, () -> this.engine.getTopKResults(parsed, numResults, scorer));
 
         // Render results
         Map<String, Object> model = new HashMap<>();
         model.put("siteTitle", this.siteName);
         model.put("results", results);
         model.put("initialQuery", query);
+        model.put("scorer", scorer);
 
-        return this.render("search.mustache", model);
+        return this.respond(res, "search.mustache", model);
+    }
+
+    /**
+     * Suggests ways to finish a partly typed query, for search-as-you-type.
+     *
+     * Responds with a JSON array of up to 'num_results' complete queries,
+     * most popular first.
+     */
+    private String handleSuggest(Request req, Response res) {
+        String prefix = req.queryParamOrDefault("prefix", "");
+        int numResults = Integer.parseInt(req.queryParamOrDefault(
+                "num_results", String.valueOf(SearchEngine.MAX_SUGGESTIONS)));
+        numResults = Math.max(0, Math.min(numResults, SearchEngine.MAX_SUGGESTIONS));
+
+        StringBuilder output = new StringBuilder("[");
+        for (String suggestion : this.engine.getSuggestions(prefix, numResults)) {
+            if (output.length() > 1) {
+                output.append(",");
+            }
+            appendJsonString(output, suggestion);
+        }
+        output.append("]");
+
+        res.type("application/json");
+        return output.toString();
+    }
+
+    private static void appendJsonString(StringBuilder output, String value) {
+        output.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                output.append('\\').append(c);
+            } else if (c < 0x20) {
+                output.append(String.format("\\u%04x", (int) c));
+            } else {
+                output.append(c);
+            }
+        }
+        output.append('"');
+    }
+
+    /**
+     * Reports the engine's counters as plain text, one "name value" pair per
+     * line, so they can be scraped by a monitoring tool.
+     */
+    private String handleStats(Request req, Response res) {
+        res.type("text/plain");
+        return this.engine.getQueryCache().formatStats()
+                + this.engine.getSnippetGenerator().formatStats()
+                + this.searches.formatStats();
+    }
+
+    /**
+     * Serves the static file at the request's path, if there is one.
+     *
+     * Browsers may keep a file for STATIC_MAX_AGE_SECONDS, then check it with
+     * If-None-Match; we answer 304 Not Modified if it hasn't changed.
+     */
+    private String handleStatic(Request req, Response res) throws IOException {
+        StaticAssets.Asset asset = this.assets.get(req.pathInfo());
+        if (asset == null) {
+            // Spark responds with 404 Not Found
+            return null;
+        }
+
+        res.header("ETag", asset.getEtag());
+        res.header("Cache-Control", this.assets.isHotReloaded()
+                ? "no-cache"
+                : "public, max-age=" + STATIC_MAX_AGE_SECONDS);
+        if (asset.matches(req.headers("If-None-Match"))) {
+            res.status(304);
+            return "";
+        }
+        res.type(asset.getContentType());
+        res.raw().setContentLength(asset.getContents().length);
+        res.raw().getOutputStream().write(asset.getContents());
+        return "";
     }
 
     /**
@@ -145,8 +296,36 @@ public class Webapp {
         res.body(this.render("error.mustache", model));
     }
 
+    /**
+     * Handles searches turned away because we have more than we can answer
+     * in time. Clients should back off and try again.
+     */
+    private void handleOverload(OverloadedException ex, Request req, Response res) {
+        Map<String, Object> model = new HashMap<>();
+        model.put("siteTitle", this.siteName);
+        model.put("exception", "The server is busy. Please try again in a moment.");
+
+        res.status(503);
+        res.header("Retry-After", "1");
+        res.body(this.render("error.mustache", model));
+    }
+
+    /**
+     * Renders the given template straight into the response, and returns the
+     * (empty) body for Spark to send after it.
+     */
+    private String respond(Response res, String templateName, Map<String, Object> params) throws IOException {
+        res.type("text/html; charset=utf-8");
+        this.templates.render(templateName, params, res.raw().getOutputStream());
+        return "";
+    }
+
     private String render(String templateName, Map<String, Object> params) {
-        return new MustacheTemplateEngine(TEMPLATE_FILES).render(
-                new ModelAndView(params, templateName));
+        return this.templates.render(templateName, params);
+    }
+
+    private static Path findSourceFolder(String resourceFolder, boolean isDevMode) {
+        Path folder = Paths.get(SOURCE_RESOURCES, resourceFolder);
+        return isDevMode && Files.isDirectory(folder) ? folder : null;
     }
 }
@@ -0,0 +1,120 @@
+package search.analyzers;
+
+import datastructures.concrete.KVPair;
+import datastructures.concrete.dictionaries.ChainedHashDictionary;
+import datastructures.interfaces.IDictionary;
+import datastructures.interfaces.IList;
+
+import java.net.URI;
+import java.util.Arrays;
+
+/**
+ * Scores pages using Okapi BM25.
+ *
+ * Each query word contributes
+ *
+ *     idf * tf * (k1 + 1) / (tf + k1 * (1 - b + b * length / averageLength))
+ *
+ * to a page's score, where 'tf' is the number of times the word appears in
+ * the page. 'k1' controls how quickly repeating a word stops helping, and 'b'
+ * how much longer pages are penalized. A word repeated in the query counts
+ * once per repetition.
+ *
+ * Unlike TF-IDF cosine similarity, this needs no per-page norm: scoring a page
+ * reads one count per query word, plus the page's length. Each word's
+ * contribution is also at most idf * (k1 + 1), which bounds the whole score.
+ *
+ * Word counts and page lengths come from a PositionalIndex, so a scorer reflects
+ * exactly the pages in the index it was built with.
+ */
+public class Bm25Scorer implements Scorer {
+    private final PositionalIndex index;
+    private final TermDictionary termDictionary;
+    private final double k1;
+    private final double b;
+
+    /**
+     * Creates a new scorer.
+     *
+     * @param termDictionary  The dictionary the index was built with.
+     * @throws IllegalArgumentException  if k1 is negative, or b is not between 0 and 1
+     */
+    public Bm25Scorer(PositionalIndex index, TermDictionary termDictionary, double k1, double b) {
+        if (k1 < 0.0 || b < 0.0 || b > 1.0) {
+            throw new IllegalArgumentException("Expected k1 >= 0 and 0 <= b <= 1");
+        }
+        this.index = index;
+        this.termDictionary = termDictionary;
+        this.k1 = k1;
+        this.b = b;
+    }
+
+    @Override
+    public PreparedQuery prepare(IList<String> terms, IDictionary<String, Double> termWeights) {
+        IDictionary<Integer, Double> counts = new ChainedHashDictionary<>();
+        for (String word : terms) {
+            int termId = this.termDictionary.getId(word);
+            if (this.index.getPages(termId).length > 0) {
+                counts.put(termId, counts.getOrDefault(termId, 0.0) + termWeights.getOrDefault(word, 1.0));
+            }
+        }
+
+        // weights[i] is the IDF of termIds[i], times the number of times it
+        // appears in the query (scaled by its weight)
+        int[] termIds = new int[counts.size()];
+        double[] weights = new double[counts.size()];
+        int i = 0;
+        for (KVPair<Integer, Double> pair : counts) {
+            termIds[i] = pair.getKey();
+            weights[i] = pair.getValue() * this.computeIdf(this.index.getPages(pair.getKey()).length);
+            i++;
+        }
+        return new Bm25Query(termIds, weights);
+    }
+
+    /**
+     * Returns the IDF of a word in the given number of pages. Unlike the
+     * classic formula, this is never negative, even for very common words.
+     */
+    private double computeIdf(int documentFrequency) {
+        double numPages = this.index.size();
+        return Math.log(1.0 + (numPages - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+
+    private class Bm25Query implements PreparedQuery {
+        private final int[] termIds;
+        private final double[] weights;
+        private final double averageLength;
+        private final double maxScore;
+
+        public Bm25Query(int[] termIds, double[] weights) {
+            this.termIds = termIds;
+            this.weights = weights;
+            this.averageLength = index.getAveragePageLength();
+            this.maxScore = Arrays.stream(weights).sum() * (k1 + 1.0);
+        }
+
+        @Override
+        public double score(URI uri) {
+            if (this.termIds.length == 0) {
+                return 0.0;
+            }
+            int pageId = index.getPageId(uri);
+            double lengthNorm = k1 * (1.0 - b + b * index.getPageLength(pageId) / this.averageLength);
+
+            double score = 0.0;
+            for (int i = 0; i < this.termIds.length; i++) {
+                int tf = index.getCount(this.termIds[i], pageId);
+                if (tf > 0) {
+                    score += this.weights[i] * tf * (k1 + 1.0) / (tf + lengthNorm);
+                }
+            }
+            return score;
+        }
+
+        @Override
+        public double getMaxScore() {
+            return this.maxScore;
+        }
+    }
+}
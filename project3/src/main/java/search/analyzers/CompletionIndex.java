@@ -0,0 +1,392 @@
+package search.analyzers;
+
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Finds the most popular words that start with a given prefix, for
+ * search-as-you-type suggestions.
+ *
+ * Every word is given a weight (for example, the number of pages it appears
+ * on), and the completions of a prefix are the words starting with it,
+ * ordered by decreasing weight and then alphabetically.
+ *
+ * The words are stored in a trie where chains of nodes with a single child
+ * are merged into one, so each node either ends a word or has several
+ * children. A node's children are sorted by the first char that differs, so
+ * we find a child by binary search. Each node with more than 'maxResults'
+ * words below it also stores its top 'maxResults' words, so a lookup costs
+ * one step per branch along the prefix plus the size of the answer, no matter
+ * how many words share the prefix.
+ *
+ * An index never changes once built, and may be read from any number of
+ * threads at once. Changing the weights of some words (see 'update') returns
+ * a new index, which shares every node with this one except those on the
+ * paths to those words.
+ */
+public class CompletionIndex {
+    private static final char[] NO_LABELS = new char[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private final int maxResults;
+
+    // The root of the trie, or null if there are no words
+    private final Node root;
+
+    /**
+     * Builds an index of every term in the given dictionary with a positive
+     * weight, where weights[id] is the weight of the term with that id.
+     *
+     * Terms whose weight is zero (such as the words of pages that have since
+     * been removed) are never suggested.
+     *
+     * @throws IllegalArgumentException  if maxResults < 1, or if there are fewer
+     *                                   weights than terms in the dictionary
+     */
+    public CompletionIndex(TermDictionary terms, int[] weights, int maxResults) {
+        if (maxResults < 1) {
+            throw new IllegalArgumentException("maxResults must be positive");
+        }
+        if (weights.length < terms.size()) {
+            throw new IllegalArgumentException("Expected a weight for every term");
+        }
+        this.maxResults = maxResults;
+
+        int[] termIds = new int[terms.size()];
+        for (int id = 0; id < termIds.length; id++) {
+            termIds[id] = id;
+        }
+        this.root = this.withWeights(null, terms, termIds, id -> weights[id]);
+    }
+
+    private CompletionIndex(int maxResults, Node root) {
+        this.maxResults = maxResults;
+        this.root = root;
+    }
+
+    /**
+     * Returns an index like this one, except that each term with one of the
+     * given ids has the weight weights.applyAsInt(id) (so it is added if that
+     * is positive and removed if not). This index is not modified.
+     *
+     * This only rebuilds the nodes on the paths to those terms, so it takes
+     * time proportional to their number and length, rather than to the
+     * number of words in the index.
+     *
+     * @param terms  A dictionary containing every given term.
+     */
+    public CompletionIndex update(TermDictionary terms, int[] termIds, IntUnaryOperator weights) {
+        if (termIds.length == 0) {
+            return this;
+        }
+        return new CompletionIndex(this.maxResults, this.withWeights(this.root, terms, termIds, weights));
+    }
+
+    /**
+     * Returns the given trie, with the weights of the terms with the given ids
+     * changed.
+     */
+    private Node withWeights(Node root, TermDictionary terms, int[] termIds, IntUnaryOperator weights) {
+        Integer[] order = new Integer[termIds.length];
+        for (int i = 0; i < termIds.length; i++) {
+            order[i] = termIds[i];
+        }
+        Arrays.sort(order, (a, b) -> terms.getTerm(a).compareTo(terms.getTerm(b)));
+
+        // Drop any repeated ids, since 'apply' expects distinct words
+        String[] words = new String[order.length];
+        int[] wordWeights = new int[order.length];
+        int numWords = 0;
+        for (int i = 0; i < order.length; i++) {
+            if (i == 0 || !order[i].equals(order[i - 1])) {
+                words[numWords] = terms.getTerm(order[i]);
+                wordWeights[numWords] = weights.applyAsInt(order[i]);
+                numWords++;
+            }
+        }
+        return numWords == 0 ? root : this.apply(root, words, wordWeights, 0, numWords);
+    }
+
+    /**
+     * Returns the number of words that can be suggested.
+     */
+    public int size() {
+        return this.root == null ? 0 : this.root.size;
+    }
+
+    /**
+     * Returns the most this index will suggest for any one prefix.
+     */
+    public int getMaxResults() {
+        return this.maxResults;
+    }
+
+    /**
+     * Returns up to 'limit' words starting with the given prefix, most
+     * popular first. The prefix itself is included if it is a word.
+     *
+     * @throws IllegalArgumentException  if limit < 0 or limit > getMaxResults()
+     */
+    public IList<String> complete(String prefix, int limit) {
+        if (limit < 0 || limit > this.maxResults) {
+            throw new IllegalArgumentException("limit must be between 0 and " + this.maxResults);
+        }
+        IList<String> output = new DoubleLinkedList<>();
+        Node node = this.findNode(prefix);
+        if (node == null) {
+            return output;
+        }
+
+        if (node.topWords != null) {
+            for (int i = 0; i < Math.min(limit, node.topWords.length); i++) {
+                output.add(node.topWords[i]);
+            }
+        } else {
+            String[] words = new String[node.size];
+            int[] weights = new int[node.size];
+            collectWords(node, words, weights, 0);
+            String[] top = this.selectTop(words, weights, node.size, null);
+            for (int i = 0; i < Math.min(limit, top.length); i++) {
+                output.add(top[i]);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Returns the highest node whose words all start with the given prefix,
+     * or null if no word does.
+     */
+    private Node findNode(String prefix) {
+        Node node = this.root;
+        while (node != null && node.depth < prefix.length()) {
+            node = node.getChild(prefix.charAt(node.depth));
+        }
+        // We skipped over the chars inside merged chains, so check them now
+        if (node == null || !node.key.startsWith(prefix)) {
+            return null;
+        }
+        return node;
+    }
+
+    /**
+     * Returns the given node (which may be null), with the weights of the
+     * given words changed. The words in words[from] up to words[to] must be
+     * sorted, distinct, and start with the same char at the node's depth (if
+     * it has a parent). Words whose weight is not positive are removed.
+     *
+     * Returns null if that leaves no words.
+     */
+    private Node apply(Node node, String[] words, int[] weights, int from, int to) {
+        // Find the depth where these words and the node's words first differ,
+        // which is where the new node goes. If that is above the node, the
+        // new node has the old one as its only child so far.
+        int depth = commonPrefixLength(words[from], words[to - 1], Integer.MAX_VALUE);
+        String word = null;
+        int weight = 0;
+        char[] oldLabels = NO_LABELS;
+        Node[] oldChildren = NO_CHILDREN;
+        if (node != null) {
+            depth = Math.min(depth, commonPrefixLength(node.key, words[from], node.depth));
+            depth = Math.min(depth, commonPrefixLength(node.key, words[to - 1], node.depth));
+            if (depth == node.depth) {
+                word = node.word;
+                weight = node.weight;
+                oldLabels = node.labels;
+                oldChildren = node.children;
+            } else {
+                oldLabels = new char[] {node.key.charAt(depth)};
+                oldChildren = new Node[] {node};
+            }
+        }
+
+        // Since the words are sorted, only the first can end at this depth
+        int i = from;
+        if (words[i].length() == depth) {
+            word = weights[i] > 0 ? words[i] : null;
+            weight = weights[i] > 0 ? weights[i] : 0;
+            i++;
+        }
+
+        // Merge the old children with the groups of words under each label
+        char[] labels = new char[oldLabels.length + to - i];
+        Node[] children = new Node[labels.length];
+        int numChildren = 0;
+        int j = 0;
+        while (i < to || j < oldLabels.length) {
+            Node child;
+            if (i == to || (j < oldLabels.length && oldLabels[j] < words[i].charAt(depth))) {
+                child = oldChildren[j];
+                j++;
+            } else {
+                char label = words[i].charAt(depth);
+                int end = i + 1;
+                while (end < to && words[end].charAt(depth) == label) {
+                    end++;
+                }
+                Node oldChild = null;
+                if (j < oldLabels.length && oldLabels[j] == label) {
+                    oldChild = oldChildren[j];
+                    j++;
+                }
+                child = this.apply(oldChild, words, weights, i, end);
+                i = end;
+            }
+            if (child != null) {
+                labels[numChildren] = child.key.charAt(depth);
+                children[numChildren] = child;
+                numChildren++;
+            }
+        }
+
+        if (word == null && numChildren <= 1) {
+            // Nothing ends here, so there's no need for a node with one child
+            return numChildren == 0 ? null : children[0];
+        }
+        return this.makeNode(depth, word, weight,
+                Arrays.copyOf(labels, numChildren), Arrays.copyOf(children, numChildren));
+    }
+
+    private Node makeNode(int depth, String word, int weight, char[] labels, Node[] children) {
+        int size = word != null ? 1 : 0;
+        for (Node child : children) {
+            size += child.size;
+        }
+        if (size <= this.maxResults) {
+            return new Node(word != null ? word : children[0].key, depth, word, weight,
+                    labels, children, size, null, null);
+        }
+
+        // A node's top words are among its own word and its children's top
+        // words, so we merge those instead of rescanning every word below it.
+        String[] candidates = new String[this.maxResults * (children.length + 1)];
+        int[] candidateWeights = new int[candidates.length];
+        int numCandidates = 0;
+        if (word != null) {
+            candidates[numCandidates] = word;
+            candidateWeights[numCandidates] = weight;
+            numCandidates++;
+        }
+        for (Node child : children) {
+            if (child.topWords != null) {
+                System.arraycopy(child.topWords, 0, candidates, numCandidates, child.topWords.length);
+                System.arraycopy(child.topWeights, 0, candidateWeights, numCandidates, child.topWeights.length);
+                numCandidates += child.topWords.length;
+            } else {
+                numCandidates = collectWords(child, candidates, candidateWeights, numCandidates);
+            }
+        }
+        int[] topWeights = new int[this.maxResults];
+        String[] topWords = this.selectTop(candidates, candidateWeights, numCandidates, topWeights);
+        return new Node(word != null ? word : children[0].key, depth, word, weight,
+                labels, children, size, topWords, topWeights);
+    }
+
+    /**
+     * Stores every word at or below the given node, and its weight, into the
+     * given arrays from the given index on. Returns the index after the last.
+     */
+    private static int collectWords(Node node, String[] words, int[] weights, int index) {
+        if (node.word != null) {
+            words[index] = node.word;
+            weights[index] = node.weight;
+            index++;
+        }
+        for (Node child : node.children) {
+            index = collectWords(child, words, weights, index);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the most popular 'maxResults' words among the first 'length'
+     * entries of 'words', most popular first. Their weights are stored in
+     * 'topWeights', if not null.
+     */
+    private String[] selectTop(String[] words, int[] weights, int length, int[] topWeights) {
+        Integer[] sorted = new Integer[length];
+        for (int i = 0; i < length; i++) {
+            sorted[i] = i;
+        }
+        // Ties go to the alphabetically smaller word
+        Arrays.sort(sorted, (a, b) -> weights[a] != weights[b]
+                ? Integer.compare(weights[b], weights[a])
+                : words[a].compareTo(words[b]));
+
+        String[] output = new String[Math.min(this.maxResults, length)];
+        for (int i = 0; i < output.length; i++) {
+            output[i] = words[sorted[i]];
+            if (topWeights != null) {
+                topWeights[i] = weights[sorted[i]];
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Returns the number of chars the two strings have in common at their
+     * start, up to 'limit'.
+     */
+    private static int commonPrefixLength(String a, String b, int limit) {
+        int length = Math.min(limit, Math.min(a.length(), b.length()));
+        for (int i = 0; i < length; i++) {
+            if (a.charAt(i) != b.charAt(i)) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * A node of the trie. Every word at or below it starts with the first
+     * 'depth' chars of 'key', and its children each start with a different
+     * char after that.
+     */
+    private static class Node {
+        // Some word at or below this node
+        public final String key;
+        public final int depth;
+
+        // The word ending at this node, or null if there is none
+        public final String word;
+        public final int weight;
+
+        // children[i] holds the words continuing with labels[i], in order
+        public final char[] labels;
+        public final Node[] children;
+
+        // The number of words at or below this node
+        public final int size;
+
+        // The top words at or below this node, most popular first, and their
+        // weights, or null if there are no more than 'maxResults' words: we
+        // sort them when asked instead.
+        public final String[] topWords;
+        public final int[] topWeights;
+
+        public Node(String key, int depth, String word, int weight, char[] labels, Node[] children,
+                    int size, String[] topWords, int[] topWeights) {
+            this.key = key;
+            this.depth = depth;
+            this.word = word;
+            this.weight = weight;
+            this.labels = labels;
+            this.children = children;
+            this.size = size;
+            this.topWords = topWords;
+            this.topWeights = topWeights;
+        }
+
+        /**
+         * Returns the child whose words continue with the given char, or null
+         * if there is none.
+         */
+        public Node getChild(char c) {
+            int index = Arrays.binarySearch(this.labels, c);
+            return index >= 0 ? this.children[index] : null;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package search.analyzers;
+
+import datastructures.concrete.ChainedHashSet;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.concrete.dictionaries.ChainedHashDictionary;
+import datastructures.interfaces.IDictionary;
+import datastructures.interfaces.IList;
+import datastructures.interfaces.ISet;
+import search.models.Webpage;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Finds pages whose text is the same, or nearly the same, as another page's:
+ * mirrors, redirects, and the same page under different query strings.
+ *
+ * Every page gets a 64-bit SimHash of its words, so pages with similar text
+ * get signatures that differ in few bits. Two pages are duplicates if their
+ * signatures are at most MAX_DISTANCE bits apart. Pages with identical words
+ * always have identical signatures.
+ *
+ * To find duplicates without comparing every pair of pages, signatures are
+ * split into MAX_DISTANCE + 1 bands, and each band indexes a table of
+ * buckets. Signatures within MAX_DISTANCE bits of each other must agree on at
+ * least one whole band, so we only compare a page against the pages sharing
+ * one of its buckets.
+ *
+ * Each group of duplicates collapses onto one canonical page: the one with
+ * the shortest URI, ties broken alphabetically. Pages with fewer than
+ * MIN_WORDS words have too little text to judge, so are never duplicates.
+ *
+ * A detector never changes once constructed, so any number of threads may
+ * use it at once.
+ */
+public class DuplicateDetector {
+    public static final int MAX_DISTANCE = 3;
+    public static final int MIN_WORDS = 10;
+
+    private static final int NUM_BANDS = MAX_DISTANCE + 1;
+    private static final int BAND_BITS = 64 / NUM_BANDS;
+
+    // The canonical page of every duplicate, by URI. Canonical pages, and
+    // pages with no duplicates, aren't in here.
+    private final IDictionary<URI, URI> canonicals;
+
+    /**
+     * Finds the duplicates among the given pages.
+     *
+     * Implementation note: signatures are computed with a parallel stream,
+     * which runs on whatever ForkJoinPool we're called from (or the common
+     * pool otherwise).
+     */
+    public DuplicateDetector(ISet<Webpage> webpages) {
+        Webpage[] pages = new Webpage[webpages.size()];
+        int i = 0;
+        for (Webpage page : webpages) {
+            pages[i] = page;
+            i++;
+        }
+
+        // Visiting pages in order of preference means the first page of each
+        // group we see is its canonical page
+        Arrays.sort(pages, Comparator
+                .comparingInt((Webpage page) -> page.getUri().toString().length())
+                .thenComparing(page -> page.getUri().toString()));
+        long[] signatures = new long[pages.length];
+        Arrays.parallelSetAll(signatures, j -> computeSignature(pages[j].getWords()));
+
+        // Only canonical pages go in the buckets, so that every duplicate
+        // collapses onto a canonical page, never onto another duplicate
+        IDictionary<Integer, IList<Integer>> buckets = new ChainedHashDictionary<>();
+        this.canonicals = new ChainedHashDictionary<>();
+        for (int j = 0; j < pages.length; j++) {
+            if (pages[j].getWords().size() < MIN_WORDS) {
+                continue;
+            }
+            int match = findMatch(buckets, signatures, signatures[j]);
+            if (match >= 0) {
+                this.canonicals.put(pages[j].getUri(), pages[match].getUri());
+                continue;
+            }
+            for (int band = 0; band < NUM_BANDS; band++) {
+                int key = getBucketKey(signatures[j], band);
+                if (!buckets.containsKey(key)) {
+                    buckets.put(key, new DoubleLinkedList<>());
+                }
+                buckets.get(key).add(j);
+            }
+        }
+    }
+
+    /**
+     * Returns the canonical page of the page with the given URI, which is
+     * the page itself unless it is a duplicate.
+     */
+    public URI getCanonical(URI uri) {
+        return this.canonicals.getOrDefault(uri, uri);
+    }
+
+    /**
+     * Returns true if the page with the given URI duplicates another page.
+     */
+    public boolean isDuplicate(URI uri) {
+        return this.canonicals.containsKey(uri);
+    }
+
+    /**
+     * Returns the number of pages that duplicate another page.
+     */
+    public int getNumDuplicates() {
+        return this.canonicals.size();
+    }
+
+    /**
+     * Returns the given pages without their duplicates. Links to a duplicate
+     * are redirected to its canonical page, so the canonical page inherits
+     * their page rank.
+     */
+    public ISet<Webpage> collapse(ISet<Webpage> webpages) {
+        ISet<Webpage> output = new ChainedHashSet<>();
+        for (Webpage page : webpages) {
+            if (this.isDuplicate(page.getUri())) {
+                continue;
+            }
+            boolean isRedirected = false;
+            IList<URI> links = new DoubleLinkedList<>();
+            for (URI link : page.getLinks()) {
+                URI canonical = this.getCanonical(link);
+                isRedirected |= !canonical.equals(link);
+                links.add(canonical);
+            }
+            if (isRedirected) {
+                page = new Webpage(page.getUri(), links, page.getWords(),
+                        page.getSummary().getTitle(), page.getSummary().getBlurb(), page.getText());
+            }
+            output.add(page);
+        }
+        return output;
+    }
+
+    /**
+     * Returns the SimHash of the given words: bit i is set if more words
+     * hash to a value with bit i set than without.
+     */
+    public static long computeSignature(IList<String> words) {
+        int[] counts = new int[64];
+        for (String word : words) {
+            long hash = hash(word);
+            for (int bit = 0; bit < 64; bit++) {
+                counts[bit] += (hash >>> bit & 1) == 1 ? 1 : -1;
+            }
+        }
+        long signature = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (counts[bit] > 0) {
+                signature |= 1L << bit;
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * Returns the number of bits in which the two signatures differ.
+     */
+    public static int computeDistance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    /**
+     * Returns the index of a canonical page whose signature is within
+     * MAX_DISTANCE bits of the given one, or -1 if there is none.
+     */
+    private static int findMatch(IDictionary<Integer, IList<Integer>> buckets, long[] signatures, long signature) {
+        for (int band = 0; band < NUM_BANDS; band++) {
+            IList<Integer> bucket = buckets.getOrDefault(getBucketKey(signature, band), null);
+            if (bucket == null) {
+                continue;
+            }
+            for (int candidate : bucket) {
+                if (computeDistance(signatures[candidate], signature) <= MAX_DISTANCE) {
+                    return candidate;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the key of the bucket the given signature falls in for the
+     * given band: the band's number, followed by its bits.
+     */
+    private static int getBucketKey(long signature, int band) {
+        int bits = (int) (signature >>> (band * BAND_BITS)) & ((1 << BAND_BITS) - 1);
+        return band << BAND_BITS | bits;
+    }
+
+    /**
+     * Returns a 64-bit hash of the given word: FNV-1a over its UTF-8 bytes,
+     * followed by the MurmurHash3 finalizer. SimHash needs every bit of the
+     * hash to be equally likely to be set, which String.hashCode isn't.
+     */
+    private static long hash(String word) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : word.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,188 @@
+package search.analyzers;
+
+import datastructures.concrete.KVPair;
+import datastructures.concrete.dictionaries.ChainedHashDictionary;
+import datastructures.interfaces.IDictionary;
+
+import java.net.URI;
+import java.util.Arrays;
+
+/**
+ * An unweighted, directed graph of links between webpages, stored in
+ * compressed sparse row (CSR) form.
+ *
+ * Every page is assigned a dense integer id from 0 to size() - 1. The
+ * out-links of page v are the ids stored in getTargets() between indices
+ * getOffsets()[v] (inclusive) and getOffsets()[v + 1] (exclusive), sorted in
+ * increasing order.
+ *
+ * The graph is "self-contained": links to pages outside the given set of
+ * pages are dropped, as are self-loops and duplicate links.
+ */
+public class LinkGraph {
+    private final URI[] uris;
+    private final IDictionary<URI, Integer> ids;
+    private final int[] offsets;
+    private final int[] targets;
+
+    /**
+     * Builds the link graph of the given pages, where 'outLinks' maps the URI
+     * of every page to all the links that page contains.
+     */
+    public LinkGraph(IDictionary<URI, URI[]> outLinks) {
+        int numPages = outLinks.size();
+        this.uris = new URI[numPages];
+        this.ids = new ChainedHashDictionary<>();
+
+        URI[][] links = new URI[numPages][];
+        int id = 0;
+        for (KVPair<URI, URI[]> page : outLinks) {
+            this.uris[id] = page.getKey();
+            this.ids.put(page.getKey(), id);
+            links[id] = page.getValue();
+            id++;
+        }
+
+        int[][] adjacency = new int[numPages][];
+        int numEdges = 0;
+        for (int v = 0; v < numPages; v++) {
+            adjacency[v] = this.resolveLinks(v, links[v]);
+            numEdges += adjacency[v].length;
+        }
+
+        this.offsets = new int[numPages + 1];
+        this.targets = new int[numEdges];
+        for (int v = 0; v < numPages; v++) {
+            this.offsets[v + 1] = this.offsets[v] + adjacency[v].length;
+            System.arraycopy(adjacency[v], 0, this.targets, this.offsets[v], adjacency[v].length);
+        }
+    }
+
+    private LinkGraph(URI[] uris, IDictionary<URI, Integer> ids, int[] offsets, int[] targets) {
+        this.uris = uris;
+        this.ids = ids;
+        this.offsets = offsets;
+        this.targets = targets;
+    }
+
+    /**
+     * Builds a graph directly from CSR arrays, without any URIs attached to
+     * its pages. This is mainly useful for benchmarking on synthetic graphs.
+     *
+     * Each row of 'targets' must be sorted, contain no duplicates and no
+     * self-loops. The graph takes ownership of both arrays.
+     */
+    public static LinkGraph fromCsr(int[] offsets, int[] targets) {
+        int numPages = offsets.length - 1;
+        if (numPages < 0 || offsets[0] != 0 || offsets[numPages] != targets.length) {
+            throw new IllegalArgumentException("Offsets do not describe the given targets");
+        }
+        return new LinkGraph(new URI[numPages], new ChainedHashDictionary<>(), offsets, targets);
+    }
+
+    /**
+     * Returns the sorted, de-duplicated ids of every page the given page
+     * links to, ignoring self-loops and pages outside the graph.
+     */
+    private int[] resolveLinks(int source, URI[] pageLinks) {
+        int[] links = new int[pageLinks.length];
+        int size = 0;
+        for (URI link : pageLinks) {
+            int target = this.ids.getOrDefault(link, -1);
+            if (target != -1 && target != source) {
+                links[size] = target;
+                size++;
+            }
+        }
+        Arrays.sort(links, 0, size);
+
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (unique == 0 || links[i] != links[unique - 1]) {
+                links[unique] = links[i];
+                unique++;
+            }
+        }
+        return Arrays.copyOf(links, unique);
+    }
+
+    /**
+     * Returns a new graph with every edge reversed, so that the "out-links"
+     * of each page in the result are its in-links in this graph.
+     *
+     * Pages keep the same ids.
+     */
+    public LinkGraph transpose() {
+        int numPages = this.size();
+        int[] transposedOffsets = new int[numPages + 1];
+        for (int target : this.targets) {
+            transposedOffsets[target + 1]++;
+        }
+        for (int v = 0; v < numPages; v++) {
+            transposedOffsets[v + 1] += transposedOffsets[v];
+        }
+
+        // Visiting sources in increasing order keeps each in-link list sorted
+        int[] next = Arrays.copyOf(transposedOffsets, numPages);
+        int[] transposedTargets = new int[this.targets.length];
+        for (int source = 0; source < numPages; source++) {
+            for (int e = this.offsets[source]; e < this.offsets[source + 1]; e++) {
+                int target = this.targets[e];
+                transposedTargets[next[target]] = source;
+                next[target]++;
+            }
+        }
+        return new LinkGraph(this.uris, this.ids, transposedOffsets, transposedTargets);
+    }
+
+    /**
+     * Returns the number of pages in this graph.
+     */
+    public int size() {
+        return this.uris.length;
+    }
+
+    /**
+     * Returns the number of edges in this graph.
+     */
+    public int getNumEdges() {
+        return this.targets.length;
+    }
+
+    /**
+     * Returns the id of the given page, or -1 if the page is not in this graph.
+     */
+    public int getId(URI uri) {
+        return this.ids.getOrDefault(uri, -1);
+    }
+
+    /**
+     * Returns the URI of the page with the given id.
+     */
+    public URI getUri(int id) {
+        return this.uris[id];
+    }
+
+    /**
+     * Returns the number of links leaving the given page.
+     */
+    public int getOutDegree(int id) {
+        return this.offsets[id + 1] - this.offsets[id];
+    }
+
+    /**
+     * Returns the CSR row offsets of this graph. This array is shared, not
+     * copied: do not modify it.
+     */
+    public int[] getOffsets() {
+        return this.offsets;
+    }
+
+    /**
+     * Returns the CSR edge targets of this graph. This array is shared, not
+     * copied: do not modify it.
+     */
+    public int[] getTargets() {
+        return this.targets;
+    }
+}
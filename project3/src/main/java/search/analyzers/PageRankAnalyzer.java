@@ -1,23 +1,45 @@
 package search.analyzers;
 
+import datastructures.concrete.KVPair;
+import datastructures.concrete.dictionaries.ChainedHashDictionary;
 import datastructures.interfaces.IDictionary;
 import datastructures.interfaces.IList;
 import datastructures.interfaces.ISet;
-import datastructures.concrete.ChainedHashSet;
-import datastructures.concrete.KVPair;
-import datastructures.concrete.dictionaries.ChainedHashDictionary;
+import misc.exceptions.NoSuchKeyException;
 import search.models.Webpage;
 
-
 import java.net.URI;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
 
 /**
  * This class is responsible for computing the 'page rank' of all available webpages.
  * If a webpage has many different links to it, it should have a higher page rank.
  * See the spec for more details.
+ *
+ * An analyzer never changes once constructed, so any number of threads may
+ * use it at once. To add or remove pages, call 'update'.
  */
 public class PageRankAnalyzer {
-    private IDictionary<URI, Double> pageRanks;
+    // The number of consecutive pages each parallel task updates at once.
+    private static final int BLOCK_SIZE = 4096;
+
+    private final double decay;
+    private final double epsilon;
+    private final int limit;
+
+    // Every link of every page, including links to pages we haven't indexed
+    // (yet). We need these to rebuild the graph when pages are added or removed.
+    private final IDictionary<URI, URI[]> outLinks;
+
+    // The graph we computed page ranks over. It also owns the mapping from
+    // URIs to the indices of the 'pageRanks' array.
+    private final LinkGraph graph;
+
+    // pageRanks[id] contains the page rank of the page with that id in 'graph'.
+    private final double[] pageRanks;
 
     /**
      * Computes a graph representing the internet and computes the page rank of all
@@ -32,69 +54,131 @@ public class PageRankAnalyzer {
      *                  page rank never converges.
      */
     public PageRankAnalyzer(ISet<Webpage> webpages, double decay, double epsilon, int limit) {
-        // Implementation note: We have commented these method calls out so your
-        // search engine doesn't immediately crash when you try running it for the
-        // first time.
-        //
-        // You should uncomment these lines when you're ready to begin working
-        // on this class.
+        this(webpages, decay, epsilon, limit, null);
+    }
+
+    /**
+     * Computes the page rank of all available webpages, splitting the work of
+     * each iteration across the given pool. If the pool is null, runs on the
+     * calling thread instead.
+     *
+     * Both modes produce the same page ranks, within epsilon.
+     */
+    public PageRankAnalyzer(ISet<Webpage> webpages, double decay, double epsilon, int limit,
+                            ForkJoinPool pool) {
+        this.decay = decay;
+        this.epsilon = epsilon;
+        this.limit = limit;
+
+        this.outLinks = new ChainedHashDictionary<>();
+        for (Webpage page : webpages) {
+            this.outLinks.put(page.getUri(), toArray(page.getLinks()));
+        }
 
         // Step 1: Make a graph representing the 'internet'
-        IDictionary<URI, ISet<URI>> graph = this.makeGraph(webpages);
+        this.graph = new LinkGraph(this.outLinks);
 
         // Step 2: Use this graph to compute the page rank for each webpage
-        this.pageRanks = this.makePageRanks(graph, decay, limit, epsilon);
+        this.pageRanks = computePageRanks(this.graph, decay, epsilon, limit, pool);
+    }
+
+    private PageRankAnalyzer(PageRankAnalyzer previous, IDictionary<URI, URI[]> outLinks) {
+        this.decay = previous.decay;
+        this.epsilon = previous.epsilon;
+        this.limit = previous.limit;
+        this.outLinks = outLinks;
+        this.graph = new LinkGraph(outLinks);
+
+        // Start from each page's previous rank (or the average rank, for new
+        // pages), so a small change converges in a few iterations.
+        int numPages = this.graph.size();
+        double[] initialRanks = new double[numPages];
+        double total = 0.0;
+        for (int v = 0; v < numPages; v++) {
+            int oldId = previous.graph.getId(this.graph.getUri(v));
+            initialRanks[v] = oldId == -1 ? 1.0 / numPages : previous.pageRanks[oldId];
+            total += initialRanks[v];
+        }
+        // Removing pages loses rank and adding them gains some, so rescale
+        // back to a probability distribution before iterating.
+        for (int v = 0; v < numPages; v++) {
+            initialRanks[v] /= total;
+        }
 
-        // Note: we don't store the graph as a field: once we've computed the
-        // page ranks, we no longer need it!
+        this.pageRanks = computePageRanks(this.graph, this.decay, this.epsilon, this.limit, null, initialRanks);
     }
 
     /**
-     * This method converts a set of webpages into an unweighted, directed graph,
-     * in adjacency list form.
+     * Returns a new analyzer that contains every page in this one, minus the
+     * pages with the URIs in 'removed', plus the pages in 'added' (which
+     * replace any existing pages with the same URIs). This analyzer is not
+     * modified.
      *
-     * You may assume that each webpage can be uniquely identified by its URI.
-     *
-     * Note that a webpage may contain links to other webpages that are *not*
-     * included within set of webpages you were given. You should omit these
-     * links from your graph: we want the final graph we build to be
-     * entirely "self-contained".
+     * @throws NoSuchKeyException  if a URI in 'removed' belongs to no page in this analyzer
      */
-    private IDictionary<URI, ISet<URI>> makeGraph(ISet<Webpage> webpages) {
-        IDictionary<URI, ISet<URI>> graph = new ChainedHashDictionary<URI, ISet<URI>>();
-        
-        // build a set of the URIs of each webpage
-        ISet<URI> webpageURIS = new ChainedHashSet<URI>();
-        for (Webpage page : webpages) {
-            webpageURIS.add(page.getUri());
+    public PageRankAnalyzer update(IList<Webpage> added, IList<URI> removed) {
+        IDictionary<URI, URI[]> newOutLinks = new ChainedHashDictionary<>();
+        for (KVPair<URI, URI[]> pair : this.outLinks) {
+            newOutLinks.put(pair.getKey(), pair.getValue());
         }
-        
-        // crawl again through each page, get its links and add it to the graph
-        for (Webpage page : webpages) {
-            ISet<URI> pageEdges = new ChainedHashSet<URI>();
-            URI pageURI = page.getUri();
-            
-            // get the links of each page and add to edges
-            IList<URI> links = page.getLinks();
-            for (URI uriLink : links) {
-                // add to edges if a webpage in the set, and not a self-loop
-                if (webpageURIS.contains(uriLink) && !uriLink.equals(pageURI)) {
-                    pageEdges.add(uriLink);
-                }
-            }
+        for (URI uri : removed) {
+            newOutLinks.remove(uri);
+        }
+        for (Webpage page : added) {
+            newOutLinks.put(page.getUri(), toArray(page.getLinks()));
+        }
+        return new PageRankAnalyzer(this, newOutLinks);
+    }
 
-            // add our built vertex to the graph
-            graph.put(pageURI, pageEdges);  
+    private static URI[] toArray(IList<URI> links) {
+        URI[] result = new URI[links.size()];
+        int i = 0;
+        for (URI link : links) {
+            result[i] = link;
+            i++;
+        }
+        return result;
+    }
+
+    /**
+     * Computes the page rank of every page in the given graph, indexed by page id.
+     *
+     * If 'pool' is null, this uses a sequential, push-style iteration.
+     * Otherwise, it uses a pull-style iteration split across the pool.
+     */
+    public static double[] computePageRanks(LinkGraph graph, double decay, double epsilon, int limit,
+                                            ForkJoinPool pool) {
+        double[] initialRanks = new double[graph.size()];
+        Arrays.fill(initialRanks, 1.0 / graph.size());
+        return computePageRanks(graph, decay, epsilon, limit, pool, initialRanks);
+    }
+
+    /**
+     * Computes the page rank of every page in the given graph, starting from
+     * the given ranks rather than from a uniform distribution.
+     *
+     * The initial ranks must sum to 1. This method takes ownership of the array.
+     */
+    public static double[] computePageRanks(LinkGraph graph, double decay, double epsilon, int limit,
+                                            ForkJoinPool pool, double[] initialRanks) {
+        if (initialRanks.length != graph.size()) {
+            throw new IllegalArgumentException("Need exactly one initial rank per page");
+        }
+        if (pool == null) {
+            return makePageRanks(graph, decay, limit, epsilon, initialRanks);
+        } else {
+            return makePageRanksInParallel(graph, decay, limit, epsilon, pool, initialRanks);
         }
-        
-        
-        return graph;
     }
 
     /**
      * Computes the page ranks for all webpages in the graph.
      *
-     * Precondition: assumes 'this.graphs' has previously been initialized.
+     * Each iteration pushes every page's rank along its out-links into a
+     * second array, then swaps the two arrays, so iterating allocates nothing.
+     * Pages with no out-links spread their rank evenly across every page;
+     * rather than visiting every page once per dangling page, we add up the
+     * total dangling rank once and give every page an equal share of it.
      *
      * @param decay     Represents the "decay" factor when computing page rank (see spec).
      * @param epsilon   When the difference in page ranks is less then or equal to this number,
@@ -103,78 +187,165 @@ public class PageRankAnalyzer {
      *                  is meant as a safety valve to prevent us from infinite looping in case our
      *                  page rank never converges.
      */
-    private IDictionary<URI, Double> makePageRanks(IDictionary<URI, ISet<URI>> graph,
-                                                   double decay,
-                                                   int limit,
-                                                   double epsilon) {
-        // Step 1: The initialize step should go here
-        IDictionary<URI, Double> oldPageRanks = new ChainedHashDictionary<URI, Double>();
-        Double initRank = 1.0/graph.size();
-        for (KVPair<URI, ISet<URI>> vertexPair : graph) {
-            oldPageRanks.put(vertexPair.getKey(), initRank);
-        }
-        
-        // now go through updating
+    private static double[] makePageRanks(LinkGraph graph, double decay, int limit, double epsilon,
+                                          double[] initialRanks) {
+        int numPages = graph.size();
+        int[] offsets = graph.getOffsets();
+        int[] targets = graph.getTargets();
+
+        // Step 1: The initialize step
+        double[] oldPageRanks = initialRanks;
+        double[] newPageRanks = new double[numPages];
+
         for (int i = 0; i < limit; i++) {
-            // Step 2: The update step should go here
-            
-            // make new page ranks and set them all to new rank
-            Double newRank = (1-decay) / graph.size();
-            IDictionary<URI, Double> newPageRanks = new ChainedHashDictionary<URI, Double>();
-            for (KVPair<URI, ISet<URI>> vertexPair : graph) {
-                newPageRanks.put(vertexPair.getKey(), newRank);
+            // Step 2: The update step
+            double danglingRank = 0.0;
+            for (int v = 0; v < numPages; v++) {
+                if (offsets[v] == offsets[v + 1]) {
+                    danglingRank += oldPageRanks[v];
+                }
             }
-            
-            // for each page, add rank to each of it's edges
-            for (KVPair<URI, ISet<URI>> vertexPair : graph) {
-                URI vertexURI = vertexPair.getKey();
-                ISet<URI> vertexLinks = vertexPair.getValue();
-                int numUniqueLinks = vertexLinks.size();
-                
-                if (numUniqueLinks == 0) {
-                    for (KVPair<URI, ISet<URI>> graphPair : graph) {
-                        URI pageURI = graphPair.getKey();
-                        Double rankStep = decay * oldPageRanks.get(vertexURI) / graph.size();
-                        newPageRanks.put(pageURI, newPageRanks.get(pageURI) + rankStep);
-                    }
-                } else {  
-                    Double rankStep = decay * oldPageRanks.get(vertexURI) / numUniqueLinks;
-                    for (URI link : vertexLinks) {
-                        newPageRanks.put(link, newPageRanks.get(link) + rankStep);
+            Arrays.fill(newPageRanks, (1 - decay) / numPages + decay * danglingRank / numPages);
+
+            for (int v = 0; v < numPages; v++) {
+                int numUniqueLinks = offsets[v + 1] - offsets[v];
+                if (numUniqueLinks > 0) {
+                    double rankStep = decay * oldPageRanks[v] / numUniqueLinks;
+                    for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                        newPageRanks[targets[e]] += rankStep;
                     }
-                }    
+                }
             }
-                     
-            // Step 3: the convergence step should go here.
-            // Return early if we've converged.
-            Boolean converged = true;
-            for (KVPair<URI, ISet<URI>> vertexPair : graph) {
-                URI pageURI = vertexPair.getKey();
-                double diff = Math.abs(newPageRanks.get(pageURI) - oldPageRanks.get(pageURI));
-                
-                if (diff >= epsilon) {
+
+            // Step 3: The convergence step.
+            boolean converged = true;
+            for (int v = 0; v < numPages; v++) {
+                if (Math.abs(newPageRanks[v] - oldPageRanks[v]) >= epsilon) {
                     converged = false;
                     break;
-                } 
+                }
             }
-            
+
+            double[] temp = oldPageRanks;
+            oldPageRanks = newPageRanks;
+            newPageRanks = temp;
+
+            // Return early if we've converged.
             if (converged) {
-                return newPageRanks;
-            } else {
-                oldPageRanks = newPageRanks;
+                break;
             }
         }
         return oldPageRanks;
     }
 
+    /**
+     * Computes the page ranks for all webpages in the graph, in parallel.
+     *
+     * Rather than pushing rank along out-links, which would have many threads
+     * writing to the same pages, each page pulls rank from its in-links. Every
+     * page's new rank is then written by exactly one thread, so we can split
+     * the pages into fixed blocks and update the blocks independently.
+     *
+     * Sums and maximums across pages are reduced per block, then combined in
+     * block order, so the result does not depend on how many threads we use.
+     */
+    private static double[] makePageRanksInParallel(LinkGraph graph, double decay, int limit,
+                                                    double epsilon, ForkJoinPool pool,
+                                                    double[] initialRanks) {
+        int numPages = graph.size();
+        int[] outOffsets = graph.getOffsets();
+
+        LinkGraph inLinks = graph.transpose();
+        int[] inOffsets = inLinks.getOffsets();
+        int[] inSources = inLinks.getTargets();
+
+        // contributions[u] is the rank page u passes along each of its links
+        double[] contributions = new double[numPages];
+        double[] oldPageRanks = initialRanks;
+        double[] newPageRanks = new double[numPages];
+
+        int numBlocks = (numPages + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        double[] partials = new double[numBlocks];
+
+        for (int i = 0; i < limit; i++) {
+            double[] old = oldPageRanks;
+            double[] next = newPageRanks;
+
+            // Pass 1: compute each page's contribution and the dangling rank
+            forEachBlock(pool, numBlocks, numPages, (start, end, block) -> {
+                double danglingRank = 0.0;
+                for (int u = start; u < end; u++) {
+                    int numUniqueLinks = outOffsets[u + 1] - outOffsets[u];
+                    if (numUniqueLinks == 0) {
+                        danglingRank += old[u];
+                        contributions[u] = 0.0;
+                    } else {
+                        contributions[u] = old[u] / numUniqueLinks;
+                    }
+                }
+                partials[block] = danglingRank;
+            });
+            double danglingRank = 0.0;
+            for (double partial : partials) {
+                danglingRank += partial;
+            }
+            double baseRank = (1 - decay) / numPages + decay * danglingRank / numPages;
+
+            // Pass 2: pull rank along in-links, tracking the largest change
+            forEachBlock(pool, numBlocks, numPages, (start, end, block) -> {
+                double maxDiff = 0.0;
+                for (int v = start; v < end; v++) {
+                    double pulled = 0.0;
+                    for (int e = inOffsets[v]; e < inOffsets[v + 1]; e++) {
+                        pulled += contributions[inSources[e]];
+                    }
+                    next[v] = baseRank + decay * pulled;
+                    maxDiff = Math.max(maxDiff, Math.abs(next[v] - old[v]));
+                }
+                partials[block] = maxDiff;
+            });
+            double maxDiff = 0.0;
+            for (double partial : partials) {
+                maxDiff = Math.max(maxDiff, partial);
+            }
+
+            oldPageRanks = next;
+            newPageRanks = old;
+
+            if (maxDiff < epsilon) {
+                break;
+            }
+        }
+        return oldPageRanks;
+    }
+
+    /**
+     * Runs the given action once for each block of at most BLOCK_SIZE
+     * consecutive page ids, in parallel on the given pool, and waits for
+     * every block to finish.
+     */
+    private static void forEachBlock(ForkJoinPool pool, int numBlocks, int numPages, BlockAction action) {
+        pool.invoke(ForkJoinTask.adapt(() -> IntStream.range(0, numBlocks).parallel().forEach(block -> {
+            int start = block * BLOCK_SIZE;
+            action.apply(start, Math.min(start + BLOCK_SIZE, numPages), block);
+        })));
+    }
+
+    @FunctionalInterface
+    private interface BlockAction {
+        void apply(int start, int end, int block);
+    }
+
     /**
      * Returns the page rank of the given URI.
      *
-     * Precondition: the given uri must have been one of the uris within the list of
-     *               webpages given to the constructor.
+     * @throws NoSuchKeyException  if the URI belongs to no page in this analyzer
      */
     public double computePageRank(URI pageUri) {
-        // Implementation note: this method should be very simple: just one line!
-        return this.pageRanks.get(pageUri);
+        int id = this.graph.getId(pageUri);
+        if (id == -1) {
+            throw new NoSuchKeyException("No page with URI " + pageUri);
+        }
+        return this.pageRanks[id];
     }
 }
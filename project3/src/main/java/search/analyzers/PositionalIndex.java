@@ -0,0 +1,1205 @@
+package search.analyzers;
+
+import datastructures.concrete.ChainedHashSet;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.concrete.KVPair;
+import datastructures.concrete.PersistentArray;
+import datastructures.concrete.dictionaries.ChainedHashDictionary;
+import datastructures.concrete.dictionaries.PersistentHashDictionary;
+import datastructures.interfaces.IDictionary;
+import datastructures.interfaces.IList;
+import datastructures.interfaces.ISet;
+import misc.exceptions.NoSuchKeyException;
+import search.misc.WordTokenizer;
+import search.models.Query;
+import search.models.Webpage;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**
+ * Records where every word appears in every page, so we can answer phrase
+ * and proximity queries.
+ *
+ * For each word, we store the (sorted) ids of the pages that contain it, and
+ * for each of those pages, the positions of the word within the page. The
+ * positions are stored as the gaps between consecutive positions, encoded in
+ * as few bytes as possible, since most gaps are small.
+ *
+ * Words are identified by the ids of a TermDictionary that contains every
+ * word of every indexed page, such as the one owned by a TfIdfAnalyzer.
+ *
+ * The index can also find every page matching a boolean query filter, by
+ * merging and intersecting sorted lists of page ids.
+ *
+ * Finally, we keep the ids of every page's words, in order, so we can show a
+ * snippet of any page. These are encoded the same way as positions. When we
+ * have the text a page's words were taken from (see 'Webpage.getText'), we
+ * keep that too, along with where each word is in it, so snippets can show
+ * the page as written rather than its lowercased words.
+ *
+ * An index never changes once constructed, so any number of threads may use
+ * it at once. To add or remove pages, call 'update', which shares everything
+ * the change doesn't touch with this index.
+ */
+public class PositionalIndex {
+    /**
+     * The page id returned when looking up a page that is not in the index.
+     */
+    public static final int NO_SUCH_PAGE = -1;
+
+    private static final int[] EMPTY = new int[0];
+
+    // pages.get(id) is the page with that id, or null if no page has that
+    // id. The ids of removed pages are given to the next pages added, so
+    // the ids in use stay dense however many updates we make.
+    private final PersistentArray<Page> pages;
+    private final PersistentHashDictionary<URI, Integer> pageIds;
+
+    // Every id below pages.size() that no page has, or null if there are none
+    private final FreeId freeIds;
+
+    // The sum of every page's length
+    private final long totalLength;
+
+    // postings.get(termId) contains the postings of the word with that id, or
+    // null if no page contains it.
+    private final PersistentArray<Postings> postings;
+
+    // The sorted ids of the words whose postings changed in the update that
+    // made this index (see getUpdatedTerms)
+    private final int[] updatedTerms;
+
+    /**
+     * Indexes the positions of every word in every given page.
+     *
+     * @throws IllegalArgumentException  if a page contains a word not in the given dictionary
+     */
+    public PositionalIndex(ISet<Webpage> webpages, TermDictionary termDictionary) {
+        Page[] pages = new Page[webpages.size()];
+        PersistentHashDictionary<URI, Integer> pageIds = new PersistentHashDictionary<>();
+        PostingsBuilder[] builders = new PostingsBuilder[termDictionary.size()];
+        long totalLength = 0;
+        int pageId = 0;
+        for (Webpage page : webpages) {
+            pages[pageId] = addPage(pageId, page, termDictionary, termId -> {
+                if (builders[termId] == null) {
+                    builders[termId] = new PostingsBuilder();
+                }
+                return builders[termId];
+            });
+            pageIds = pageIds.plus(page.getUri(), pageId);
+            totalLength += pages[pageId].length;
+            pageId++;
+        }
+
+        Postings[] postings = new Postings[termDictionary.size()];
+        for (int termId = 0; termId < builders.length; termId++) {
+            if (builders[termId] != null) {
+                postings[termId] = builders[termId].build();
+            }
+        }
+
+        this.pages = new PersistentArray<>(pages);
+        this.pageIds = pageIds;
+        this.freeIds = null;
+        this.totalLength = totalLength;
+        this.postings = new PersistentArray<>(postings);
+        this.updatedTerms = EMPTY;
+    }
+
+    private PositionalIndex(PersistentArray<Page> pages, PersistentHashDictionary<URI, Integer> pageIds,
+                            FreeId freeIds, long totalLength, PersistentArray<Postings> postings,
+                            int[] updatedTerms) {
+        this.pages = pages;
+        this.pageIds = pageIds;
+        this.freeIds = freeIds;
+        this.totalLength = totalLength;
+        this.postings = postings;
+        this.updatedTerms = updatedTerms;
+    }
+
+    /**
+     * Returns a new index that contains every page in this one, minus the
+     * pages with the URIs in 'removed', plus the pages in 'added' (which
+     * replace any existing pages with the same URIs). This index is not
+     * modified.
+     *
+     * Only the added and removed pages, and the postings of their words, are
+     * rebuilt; all other pages and postings are shared with this index. So
+     * this takes time proportional to the size of those pages, plus the
+     * number of pages containing each of their words.
+     *
+     * The pages added take the ids of the pages removed, here or in earlier
+     * updates, before any new ones, so page ids don't grow without bound.
+     *
+     * @param termDictionary  A dictionary containing every word in every page,
+     *                        old and new, with the same ids as the dictionary
+     *                        this index was built with.
+     * A URI may appear in 'removed' any number of times.
+     *
+     * @throws NoSuchKeyException  if a URI in 'removed' belongs to no page in this index
+     */
+    public PositionalIndex update(IList<Webpage> added, IList<URI> removed, TermDictionary termDictionary) {
+        // If the same URI was added twice, the later page wins
+        IDictionary<URI, Webpage> addedPages = new ChainedHashDictionary<>();
+        for (Webpage page : added) {
+            addedPages.put(page.getUri(), page);
+        }
+
+        PersistentArray<Page> newPages = this.pages;
+        PersistentHashDictionary<URI, Integer> newPageIds = this.pageIds;
+        FreeId newFreeIds = this.freeIds;
+        long newTotalLength = this.totalLength;
+
+        // Remove every page we're removing or replacing, and find every word
+        // whose postings we need to rebuild: the words of the removed pages,
+        // then those of the added pages
+        IList<URI> removedUris = new DoubleLinkedList<>();
+        ISet<URI> isRemoved = new ChainedHashSet<>();
+        for (URI uri : removed) {
+            // Removing a page twice is the same as removing it once
+            if (!isRemoved.contains(uri)) {
+                removedUris.add(uri);
+                isRemoved.add(uri);
+            }
+        }
+        for (KVPair<URI, Webpage> pair : addedPages) {
+            if (this.pageIds.containsKey(pair.getKey()) && !isRemoved.contains(pair.getKey())) {
+                removedUris.add(pair.getKey());
+            }
+        }
+        ISet<Integer> removedPages = new ChainedHashSet<>();
+        ISet<Integer> touchedTerms = new ChainedHashSet<>();
+        for (URI uri : removedUris) {
+            int removedId = newPageIds.get(uri);
+            Page page = newPages.get(removedId);
+            for (int termId : page.termIds) {
+                touchedTerms.add(termId);
+            }
+            removedPages.add(removedId);
+            newPageIds = newPageIds.minus(uri);
+            newPages = newPages.with(removedId, null);
+            newFreeIds = new FreeId(removedId, newFreeIds);
+            newTotalLength -= page.length;
+        }
+
+        // Give every added page a free id, or a new one if there are none
+        // left, then index them in order of id, so each word's new postings
+        // are sorted
+        long[] order = new long[addedPages.size()];
+        Webpage[] pagesToAdd = new Webpage[addedPages.size()];
+        int numAdded = 0;
+        for (KVPair<URI, Webpage> pair : addedPages) {
+            int pageId;
+            if (newFreeIds != null) {
+                pageId = newFreeIds.id;
+                newFreeIds = newFreeIds.next;
+            } else {
+                pageId = newPages.size();
+                newPages = newPages.plus(null);
+            }
+            pagesToAdd[numAdded] = pair.getValue();
+            order[numAdded] = ((long) pageId << 32) | numAdded;
+            numAdded++;
+        }
+        Arrays.sort(order);
+
+        IDictionary<Integer, PostingsBuilder> builders = new ChainedHashDictionary<>();
+        IntFunction<PostingsBuilder> getBuilder = termId -> {
+            if (!builders.containsKey(termId)) {
+                builders.put(termId, new PostingsBuilder());
+                touchedTerms.add(termId);
+            }
+            return builders.get(termId);
+        };
+        for (long entry : order) {
+            int pageId = (int) (entry >>> 32);
+            Webpage webpage = pagesToAdd[(int) entry];
+            Page page = addPage(pageId, webpage, termDictionary, getBuilder);
+            newPages = newPages.with(pageId, page);
+            newPageIds = newPageIds.plus(webpage.getUri(), pageId);
+            newTotalLength += page.length;
+        }
+
+        // Merge the surviving postings of every touched word with those of
+        // the added pages. Every other word's postings are shared as they are.
+        PersistentArray<Postings> newPostings = this.postings;
+        while (newPostings.size() < termDictionary.size()) {
+            newPostings = newPostings.plus(null);
+        }
+        int[] removedIds = new int[removedPages.size()];
+        int numRemoved = 0;
+        for (int pageId : removedPages) {
+            removedIds[numRemoved] = pageId;
+            numRemoved++;
+        }
+        Arrays.sort(removedIds);
+        int[] updatedTerms = new int[touchedTerms.size()];
+        int numUpdated = 0;
+        for (int termId : touchedTerms) {
+            Postings addedPostings = builders.containsKey(termId) ? builders.get(termId).build() : null;
+            newPostings = newPostings.with(
+                    termId, merge(this.getPostings(termId), removedIds, addedPostings));
+            updatedTerms[numUpdated] = termId;
+            numUpdated++;
+        }
+        Arrays.sort(updatedTerms);
+        return new PositionalIndex(newPages, newPageIds, newFreeIds, newTotalLength, newPostings, updatedTerms);
+    }
+
+    /**
+     * Returns the postings of every page in 'old' (if not null) but not in
+     * the sorted array 'removedIds', together with those in 'added' (if not
+     * null), or null if that leaves no pages.
+     */
+    private static Postings merge(Postings old, int[] removedIds, Postings added) {
+        PostingsBuilder builder = new PostingsBuilder();
+        int numOld = old == null ? 0 : old.pages.length;
+        int numAdded = added == null ? 0 : added.pages.length;
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < numOld || j < numAdded) {
+            if (j == numAdded || (i < numOld && old.pages[i] < added.pages[j])) {
+                while (k < removedIds.length && removedIds[k] < old.pages[i]) {
+                    k++;
+                }
+                if (k == removedIds.length || removedIds[k] != old.pages[i]) {
+                    old.copyTo(builder, i);
+                }
+                i++;
+            } else {
+                // An added page may have taken the id of a removed one
+                if (i < numOld && old.pages[i] == added.pages[j]) {
+                    i++;
+                }
+                added.copyTo(builder, j);
+                j++;
+            }
+        }
+        return builder.isEmpty() ? null : builder.build();
+    }
+
+    /**
+     * Adds the positions of every word in the given page to the builders of
+     * those words (as returned by 'getBuilder'), and returns the page.
+     */
+    private static Page addPage(int pageId, Webpage page, TermDictionary termDictionary,
+                                IntFunction<PostingsBuilder> getBuilder) {
+        // Sorting (term id, position) pairs groups each word's positions
+        // together, in increasing order.
+        IList<String> words = page.getWords();
+        long[] packed = new long[words.size()];
+        // A builder doubles as a growable buffer of varints
+        PostingsBuilder text = new PostingsBuilder();
+        int position = 0;
+        for (String word : words) {
+            int termId = termDictionary.getId(word);
+            if (termId == TermDictionary.NO_SUCH_TERM) {
+                throw new IllegalArgumentException("Word not in dictionary: " + word);
+            }
+            packed[position] = ((long) termId << 32) | position;
+            text.writeVarInt(termId);
+            position++;
+        }
+        Arrays.sort(packed);
+
+        int[] termIds = new int[packed.length];
+        int numTerms = 0;
+        int[] positions = new int[packed.length];
+        int start = 0;
+        while (start < packed.length) {
+            int termId = (int) (packed[start] >>> 32);
+            int end = start;
+            while (end < packed.length && (int) (packed[end] >>> 32) == termId) {
+                positions[end - start] = (int) packed[end];
+                end++;
+            }
+            getBuilder.apply(termId).add(pageId, positions, end - start);
+            termIds[numTerms] = termId;
+            numTerms++;
+            start = end;
+        }
+
+        // Each word's span is stored as its distance from the end of the
+        // word before it, then its length. A text whose words don't match
+        // the page's is of no use, so we drop it.
+        String source = page.getText();
+        byte[] spans = null;
+        if (source != null) {
+            int[] offsets = WordTokenizer.findWords(source);
+            if (offsets.length == 2 * words.size()) {
+                PostingsBuilder builder = new PostingsBuilder();
+                int end = 0;
+                for (int i = 0; i < offsets.length; i += 2) {
+                    builder.writeVarInt(offsets[i] - end);
+                    builder.writeVarInt(offsets[i + 1] - offsets[i]);
+                    end = offsets[i + 1];
+                }
+                spans = builder.getBytes();
+            } else {
+                source = null;
+            }
+        }
+        return new Page(page.getUri(), Arrays.copyOf(termIds, numTerms), words.size(), text.getBytes(),
+                source, spans);
+    }
+
+    /**
+     * Returns the number of pages in this index.
+     */
+    public int size() {
+        return this.pageIds.size();
+    }
+
+    /**
+     * Returns the sorted ids of every word whose pages may differ between this
+     * index and the one 'update' made it from: the words of every page added
+     * or removed. Returns an empty array if this index was not made by
+     * 'update'. Do not modify the returned array.
+     */
+    public int[] getUpdatedTerms() {
+        return this.updatedTerms;
+    }
+
+    /**
+     * Returns the number of words in the page with the given id.
+     */
+    public int getPageLength(int pageId) {
+        Page page = this.pages.get(pageId);
+        return page == null ? 0 : page.length;
+    }
+
+    /**
+     * Returns the average number of words in a page, or 0 if there are no pages.
+     */
+    public double getAveragePageLength() {
+        return this.pageIds.isEmpty() ? 0.0 : (double) this.totalLength / this.pageIds.size();
+    }
+
+    /**
+     * Returns the id of the page with the given URI, or NO_SUCH_PAGE if that
+     * page is not in this index.
+     */
+    public int getPageId(URI uri) {
+        return this.pageIds.getOrDefault(uri, NO_SUCH_PAGE);
+    }
+
+    /**
+     * Returns the URI of the page with the given id.
+     */
+    public URI getUri(int pageId) {
+        Page page = this.pages.get(pageId);
+        return page == null ? null : page.uri;
+    }
+
+    /**
+     * Returns the postings of the word with the given id, or null if no page
+     * contains it.
+     */
+    private Postings getPostings(int termId) {
+        if (termId < 0 || termId >= this.postings.size()) {
+            return null;
+        }
+        return this.postings.get(termId);
+    }
+
+    /**
+     * Returns the sorted ids of every page containing the word with the given
+     * id. Do not modify the returned array.
+     */
+    public int[] getPages(int termId) {
+        Postings postings = this.getPostings(termId);
+        return postings == null ? EMPTY : postings.pages;
+    }
+
+    /**
+     * Returns the number of times the word with the given id appears in the
+     * page with the given id.
+     */
+    public int getCount(int termId, int pageId) {
+        Postings postings = this.getPostings(termId);
+        if (postings == null) {
+            return 0;
+        }
+        int index = Arrays.binarySearch(postings.pages, pageId);
+        return index < 0 ? 0 : postings.counts[index];
+    }
+
+    /**
+     * Returns the ids of the words at positions 'from' (inclusive) up to 'to'
+     * (exclusive) in the page with the given id.
+     *
+     * @throws IndexOutOfBoundsException  if the range isn't within the page
+     */
+    public int[] getTermIds(int pageId, int from, int to) {
+        if (from < 0 || to > this.getPageLength(pageId) || from > to) {
+            throw new IndexOutOfBoundsException("Bad range: " + from + " to " + to);
+        }
+        byte[] text = this.pages.get(pageId).text;
+        int[] termIds = new int[to - from];
+        int position = 0;
+        int i = 0;
+        while (position < to) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = text[i];
+                i++;
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            if (position >= from) {
+                termIds[position - from] = value;
+            }
+            position++;
+        }
+        return termIds;
+    }
+
+    /**
+     * Returns the text the words of the page with the given id were taken
+     * from (see 'Webpage.getText'), or null if we don't have it.
+     */
+    public String getText(int pageId) {
+        Page page = this.pages.get(pageId);
+        return page == null ? null : page.source;
+    }
+
+    /**
+     * Returns where the words at positions 'from' (inclusive) up to 'to'
+     * (exclusive) of the page with the given id are in its text (see
+     * 'getText'): the offset of the first char of each word, followed by the
+     * offset just past its last. Returns null if we don't have the text.
+     *
+     * @throws IndexOutOfBoundsException  if the range isn't within the page
+     */
+    public int[] getWordSpans(int pageId, int from, int to) {
+        if (from < 0 || to > this.getPageLength(pageId) || from > to) {
+            throw new IndexOutOfBoundsException("Bad range: " + from + " to " + to);
+        }
+        byte[] encoded = this.pages.get(pageId).spans;
+        if (encoded == null) {
+            return null;
+        }
+        int[] spans = new int[2 * (to - from)];
+        int start = 0;
+        int end = 0;
+        int i = 0;
+        for (int k = 0; k < 2 * to; k++) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = encoded[i];
+                i++;
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+
+            // Values alternate between the gap before a word and its length
+            if (k % 2 == 0) {
+                start = end + value;
+            } else {
+                end = start + value;
+                int position = k / 2;
+                if (position >= from) {
+                    spans[2 * (position - from)] = start;
+                    spans[2 * (position - from) + 1] = end;
+                }
+            }
+        }
+        return spans;
+    }
+
+    /**
+     * Returns the position of the first word of the window of 'size'
+     * consecutive words in the given page that contains the most distinct
+     * words with the given ids, breaking ties by the number of occurrences,
+     * then by the earliest window. Within that, the matches are centered in
+     * the window where possible. Returns -1 if the page contains none of the words.
+     */
+    public int findBestWindow(int pageId, int[] termIds, int size) {
+        // Gather every occurrence of every word as (position, word index)
+        // pairs, sorted by position
+        int numOccurrences = 0;
+        int[][] positions = new int[termIds.length][];
+        for (int i = 0; i < termIds.length; i++) {
+            positions[i] = this.getPositions(termIds[i], pageId);
+            numOccurrences += positions[i].length;
+        }
+        if (numOccurrences == 0) {
+            return -1;
+        }
+        long[] occurrences = new long[numOccurrences];
+        int n = 0;
+        for (int i = 0; i < termIds.length; i++) {
+            for (int position : positions[i]) {
+                occurrences[n] = ((long) position << 32) | i;
+                n++;
+            }
+        }
+        Arrays.sort(occurrences);
+
+        // Slide a window across the occurrences, tracking how many times each
+        // word appears in it
+        int[] counts = new int[termIds.length];
+        int distinct = 0;
+        int bestDistinct = -1;
+        int bestCount = -1;
+        int bestFirst = 0;
+        int bestLast = 0;
+        int low = 0;
+        for (int high = 0; high < occurrences.length; high++) {
+            int highPosition = (int) (occurrences[high] >>> 32);
+            if (counts[(int) occurrences[high]]++ == 0) {
+                distinct++;
+            }
+            while (highPosition - (int) (occurrences[low] >>> 32) >= size) {
+                if (--counts[(int) occurrences[low]] == 0) {
+                    distinct--;
+                }
+                low++;
+            }
+            int count = high - low + 1;
+            if (distinct > bestDistinct || (distinct == bestDistinct && count > bestCount)) {
+                bestDistinct = distinct;
+                bestCount = count;
+                bestFirst = (int) (occurrences[low] >>> 32);
+                bestLast = highPosition;
+            }
+        }
+
+        int slack = size - (bestLast - bestFirst + 1);
+        int start = Math.min(bestFirst - slack / 2, this.getPageLength(pageId) - size);
+        return Math.max(start, 0);
+    }
+
+    /**
+     * Returns the sorted positions of the word with the given id within the
+     * page with the given id, or an empty array if the page doesn't contain it.
+     */
+    public int[] getPositions(int termId, int pageId) {
+        Postings postings = this.getPostings(termId);
+        return postings == null ? EMPTY : postings.getPositions(pageId);
+    }
+
+    /**
+     * Returns the sorted ids of every page containing every word with the
+     * given ids. An empty list of words matches every page.
+     */
+    public int[] findPagesWithAll(int[] termIds) {
+        if (termIds.length == 0) {
+            return this.findAllPages();
+        }
+
+        // Intersecting the shortest lists first keeps every intermediate
+        // result as small as possible.
+        int[][] lists = new int[termIds.length][];
+        for (int i = 0; i < termIds.length; i++) {
+            lists[i] = this.getPages(termIds[i]);
+        }
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.length, b.length));
+
+        int[] result = lists[0];
+        for (int i = 1; i < lists.length && result.length > 0; i++) {
+            result = intersect(result, lists[i]);
+        }
+        return result;
+    }
+
+    private int[] findAllPages() {
+        int[] all = new int[this.pageIds.size()];
+        int i = 0;
+        for (int pageId = 0; pageId < this.pages.size(); pageId++) {
+            if (this.pages.get(pageId) != null) {
+                all[i] = pageId;
+                i++;
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Returns the sorted ids of every page matching the given filter.
+     *
+     * @param termDictionary  The dictionary this index was built with.
+     */
+    public int[] findPages(Query.Filter filter, TermDictionary termDictionary) {
+        return this.findPages(filter, null, termDictionary);
+    }
+
+    /**
+     * Returns the sorted ids of every page matching the given filter, among
+     * the given sorted candidates (or among every page, if 'candidates' is
+     * null). Do not modify the returned array.
+     *
+     * Passing down the pages that can still match means we only check word
+     * positions, and only subtract NOT clauses, for pages that survived
+     * every cheaper test.
+     */
+    private int[] findPages(Query.Filter filter, int[] candidates, TermDictionary termDictionary) {
+        if (filter instanceof Query.Word) {
+            int[] pages = this.getPages(termDictionary.getId(((Query.Word) filter).getWord()));
+            return candidates == null ? pages : intersect(candidates, pages);
+        } else if (filter instanceof Query.Phrase) {
+            int[] termIds = findTermIds(((Query.Phrase) filter).getWords(), termDictionary);
+            if (termIds == null) {
+                return EMPTY;
+            }
+            int[] pages = this.findCandidates(termIds, candidates);
+            int[] matches = new int[pages.length];
+            int numMatches = 0;
+            for (int pageId : pages) {
+                if (this.containsPhrase(pageId, termIds)) {
+                    matches[numMatches] = pageId;
+                    numMatches++;
+                }
+            }
+            return Arrays.copyOf(matches, numMatches);
+        } else if (filter instanceof Query.Near) {
+            Query.Near near = (Query.Near) filter;
+            int first = termDictionary.getId(near.getFirst());
+            int second = termDictionary.getId(near.getSecond());
+            if (first == TermDictionary.NO_SUCH_TERM || second == TermDictionary.NO_SUCH_TERM) {
+                return EMPTY;
+            }
+            int[] pages = this.findCandidates(new int[] {first, second}, candidates);
+            int[] matches = new int[pages.length];
+            int numMatches = 0;
+            for (int pageId : pages) {
+                if (this.findMinDistance(pageId, first, second) <= near.getDistance()) {
+                    matches[numMatches] = pageId;
+                    numMatches++;
+                }
+            }
+            return Arrays.copyOf(matches, numMatches);
+        } else if (filter instanceof Query.And) {
+            return this.findPagesMatchingAll(((Query.And) filter).getChildren(), candidates, termDictionary);
+        } else if (filter instanceof Query.Or) {
+            int[] result = EMPTY;
+            for (Query.Filter child : ((Query.Or) filter).getChildren()) {
+                result = union(result, this.findPages(child, candidates, termDictionary));
+            }
+            return result;
+        } else if (filter instanceof Query.Not) {
+            int[] pages = candidates == null ? this.findAllPages() : candidates;
+            return subtract(pages, this.findPages(((Query.Not) filter).getChild(), pages, termDictionary));
+        }
+        throw new IllegalArgumentException("Unknown filter: " + filter);
+    }
+
+    /**
+     * Returns the sorted ids of every page matching all of the given filters,
+     * among the given candidates (or every page, if 'candidates' is null).
+     */
+    private int[] findPagesMatchingAll(IList<Query.Filter> filters, int[] candidates, TermDictionary termDictionary) {
+        // We evaluate the filters likely to match the fewest pages first, so
+        // every later filter has as few candidates as possible to check. NOT
+        // clauses go last, since they only remove pages.
+        Query.Filter[] positive = new Query.Filter[filters.size()];
+        long[] sizes = new long[filters.size()];
+        int numPositive = 0;
+        IList<Query.Filter> negative = new DoubleLinkedList<>();
+        for (Query.Filter filter : filters) {
+            if (filter instanceof Query.Not) {
+                negative.add(((Query.Not) filter).getChild());
+            } else {
+                positive[numPositive] = filter;
+                sizes[numPositive] = this.estimateSize(filter, termDictionary);
+                numPositive++;
+            }
+        }
+        Integer[] order = new Integer[numPositive];
+        for (int i = 0; i < numPositive; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(sizes[a], sizes[b]));
+
+        int[] result = candidates;
+        for (int i : order) {
+            result = this.findPages(positive[i], result, termDictionary);
+            if (result.length == 0) {
+                return EMPTY;
+            }
+        }
+        if (result == null) {
+            result = this.findAllPages();
+        }
+        for (Query.Filter filter : negative) {
+            result = subtract(result, this.findPages(filter, result, termDictionary));
+        }
+        return result;
+    }
+
+    /**
+     * Returns (roughly) the most pages the given filter could match, without
+     * looking at any word positions.
+     */
+    private long estimateSize(Query.Filter filter, TermDictionary termDictionary) {
+        if (filter instanceof Query.Word) {
+            return this.getPages(termDictionary.getId(((Query.Word) filter).getWord())).length;
+        } else if (filter instanceof Query.Phrase) {
+            long size = this.size();
+            for (String word : ((Query.Phrase) filter).getWords()) {
+                size = Math.min(size, this.getPages(termDictionary.getId(word)).length);
+            }
+            return size;
+        } else if (filter instanceof Query.Near) {
+            Query.Near near = (Query.Near) filter;
+            return Math.min(
+                    this.getPages(termDictionary.getId(near.getFirst())).length,
+                    this.getPages(termDictionary.getId(near.getSecond())).length);
+        } else if (filter instanceof Query.And) {
+            long size = this.size();
+            for (Query.Filter child : ((Query.And) filter).getChildren()) {
+                size = Math.min(size, this.estimateSize(child, termDictionary));
+            }
+            return size;
+        } else if (filter instanceof Query.Or) {
+            long size = 0;
+            for (Query.Filter child : ((Query.Or) filter).getChildren()) {
+                size += this.estimateSize(child, termDictionary);
+            }
+            return Math.min(size, this.size());
+        }
+        return this.size();
+    }
+
+    /**
+     * Returns the sorted ids of the pages containing every word with the
+     * given ids, among the given candidates (or every page, if null).
+     */
+    private int[] findCandidates(int[] termIds, int[] candidates) {
+        int[] pages = this.findPagesWithAll(termIds);
+        return candidates == null ? pages : intersect(candidates, pages);
+    }
+
+    /**
+     * Returns the ids of the given words, or null if some word is in no page.
+     */
+    private static int[] findTermIds(IList<String> words, TermDictionary termDictionary) {
+        int[] termIds = new int[words.size()];
+        int i = 0;
+        for (String word : words) {
+            termIds[i] = termDictionary.getId(word);
+            if (termIds[i] == TermDictionary.NO_SUCH_TERM) {
+                return null;
+            }
+            i++;
+        }
+        return termIds;
+    }
+
+    /**
+     * Returns true if the given page contains the words with the given ids
+     * consecutively, in order.
+     */
+    public boolean containsPhrase(int pageId, int[] termIds) {
+        if (termIds.length == 0) {
+            return true;
+        }
+        int[][] positions = new int[termIds.length][];
+        for (int i = 0; i < termIds.length; i++) {
+            positions[i] = this.getPositions(termIds[i], pageId);
+            if (positions[i].length == 0) {
+                return false;
+            }
+        }
+
+        for (int start : positions[0]) {
+            boolean matches = true;
+            for (int i = 1; i < termIds.length && matches; i++) {
+                matches = Arrays.binarySearch(positions[i], start + i) >= 0;
+            }
+            if (matches) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the smallest distance (in words) between an occurrence of the
+     * first word and an occurrence of the second in the given page, or
+     * Integer.MAX_VALUE if the page doesn't contain both.
+     *
+     * If both ids are the same, this returns the smallest distance between
+     * two different occurrences of that word.
+     */
+    public int findMinDistance(int pageId, int firstTermId, int secondTermId) {
+        int[] first = this.getPositions(firstTermId, pageId);
+        int[] second = this.getPositions(secondTermId, pageId);
+
+        if (firstTermId == secondTermId) {
+            int best = Integer.MAX_VALUE;
+            for (int i = 1; i < first.length; i++) {
+                best = Math.min(best, first[i] - first[i - 1]);
+            }
+            return best;
+        }
+        return findMinDistance(first, second);
+    }
+
+    /**
+     * Returns the smallest difference between a value in the first sorted
+     * array and a value in the second, or Integer.MAX_VALUE if either is empty.
+     */
+    public static int findMinDistance(int[] first, int[] second) {
+        // Walk both sorted lists together, always advancing the smaller
+        int best = Integer.MAX_VALUE;
+        int i = 0;
+        int j = 0;
+        while (i < first.length && j < second.length) {
+            best = Math.min(best, Math.abs(first[i] - second[j]));
+            if (first[i] < second[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the sorted values that appear in both sorted arrays.
+     *
+     * For each value in the smaller array, we gallop through the larger one:
+     * we probe 1, 2, 4, ... entries ahead of where the last search ended, then
+     * binary search the last gap. This takes O(m log(n / m)) time for arrays
+     * of sizes m <= n, which is much faster than a linear merge when one list
+     * is far shorter than the other.
+     */
+    public static int[] intersect(int[] a, int[] b) {
+        if (a.length > b.length) {
+            int[] temp = a;
+            a = b;
+            b = temp;
+        }
+
+        int[] result = new int[a.length];
+        int size = 0;
+        int low = 0;
+        for (int value : a) {
+            low = gallop(b, low, value);
+            if (low == b.length) {
+                break;
+            }
+            if (b[low] == value) {
+                result[size] = value;
+                size++;
+                low++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Returns the sorted values in the first sorted array that are not in the
+     * second.
+     *
+     * Like intersect, we gallop through whichever array is larger, so
+     * removing a few pages from a long list (or many from a short one) takes
+     * time proportional to the shorter list.
+     */
+    public static int[] subtract(int[] a, int[] b) {
+        if (b.length == 0) {
+            return a;
+        }
+        int[] result = new int[a.length];
+        int size = 0;
+        if (a.length <= b.length) {
+            int low = 0;
+            for (int value : a) {
+                low = gallop(b, low, value);
+                if (low == b.length || b[low] != value) {
+                    result[size] = value;
+                    size++;
+                }
+            }
+        } else {
+            // Copy the runs of 'a' between consecutive values of 'b'
+            int from = 0;
+            for (int value : b) {
+                int to = gallop(a, from, value);
+                System.arraycopy(a, from, result, size, to - from);
+                size += to - from;
+                from = to < a.length && a[to] == value ? to + 1 : to;
+            }
+            System.arraycopy(a, from, result, size, a.length - from);
+            size += a.length - from;
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Returns the sorted values that appear in either sorted array.
+     */
+    public static int[] union(int[] a, int[] b) {
+        if (a.length == 0) {
+            return b;
+        } else if (b.length == 0) {
+            return a;
+        }
+        int[] result = new int[a.length + b.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                result[size] = a[i];
+                i++;
+            } else if (a[i] > b[j]) {
+                result[size] = b[j];
+                j++;
+            } else {
+                result[size] = a[i];
+                i++;
+                j++;
+            }
+            size++;
+        }
+        System.arraycopy(a, i, result, size, a.length - i);
+        size += a.length - i;
+        System.arraycopy(b, j, result, size, b.length - j);
+        size += b.length - j;
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Returns the index of the first entry in array[from..] that is at least
+     * the given value, or array.length if there is none.
+     */
+    private static int gallop(int[] array, int from, int value) {
+        int step = 1;
+        int high = from;
+        while (high < array.length && array[high] < value) {
+            from = high + 1;
+            high += step;
+            step *= 2;
+        }
+        high = Math.min(high, array.length);
+
+        // The answer is now in [from, high]
+        while (from < high) {
+            int mid = (from + high) >>> 1;
+            if (array[mid] < value) {
+                from = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * A single indexed page.
+     */
+    private static class Page {
+        public final URI uri;
+
+        // The sorted ids of every word in the page, so we know which postings
+        // to update when the page is removed.
+        public final int[] termIds;
+
+        // The number of words in the page.
+        public final int length;
+
+        // The ids of the words in the page, in order, encoded like positions.
+        public final byte[] text;
+
+        // The text the words were taken from, and where each word is in it,
+        // or null if we don't have the text (see 'addPage').
+        public final String source;
+        public final byte[] spans;
+
+        public Page(URI uri, int[] termIds, int length, byte[] text, String source, byte[] spans) {
+            this.uri = uri;
+            this.termIds = termIds;
+            this.length = length;
+            this.text = text;
+            this.source = source;
+            this.spans = spans;
+        }
+    }
+
+    /**
+     * A page id that no page has, in a list of every such id. Lists are
+     * shared between an index and the ones 'update' returns, so they never
+     * change once constructed.
+     */
+    private static class FreeId {
+        public final int id;
+        public final FreeId next;
+
+        public FreeId(int id, FreeId next) {
+            this.id = id;
+            this.next = next;
+        }
+    }
+
+    /**
+     * The positions of a single word within every page that contains it.
+     */
+    private static class Postings {
+        // The sorted ids of every page containing the word.
+        public final int[] pages;
+
+        // counts[i] is the number of times the word appears in pages[i].
+        public final int[] counts;
+
+        // The positions within pages[i] are encoded in bytes[offsets[i]]
+        // up to (but not including) bytes[offsets[i + 1]].
+        public final int[] offsets;
+        public final byte[] bytes;
+
+        public Postings(int[] pages, int[] counts, int[] offsets, byte[] bytes) {
+            this.pages = pages;
+            this.counts = counts;
+            this.offsets = offsets;
+            this.bytes = bytes;
+        }
+
+        public int[] getPositions(int pageId) {
+            int index = Arrays.binarySearch(this.pages, pageId);
+            if (index < 0) {
+                return EMPTY;
+            }
+            return decode(this.bytes, this.offsets[index], this.offsets[index + 1]);
+        }
+
+        /**
+         * Adds the i-th page in these postings to the builder.
+         */
+        public void copyTo(PostingsBuilder builder, int i) {
+            builder.addEncoded(this.pages[i], this.counts[i], this.bytes, this.offsets[i], this.offsets[i + 1]);
+        }
+    }
+
+    /**
+     * Builds the postings of a single word, one page at a time, in
+     * increasing order of page id.
+     */
+    private static class PostingsBuilder {
+        private int[] pages;
+        private int[] counts;
+        private int[] offsets;
+        private byte[] bytes;
+        private int numPages;
+        private int numBytes;
+
+        public PostingsBuilder() {
+            this.pages = new int[4];
+            this.counts = new int[4];
+            this.offsets = new int[5];
+            this.bytes = new byte[16];
+            this.numPages = 0;
+            this.numBytes = 0;
+        }
+
+        public boolean isEmpty() {
+            return this.numPages == 0;
+        }
+
+        /**
+         * Adds the first 'count' of the given sorted positions for the given page.
+         */
+        public void add(int pageId, int[] positions, int count) {
+            this.startPage(pageId, count);
+            int previous = 0;
+            for (int i = 0; i < count; i++) {
+                this.writeVarInt(positions[i] - previous);
+                previous = positions[i];
+            }
+            this.offsets[this.numPages] = this.numBytes;
+        }
+
+        /**
+         * Adds 'count' already-encoded positions for the given page.
+         */
+        public void addEncoded(int pageId, int count, byte[] source, int from, int to) {
+            this.startPage(pageId, count);
+            this.ensureBytes(this.numBytes + (to - from));
+            System.arraycopy(source, from, this.bytes, this.numBytes, to - from);
+            this.numBytes += to - from;
+            this.offsets[this.numPages] = this.numBytes;
+        }
+
+        /**
+         * Returns every byte written so far.
+         */
+        public byte[] getBytes() {
+            return Arrays.copyOf(this.bytes, this.numBytes);
+        }
+
+        public Postings build() {
+            return new Postings(
+                    Arrays.copyOf(this.pages, this.numPages),
+                    Arrays.copyOf(this.counts, this.numPages),
+                    Arrays.copyOf(this.offsets, this.numPages + 1),
+                    Arrays.copyOf(this.bytes, this.numBytes));
+        }
+
+        private void startPage(int pageId, int count) {
+            if (this.numPages == this.pages.length) {
+                this.pages = Arrays.copyOf(this.pages, this.pages.length * 2);
+                this.counts = Arrays.copyOf(this.counts, this.pages.length);
+                this.offsets = Arrays.copyOf(this.offsets, this.pages.length + 1);
+            }
+            this.pages[this.numPages] = pageId;
+            this.counts[this.numPages] = count;
+            this.offsets[this.numPages] = this.numBytes;
+            this.numPages++;
+        }
+
+        /**
+         * Writes the given non-negative int 7 bits at a time, lowest bits
+         * first, setting the top bit of every byte but the last.
+         */
+        private void writeVarInt(int value) {
+            this.ensureBytes(this.numBytes + 5);
+            while (value >= 0x80) {
+                this.bytes[this.numBytes] = (byte) (value | 0x80);
+                this.numBytes++;
+                value >>>= 7;
+            }
+            this.bytes[this.numBytes] = (byte) value;
+            this.numBytes++;
+        }
+
+        private void ensureBytes(int capacity) {
+            if (capacity > this.bytes.length) {
+                this.bytes = Arrays.copyOf(this.bytes, Math.max(capacity, this.bytes.length * 2));
+            }
+        }
+    }
+
+    /**
+     * Decodes the positions written by PostingsBuilder.add.
+     */
+    private static int[] decode(byte[] bytes, int from, int to) {
+        // Every position takes at least one byte
+        int[] positions = new int[to - from];
+        int count = 0;
+        int previous = 0;
+        int i = from;
+        while (i < to) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[i];
+                i++;
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += value;
+            positions[count] = previous;
+            count++;
+        }
+        return count == positions.length ? positions : Arrays.copyOf(positions, count);
+    }
+}
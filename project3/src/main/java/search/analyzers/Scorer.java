@@ -0,0 +1,51 @@
+package search.analyzers;
+
+import datastructures.concrete.dictionaries.ChainedHashDictionary;
+import datastructures.interfaces.IDictionary;
+import datastructures.interfaces.IList;
+
+import java.net.URI;
+
+/**
+ * Decides how relevant a page's text is to a search query.
+ *
+ * A scorer belongs to one version of the index, and never changes once
+ * constructed, so any number of threads may use it at once.
+ */
+public interface Scorer {
+    /**
+     * Prepares to score pages against the given query words. Scoring the same
+     * query against many pages should call this once and reuse the result.
+     */
+    default PreparedQuery prepare(IList<String> terms) {
+        return this.prepare(terms, new ChainedHashDictionary<>());
+    }
+
+    /**
+     * Like prepare(terms), except each occurrence of a word in 'weights'
+     * counts as much as that many occurrences of an ordinary word, for
+     * words the user is less likely to have meant (such as spelling
+     * corrections). Words with no weight count as usual.
+     */
+    PreparedQuery prepare(IList<String> terms, IDictionary<String, Double> weights);
+
+    /**
+     * A query that is ready to score pages.
+     */
+    interface PreparedQuery {
+        /**
+         * Returns the relevance of the page with the given URI to this query.
+         * This is never negative, and is zero if the page contains none of
+         * the query's words.
+         *
+         * Precondition: the given uri must belong to a page this scorer knows about.
+         */
+        double score(URI uri);
+
+        /**
+         * Returns an upper bound on the score of any page, so callers can skip
+         * pages that could never make it into the top results.
+         */
+        double getMaxScore();
+    }
+}
@@ -0,0 +1,402 @@
+package search.analyzers;
+
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.concrete.KVPair;
+import datastructures.interfaces.IList;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Finds the words in a vocabulary that are within a few typos of a given
+ * word, so misspelled query words can still match pages.
+ *
+ * Two words are as far apart as the fewest single-char insertions, deletions,
+ * substitutions and swaps of adjacent chars it takes to turn one into the
+ * other (the "optimal string alignment" distance).
+ *
+ * We use a symmetric deletion index: if two words are within distance d,
+ * deleting at most d chars from each gives a common string. So at build time
+ * we index every word under each way of deleting up to maxDistance of its
+ * chars, and at lookup time we generate the same deletions of the query word
+ * and look each one up. Lookups touch a few dozen keys no matter how large the
+ * vocabulary is; everything found is then checked against the real distance.
+ *
+ * Only the first PREFIX_LENGTH chars of a word are used for its keys, which
+ * bounds the number of keys per word without missing any matches: each edit
+ * to a word costs at most one deletion from each side's prefix, so the
+ * prefixes of two words within distance d still share a key.
+ *
+ * Keys are stored as hashes, packed together with the id of their word into
+ * one sorted long[], rather than as strings in a hash table. A hash collision
+ * only adds a candidate that fails the distance check.
+ *
+ * Every word in the dictionary is indexed, whatever its weight, and weights
+ * are only looked up for the candidates of a lookup. So when the dictionary
+ * grows or weights change, 'update' only has to index the new words: it keeps
+ * their keys in a second, smaller array, and merges the two once the second
+ * grows too large, rather than rebuilding everything.
+ *
+ * A corrector is immutable once built, and may be read from any number of
+ * threads at once, as long as its weights may be.
+ */
+public class SpellingCorrector {
+    public static final int PREFIX_LENGTH = 7;
+
+    // The recent keys are merged into the rest once there are more than
+    // 1/MERGE_RATIO as many of them
+    private static final int MERGE_RATIO = 8;
+
+    private final int maxDistance;
+
+    // The words we can suggest (those with a positive weight), and their weights
+    private final TermDictionary terms;
+    private final IntUnaryOperator weights;
+
+    // Sorted (key hash, term id) pairs, as packed by 'pack'. The keys of the
+    // words added by recent updates are kept apart, so that an update
+    // doesn't need to copy every key.
+    private final long[] entries;
+    private final long[] recentEntries;
+
+    /**
+     * Builds a corrector that suggests every term in the given dictionary with
+     * a positive weight, where weights[id] is the weight of the term with that
+     * id. When several corrections are equally close, the heavier one is
+     * preferred.
+     *
+     * @throws IllegalArgumentException  if maxDistance < 0, or if there are fewer
+     *                                   weights than terms in the dictionary
+     */
+    public SpellingCorrector(TermDictionary terms, int[] weights, int maxDistance) {
+        this(terms, copyWeights(terms, weights), maxDistance);
+    }
+
+    /**
+     * Builds a corrector that suggests every term in the given dictionary with
+     * a positive weight, where weights.applyAsInt(id) is the weight of the
+     * term with that id. Weights are looked up when suggesting corrections,
+     * not now.
+     *
+     * @throws IllegalArgumentException  if maxDistance < 0
+     */
+    public SpellingCorrector(TermDictionary terms, IntUnaryOperator weights, int maxDistance) {
+        if (maxDistance < 0) {
+            throw new IllegalArgumentException("maxDistance must be non-negative");
+        }
+        this.maxDistance = maxDistance;
+        this.terms = terms;
+        this.weights = weights;
+        this.entries = computeEntries(terms, 0, maxDistance);
+        this.recentEntries = new long[0];
+    }
+
+    private SpellingCorrector(TermDictionary terms, IntUnaryOperator weights, int maxDistance,
+                              long[] entries, long[] recentEntries) {
+        this.maxDistance = maxDistance;
+        this.terms = terms;
+        this.weights = weights;
+        this.entries = entries;
+        this.recentEntries = recentEntries;
+    }
+
+    private static IntUnaryOperator copyWeights(TermDictionary terms, int[] weights) {
+        if (weights.length < terms.size()) {
+            throw new IllegalArgumentException("Expected a weight for every term");
+        }
+        int[] copy = Arrays.copyOf(weights, terms.size());
+        return id -> copy[id];
+    }
+
+    /**
+     * Returns a corrector like this one, for the given dictionary and weights.
+     * This corrector is not modified.
+     *
+     * Only the terms the dictionary has gained are indexed, so this takes time
+     * proportional to their number, plus the time to copy the keys of words
+     * added by earlier updates (never more than 1/MERGE_RATIO of all keys),
+     * rather than the time to index the whole dictionary again.
+     *
+     * @param terms  A dictionary containing every term in this corrector's
+     *               dictionary, with the same ids.
+     */
+    public SpellingCorrector update(TermDictionary terms, IntUnaryOperator weights) {
+        long[] recentEntries = merge(
+                this.recentEntries, computeEntries(terms, this.terms.size(), this.maxDistance));
+        if (recentEntries.length * MERGE_RATIO <= this.entries.length) {
+            return new SpellingCorrector(terms, weights, this.maxDistance, this.entries, recentEntries);
+        }
+        return new SpellingCorrector(
+                terms, weights, this.maxDistance, merge(this.entries, recentEntries), new long[0]);
+    }
+
+    /**
+     * Returns the sorted keys of every term in the given dictionary with an id
+     * of at least 'from', as packed by 'pack'.
+     */
+    private static long[] computeEntries(TermDictionary terms, int from, int maxDistance) {
+        long[] entries = new long[16];
+        int numEntries = 0;
+        for (int id = from; id < terms.size(); id++) {
+            // Different deletions can give the same key ("aab" minus either
+            // 'a'), so we drop the repeats before storing them
+            int[] hashes = computeKeyHashes(terms.getTerm(id), maxDistance);
+            Arrays.sort(hashes);
+            for (int i = 0; i < hashes.length; i++) {
+                if (i == 0 || hashes[i] != hashes[i - 1]) {
+                    if (numEntries == entries.length) {
+                        entries = Arrays.copyOf(entries, entries.length * 2);
+                    }
+                    entries[numEntries] = pack(hashes[i], id);
+                    numEntries++;
+                }
+            }
+        }
+        entries = Arrays.copyOf(entries, numEntries);
+        Arrays.sort(entries);
+        return entries;
+    }
+
+    /**
+     * Returns the entries of both of the given sorted arrays, sorted.
+     */
+    private static long[] merge(long[] a, long[] b) {
+        long[] result = new long[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < result.length; k++) {
+            if (j == b.length || (i < a.length && a[i] <= b[j])) {
+                result[k] = a[i];
+                i++;
+            } else {
+                result[k] = b[j];
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of words this corrector can suggest. This looks up
+     * the weight of every term in the dictionary.
+     */
+    public int size() {
+        int size = 0;
+        for (int id = 0; id < this.terms.size(); id++) {
+            if (this.weights.applyAsInt(id) > 0) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the greatest distance this corrector can search.
+     */
+    public int getMaxDistance() {
+        return this.maxDistance;
+    }
+
+    /**
+     * Returns up to 'limit' words within the given distance of the given word,
+     * paired with their distances. The closest words come first, then the
+     * heaviest, then the alphabetically first. The word itself is included
+     * (at distance 0) if it is in the vocabulary.
+     *
+     * @throws IllegalArgumentException  if maxDistance < 0 or maxDistance > getMaxDistance(),
+     *                                   or if limit < 0
+     */
+    public IList<KVPair<String, Integer>> findCorrections(String word, int maxDistance, int limit) {
+        if (maxDistance < 0 || maxDistance > this.maxDistance) {
+            throw new IllegalArgumentException("maxDistance must be between 0 and " + this.maxDistance);
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must be non-negative");
+        }
+
+        // Gather the id of every word sharing a key with this one. Words within
+        // distance d share a key made with at most d deletions on each side,
+        // so the query word needs no more than that.
+        int[] hashes = computeKeyHashes(word, maxDistance);
+        int[] candidates = new int[16];
+        int numCandidates = 0;
+        for (int hash : hashes) {
+            for (long[] entries : new long[][] {this.entries, this.recentEntries}) {
+                for (int i = findFirstEntry(entries, hash); i < entries.length; i++) {
+                    if ((int) (entries[i] >> 32) != hash) {
+                        break;
+                    }
+                    if (numCandidates == candidates.length) {
+                        candidates = Arrays.copyOf(candidates, candidates.length * 2);
+                    }
+                    candidates[numCandidates] = (int) entries[i];
+                    numCandidates++;
+                }
+            }
+        }
+        Arrays.sort(candidates, 0, numCandidates);
+
+        // Keep the distinct candidates we can suggest that are really close enough
+        String[] words = new String[numCandidates];
+        int[] weights = new int[numCandidates];
+        int[] distances = new int[numCandidates];
+        int numMatches = 0;
+        for (int i = 0; i < numCandidates; i++) {
+            if (i > 0 && candidates[i] == candidates[i - 1]) {
+                continue;
+            }
+            int weight = this.weights.applyAsInt(candidates[i]);
+            if (weight <= 0) {
+                continue;
+            }
+            String candidate = this.terms.getTerm(candidates[i]);
+            int distance = computeDistance(word, candidate, maxDistance);
+            if (distance <= maxDistance) {
+                words[numMatches] = candidate;
+                weights[numMatches] = weight;
+                distances[numMatches] = distance;
+                numMatches++;
+            }
+        }
+
+        Integer[] order = new Integer[numMatches];
+        for (int i = 0; i < numMatches; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            if (distances[a] != distances[b]) {
+                return Integer.compare(distances[a], distances[b]);
+            } else if (weights[a] != weights[b]) {
+                return Integer.compare(weights[b], weights[a]);
+            } else {
+                return words[a].compareTo(words[b]);
+            }
+        });
+
+        IList<KVPair<String, Integer>> output = new DoubleLinkedList<>();
+        for (int i = 0; i < Math.min(limit, numMatches); i++) {
+            output.add(new KVPair<>(words[order[i]], distances[order[i]]));
+        }
+        return output;
+    }
+
+    /**
+     * Returns the index of the first of the given entries whose key has the
+     * given hash, or where it would be if there is none.
+     */
+    private static int findFirstEntry(long[] entries, int hash) {
+        long target = pack(hash, 0);
+        int low = 0;
+        int high = entries.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (entries[mid] < target) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the hash of every string we get by deleting up to maxDistance
+     * chars from the first PREFIX_LENGTH chars of the given word, including
+     * the prefix itself. The result may contain repeats.
+     */
+    private static int[] computeKeyHashes(String word, int maxDistance) {
+        int length = Math.min(word.length(), PREFIX_LENGTH);
+        int[] hashes = new int[16];
+        int size = 0;
+        // 'deleted' holds the positions deleted so far, in increasing order
+        int[] deleted = new int[maxDistance];
+        int numDeleted = 0;
+        int next = 0;
+        while (true) {
+            if (size == hashes.length) {
+                hashes = Arrays.copyOf(hashes, size * 2);
+            }
+            hashes[size] = hashSkipping(word, length, deleted, numDeleted);
+            size++;
+
+            // Step to the next set of positions, like counting: delete one
+            // more position if we can, else move the last one along
+            if (numDeleted < maxDistance && next < length) {
+                deleted[numDeleted] = next;
+                numDeleted++;
+                next++;
+                continue;
+            }
+            while (numDeleted > 0 && deleted[numDeleted - 1] + 1 >= length) {
+                numDeleted--;
+            }
+            if (numDeleted == 0) {
+                break;
+            }
+            deleted[numDeleted - 1]++;
+            next = deleted[numDeleted - 1] + 1;
+        }
+        return Arrays.copyOf(hashes, size);
+    }
+
+    /**
+     * Returns the hash of the first 'length' chars of the given word, minus
+     * the given (sorted) positions. This matches String.hashCode, so no
+     * strings need to be built.
+     */
+    private static int hashSkipping(String word, int length, int[] deleted, int numDeleted) {
+        int hash = 0;
+        int skip = 0;
+        for (int i = 0; i < length; i++) {
+            if (skip < numDeleted && deleted[skip] == i) {
+                skip++;
+            } else {
+                hash = 31 * hash + word.charAt(i);
+            }
+        }
+        return hash;
+    }
+
+    private static long pack(int hash, int id) {
+        return ((long) hash << 32) | (id & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the distance between the two words, or any value greater than
+     * 'limit' if they are further apart than that.
+     */
+    public static int computeDistance(String a, String b, int limit) {
+        if (Math.abs(a.length() - b.length()) > limit) {
+            return limit + 1;
+        }
+        // Three rows of the usual dynamic programming table: the row before
+        // last is needed for swaps
+        int[] beforeLast = new int[b.length() + 1];
+        int[] last = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            last[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int best = Math.min(last[j - 1] + cost, Math.min(last[j] + 1, current[j - 1] + 1));
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    best = Math.min(best, beforeLast[j - 2] + 1);
+                }
+                current[j] = best;
+                rowMin = Math.min(rowMin, best);
+            }
+            if (rowMin > limit) {
+                return limit + 1;
+            }
+            int[] temp = beforeLast;
+            beforeLast = last;
+            last = current;
+            current = temp;
+        }
+        return Math.min(last[b.length()], limit + 1);
+    }
+}
@@ -0,0 +1,151 @@
+package search.analyzers;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns every unique word in the corpus a dense integer id, so the rest of
+ * the search pipeline can store and compare ints instead of hashing strings.
+ *
+ * The initial vocabulary is assigned ids in lexicographic order; words added
+ * later (for example, when new pages are indexed) are given the next unused
+ * id. Ids are never reused or reassigned.
+ *
+ * A dictionary never changes once constructed, so any number of threads may
+ * use it at once. Adding terms returns a new dictionary, which shares its
+ * storage with this one: since ids are only ever appended, this dictionary
+ * simply ignores any id at or past its own size.
+ */
+public class TermDictionary {
+    /**
+     * The id returned when looking up a term that is not in the dictionary.
+     */
+    public static final int NO_SUCH_TERM = -1;
+
+    // The terms of this dictionary are the first 'size' terms in 'storage',
+    // which later dictionaries may have added more terms to.
+    private final Storage storage;
+    private final int size;
+
+    /**
+     * Builds a dictionary containing every term in the given vocabulary.
+     *
+     * @throws IllegalArgumentException  if the vocabulary contains the same term twice
+     */
+    public TermDictionary(Iterable<String> vocabulary) {
+        String[] terms = new String[16];
+        int size = 0;
+        for (String term : vocabulary) {
+            if (size == terms.length) {
+                terms = Arrays.copyOf(terms, terms.length * 2);
+            }
+            terms[size] = term;
+            size++;
+        }
+        Arrays.sort(terms, 0, size);
+
+        this.storage = new Storage(Math.max(16, size));
+        for (int id = 0; id < size; id++) {
+            if (id > 0 && terms[id].equals(terms[id - 1])) {
+                throw new IllegalArgumentException("Duplicate term: " + terms[id]);
+            }
+            this.storage.append(terms[id]);
+        }
+        this.size = size;
+    }
+
+    private TermDictionary(Storage storage, int size) {
+        this.storage = storage;
+        this.size = size;
+    }
+
+    /**
+     * Returns the id of the given term, or NO_SUCH_TERM if the term is not
+     * in this dictionary.
+     */
+    public int getId(String term) {
+        Integer id = this.storage.ids.get(term);
+        return id != null && id < this.size ? id : NO_SUCH_TERM;
+    }
+
+    /**
+     * Returns a dictionary containing every term in this one, at the same
+     * ids, plus every given term not in this one yet, at the next unused ids.
+     * This dictionary is not modified.
+     *
+     * The new dictionary normally shares this one's storage, so this takes
+     * time proportional to the number of given terms, not to the size of the
+     * dictionary. Only if terms were already added to this same dictionary
+     * once before do we need to copy it first.
+     */
+    public TermDictionary withTerms(Iterable<String> terms) {
+        synchronized (this.storage) {
+            Storage target = this.storage;
+            if (target.size != this.size) {
+                // Another dictionary already took the next ids for its own terms
+                target = new Storage(Math.max(16, this.size));
+                for (int id = 0; id < this.size; id++) {
+                    target.append(this.storage.terms[id]);
+                }
+            }
+            for (String term : terms) {
+                if (!target.ids.containsKey(term)) {
+                    target.append(term);
+                }
+            }
+            return target == this.storage && target.size == this.size ? this : new TermDictionary(target, target.size);
+        }
+    }
+
+    /**
+     * Returns the term with the given id.
+     *
+     * @throws IndexOutOfBoundsException  if id < 0 or id >= this.size()
+     */
+    public String getTerm(int id) {
+        if (id < 0 || id >= this.size) {
+            throw new IndexOutOfBoundsException();
+        }
+        return this.storage.terms[id];
+    }
+
+    /**
+     * Returns the number of unique terms in this dictionary.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * The terms of a dictionary and every dictionary made from it by adding
+     * terms. Terms are only ever appended, by one thread at a time, so
+     * readers can safely look up any id below a size they were given.
+     */
+    private static class Storage {
+        // terms[id] is the term with that id; ids maps each term back to its id.
+        public volatile String[] terms;
+        public final ConcurrentHashMap<String, Integer> ids;
+
+        // Only read and written while holding this storage's lock
+        public int size;
+
+        public Storage(int capacity) {
+            this.terms = new String[capacity];
+            this.ids = new ConcurrentHashMap<>(capacity);
+            this.size = 0;
+        }
+
+        public void append(String term) {
+            String[] terms = this.terms;
+            if (this.size == terms.length) {
+                terms = Arrays.copyOf(terms, terms.length * 2);
+            }
+            terms[this.size] = term;
+            // Publishing the array (again) after writing the term makes it
+            // visible to any thread that reads 'terms' afterwards
+            this.terms = terms;
+            this.ids.put(term, this.size);
+            this.size++;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package search.analyzers;
+
+import java.util.Arrays;
+
+/**
+ * A sparse vector of term weights, keyed by the ids in a TermDictionary.
+ *
+ * The term ids are stored in sorted order alongside a parallel array of
+ * weights, which is far more compact than a dictionary of boxed values and
+ * lets us look up a term with a binary search.
+ */
+public class TermVector {
+    private final int[] termIds;
+    private final float[] weights;
+    private final double norm;
+
+    /**
+     * Constructs a new vector. The two arrays must be the same length, and
+     * 'termIds' must be sorted in strictly increasing order.
+     *
+     * This vector takes ownership of both arrays: do not modify them afterwards.
+     */
+    public TermVector(int[] termIds, float[] weights) {
+        if (termIds.length != weights.length) {
+            throw new IllegalArgumentException("Term ids and weights must have the same length");
+        }
+        this.termIds = termIds;
+        this.weights = weights;
+
+        double sumOfSquares = 0.0;
+        for (float weight : weights) {
+            sumOfSquares += (double) weight * weight;
+        }
+        this.norm = Math.sqrt(sumOfSquares);
+    }
+
+    /**
+     * Returns the number of terms with an entry in this vector.
+     */
+    public int size() {
+        return this.termIds.length;
+    }
+
+    /**
+     * Returns the term id of the i-th entry.
+     */
+    public int getTermId(int i) {
+        return this.termIds[i];
+    }
+
+    /**
+     * Returns the weight of the i-th entry.
+     */
+    public double getWeightAt(int i) {
+        return this.weights[i];
+    }
+
+    /**
+     * Returns the weight of the given term, or 0 if it has no entry.
+     */
+    public double getWeight(int termId) {
+        int index = Arrays.binarySearch(this.termIds, termId);
+        return index >= 0 ? this.weights[index] : 0.0;
+    }
+
+    /**
+     * Returns the Euclidean norm of this vector.
+     */
+    public double getNorm() {
+        return this.norm;
+    }
+}
@@ -1,178 +1,413 @@
 package search.analyzers;
 
-import datastructures.concrete.ChainedHashSet;
+import datastructures.concrete.DoubleLinkedList;
 import datastructures.concrete.KVPair;
+import datastructures.concrete.PersistentArray;
 import datastructures.concrete.dictionaries.ChainedHashDictionary;
+import datastructures.concrete.dictionaries.PersistentHashDictionary;
 import datastructures.interfaces.IDictionary;
 import datastructures.interfaces.IList;
 import datastructures.interfaces.ISet;
+import misc.exceptions.NoSuchKeyException;
 import search.models.Webpage;
 
 import java.net.URI;
 import java.lang.Math;
+import java.util.Arrays;
 
 /**
  * This class is responsible for computing how "relevant" any given document is
  * to a given search query.
  *
  * See the spec for more details.
+ *
+ * Implementation note: an analyzer never changes once constructed, so any
+ * number of threads may use it at once. To add or remove pages, call 'update',
+ * which returns a new analyzer and leaves this one untouched.
  */
 public class TfIdfAnalyzer {
-    // This field must contain the IDF score for every single word in all
-    // the documents.
-    private IDictionary<String, Double> idfScores;
+    // Assigns every word in every document a dense integer id. Every other
+    // structure in this class is keyed by these ids rather than by strings.
+    private final TermDictionary termDictionary;
+
+    // documentFrequencies.get(id) contains the number of pages the word with
+    // that id appears in.
+    private final PersistentArray<Integer> documentFrequencies;
+
+    // idfScores[id] contains the IDF score of the word with that id. Every
+    // update changes every score, so each analyzer computes its own when it
+    // is built, and never changes them afterwards.
+    private final double[] idfScores;
+
+    // The term frequency (TF) vector of each webpage, using each webpage's
+    // page URI as a unique key.
+    //
+    // We store raw term frequencies and apply the IDF scores when answering
+    // a query. Adding or removing a page changes every IDF score, so baking
+    // them into the stored vectors would mean rebuilding every vector on
+    // every update; this way, unchanged vectors are shared between versions.
+    private final PersistentHashDictionary<URI, IndexedDocument> documents;
 
-    // This field must contain the TF-IDF vector for each webpage you were given
-    // in the constructor.
+    // norms[document.slot] contains the norm of that document's TF-IDF
+    // vector. Like the IDF scores, every norm changes on every update, so
+    // each analyzer computes its own when it is built.
     //
-    // We will use each webpage's page URI as a unique key.
-    private IDictionary<URI, IDictionary<String, Double>> documentTfIdfVectors;
-    
-    private double numPages;
+    // Every document has a slot of its own, which it keeps across updates.
+    // The slots of removed documents are listed in 'freeSlots', and given to
+    // the next documents added, so 'norms' doesn't grow without bound.
+    private final double[] norms;
+    private final int[] freeSlots;
 
-    // Feel free to add extra fields and helper methods.
+    private final double numPages;
 
     public TfIdfAnalyzer(ISet<Webpage> webpages) {
-		// Implementation note: We have commented these method calls out so your
-		// search engine doesn't immediately crash when you try running it for the
-		// first time.
-		//
-		// You should uncomment these lines when you're ready to begin working
-		// on this class.
-		
-		this.numPages = (double) webpages.size();
-		this.idfScores = this.computeIdfScores(webpages);
-		this.documentTfIdfVectors = this.computeAllDocumentTfIdfVectors(webpages);
-   
-    }
-
-    // Note: this method, strictly speaking, doesn't need to exist. However,
-    // we've included it so we can add some unit tests to help verify that your
-    // constructor correctly initializes your fields.
+        this(computeIndexData(webpages));
+    }
+
+    private TfIdfAnalyzer(IndexData data) {
+        this(data.termDictionary, new PersistentArray<>(data.documentFrequencies),
+                computeDocuments(data), data.uris.length, new int[0]);
+    }
+
+    /**
+     * Builds an analyzer over the given terms and documents, whose slots are
+     * all less than 'numSlots', computing the IDF score of every word and the
+     * norm of every document's TF-IDF vector.
+     */
+    private TfIdfAnalyzer(TermDictionary termDictionary, PersistentArray<Integer> documentFrequencies,
+                          PersistentHashDictionary<URI, IndexedDocument> documents,
+                          int numSlots, int[] freeSlots) {
+        this.termDictionary = termDictionary;
+        this.documentFrequencies = documentFrequencies;
+        this.documents = documents;
+        this.freeSlots = freeSlots;
+        this.numPages = (double) documents.size();
+        this.idfScores = this.computeIdfScores();
+
+        IndexedDocument[] bySlot = new IndexedDocument[numSlots];
+        for (KVPair<URI, IndexedDocument> pair : documents) {
+            bySlot[pair.getValue().slot] = pair.getValue();
+        }
+
+        // The IDF scores are final by now, so every thread can safely read
+        // them while we compute the norms in parallel.
+        this.norms = new double[numSlots];
+        Arrays.parallelSetAll(this.norms, slot -> bySlot[slot] == null
+                ? 0.0
+                : this.computeNorm(bySlot[slot].termFrequencies));
+    }
+
+    /**
+     * Gives the page with each TF vector the slot matching its index.
+     */
+    private static PersistentHashDictionary<URI, IndexedDocument> computeDocuments(IndexData data) {
+        PersistentHashDictionary<URI, IndexedDocument> documents = new PersistentHashDictionary<>();
+        for (int i = 0; i < data.uris.length; i++) {
+            documents = documents.plus(data.uris[i], new IndexedDocument(data.termFrequencies[i], i));
+        }
+        return documents;
+    }
+
+    /**
+     * Gathers the terms and TF vectors of every given page.
+     *
+     * Implementation note: this runs its passes as parallel streams, which
+     * execute on whatever ForkJoinPool we're called from (or the common pool
+     * otherwise). SearchEngine uses this to bound the number of indexing threads.
+     */
+    private static IndexData computeIndexData(ISet<Webpage> webpages) {
+        Webpage[] pages = new Webpage[webpages.size()];
+        int i = 0;
+        for (Webpage page : webpages) {
+            pages[i] = page;
+            i++;
+        }
+
+        TermStatistics stats = Arrays.stream(pages)
+                .parallel()
+                .collect(TermStatistics::new, TermStatistics::add, TermStatistics::merge);
+
+        IList<String> vocabulary = new DoubleLinkedList<>();
+        for (KVPair<String, Double> word : stats.documentFrequencies) {
+            vocabulary.add(word.getKey());
+        }
+        TermDictionary termDictionary = new TermDictionary(vocabulary);
+
+        Integer[] documentFrequencies = new Integer[termDictionary.size()];
+        for (KVPair<String, Double> word : stats.documentFrequencies) {
+            documentFrequencies[termDictionary.getId(word.getKey())] = word.getValue().intValue();
+        }
+
+        DocumentCounts[] counts = new DocumentCounts[stats.documentCounts.size()];
+        i = 0;
+        for (DocumentCounts document : stats.documentCounts) {
+            counts[i] = document;
+            i++;
+        }
+
+        // The term dictionary is read-only by now, so every thread can
+        // safely consult it at once.
+        URI[] uris = new URI[counts.length];
+        TermVector[] termFrequencies = new TermVector[counts.length];
+        Arrays.parallelSetAll(termFrequencies, j -> computeTfVector(termDictionary, counts[j]));
+        for (int j = 0; j < counts.length; j++) {
+            uris[j] = counts[j].uri;
+        }
+        return new IndexData(termDictionary, documentFrequencies, uris, termFrequencies);
+    }
+
+    /**
+     * Returns the dictionary of every word this analyzer has seen.
+     */
+    public TermDictionary getTermDictionary() {
+        return this.termDictionary;
+    }
+
+    /**
+     * Returns the TF-IDF vector of every document, keyed by URI and word.
+     *
+     * Note: this analyzer stores its vectors in a much more compact form, so
+     * this method builds a fresh copy every time it's called. It's meant only
+     * for testing and debugging.
+     */
     public IDictionary<URI, IDictionary<String, Double>> getDocumentTfIdfVectors() {
-        return this.documentTfIdfVectors;
-    }
-
-    // Note: these private methods are suggestions or hints on how to structure your
-    // code. However, since they're private, you're not obligated to implement exactly
-    // these methods: feel free to change or modify these methods however you want. The
-    // important thing is that your 'computeRelevance' method ultimately returns the
-    // correct answer in an efficient manner.
-
-    /**
-     * Return a dictionary mapping every single unique word found
-     * in every single document to their IDF score.
-     */
-    private IDictionary<String, Double> computeIdfScores(ISet<Webpage> pages) {
-    		IDictionary<String, Double> result = new ChainedHashDictionary<>();
-    		
-    		// Iterate through all the pages to find how many 
-    		// pages a certain word occurs in
-    		for (Webpage page : pages) {
-    			
-    			// Get all the words from a specific page and 
-    			// put them in a hash set -- disregards duplicates
-    			ISet<String> words = new ChainedHashSet<>();
-    			for (String word : page.getWords()) {
-    				words.add(word);
-    			}
-    			
-    			// Add all words from the set into the dictionary
-    			// If the words already appear in the dictionary, 
-    			// Update their occurrence value
-    			for (String word : words) {
-    				if (!result.containsKey(word)) {
-    					result.put(word, 1.0);
-    				} else {
-    					result.put(word, result.get(word) + 1.0);
-    				}
-    			}
-    		}
-    		
-    		// Update all occurrence values
-    		// to IDF values
-    		for (KVPair<String, Double> word : result) {
-    			result.put(word.getKey(), calculateIDF(word.getValue()));
-    		}
-    		
-    		return result;
+        IDictionary<URI, IDictionary<String, Double>> result = new ChainedHashDictionary<>();
+        for (KVPair<URI, IndexedDocument> pair : this.documents) {
+            TermVector vector = pair.getValue().termFrequencies;
+            IDictionary<String, Double> words = new ChainedHashDictionary<>();
+            for (int i = 0; i < vector.size(); i++) {
+                int termId = vector.getTermId(i);
+                words.put(this.termDictionary.getTerm(termId), vector.getWeightAt(i) * this.idfScores[termId]);
+            }
+            result.put(pair.getKey(), words);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a new analyzer that contains every page in this one, minus the
+     * pages with the URIs in 'removed', plus the pages in 'added' (which
+     * replace any existing pages with the same URIs). This analyzer is not
+     * modified.
+     *
+     * Only the TF vectors of the pages added and removed, and the document
+     * frequencies of their words, are copied. Everything else is shared with
+     * this analyzer, including the term dictionary. Since every IDF score
+     * changes, though, the new analyzer computes every IDF score and every
+     * document's norm again (in parallel).
+     *
+     * A URI may appear in 'removed' any number of times.
+     *
+     * @throws NoSuchKeyException  if a URI in 'removed' belongs to no page in this analyzer
+     */
+    public TfIdfAnalyzer update(IList<Webpage> added, IList<URI> removed) {
+        PersistentHashDictionary<URI, IndexedDocument> newDocuments = this.documents;
+        IList<Integer> freeSlots = new DoubleLinkedList<>();
+        for (int slot : this.freeSlots) {
+            freeSlots.add(slot);
+        }
+        int numSlots = this.norms.length;
+
+        // The change in the number of pages each touched word appears in
+        IDictionary<Integer, Integer> changes = new ChainedHashDictionary<>();
+        for (URI uri : removed) {
+            // Removing a page twice is the same as removing it once
+            if (this.documents.containsKey(uri) && !newDocuments.containsKey(uri)) {
+                continue;
+            }
+            IndexedDocument document = newDocuments.get(uri);
+            addFrequencies(changes, document.termFrequencies, -1);
+            freeSlots.add(document.slot);
+            newDocuments = newDocuments.minus(uri);
+        }
+
+        IList<DocumentCounts> counts = new DoubleLinkedList<>();
+        IList<String> words = new DoubleLinkedList<>();
+        for (Webpage page : added) {
+            IList<String> pageWords = page.getWords();
+            DocumentCounts document = new DocumentCounts(
+                    page.getUri(), computeTermCounts(pageWords), pageWords.size());
+            for (KVPair<String, Double> word : document.termCounts) {
+                words.add(word.getKey());
+            }
+            counts.add(document);
+        }
+        TermDictionary newDictionary = this.termDictionary.withTerms(words);
+
+        for (DocumentCounts document : counts) {
+            int slot;
+            if (newDocuments.containsKey(document.uri)) {
+                IndexedDocument replaced = newDocuments.get(document.uri);
+                addFrequencies(changes, replaced.termFrequencies, -1);
+                slot = replaced.slot;
+            } else if (!freeSlots.isEmpty()) {
+                slot = freeSlots.remove();
+            } else {
+                slot = numSlots;
+                numSlots++;
+            }
+            TermVector termFrequencies = computeTfVector(newDictionary, document);
+            addFrequencies(changes, termFrequencies, 1);
+            newDocuments = newDocuments.plus(document.uri, new IndexedDocument(termFrequencies, slot));
+        }
+
+        PersistentArray<Integer> newFrequencies = this.documentFrequencies;
+        while (newFrequencies.size() < newDictionary.size()) {
+            newFrequencies = newFrequencies.plus(0);
+        }
+        for (KVPair<Integer, Integer> change : changes) {
+            if (change.getValue() != 0) {
+                int id = change.getKey();
+                newFrequencies = newFrequencies.with(id, newFrequencies.get(id) + change.getValue());
+            }
+        }
+        int[] newFreeSlots = new int[freeSlots.size()];
+        int i = 0;
+        for (int slot : freeSlots) {
+            newFreeSlots[i] = slot;
+            i++;
+        }
+        return new TfIdfAnalyzer(newDictionary, newFrequencies, newDocuments, numSlots, newFreeSlots);
+    }
+
+    /**
+     * Adds 'delta' to the change in document frequency of every word in the
+     * given vector.
+     */
+    private static void addFrequencies(IDictionary<Integer, Integer> changes, TermVector vector, int delta) {
+        for (int i = 0; i < vector.size(); i++) {
+            int termId = vector.getTermId(i);
+            changes.put(termId, changes.getOrDefault(termId, 0) + delta);
+        }
+    }
+
+    /**
+     * Returns an array mapping the id of every single unique word found
+     * in every single document to its IDF score.
+     *
+     * Words that no longer appear in any page get a score of 0. This takes
+     * time proportional to the number of words, which is far less than the
+     * number of (page, word) pairs.
+     */
+    private double[] computeIdfScores() {
+        double[] result = new double[this.termDictionary.size()];
+        for (int id = 0; id < result.length; id++) {
+            int documentFrequency = this.documentFrequencies.get(id);
+            if (documentFrequency > 0) {
+                result[id] = calculateIDF(documentFrequency);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the norm of the TF-IDF vector with the given term frequencies.
+     */
+    private double computeNorm(TermVector termFrequencies) {
+        double[] idf = this.idfScores;
+        double sumOfSquares = 0.0;
+        for (int i = 0; i < termFrequencies.size(); i++) {
+            double weight = termFrequencies.getWeightAt(i) * idf[termFrequencies.getTermId(i)];
+            sumOfSquares += weight * weight;
+        }
+        return Math.sqrt(sumOfSquares);
     }
 
     /**
      * Returns a dictionary mapping every unique word found in the given list
-     * to their term frequency (TF) score.
+     * to the number of times it occurs.
      *
      * The input list represents the words contained within a single document.
      */
-    private IDictionary<String, Double> computeTfScores(IList<String> words) {
-    		IDictionary<String, Double> result = new ChainedHashDictionary<>();
-    		int numWords = words.size();
-    		
-    		// Place the words into a hashed ArrayDictionary
-    		// If they do not currently exist there, assign their
-    		// Occurrence level to one.
-    		//
-    		// If the item already exists, update its occurrence by adding 1.0
-    		for (String word : words) {
-    			if (!result.containsKey(word)) {
-    				result.put(word, 1.0);
-    			} else {
-    				result.put(word, result.get(word) + 1.0);
-    			}
-    		}
-    		
-    		// Go through Dictionary and update values for all the keys
-    		// To their TF score rather than their occurrences
-    		for (KVPair<String, Double> word : result) {
-    			double occurrence = word.getValue();
-    			double tf = occurrence / (double) numWords;
-    			result.put(word.getKey(), tf);
-    		}
-    		
-    		return result;
-
-    }
-
-    /**
-     * See spec for more details on what this method should do.
-     */
-    private IDictionary<URI, IDictionary<String, Double>> computeAllDocumentTfIdfVectors(ISet<Webpage> pages) {
-		// Hint: this method should use the idfScores field and
-		// call the computeTfScores(...) method.
-		
-		IDictionary<URI, IDictionary<String, Double>> result = new ChainedHashDictionary<>();
-		
-
-    		for (Webpage page : pages) {
-    			// Get the TF scores for the page
-    			IDictionary<String, Double> tfScores = computeTfScores(page.getWords());
-    			IDictionary<String, Double> vectors = new ChainedHashDictionary<>();
-    			
-    			// Iterate through the TF scores and add all words to 
-    			// the TFIDF vectors set with their TF * IDF
-    			for (KVPair<String, Double> word : tfScores) {
-    				vectors.put(word.getKey(), tfScores.get(word.getKey()) 
-    						* this.idfScores.get(word.getKey()));
-    			}
-    			
-    			
-    			result.put(page.getUri(), vectors);
-    		}
-    
-    		return result;
-    }
-
-    /**
-     * 
+    private static IDictionary<String, Double> computeTermCounts(IList<String> words) {
+        IDictionary<String, Double> result = new ChainedHashDictionary<>();
+        for (String word : words) {
+            result.put(word, result.getOrDefault(word, 0.0) + 1.0);
+        }
+        return result;
+    }
+
+    private static TermVector computeTfVector(TermDictionary termDictionary, DocumentCounts document) {
+        long[] packed = new long[document.termCounts.size()];
+        int i = 0;
+        for (KVPair<String, Double> word : document.termCounts) {
+            int id = termDictionary.getId(word.getKey());
+            packed[i] = pack(id, word.getValue() / document.numWords);
+            i++;
+        }
+        return unpack(packed, packed.length);
+    }
+
+    /**
+     * Packs a (term id, weight) pair into a single long with the id in the
+     * upper half, so one primitive sort orders a vector's entries by id.
+     */
+    private static long pack(int termId, double weight) {
+        return ((long) termId << 32) | (Float.floatToRawIntBits((float) weight) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Sorts the first 'size' packed pairs and splits them into a TermVector.
+     */
+    private static TermVector unpack(long[] packed, int size) {
+        Arrays.sort(packed, 0, size);
+
+        int[] termIds = new int[size];
+        float[] weights = new float[size];
+        for (int i = 0; i < size; i++) {
+            termIds[i] = (int) (packed[i] >>> 32);
+            weights[i] = Float.intBitsToFloat((int) packed[i]);
+        }
+        return new TermVector(termIds, weights);
+    }
+
+    /**
+     *
      * @param numOccurrences the number of occurrences that an item has across all pages
-     * 
+     *
      * @return the IDF value given a certain number of occurrences
      */
     private double calculateIDF(double numOccurrences) {
-    		return Math.log(((double) this.numPages) / numOccurrences);
+        return Math.log(((double) this.numPages) / numOccurrences);
+    }
+
+    /**
+     * Converts the given query into a TF-IDF vector over the term ids of this
+     * analyzer.
+     *
+     * Query words that don't appear in any document are dropped: they would
+     * have a weight of zero anyway.
+     *
+     * Scoring the same query against many documents should compute this once
+     * and reuse it. The vector reflects this analyzer's IDF scores, so it
+     * should only be used with this analyzer, not ones returned by 'update'.
+     */
+    public TermVector computeQueryVector(IList<String> query) {
+        return this.computeQueryVector(query, new ChainedHashDictionary<>());
     }
-    
-    
+
+    /**
+     * Like computeQueryVector(query), except each occurrence of a word in
+     * 'weights' counts as that many occurrences. Words with no weight count
+     * once per occurrence, as usual.
+     */
+    public TermVector computeQueryVector(IList<String> query, IDictionary<String, Double> weights) {
+        double[] idf = this.idfScores;
+        IDictionary<String, Double> counts = computeTermCounts(query);
+
+        long[] packed = new long[counts.size()];
+        int size = 0;
+        for (KVPair<String, Double> word : counts) {
+            int id = this.termDictionary.getId(word.getKey());
+            if (id != TermDictionary.NO_SUCH_TERM && this.documentFrequencies.get(id) > 0) {
+                double count = word.getValue() * weights.getOrDefault(word.getKey(), 1.0);
+                packed[size] = pack(id, count / query.size() * idf[id]);
+                size++;
+            }
+        }
+        return unpack(packed, size);
+    }
+
     /**
      * Returns the cosine similarity between the TF-IDF vector for the given query and the
      * URI's document.
@@ -181,47 +416,127 @@ public class TfIdfAnalyzer {
      *               webpages given to the constructor.
      */
     public Double computeRelevance(IList<String> query, URI pageUri) {
-		// Note: The pseudocode we gave you is not very efficient. When implementing,
-		// this method, you should:
-		//
-		// 1. Figure out what information can be precomputed in your constructor.
-		//    Add a third field containing that information.
-		//
-		// 2. See if you can combine or merge one or more loops.
-		
-		// Find Tf-idf for the document
-		IDictionary<String, Double> idfvalDoc = this.documentTfIdfVectors.get(pageUri);
-		IDictionary<String, Double> tfvalQuery = this.computeTfScores(query);
-    		
-    		double numerator = 0.0;
-        IDictionary<String, Double> tfidfvalQuery = new ChainedHashDictionary<>();
-        for (String word : query) {
-        		double docScore = (idfvalDoc.containsKey(word)) ? idfvalDoc.get(word) : 0;
-        		if (this.idfScores.containsKey(word)) {
-        			tfidfvalQuery.put(word, this.idfScores.get(word) * tfvalQuery.get(word));
-        			numerator += (tfidfvalQuery.get(word) * docScore);
-        		} else {
-        			tfidfvalQuery.put(word, 0.0);
-        		}
-        }
-    		
-        double denominator = norm((ChainedHashDictionary<String, Double>) idfvalDoc) * 
-        		norm((ChainedHashDictionary<String, Double>) tfidfvalQuery);
-        
-        if (denominator != 0.0) {
-        		return numerator / denominator;
-        }
-        return 0.0;
-    }
-    
-    private double norm(ChainedHashDictionary<String, Double> vector) {
-    		double result = 0.0;
-    		for (KVPair<String, Double> pair : vector) {
-    			double score = pair.getValue();
-    			result += Math.pow(score, 2);
-    		}
-    		
-    		return Math.sqrt(result);
-    	
+        return this.computeRelevance(this.computeQueryVector(query), pageUri);
+    }
+
+    /**
+     * Returns the cosine similarity between the given query vector (see
+     * computeQueryVector) and the URI's document.
+     *
+     * Precondition: the given uri must belong to a page currently in this analyzer.
+     */
+    public double computeRelevance(TermVector queryVector, URI pageUri) {
+        IndexedDocument document = this.documents.get(pageUri);
+
+        double[] idf = this.idfScores;
+        double numerator = 0.0;
+        for (int i = 0; i < queryVector.size(); i++) {
+            int termId = queryVector.getTermId(i);
+            numerator += queryVector.getWeightAt(i)
+                    * document.termFrequencies.getWeight(termId)
+                    * idf[termId];
+        }
+
+        // Most documents contain none of the query's words, so we only look
+        // up the norm of those that do
+        if (numerator == 0.0) {
+            return 0.0;
+        }
+        return numerator / (this.norms[document.slot] * queryVector.getNorm());
+    }
+
+    /**
+     * A single indexed page: its TF vector, and the slot of its norm in the
+     * 'norms' of every analyzer that contains it.
+     *
+     * Documents are shared between an analyzer and the ones 'update' returns,
+     * so they never change.
+     */
+    private static class IndexedDocument {
+        public final TermVector termFrequencies;
+        public final int slot;
+
+        public IndexedDocument(TermVector termFrequencies, int slot) {
+            this.termFrequencies = termFrequencies;
+            this.slot = slot;
+        }
+    }
+
+    /**
+     * Everything we need to build an analyzer: the term ids and document
+     * frequencies of every word, and the TF vector of every page.
+     */
+    private static class IndexData {
+        public final TermDictionary termDictionary;
+        public final Integer[] documentFrequencies;
+        public final URI[] uris;
+        public final TermVector[] termFrequencies;
+
+        public IndexData(TermDictionary termDictionary, Integer[] documentFrequencies,
+                         URI[] uris, TermVector[] termFrequencies) {
+            this.termDictionary = termDictionary;
+            this.documentFrequencies = documentFrequencies;
+            this.uris = uris;
+            this.termFrequencies = termFrequencies;
+        }
+    }
+
+    /**
+     * The term counts of a single document.
+     */
+    private static class DocumentCounts {
+        public final URI uri;
+        public final IDictionary<String, Double> termCounts;
+        public final int numWords;
+
+        public DocumentCounts(URI uri, IDictionary<String, Double> termCounts, int numWords) {
+            this.uri = uri;
+            this.termCounts = termCounts;
+            this.numWords = numWords;
+        }
+    }
+
+    /**
+     * The partial term statistics gathered by a single indexing thread: the
+     * term counts of each page it saw, and how many of those pages each word
+     * appeared in.
+     *
+     * Partial results from different threads are merged pairwise once each
+     * thread is done.
+     */
+    private static class TermStatistics {
+        private IDictionary<String, Double> documentFrequencies;
+        private DoubleLinkedList<DocumentCounts> documentCounts;
+
+        public TermStatistics() {
+            this.documentFrequencies = new ChainedHashDictionary<>();
+            this.documentCounts = new DoubleLinkedList<>();
+        }
+
+        public void add(Webpage page) {
+            IList<String> words = page.getWords();
+            IDictionary<String, Double> termCounts = computeTermCounts(words);
+
+            // The keys of the count dictionary are exactly the page's unique words
+            for (KVPair<String, Double> word : termCounts) {
+                double count = this.documentFrequencies.getOrDefault(word.getKey(), 0.0);
+                this.documentFrequencies.put(word.getKey(), count + 1.0);
+            }
+            this.documentCounts.add(new DocumentCounts(page.getUri(), termCounts, words.size()));
+        }
+
+        public void merge(TermStatistics other) {
+            // Fold the smaller frequency table into the larger one
+            if (other.documentFrequencies.size() > this.documentFrequencies.size()) {
+                IDictionary<String, Double> temp = this.documentFrequencies;
+                this.documentFrequencies = other.documentFrequencies;
+                other.documentFrequencies = temp;
+            }
+            for (KVPair<String, Double> word : other.documentFrequencies) {
+                double count = this.documentFrequencies.getOrDefault(word.getKey(), 0.0);
+                this.documentFrequencies.put(word.getKey(), count + word.getValue());
+            }
+            this.documentCounts.append(other.documentCounts);
+        }
     }
 }
@@ -0,0 +1,37 @@
+package search.analyzers;
+
+import datastructures.interfaces.IDictionary;
+import datastructures.interfaces.IList;
+
+import java.net.URI;
+
+/**
+ * Scores pages by the cosine similarity between their TF-IDF vectors and the
+ * query's (see TfIdfAnalyzer).
+ */
+public class TfIdfScorer implements Scorer {
+    // Cosine similarities are at most 1; the slack absorbs rounding error.
+    private static final double MAX_SCORE = 1.0 + 1e-9;
+
+    private final TfIdfAnalyzer analyzer;
+
+    public TfIdfScorer(TfIdfAnalyzer analyzer) {
+        this.analyzer = analyzer;
+    }
+
+    @Override
+    public PreparedQuery prepare(IList<String> terms, IDictionary<String, Double> weights) {
+        TermVector queryVector = this.analyzer.computeQueryVector(terms, weights);
+        return new PreparedQuery() {
+            @Override
+            public double score(URI uri) {
+                return analyzer.computeRelevance(queryVector, uri);
+            }
+
+            @Override
+            public double getMaxScore() {
+                return queryVector.size() == 0 ? 0.0 : MAX_SCORE;
+            }
+        };
+    }
+}
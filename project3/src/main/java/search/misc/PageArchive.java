@@ -0,0 +1,356 @@
+package search.misc;
+
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.concrete.dictionaries.ChainedHashDictionary;
+import datastructures.interfaces.IDictionary;
+import datastructures.interfaces.IList;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Many saved pages packed into one append-only file, in a format modelled on
+ * WARC, so a crawl of millions of pages doesn't need millions of files.
+ *
+ * Each record is a short text header, followed by the page's HTML and a
+ * blank line:
+ *
+ *     WARC/1.0
+ *     WARC-Target-URI: http://example.com/
+ *     Content-Encoding: gzip
+ *     Content-Length: 1234
+ *
+ *     <1234 bytes of HTML, gzipped if Content-Encoding says so>
+ *
+ * Lines end in "\r\n". Records may be compressed one at a time, so any
+ * record can still be read on its own.
+ *
+ * A side index, in a file named like the archive plus INDEX_SUFFIX, holds the
+ * URI, offset and length of every record, so we can find a page without
+ * scanning the archive, and read it with a single positional read. If a page
+ * was saved more than once, its latest record wins.
+ *
+ * Records are written to the archive before their index entries. If a crash
+ * interrupts either, reopening the archive for appending drops whatever was
+ * written after the last complete index entry.
+ *
+ * Any number of threads may read an archive at once, and append to it.
+ */
+public class PageArchive implements Closeable {
+    public static final String ARCHIVE_SUFFIX = ".warc";
+    public static final String INDEX_SUFFIX = ".idx";
+
+    private static final String VERSION_LINE = "WARC/1.0";
+    private static final String URI_HEADER = "WARC-Target-URI";
+    private static final String ENCODING_HEADER = "Content-Encoding";
+    private static final String LENGTH_HEADER = "Content-Length";
+    private static final String GZIP = "gzip";
+    private static final byte[] RECORD_END = "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final Path path;
+    private final FileChannel channel;
+    private final boolean isReadOnly;
+    private final boolean isCompressed;
+    private DataOutputStream indexWriter;
+
+    // Every record, in the order they were written
+    private URI[] uris;
+    private long[] offsets;
+    private int[] lengths;
+    private int numRecords;
+
+    // The number of the latest record of each page, by URI
+    private final IDictionary<URI, Integer> latest;
+
+    // Where the next record goes
+    private long end;
+
+    /**
+     * Opens the archive at the given path to read it.
+     */
+    public PageArchive(Path path) throws IOException {
+        this(path, true, false);
+    }
+
+    /**
+     * Opens the archive at the given path to read and append to it, creating
+     * it if it doesn't exist yet. New records are gzipped if 'isCompressed'
+     * is true.
+     */
+    public PageArchive(Path path, boolean isCompressed) throws IOException {
+        this(path, false, isCompressed);
+    }
+
+    private PageArchive(Path path, boolean isReadOnly, boolean isCompressed) throws IOException {
+        this.path = path;
+        this.isReadOnly = isReadOnly;
+        this.isCompressed = isCompressed;
+        this.uris = new URI[16];
+        this.offsets = new long[16];
+        this.lengths = new int[16];
+        this.numRecords = 0;
+        this.latest = new ChainedHashDictionary<>();
+        this.end = 0;
+
+        Path indexPath = getIndexPath(path);
+        long indexLength = 0;
+        if (indexPath.toFile().exists()) {
+            indexLength = this.readIndex(indexPath);
+        }
+
+        if (isReadOnly) {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            this.indexWriter = null;
+        } else {
+            // Drop anything written after the last complete index entry
+            this.channel = FileChannel.open(path,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            if (this.channel.size() > this.end) {
+                this.channel.truncate(this.end);
+            }
+            try (RandomAccessFile index = new RandomAccessFile(indexPath.toFile(), "rw")) {
+                index.setLength(indexLength);
+            }
+            this.indexWriter = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(
+                    indexPath, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+        }
+    }
+
+    /**
+     * Returns the path of the index of the archive at the given path.
+     */
+    public static Path getIndexPath(Path archivePath) {
+        return Paths.get(archivePath.toString() + INDEX_SUFFIX);
+    }
+
+    /**
+     * Appends a record holding the given page's HTML.
+     */
+    public void append(URI uri, byte[] html) throws IOException {
+        if (this.isReadOnly) {
+            throw new IllegalStateException("Archive was opened read-only: " + this.path);
+        }
+        byte[] body = html;
+        if (this.isCompressed) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (OutputStream out = new GZIPOutputStream(compressed)) {
+                out.write(html);
+            }
+            body = compressed.toByteArray();
+        }
+
+        String header = VERSION_LINE + "\r\n"
+                + URI_HEADER + ": " + uri + "\r\n"
+                + (this.isCompressed ? ENCODING_HEADER + ": " + GZIP + "\r\n" : "")
+                + LENGTH_HEADER + ": " + body.length + "\r\n"
+                + "\r\n";
+        ByteArrayOutputStream record = new ByteArrayOutputStream(header.length() + body.length + RECORD_END.length);
+        record.write(header.getBytes(StandardCharsets.UTF_8));
+        record.write(body);
+        record.write(RECORD_END);
+        ByteBuffer buffer = ByteBuffer.wrap(record.toByteArray());
+
+        synchronized (this) {
+            long offset = this.end;
+            while (buffer.hasRemaining()) {
+                this.channel.write(buffer, offset + buffer.position());
+            }
+            byte[] uriBytes = uri.toString().getBytes(StandardCharsets.UTF_8);
+            this.indexWriter.writeLong(offset);
+            this.indexWriter.writeInt(buffer.limit());
+            this.indexWriter.writeInt(uriBytes.length);
+            this.indexWriter.write(uriBytes);
+            this.indexWriter.flush();
+            this.addRecord(uri, offset, buffer.limit());
+        }
+    }
+
+    /**
+     * Appends a record holding the HTML in the given file.
+     */
+    public void append(URI uri, Path htmlFile) throws IOException {
+        this.append(uri, Files.readAllBytes(htmlFile));
+    }
+
+    /**
+     * Returns true if the archive holds a record of the given page.
+     */
+    public synchronized boolean contains(URI uri) {
+        return this.latest.containsKey(uri);
+    }
+
+    /**
+     * Returns the number of distinct pages in the archive.
+     */
+    public synchronized int size() {
+        return this.latest.size();
+    }
+
+    /**
+     * Returns the URI of every distinct page in the archive, in the order
+     * their latest records were written.
+     */
+    public synchronized IList<URI> getUris() {
+        IList<URI> output = new DoubleLinkedList<>();
+        for (int i = 0; i < this.numRecords; i++) {
+            if (this.latest.get(this.uris[i]) == i) {
+                output.add(this.uris[i]);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Returns the HTML in the latest record of the given page, or null if
+     * the archive holds no record of it.
+     */
+    public byte[] read(URI uri) throws IOException {
+        long[] location = this.locate(uri);
+        if (location == null) {
+            return null;
+        }
+        return this.readRecord(location[0], (int) location[1]);
+    }
+
+    /**
+     * Returns the offset and length of the latest record of the given page,
+     * or null if the archive holds no record of it.
+     */
+    synchronized long[] locate(URI uri) {
+        Integer record = this.latest.getOrDefault(uri, null);
+        if (record == null) {
+            return null;
+        }
+        return new long[] {this.offsets[record], this.lengths[record]};
+    }
+
+    public void close() throws IOException {
+        synchronized (this) {
+            if (this.indexWriter != null) {
+                this.indexWriter.close();
+                this.indexWriter = null;
+            }
+        }
+        this.channel.close();
+    }
+
+    /**
+     * Reads the record of the given length at the given offset with a single
+     * positional read, and returns its HTML.
+     */
+    byte[] readRecord(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (this.channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Record at " + offset + " is cut short in " + this.path);
+            }
+        }
+        byte[] record = buffer.array();
+
+        // Parse the header, which ends at the first blank line
+        int position = 0;
+        int bodyLength = -1;
+        boolean isGzipped = false;
+        boolean isFirstLine = true;
+        while (true) {
+            int lineEnd = indexOf(record, position, (byte) '\n');
+            if (lineEnd < 0) {
+                throw new IOException("Bad record header at " + offset + " in " + this.path);
+            }
+            String line = new String(record, position, lineEnd - position, StandardCharsets.UTF_8).trim();
+            position = lineEnd + 1;
+            if (isFirstLine) {
+                if (!line.equals(VERSION_LINE)) {
+                    throw new IOException("Not a record at " + offset + " in " + this.path);
+                }
+                isFirstLine = false;
+            } else if (line.isEmpty()) {
+                break;
+            } else if (line.startsWith(LENGTH_HEADER + ":")) {
+                bodyLength = Integer.parseInt(line.substring(LENGTH_HEADER.length() + 1).trim());
+            } else if (line.startsWith(ENCODING_HEADER + ":")) {
+                isGzipped = line.substring(ENCODING_HEADER.length() + 1).trim().equals(GZIP);
+            }
+        }
+        if (bodyLength < 0 || position + bodyLength > record.length) {
+            throw new IOException("Bad record length at " + offset + " in " + this.path);
+        }
+
+        if (!isGzipped) {
+            return Arrays.copyOfRange(record, position, position + bodyLength);
+        }
+        ByteArrayOutputStream html = new ByteArrayOutputStream(bodyLength * 4);
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(record, position, bodyLength))) {
+            byte[] chunk = new byte[8192];
+            for (int count = in.read(chunk); count >= 0; count = in.read(chunk)) {
+                html.write(chunk, 0, count);
+            }
+        }
+        return html.toByteArray();
+    }
+
+    /**
+     * Loads every complete entry of the index at the given path, and returns
+     * the length of the index up to the last of them.
+     */
+    private long readIndex(Path indexPath) throws IOException {
+        long length = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+            while (true) {
+                long offset = in.readLong();
+                int recordLength = in.readInt();
+                byte[] uri = new byte[in.readInt()];
+                in.readFully(uri);
+                this.addRecord(URI.create(new String(uri, StandardCharsets.UTF_8)), offset, recordLength);
+                length += 16 + uri.length;
+            }
+        } catch (EOFException ex) {
+            // We've read every complete entry
+        }
+        return length;
+    }
+
+    private void addRecord(URI uri, long offset, int length) {
+        if (this.numRecords == this.offsets.length) {
+            this.uris = Arrays.copyOf(this.uris, 2 * this.numRecords);
+            this.offsets = Arrays.copyOf(this.offsets, 2 * this.numRecords);
+            this.lengths = Arrays.copyOf(this.lengths, 2 * this.numRecords);
+        }
+        this.uris[this.numRecords] = uri;
+        this.offsets[this.numRecords] = offset;
+        this.lengths[this.numRecords] = length;
+        this.latest.put(uri, this.numRecords);
+        this.numRecords++;
+        this.end = Math.max(this.end, offset + length);
+    }
+
+    private static int indexOf(byte[] bytes, int from, byte target) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
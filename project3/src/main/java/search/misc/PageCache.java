@@ -0,0 +1,258 @@
+package search.misc;
+
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.concrete.dictionaries.ChainedHashDictionary;
+import datastructures.interfaces.IDictionary;
+import datastructures.interfaces.IList;
+import search.models.Webpage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The pages parsed from a PageArchive, kept in a file next to it, so that
+ * loading the archive again doesn't need to parse every page's HTML again.
+ *
+ * The cache is append-only. Each entry holds the offset and length of the
+ * archive record the page was parsed from, followed by the parsed page. A
+ * page is only taken from the cache if its entry matches the latest record
+ * of that page, so pages saved again since are parsed again.
+ *
+ * An entry cut short by a crash is dropped when the cache is reopened. A
+ * cache written in an older format is thrown away and rebuilt.
+ *
+ * Any number of threads may load pages through the same cache at once.
+ */
+public class PageCache implements Closeable {
+    public static final String CACHE_SUFFIX = ".cache";
+
+    // Bump this whenever the format of an entry changes
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_LENGTH = 4;
+    private static final int ENTRY_HEADER_LENGTH = 16;
+
+    private final Path path;
+    private final FileChannel channel;
+
+    // Every entry, by the offset of the archive record it was parsed from
+    private final IDictionary<Long, Entry> entries;
+
+    // Where the next entry goes
+    private long end;
+
+    /**
+     * Opens the cache at the given path, creating it if it doesn't exist yet.
+     */
+    public PageCache(Path path) throws IOException {
+        this.path = path;
+        this.entries = new ChainedHashDictionary<>();
+        this.end = HEADER_LENGTH;
+
+        if (path.toFile().exists() && this.readEntries()) {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (this.channel.size() > this.end) {
+                this.channel.truncate(this.end);
+            }
+        } else {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).putInt(FORMAT_VERSION);
+            header.flip();
+            this.write(header, 0);
+        }
+    }
+
+    /**
+     * Returns the path of the cache of the archive at the given path.
+     */
+    public static Path getCachePath(Path archivePath) {
+        return Paths.get(archivePath.toString() + CACHE_SUFFIX);
+    }
+
+    /**
+     * Returns the given page, as stored in the given archive, taking it from
+     * this cache if it's there, and parsing it and adding it otherwise.
+     * Returns null if the archive holds no record of the page.
+     */
+    public Webpage load(PageArchive archive, URI uri) throws IOException {
+        long[] location = archive.locate(uri);
+        if (location == null) {
+            return null;
+        }
+        long offset = location[0];
+        int length = (int) location[1];
+
+        Entry entry;
+        synchronized (this) {
+            entry = this.entries.getOrDefault(offset, null);
+        }
+        if (entry != null && entry.recordLength == length) {
+            Webpage page = decode(this.read(entry.position, entry.length));
+            if (page.getUri().equals(uri)) {
+                return page;
+            }
+        }
+
+        Webpage page = Webpage.loadOriginal(uri, archive.readRecord(offset, length));
+        this.add(offset, length, page);
+        return page;
+    }
+
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    /**
+     * Appends an entry holding the given page, parsed from the archive record
+     * with the given offset and length.
+     */
+    private void add(long recordOffset, int recordLength, Webpage page) throws IOException {
+        byte[] body = encode(page);
+        ByteBuffer buffer = ByteBuffer.allocate(ENTRY_HEADER_LENGTH + body.length);
+        buffer.putLong(recordOffset);
+        buffer.putInt(recordLength);
+        buffer.putInt(body.length);
+        buffer.put(body);
+        buffer.flip();
+
+        synchronized (this) {
+            long position = this.end;
+            this.write(buffer, position);
+            this.entries.put(recordOffset, new Entry(position + ENTRY_HEADER_LENGTH, body.length, recordLength));
+            this.end = position + buffer.limit();
+        }
+    }
+
+    private void write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private byte[] read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (this.channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Entry at " + position + " is cut short in " + this.path);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Loads every complete entry of the cache, and moves 'end' past the last
+     * of them. Returns false if the cache is in an older format, or its
+     * header was cut short.
+     */
+    private boolean readEntries() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.path)))) {
+            try {
+                if (in.readInt() != FORMAT_VERSION) {
+                    return false;
+                }
+            } catch (EOFException ex) {
+                return false;
+            }
+
+            long position = HEADER_LENGTH;
+            while (true) {
+                long recordOffset = in.readLong();
+                int recordLength = in.readInt();
+                int length = in.readInt();
+                if (in.skipBytes(length) < length) {
+                    break;
+                }
+                this.entries.put(recordOffset, new Entry(position + ENTRY_HEADER_LENGTH, length, recordLength));
+                position += ENTRY_HEADER_LENGTH + length;
+                this.end = position;
+            }
+        } catch (EOFException ex) {
+            // We've read every complete entry
+        }
+        return true;
+    }
+
+    private static byte[] encode(Webpage page) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, page.getUri().toString());
+        writeString(out, page.getSummary().getTitle());
+        writeString(out, page.getSummary().getBlurb());
+        out.writeInt(page.getWords().size());
+        for (String word : page.getWords()) {
+            writeString(out, word);
+        }
+        out.writeInt(page.getLinks().size());
+        for (URI link : page.getLinks()) {
+            writeString(out, link.toString());
+        }
+        out.writeBoolean(page.getText() != null);
+        if (page.getText() != null) {
+            writeString(out, page.getText());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Webpage decode(byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        URI uri = URI.create(readString(in));
+        String title = readString(in);
+        String blurb = readString(in);
+        IList<String> words = new DoubleLinkedList<>();
+        int numWords = in.readInt();
+        for (int i = 0; i < numWords; i++) {
+            words.add(readString(in));
+        }
+        IList<URI> links = new DoubleLinkedList<>();
+        int numLinks = in.readInt();
+        for (int i = 0; i < numLinks; i++) {
+            links.add(URI.create(readString(in)));
+        }
+        String text = in.readBoolean() ? readString(in) : null;
+        return new Webpage(uri, links, words, title, blurb, text);
+    }
+
+    // Unlike writeUTF, these handle strings of any length
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Where a parsed page is stored in the cache, and the length of the
+     * archive record it was parsed from.
+     */
+    private static class Entry {
+        public final long position;
+        public final int length;
+        public final int recordLength;
+
+        public Entry(long position, int length, int recordLength) {
+            this.position = position;
+            this.length = length;
+            this.recordLength = recordLength;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package search.misc;
+
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import search.models.Query;
+
+/**
+ * Parses the text a user typed into the search box.
+ *
+ * Words are tokenized the same way as page text (see WordTokenizer). On top
+ * of that, we support:
+ *
+ * - "exact phrase": the quoted words must appear consecutively, in order.
+ *   An unclosed quote runs to the end of the query.
+ * - first NEAR/k second: the two words must appear at most k words apart, in
+ *   either order. The operator applies to the words on either side of it,
+ *   which may be the last or first word of a phrase.
+ * - a AND b, a OR b, NOT a, and parentheses for grouping. NOT binds tighter
+ *   than AND, which binds tighter than OR, and two operands with no operator
+ *   between them are ANDed together. Operators must be in uppercase; an
+ *   operator missing an operand is ignored, as is an unmatched parenthesis.
+ *
+ * If a query contains no AND, OR or NOT, its plain words are only used to
+ * score pages, and a page matches if it satisfies every phrase and NEAR
+ * clause. Otherwise, a page matches only if it satisfies the whole boolean
+ * expression, and is scored against every word not inside a NOT.
+ *
+ * Anything else is an ordinary search word.
+ */
+public class QueryParser {
+    private static final String NEAR_PREFIX = "NEAR/";
+
+    // An array rather than a list, since we look tokens up by index
+    private final Token[] tokens;
+    private int next;
+    private boolean isNegated;
+
+    private final IList<String> terms;
+    private final IList<IList<String>> phrases;
+    private final IList<Query.Near> nearClauses;
+
+    private QueryParser(IList<Token> tokens) {
+        this.tokens = new Token[tokens.size()];
+        int i = 0;
+        for (Token token : tokens) {
+            this.tokens[i] = token;
+            i++;
+        }
+        this.next = 0;
+        this.isNegated = false;
+        this.terms = new DoubleLinkedList<>();
+        this.phrases = new DoubleLinkedList<>();
+        this.nearClauses = new DoubleLinkedList<>();
+    }
+
+    public static Query parse(String input) {
+        IList<Token> tokens = tokenize(input);
+        QueryParser parser = new QueryParser(tokens);
+
+        // Closing parentheses with no opening one just split the query
+        IList<Query.Filter> parts = new DoubleLinkedList<>();
+        while (parser.next < parser.tokens.length) {
+            parser.addIfPresent(parts, parser.parseOr());
+            if (parser.peek(Kind.CLOSE)) {
+                parser.next++;
+            }
+        }
+        Query.Filter filter = combine(parts, false);
+
+        boolean isBoolean = false;
+        for (Token token : tokens) {
+            isBoolean |= token.kind == Kind.AND || token.kind == Kind.OR || token.kind == Kind.NOT;
+        }
+        if (!isBoolean) {
+            return new Query(parser.terms, parser.phrases, parser.nearClauses);
+        }
+        return new Query(parser.terms, parser.phrases, parser.nearClauses, filter);
+    }
+
+    /**
+     * Parses operands separated by OR.
+     */
+    private Query.Filter parseOr() {
+        IList<Query.Filter> alternatives = new DoubleLinkedList<>();
+        this.addIfPresent(alternatives, this.parseAnd());
+        while (this.peek(Kind.OR)) {
+            this.next++;
+            this.addIfPresent(alternatives, this.parseAnd());
+        }
+        return combine(alternatives, true);
+    }
+
+    /**
+     * Parses operands separated by AND, or by nothing at all.
+     */
+    private Query.Filter parseAnd() {
+        IList<Query.Filter> parts = new DoubleLinkedList<>();
+        while (this.next < this.tokens.length && !this.peek(Kind.OR) && !this.peek(Kind.CLOSE)) {
+            if (this.peek(Kind.AND)) {
+                this.next++;
+            } else {
+                this.addIfPresent(parts, this.parseUnary());
+            }
+        }
+        return combine(parts, false);
+    }
+
+    /**
+     * Parses a single operand: a NOT, a parenthesized expression, or words
+     * and phrases joined by NEAR operators. Returns null if there is none.
+     */
+    private Query.Filter parseUnary() {
+        Token token = this.tokens[this.next];
+        this.next++;
+        if (token.kind == Kind.NOT) {
+            this.isNegated = !this.isNegated;
+            Query.Filter child = this.next < this.tokens.length ? this.parseUnary() : null;
+            this.isNegated = !this.isNegated;
+            return child == null ? null : new Query.Not(child);
+        } else if (token.kind == Kind.OPEN) {
+            Query.Filter inner = this.parseOr();
+            if (this.peek(Kind.CLOSE)) {
+                this.next++;
+            }
+            return inner;
+        } else if (token.kind != Kind.WORDS && token.kind != Kind.PHRASE) {
+            // A NEAR operator with nothing to its left
+            return null;
+        }
+
+        IList<Query.Filter> parts = new DoubleLinkedList<>();
+        this.addOperand(parts, token);
+        Token left = token;
+        while (this.peek(Kind.NEAR)) {
+            int distance = this.tokens[this.next].distance;
+            this.next++;
+            if (this.peek(Kind.WORDS) || this.peek(Kind.PHRASE)) {
+                Token right = this.tokens[this.next];
+                this.next++;
+                Query.Near near = new Query.Near(
+                        left.words.get(left.words.size() - 1), right.words.get(0), distance);
+                this.nearClauses.add(near);
+                parts.add(near);
+                this.addOperand(parts, right);
+                left = right;
+            }
+        }
+        return combine(parts, false);
+    }
+
+    /**
+     * Adds the filters the given word or phrase token requires.
+     */
+    private void addOperand(IList<Query.Filter> parts, Token token) {
+        if (!this.isNegated) {
+            for (String word : token.words) {
+                this.terms.add(word);
+            }
+        }
+        if (token.kind == Kind.PHRASE) {
+            this.phrases.add(token.words);
+            parts.add(new Query.Phrase(token.words));
+        } else {
+            for (String word : token.words) {
+                parts.add(new Query.Word(word));
+            }
+        }
+    }
+
+    private boolean peek(Kind kind) {
+        return this.next < this.tokens.length && this.tokens[this.next].kind == kind;
+    }
+
+    private void addIfPresent(IList<Query.Filter> filters, Query.Filter filter) {
+        if (filter != null) {
+            filters.add(filter);
+        }
+    }
+
+    /**
+     * Returns a filter requiring all (or, if 'isOr', any) of the given ones,
+     * or null if there are none.
+     */
+    private static Query.Filter combine(IList<Query.Filter> filters, boolean isOr) {
+        if (filters.isEmpty()) {
+            return null;
+        } else if (filters.size() == 1) {
+            return filters.get(0);
+        }
+        return isOr ? new Query.Or(filters) : new Query.And(filters);
+    }
+
+    /**
+     * Splits the input into words, phrases, operators and parentheses. Words
+     * and phrases with no letters or digits are dropped.
+     */
+    private static IList<Token> tokenize(String input) {
+        IList<Token> tokens = new DoubleLinkedList<>();
+        int i = 0;
+        while (i < input.length()) {
+            char c = input.charAt(i);
+            if (c == '"') {
+                int end = input.indexOf('"', i + 1);
+                if (end == -1) {
+                    end = input.length();
+                }
+                IList<String> words = WordTokenizer.extract(input.substring(i + 1, end));
+                if (!words.isEmpty()) {
+                    tokens.add(new Token(Kind.PHRASE, words, 0));
+                }
+                i = end + 1;
+            } else if (c == '(') {
+                tokens.add(new Token(Kind.OPEN, null, 0));
+                i++;
+            } else if (c == ')') {
+                tokens.add(new Token(Kind.CLOSE, null, 0));
+                i++;
+            } else if (WordTokenizer.isWhitespace(c)) {
+                i++;
+            } else {
+                int end = i;
+                while (end < input.length() && !isDelimiter(input.charAt(end))) {
+                    end++;
+                }
+                String raw = input.substring(i, end);
+                i = end;
+
+                int distance = parseNearDistance(raw);
+                if (distance >= 0) {
+                    tokens.add(new Token(Kind.NEAR, null, distance));
+                } else if (raw.equals("AND")) {
+                    tokens.add(new Token(Kind.AND, null, 0));
+                } else if (raw.equals("OR")) {
+                    tokens.add(new Token(Kind.OR, null, 0));
+                } else if (raw.equals("NOT")) {
+                    tokens.add(new Token(Kind.NOT, null, 0));
+                } else {
+                    IList<String> words = WordTokenizer.extract(raw);
+                    if (!words.isEmpty()) {
+                        tokens.add(new Token(Kind.WORDS, words, 0));
+                    }
+                }
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isDelimiter(char c) {
+        return WordTokenizer.isWhitespace(c) || c == '"' || c == '(' || c == ')';
+    }
+
+    /**
+     * If the given token is a NEAR/k operator, returns k. Otherwise, returns -1.
+     */
+    private static int parseNearDistance(String token) {
+        if (!token.startsWith(NEAR_PREFIX) || token.length() == NEAR_PREFIX.length()) {
+            return -1;
+        }
+        long distance = 0;
+        for (int i = NEAR_PREFIX.length(); i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            distance = Math.min(distance * 10 + (c - '0'), Integer.MAX_VALUE);
+        }
+        return (int) distance;
+    }
+
+    private enum Kind { WORDS, PHRASE, NEAR, AND, OR, NOT, OPEN, CLOSE }
+
+    private static class Token {
+        public final Kind kind;
+
+        // The words of a WORDS or PHRASE token, and the distance of a NEAR token
+        public final IList<String> words;
+        public final int distance;
+
+        public Token(Kind kind, IList<String> words, int distance) {
+            this.kind = kind;
+            this.words = words;
+            this.distance = distance;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package search.misc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The static files our website serves (stylesheets, images...), each read
+ * once and kept in memory along with an ETag, so browsers can check whether
+ * their copy is still current without downloading it again.
+ *
+ * Files are normally read from the classpath. If a source folder is given
+ * instead, every file is read from it again on every request, so edits show
+ * up without a restart.
+ *
+ * All methods are thread-safe.
+ */
+public class StaticAssets {
+    private final String classpathFolder;
+    private final Path sourceFolder;
+    private final ConcurrentHashMap<String, Asset> assets;
+
+    /**
+     * Serves the files in the given classpath folder (or the given source
+     * folder, if not null).
+     */
+    public StaticAssets(String classpathFolder, Path sourceFolder) {
+        this.classpathFolder = classpathFolder;
+        this.sourceFolder = sourceFolder;
+        this.assets = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns true if files are read again on every request.
+     */
+    public boolean isHotReloaded() {
+        return this.sourceFolder != null;
+    }
+
+    /**
+     * Returns the file at the given request path, like "/styles.css", or
+     * null if there is none.
+     */
+    public Asset get(String requestPath) {
+        if (requestPath == null || !requestPath.startsWith("/") || requestPath.contains("..")
+                || requestPath.contains("\\") || requestPath.endsWith("/")) {
+            return null;
+        }
+        if (this.sourceFolder != null) {
+            return this.load(requestPath);
+        }
+        Asset asset = this.assets.get(requestPath);
+        if (asset == null) {
+            asset = this.load(requestPath);
+            if (asset != null) {
+                this.assets.putIfAbsent(requestPath, asset);
+            }
+        }
+        return asset;
+    }
+
+    private Asset load(String requestPath) {
+        try {
+            byte[] contents;
+            if (this.sourceFolder != null) {
+                Path path = this.sourceFolder.resolve(requestPath.substring(1));
+                if (!Files.isRegularFile(path)) {
+                    return null;
+                }
+                contents = Files.readAllBytes(path);
+            } else {
+                InputStream in = StaticAssets.class.getClassLoader().getResourceAsStream(
+                        this.classpathFolder + requestPath);
+                if (in == null) {
+                    return null;
+                }
+                contents = readAll(in);
+            }
+            return new Asset(contents, computeEtag(contents), guessContentType(requestPath));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            for (int count = stream.read(chunk); count >= 0; count = stream.read(chunk)) {
+                out.write(chunk, 0, count);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Returns a strong ETag for the given contents: the start of their
+     * SHA-256 digest, in quotes.
+     */
+    private static String computeEtag(byte[] contents) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(contents);
+            StringBuilder etag = new StringBuilder("\"");
+            for (int i = 0; i < 12; i++) {
+                etag.append(String.format("%02x", digest[i]));
+            }
+            return etag.append('"').toString();
+        } catch (NoSuchAlgorithmException ex) {
+            // Every JVM must support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String guessContentType(String requestPath) {
+        String extension = requestPath.substring(requestPath.lastIndexOf('.') + 1).toLowerCase();
+        switch (extension) {
+            case "css":
+                return "text/css; charset=utf-8";
+            case "js":
+                return "application/javascript; charset=utf-8";
+            case "html":
+            case "htm":
+                return "text/html; charset=utf-8";
+            case "txt":
+                return "text/plain; charset=utf-8";
+            case "svg":
+                return "image/svg+xml";
+            case "png":
+                return "image/png";
+            case "jpg":
+            case "jpeg":
+                return "image/jpeg";
+            case "gif":
+                return "image/gif";
+            case "ico":
+                return "image/x-icon";
+            default:
+                return "application/octet-stream";
+        }
+    }
+
+    public static class Asset {
+        private final byte[] contents;
+        private final String etag;
+        private final String contentType;
+
+        public Asset(byte[] contents, String etag, String contentType) {
+            this.contents = contents;
+            this.etag = etag;
+            this.contentType = contentType;
+        }
+
+        public byte[] getContents() {
+            return this.contents;
+        }
+
+        public String getEtag() {
+            return this.etag;
+        }
+
+        public String getContentType() {
+            return this.contentType;
+        }
+
+        /**
+         * Returns true if the given If-None-Match header names this file, so
+         * the client's copy is current.
+         */
+        public boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String tag : ifNoneMatch.split(",")) {
+                String trimmed = tag.trim();
+                if (trimmed.startsWith("W/")) {
+                    trimmed = trimmed.substring(2);
+                }
+                if (trimmed.equals("*") || trimmed.equals(this.etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
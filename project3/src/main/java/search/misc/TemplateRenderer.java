@@ -0,0 +1,193 @@
+package search.misc;
+
+import com.github.mustachejava.DefaultMustacheFactory;
+import com.github.mustachejava.Mustache;
+import com.github.mustachejava.MustacheFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Renders Mustache templates, each compiled once, when this renderer is made.
+ *
+ * Templates are normally read from the classpath. If a source folder is
+ * given instead, every template is read from it and compiled again on every
+ * render, so edits show up on the next page load without a restart. That is
+ * meant for working on the templates, not for serving real traffic.
+ *
+ * Each thread renders into a buffer it keeps between renders, so rendering
+ * a page allocates little beyond what the template itself needs.
+ *
+ * All methods are thread-safe.
+ */
+public class TemplateRenderer {
+    // A thread's buffer is dropped rather than kept if a page grew it past this
+    private static final int MAX_KEPT_BUFFER_CHARS = 1 << 20;
+
+    private final Path sourceFolder;
+    private final ConcurrentHashMap<String, Mustache> compiled;
+    private final ThreadLocal<Buffer> buffers;
+
+    /**
+     * Compiles the templates with the given names, in the given classpath
+     * folder (or the given source folder, if not null).
+     *
+     * @throws com.github.mustachejava.MustacheException  if any template is
+     *         missing or malformed
+     */
+    public TemplateRenderer(String classpathFolder, Path sourceFolder, String... templateNames) {
+        this.sourceFolder = sourceFolder;
+        this.compiled = new ConcurrentHashMap<>();
+        this.buffers = ThreadLocal.withInitial(Buffer::new);
+
+        MustacheFactory factory = sourceFolder == null
+                ? new DefaultMustacheFactory(classpathFolder)
+                : new DefaultMustacheFactory(sourceFolder.toFile());
+        for (String name : templateNames) {
+            this.compiled.put(name, factory.compile(name));
+        }
+    }
+
+    /**
+     * Returns true if templates are compiled again on every render.
+     */
+    public boolean isHotReloaded() {
+        return this.sourceFolder != null;
+    }
+
+    /**
+     * Renders the given template with the given model, and writes it to the
+     * given stream as UTF-8. Returns the number of bytes written.
+     *
+     * Nothing is written if rendering fails, so the caller can still send an
+     * error page instead.
+     */
+    public int render(String templateName, Object model, OutputStream out) throws IOException {
+        Buffer buffer = this.fill(templateName, model);
+        try {
+            int length = buffer.encode();
+            out.write(buffer.bytes, 0, length);
+            return length;
+        } finally {
+            this.release(buffer);
+        }
+    }
+
+    /**
+     * Renders the given template with the given model.
+     */
+    public String render(String templateName, Object model) {
+        Buffer buffer = this.fill(templateName, model);
+        try {
+            return new String(buffer.chars, 0, buffer.length);
+        } finally {
+            this.release(buffer);
+        }
+    }
+
+    private Buffer fill(String templateName, Object model) {
+        Buffer buffer = this.buffers.get();
+        buffer.length = 0;
+        this.getTemplate(templateName).execute(buffer, model);
+        return buffer;
+    }
+
+    private void release(Buffer buffer) {
+        if (buffer.chars.length > MAX_KEPT_BUFFER_CHARS) {
+            this.buffers.remove();
+        }
+    }
+
+    private Mustache getTemplate(String templateName) {
+        if (this.sourceFolder != null) {
+            // A new factory, since a factory keeps every template it compiles
+            return new DefaultMustacheFactory(this.sourceFolder.toFile()).compile(templateName);
+        }
+        Mustache template = this.compiled.get(templateName);
+        if (template == null) {
+            throw new IllegalArgumentException("Template was not compiled up front: " + templateName);
+        }
+        return template;
+    }
+
+    /**
+     * A page being rendered, kept in an array that grows as needed and is
+     * reused for the thread's next page, then encoded to UTF-8 into another.
+     */
+    private static class Buffer extends Writer {
+        public char[] chars;
+        public int length;
+        public byte[] bytes;
+        private final CharsetEncoder encoder;
+
+        public Buffer() {
+            this.chars = new char[16 * 1024];
+            this.length = 0;
+            this.bytes = new byte[0];
+            this.encoder = StandardCharsets.UTF_8.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        @Override
+        public void write(char[] source, int offset, int count) {
+            this.ensureCapacity(count);
+            System.arraycopy(source, offset, this.chars, this.length, count);
+            this.length += count;
+        }
+
+        @Override
+        public void write(String source, int offset, int count) {
+            this.ensureCapacity(count);
+            source.getChars(offset, offset + count, this.chars, this.length);
+            this.length += count;
+        }
+
+        @Override
+        public void write(int c) {
+            this.ensureCapacity(1);
+            this.chars[this.length] = (char) c;
+            this.length++;
+        }
+
+        @Override
+        public void flush() {
+            // Nothing to do: everything is already in memory
+        }
+
+        @Override
+        public void close() {
+            // Nothing to do: everything is already in memory
+        }
+
+        /**
+         * Encodes the page into 'bytes', and returns its length in bytes.
+         */
+        public int encode() {
+            // UTF-8 never needs more than three bytes per char
+            if (this.bytes.length < 3 * this.length) {
+                this.bytes = new byte[3 * this.chars.length];
+            }
+            ByteBuffer out = ByteBuffer.wrap(this.bytes);
+            this.encoder.reset();
+            this.encoder.encode(CharBuffer.wrap(this.chars, 0, this.length), out, true);
+            this.encoder.flush(out);
+            return out.position();
+        }
+
+        private void ensureCapacity(int count) {
+            if (this.length + count > this.chars.length) {
+                this.chars = Arrays.copyOf(this.chars, Math.max(2 * this.chars.length, this.length + count));
+            }
+        }
+    }
+}
@@ -1,47 +1,166 @@
-package search.misc;
-
-import datastructures.concrete.DoubleLinkedList;
-import datastructures.interfaces.IList;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
-
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.util.Optional;
-
-public class WebUtils {
-    public static IList<URI> extractLinks(URI rootUri, Document doc) {
-        IList<URI> out = new DoubleLinkedList<>();
-        Elements links = doc.select("a[href]");
-        for (Element link : links) {
-            String rawLink = link.attr("href");
-
-            try {
-                URI extractedLink = new URI(rawLink);
-                Optional<URI> normalizedUri = WebUtils
-                        .normalize(rootUri.resolve(extractedLink));
-                normalizedUri.ifPresent(out::add);
-            } catch (URISyntaxException ex) {
-                System.out.println("Malformed link: " + rawLink);
-            }
-
-        }
-        return out;
-    }
-
-    public static Optional<URI> normalize(URI uri) {
-        try {
-            return Optional.of(new URI(
-                    uri.getScheme(),
-                    uri.getUserInfo(),
-                    uri.getHost(),
-                    uri.getPort(),
-                    uri.getPath(),
-                    uri.getQuery(),
-                    null).normalize());
-        } catch (URISyntaxException ex) {
-            return Optional.empty();
-        }
-    }
-}
+package search.misc;
+
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.Elements;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Optional;
+
+public class WebUtils {
+    public static IList<URI> extractLinks(URI rootUri, Document doc) {
+        IList<URI> out = new DoubleLinkedList<>();
+        Elements links = doc.select("a[href]");
+        for (Element link : links) {
+            addLink(rootUri, link.attr("href"), out);
+        }
+        return out;
+    }
+
+    /**
+     * Walks the given document once, adding every link in it to 'links' and
+     * every word in its body to 'words'.
+     *
+     * This finds the same links as 'extractLinks', and the same words as
+     * tokenizing 'doc.body().text()', but without building the body text or
+     * searching the document a second time.
+     */
+    public static void extractLinksAndWords(URI rootUri, Document doc, IList<URI> links, IList<String> words) {
+        extractLinksAndWords(rootUri, doc, links, words, null);
+    }
+
+    /**
+     * Like 'extractLinksAndWords' above, but also appends the text of the
+     * body to 'text' (unless it is null), laid out as 'doc.body().text()'
+     * would, except that runs of whitespace are kept rather than collapsed.
+     * The words are exactly those of that text, so 'WordTokenizer.findWords'
+     * finds where each of them is in it.
+     */
+    public static void extractLinksAndWords(URI rootUri, Document doc, IList<URI> links, IList<String> words,
+                                            StringBuilder text) {
+        WordTokenizer tokenizer = new WordTokenizer(
+                (buffer, length) -> words.add(new String(buffer, 0, length)));
+        new NodeTraversor(new LinkAndTextVisitor(rootUri, doc.body(), links, tokenizer, text)).traverse(doc);
+        tokenizer.finish();
+    }
+
+    private static void addLink(URI rootUri, String rawLink, IList<URI> out) {
+        try {
+            URI extractedLink = new URI(rawLink);
+            Optional<URI> normalizedUri = WebUtils
+                    .normalize(rootUri.resolve(extractedLink));
+            normalizedUri.ifPresent(out::add);
+        } catch (URISyntaxException ex) {
+            System.out.println("Malformed link: " + rawLink);
+        }
+    }
+
+    public static Optional<URI> normalize(URI uri) {
+        try {
+            return Optional.of(new URI(
+                    uri.getScheme(),
+                    uri.getUserInfo(),
+                    uri.getHost(),
+                    uri.getPort(),
+                    uri.getPath(),
+                    uri.getQuery(),
+                    null).normalize());
+        } catch (URISyntaxException ex) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Collects links from the whole document, and feeds the text of the body
+     * to a tokenizer exactly as 'Element.text()' would lay it out: a space
+     * before every block element and line break, and no leading or trailing
+     * chars at or below ' ' (see 'String.trim').
+     */
+    private static class LinkAndTextVisitor implements NodeVisitor {
+        private final URI rootUri;
+        private final Element body;
+        private final IList<URI> links;
+        private final WordTokenizer tokenizer;
+
+        // Receives every char the tokenizer does, if not null
+        private final StringBuilder text;
+
+        private boolean isInBody;
+        private boolean hasText;
+
+        // Chars at or below ' ' we've seen since the last char above it. We
+        // only pass these on once more text follows, which trims the end.
+        private StringBuilder pending;
+
+        public LinkAndTextVisitor(URI rootUri, Element body, IList<URI> links, WordTokenizer tokenizer,
+                                  StringBuilder text) {
+            this.rootUri = rootUri;
+            this.body = body;
+            this.links = links;
+            this.tokenizer = tokenizer;
+            this.text = text;
+            this.isInBody = false;
+            this.hasText = false;
+            this.pending = new StringBuilder();
+        }
+
+        @Override
+        public void head(Node node, int depth) {
+            if (node == this.body) {
+                this.isInBody = true;
+            }
+
+            if (node instanceof TextNode) {
+                if (this.isInBody) {
+                    this.appendText(((TextNode) node).getWholeText());
+                }
+            } else if (node instanceof Element) {
+                Element element = (Element) node;
+                if (element.tagName().equals("a") && element.hasAttr("href")) {
+                    addLink(this.rootUri, element.attr("href"), this.links);
+                }
+                if (this.isInBody && (element.isBlock() || element.tagName().equals("br"))) {
+                    this.appendText(" ");
+                }
+            }
+        }
+
+        @Override
+        public void tail(Node node, int depth) {
+            if (node == this.body) {
+                this.isInBody = false;
+            }
+        }
+
+        private void appendText(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c <= ' ') {
+                    if (this.hasText) {
+                        this.pending.append(c);
+                    }
+                } else {
+                    if (this.pending.length() > 0) {
+                        this.tokenizer.append(this.pending);
+                        if (this.text != null) {
+                            this.text.append(this.pending);
+                        }
+                        this.pending.setLength(0);
+                    }
+                    this.tokenizer.append(c);
+                    if (this.text != null) {
+                        this.text.append(c);
+                    }
+                    this.hasText = true;
+                }
+            }
+        }
+    }
+}
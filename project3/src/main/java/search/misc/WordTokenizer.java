@@ -1,17 +1,229 @@
-package search.misc;
-
-import datastructures.concrete.DoubleLinkedList;
-import datastructures.interfaces.IList;
-
-public class WordTokenizer {
-    public static IList<String> extract(String input) {
-        IList<String> out = new DoubleLinkedList<>();
-        for (String word : input.toLowerCase().split("\\s+")) {
-            word = word.replaceAll("\\p{Punct}", "");
-            if (!word.isEmpty()) {
-                out.add(word);
-            }
-        }
-        return out;
-    }
-}
+package search.misc;
+
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Splits text into lowercase words.
+ *
+ * Words are separated by ASCII whitespace, lowercased, and stripped of ASCII
+ * punctuation; words that are left empty are dropped. That is, this is
+ * equivalent to:
+ *
+ *     for (String word : input.toLowerCase().split("\\s+")) {
+ *         word = word.replaceAll("\\p{Punct}", "");
+ *         ...
+ *     }
+ *
+ * but makes a single pass over the input, without any regexes or intermediate
+ * strings.
+ *
+ * Text can also be fed to a tokenizer in pieces (see 'append'), which is
+ * equivalent to tokenizing all the pieces concatenated together.
+ *
+ * While a word is being handled, 'getWordStart' and 'getWordEnd' say where
+ * its raw chars, punctuation and all, are in the text appended so far.
+ */
+public class WordTokenizer {
+    /**
+     * Receives each word found by a tokenizer.
+     */
+    @FunctionalInterface
+    public interface TokenHandler {
+        /**
+         * Handles the word stored in the first 'length' chars of 'buffer'.
+         *
+         * The buffer is reused for the next word, so implementations must
+         * copy out anything they want to keep.
+         */
+        void accept(char[] buffer, int length);
+    }
+
+    private final TokenHandler handler;
+
+    // A few locales lowercase the ASCII letter 'I' to something other than
+    // 'i', so our ASCII shortcut is only safe in the others.
+    private final boolean isAsciiSafe;
+
+    // The raw chars of the word we're currently reading.
+    private char[] buffer;
+    private int length;
+    private boolean isAscii;
+
+    // The number of chars appended so far, and where the current word
+    // starts and ends among them
+    private int offset;
+    private int wordStart;
+    private int wordEnd;
+
+    /**
+     * Creates a tokenizer that passes every word it finds to the given handler.
+     */
+    public WordTokenizer(TokenHandler handler) {
+        this.handler = handler;
+        String language = Locale.getDefault().getLanguage();
+        this.isAsciiSafe = !language.equals("tr") && !language.equals("az");
+        this.buffer = new char[32];
+        this.length = 0;
+        this.isAscii = true;
+        this.offset = 0;
+        this.wordStart = 0;
+        this.wordEnd = 0;
+    }
+
+    public static IList<String> extract(String input) {
+        IList<String> out = new DoubleLinkedList<>();
+        tokenize(input, (buffer, length) -> out.add(new String(buffer, 0, length)));
+        return out;
+    }
+
+    /**
+     * Passes every word in the given input to the handler, in order.
+     */
+    public static void tokenize(String input, TokenHandler handler) {
+        WordTokenizer tokenizer = new WordTokenizer(handler);
+        tokenizer.append(input);
+        tokenizer.finish();
+    }
+
+    /**
+     * Returns where every word in the given input is: the offset of the first
+     * raw char of each word, followed by the offset just past its last, in
+     * the order 'tokenize' would pass the words to its handler.
+     */
+    public static int[] findWords(String input) {
+        // The handler needs the tokenizer it belongs to
+        WordTokenizer[] tokenizer = new WordTokenizer[1];
+        int[][] spans = {new int[16]};
+        int[] numWords = {0};
+        tokenizer[0] = new WordTokenizer((buffer, length) -> {
+            if (2 * numWords[0] == spans[0].length) {
+                spans[0] = Arrays.copyOf(spans[0], spans[0].length * 2);
+            }
+            spans[0][2 * numWords[0]] = tokenizer[0].getWordStart();
+            spans[0][2 * numWords[0] + 1] = tokenizer[0].getWordEnd();
+            numWords[0]++;
+        });
+        tokenizer[0].append(input);
+        tokenizer[0].finish();
+        return Arrays.copyOf(spans[0], 2 * numWords[0]);
+    }
+
+    /**
+     * Returns the offset of the first raw char of the word being handled,
+     * counting every char appended to this tokenizer.
+     */
+    public int getWordStart() {
+        return this.wordStart;
+    }
+
+    /**
+     * Returns the offset just past the last raw char of the word being
+     * handled.
+     */
+    public int getWordEnd() {
+        return this.wordEnd;
+    }
+
+    /**
+     * Tokenizes the given text. A word may continue from the previous call
+     * into this one, so the last word is not passed to the handler until we
+     * see whitespace or 'finish' is called.
+     */
+    public void append(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            this.append(text.charAt(i));
+        }
+    }
+
+    /**
+     * Tokenizes the given char.
+     */
+    public void append(char c) {
+        if (isWhitespace(c)) {
+            this.endWord();
+        } else {
+            if (this.length == 0) {
+                this.wordStart = this.offset;
+            }
+            if (this.length == this.buffer.length) {
+                char[] newBuffer = new char[this.buffer.length * 2];
+                System.arraycopy(this.buffer, 0, newBuffer, 0, this.length);
+                this.buffer = newBuffer;
+            }
+            this.buffer[this.length] = c;
+            this.length++;
+            this.isAscii &= c < 128;
+        }
+        this.offset++;
+    }
+
+    /**
+     * Passes the last word (if any) to the handler. Call this once all the
+     * text has been appended.
+     */
+    public void finish() {
+        this.endWord();
+    }
+
+    private void endWord() {
+        if (this.length == 0) {
+            return;
+        }
+        this.wordEnd = this.wordStart + this.length;
+
+        char[] word;
+        int size = 0;
+        if (this.isAscii && this.isAsciiSafe) {
+            // Lowercasing and stripping punctuation can only shrink the word,
+            // so we can do both in place.
+            word = this.buffer;
+            for (int i = 0; i < this.length; i++) {
+                char c = this.buffer[i];
+                if (c >= 'A' && c <= 'Z') {
+                    word[size] = (char) (c + ('a' - 'A'));
+                    size++;
+                } else if (!isPunctuation(c)) {
+                    word[size] = c;
+                    size++;
+                }
+            }
+        } else {
+            // Lowercasing other characters can depend on their neighbours
+            // (e.g. a final Greek sigma) and can change the word's length,
+            // so we leave those rare words to the JDK. Neighbours across
+            // whitespace never matter, so lowercasing just this word gives
+            // the same result as lowercasing the whole input.
+            word = new String(this.buffer, 0, this.length).toLowerCase().toCharArray();
+            for (char c : word) {
+                if (!isPunctuation(c)) {
+                    word[size] = c;
+                    size++;
+                }
+            }
+        }
+
+        this.length = 0;
+        this.isAscii = true;
+        if (size > 0) {
+            this.handler.accept(word, size);
+        }
+    }
+
+    /**
+     * Returns true if the given char matches the regex "\s".
+     */
+    static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Returns true if the given char matches the regex "\p{Punct}".
+     */
+    public static boolean isPunctuation(char c) {
+        return (c >= '!' && c <= '/') || (c >= ':' && c <= '@') || (c >= '[' && c <= '`') || (c >= '{' && c <= '~');
+    }
+}
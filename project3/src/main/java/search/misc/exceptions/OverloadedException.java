@@ -0,0 +1,23 @@
+package search.misc.exceptions;
+
+/**
+ * Thrown when a request is turned away, or gives up waiting, because the
+ * server has more work than it can finish in time.
+ */
+public class OverloadedException extends RuntimeException {
+    public OverloadedException() {
+        super();
+    }
+
+    public OverloadedException(String message) {
+        super(message);
+    }
+
+    public OverloadedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public OverloadedException(Throwable cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,264 @@
+package search.models;
+
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+
+/**
+ * Represents a parsed search query: the words to score pages against, plus
+ * a filter deciding which pages match the query at all.
+ */
+public class Query {
+    private final IList<String> terms;
+    private final IList<IList<String>> phrases;
+    private final IList<Near> nearClauses;
+    private final Filter filter;
+
+    /**
+     * Constructs a new instance of this class, where a page matches only if
+     * it satisfies every given phrase and proximity clause.
+     *
+     * @param terms        Every word in the query, in order, including the
+     *                     words inside phrases and proximity clauses.
+     * @param phrases      Word sequences that must appear consecutively.
+     * @param nearClauses  Word pairs that must appear close together.
+     */
+    public Query(IList<String> terms, IList<IList<String>> phrases, IList<Near> nearClauses) {
+        this(terms, phrases, nearClauses, makeClauseFilter(phrases, nearClauses));
+    }
+
+    /**
+     * Constructs a new instance of this class.
+     *
+     * @param terms        The words to score pages against, in order.
+     * @param phrases      Every phrase in the filter.
+     * @param nearClauses  Every proximity clause in the filter.
+     * @param filter       The condition a page must satisfy to match, or
+     *                     null if every page matches.
+     */
+    public Query(IList<String> terms, IList<IList<String>> phrases, IList<Near> nearClauses, Filter filter) {
+        this.terms = terms;
+        this.phrases = phrases;
+        this.nearClauses = nearClauses;
+        this.filter = filter;
+    }
+
+    /**
+     * Returns a query that simply scores pages against the given words.
+     */
+    public static Query fromTerms(IList<String> terms) {
+        return new Query(terms, new DoubleLinkedList<>(), new DoubleLinkedList<>());
+    }
+
+    private static Filter makeClauseFilter(IList<IList<String>> phrases, IList<Near> nearClauses) {
+        IList<Filter> clauses = new DoubleLinkedList<>();
+        for (IList<String> phrase : phrases) {
+            clauses.add(new Phrase(phrase));
+        }
+        for (Near near : nearClauses) {
+            clauses.add(near);
+        }
+        if (clauses.isEmpty()) {
+            return null;
+        }
+        return clauses.size() == 1 ? clauses.get(0) : new And(clauses);
+    }
+
+    /**
+     * Returns every word to score pages against, in order.
+     */
+    public IList<String> getTerms() {
+        return this.terms;
+    }
+
+    /**
+     * Returns every word sequence in this query's filter. Unless the query
+     * uses boolean operators, a page must contain all of them, consecutively
+     * and in order, to match this query.
+     */
+    public IList<IList<String>> getPhrases() {
+        return this.phrases;
+    }
+
+    /**
+     * Returns every proximity clause in this query's filter. Unless the query
+     * uses boolean operators, a page must satisfy all of them to match this query.
+     */
+    public IList<Near> getNearClauses() {
+        return this.nearClauses;
+    }
+
+    /**
+     * Returns the condition a page must satisfy to match this query, or null
+     * if every page matches.
+     */
+    public Filter getFilter() {
+        return this.filter;
+    }
+
+    /**
+     * Returns true if pages must do more than contain the query's words to
+     * match this query.
+     */
+    public boolean hasClauses() {
+        return this.filter != null;
+    }
+
+    /**
+     * A condition on the words of a page.
+     *
+     * The string form of a filter is unambiguous, so two filters are the same
+     * exactly when their strings are.
+     */
+    public abstract static class Filter {
+    }
+
+    /**
+     * A requirement that a page contain a word.
+     */
+    public static class Word extends Filter {
+        private final String word;
+
+        public Word(String word) {
+            this.word = word;
+        }
+
+        public String getWord() {
+            return this.word;
+        }
+
+        @Override
+        public String toString() {
+            return this.word;
+        }
+    }
+
+    /**
+     * A requirement that a page contain some words consecutively, in order.
+     */
+    public static class Phrase extends Filter {
+        private final IList<String> words;
+
+        public Phrase(IList<String> words) {
+            this.words = words;
+        }
+
+        public IList<String> getWords() {
+            return this.words;
+        }
+
+        @Override
+        public String toString() {
+            return "\"" + String.join(" ", this.words) + "\"";
+        }
+    }
+
+    /**
+     * A requirement that two words appear within some distance of each
+     * other, in either order.
+     */
+    public static class Near extends Filter {
+        private final String first;
+        private final String second;
+        private final int distance;
+
+        public Near(String first, String second, int distance) {
+            this.first = first;
+            this.second = second;
+            this.distance = distance;
+        }
+
+        public String getFirst() {
+            return this.first;
+        }
+
+        public String getSecond() {
+            return this.second;
+        }
+
+        /**
+         * Returns the largest number of positions the two words can be apart,
+         * where adjacent words are 1 position apart.
+         */
+        public int getDistance() {
+            return this.distance;
+        }
+
+        @Override
+        public String toString() {
+            return this.first + " NEAR/" + this.distance + " " + this.second;
+        }
+    }
+
+    /**
+     * A requirement that a page satisfy every one of several filters.
+     */
+    public static class And extends Filter {
+        private final IList<Filter> children;
+
+        public And(IList<Filter> children) {
+            this.children = children;
+        }
+
+        public IList<Filter> getChildren() {
+            return this.children;
+        }
+
+        @Override
+        public String toString() {
+            return join(this.children, " AND ");
+        }
+    }
+
+    /**
+     * A requirement that a page satisfy at least one of several filters.
+     */
+    public static class Or extends Filter {
+        private final IList<Filter> children;
+
+        public Or(IList<Filter> children) {
+            this.children = children;
+        }
+
+        public IList<Filter> getChildren() {
+            return this.children;
+        }
+
+        @Override
+        public String toString() {
+            return join(this.children, " OR ");
+        }
+    }
+
+    /**
+     * A requirement that a page not satisfy some filter.
+     */
+    public static class Not extends Filter {
+        private final Filter child;
+
+        public Not(Filter child) {
+            this.child = child;
+        }
+
+        public Filter getChild() {
+            return this.child;
+        }
+
+        @Override
+        public String toString() {
+            return "NOT " + this.child;
+        }
+    }
+
+    private static String join(IList<Filter> filters, String separator) {
+        StringBuilder out = new StringBuilder("(");
+        boolean isFirst = true;
+        for (Filter filter : filters) {
+            if (!isFirst) {
+                out.append(separator);
+            }
+            out.append(filter);
+            isFirst = false;
+        }
+        return out.append(")").toString();
+    }
+}
@@ -9,10 +9,22 @@ import java.net.URI;
 public class Result implements Comparable<Result> {
     private WebpageSummary webpageSummary;
     private double score;
+    private String snippet;
 
     public Result(WebpageSummary summary, double score) {
+        this(summary, score, null);
+    }
+
+    /**
+     * Constructs a new result.
+     *
+     * @param snippet  An HTML snippet of the page, highlighting the query's
+     *                 words, or null if there is none.
+     */
+    public Result(WebpageSummary summary, double score, String snippet) {
         this.webpageSummary = summary;
         this.score = score;
+        this.snippet = snippet;
     }
 
     /**
@@ -43,6 +55,22 @@ public class Result implements Comparable<Result> {
         return this.webpageSummary.getBlurb();
     }
 
+    /**
+     * Returns an HTML snippet of the part of this webpage that best matches
+     * the query, with the query's words highlighted, or null if there is none.
+     * The snippet is already escaped, so it can be shown as-is.
+     */
+    public String getSnippet() {
+        return this.snippet;
+    }
+
+    /**
+     * Returns a copy of this result with the given snippet.
+     */
+    public Result withSnippet(String snippet) {
+        return new Result(this.webpageSummary, this.score, snippet);
+    }
+
     /**
      * Compares to Result objects by their score.
      *
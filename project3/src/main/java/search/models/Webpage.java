@@ -10,11 +10,11 @@ import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import search.misc.UnbufferedReader;
 import search.misc.WebUtils;
-import search.misc.WordTokenizer;
 import search.misc.exceptions.DataExtractionException;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.File;
 import java.io.FileReader;
@@ -33,6 +33,10 @@ import java.util.StringTokenizer;
 public class Webpage {
     private static final int MAX_DESCRIPTION_LEN = 200;
 
+    // Starts the line of a cache file holding the page's text. Links are
+    // absolute URIs, which never start with this.
+    private static final String TEXT_PREFIX = "text: ";
+
     // This field is the 'unique key' for the webpage:
     // every Webpage object is guaranteed to have a unique URI.
     private URI pageUri;
@@ -43,14 +47,26 @@ public class Webpage {
     private IList<String> words;
     private WebpageSummary summary;
 
+    // The text the words were taken from, or null if we don't have it
+    private String text;
+
     /**
      * Constructs a new webpage instance.
      */
     public Webpage(URI pageUri, IList<URI> links, IList<String> words, String title, String blurb) {
+        this(pageUri, links, words, title, blurb, null);
+    }
+
+    /**
+     * Constructs a new webpage instance, whose words are those of the given
+     * text (see 'WordTokenizer').
+     */
+    public Webpage(URI pageUri, IList<URI> links, IList<String> words, String title, String blurb, String text) {
         this.pageUri = pageUri;
         this.links = links;
         this.words = words;
         this.summary = new WebpageSummary(pageUri, title, blurb);
+        this.text = text;
     }
 
     /**
@@ -76,6 +92,15 @@ public class Webpage {
         return this.words;
     }
 
+    /**
+     * Returns the text of this web page, as it appears on the page, which
+     * 'getWords' are the lowercased words of. Returns null if we don't have
+     * it, for example if the page was built from its words alone.
+     */
+    public String getText() {
+        return this.text;
+    }
+
     /**
      * Returns a summary of this webpage.
      */
@@ -104,12 +129,15 @@ public class Webpage {
         URI cacheURI = Webpage.getCacheURI(localUri);
         File cacheFile = new File(cacheURI);
         if (cacheFile.exists()) {
-            return Webpage.loadFromCache(cacheFile);
-        } else {
-            Webpage out = Webpage.loadOriginal(localUri);
-            Webpage.saveToCache(out, cacheFile);
-            return out;
+            Webpage cached = Webpage.loadFromCache(cacheFile);
+            if (cached.text != null) {
+                return cached;
+            }
+            // Written before caches held the text, so we build it again
         }
+        Webpage out = Webpage.loadOriginal(localUri);
+        Webpage.saveToCache(out, cacheFile);
+        return out;
     }
 
     public static Webpage loadOriginal(URI localUri) {
@@ -120,21 +148,41 @@ public class Webpage {
 
             // Save canonical fields
             URI pageUri = Webpage.createUri(metadata.get("uri"));
-
-            // Populate cache fields
-            IList<URI> links = WebUtils.extractLinks(pageUri, document);
-            IList<String> words = WordTokenizer.extract(document.body().text());
-
-            Article article = Webpage.extractReadableArticle(pageUri, document);
-            String title = Webpage.extractTitle(article, pageUri);
-            String blurb = Webpage.extractBlurb(article);
-
-            return new Webpage(pageUri, links, words, title, blurb);
+            return Webpage.fromDocument(pageUri, document);
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
     }
 
+    /**
+     * Loads the page with the given URI from its HTML, as stored in a
+     * PageArchive. Unlike 'load', this never reads or writes a cache file:
+     * PageCache caches the pages loaded this way.
+     */
+    public static Webpage loadOriginal(URI pageUri, byte[] html) {
+        try {
+            Document document = Jsoup.parse(new ByteArrayInputStream(html), null, pageUri.toString());
+            return Webpage.fromDocument(pageUri, document);
+        } catch (IOException ex) {
+            throw new DataExtractionException("Could not extract HTML from document", ex);
+        }
+    }
+
+    private static Webpage fromDocument(URI pageUri, Document document) {
+        // Populate cache fields. This must happen before we extract the
+        // article, which can modify the document.
+        IList<URI> links = new DoubleLinkedList<>();
+        IList<String> words = new DoubleLinkedList<>();
+        StringBuilder text = new StringBuilder();
+        WebUtils.extractLinksAndWords(pageUri, document, links, words, text);
+
+        Article article = Webpage.extractReadableArticle(pageUri, document);
+        String title = Webpage.extractTitle(article, pageUri);
+        String blurb = Webpage.extractBlurb(article);
+
+        return new Webpage(pageUri, links, words, title, blurb, text.toString());
+    }
+
     private static void saveToCache(Webpage page, File cache) {
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(cache))) {
             WebpageSummary summary = page.getSummary();
@@ -155,6 +203,11 @@ public class Webpage {
             }
             writer.write('\n');
 
+            // Line 5, if we have the text: the text, escaped to fit on a line
+            if (page.text != null) {
+                writer.write(TEXT_PREFIX + escapeLine(page.text) + "\n");
+            }
+
             // Remaining lines: links
             for (URI link : page.links) {
                 writer.write(link.toString());
@@ -183,18 +236,45 @@ public class Webpage {
                 words.add(tokenizer.nextToken());
             }
 
+            // Line 5: text, unless the cache was written without it
+            String text = null;
+            String line = reader.readLine();
+            if (line != null && line.startsWith(TEXT_PREFIX)) {
+                text = unescapeLine(line.substring(TEXT_PREFIX.length()));
+                line = reader.readLine();
+            }
+
             // Rest of lines: links
             IList<URI> links = new DoubleLinkedList<>();
-            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            for (; line != null; line = reader.readLine()) {
                 links.add(URI.create(line));
             }
 
-            return new Webpage(pageUri, links, words, title, blurb);
+            return new Webpage(pageUri, links, words, title, blurb, text);
         } catch (IOException ex) {
             throw new RuntimeException("Could not load cache", ex);
         }
     }
 
+    private static String escapeLine(String text) {
+        return text.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescapeLine(String line) {
+        StringBuilder out = new StringBuilder(line.length());
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < line.length()) {
+                i++;
+                char next = line.charAt(i);
+                out.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
     private static URI getCacheURI(URI localUri) {
         String raw = localUri.toString();
         String piece = raw.substring(0, raw.lastIndexOf("."));
@@ -243,7 +323,7 @@ public class Webpage {
 
     private static Article extractReadableArticle(URI pageUri, Document document) {
         return ArticleExtractor
-                .with(pageUri.toString(), document.html())
+                .with(pageUri.toString(), document)
                 .extractMetadata()
                 .extractContent()
                 .article();
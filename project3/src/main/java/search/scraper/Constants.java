@@ -1,6 +1,5 @@
 package search.scraper;
 
-import com.google.re2j.Pattern;
 import datastructures.concrete.ChainedHashSet;
 import datastructures.interfaces.ISet;
 import org.apache.http.entity.ContentType;
@@ -18,27 +17,25 @@ public class Constants {
         return whitelist;
     }
 
-    public static UriMatchRule fileExtensionBlacklist() {
+    /**
+     * Returns the file extensions, in lowercase and without the dot, of
+     * pages we never fetch. Compressed archives like ".tar.gz" are covered
+     * by their last extension.
+     */
+    public static ISet<String> fileExtensionBlacklist() {
         String[] blacklist = new String[]{
-                ".doc", ".docx", ".log", ".odt", ".rtf", ".tex", ".txt", ".wpd", ".wps", ".csv", ".dat",
-                ".pps", ".ppt", ".pptx", ".tar", ".xml", ".aif", ".m3u", ".m4a", ".mid", ".mp3", ".mpa",
-                ".wav", ".avi", ".flv", ".m4v", ".mov", ".mp4", ".mpg", ".swf", ".vob", ".bmp", ".gif",
-                ".jpg", ".png", ".psd", ".pspimage", ".tif", ".tiff", ".ps", ".svg", ".pdf", ".xlr",
-                ".xls", ".xlsx", ".sql", ".apk", ".app", ".jar", ".rom", ".sav", ".css", ".js", ".xhtml",
-                ".otf", ".ttf", ".dll", ".ico", ".7z", ".gz", ".pkg", ".rar", ".rpm", ".tar.gz", ".zip",
-                ".zipx", ".bin", ".iso", ".msi", ".part", ".torrent", ".xml"
+                "doc", "docx", "log", "odt", "rtf", "tex", "txt", "wpd", "wps", "csv", "dat",
+                "pps", "ppt", "pptx", "tar", "xml", "aif", "m3u", "m4a", "mid", "mp3", "mpa",
+                "wav", "avi", "flv", "m4v", "mov", "mp4", "mpg", "swf", "vob", "bmp", "gif",
+                "jpg", "png", "psd", "pspimage", "tif", "tiff", "ps", "svg", "pdf", "xlr",
+                "xls", "xlsx", "sql", "apk", "app", "jar", "rom", "sav", "css", "js", "xhtml",
+                "otf", "ttf", "dll", "ico", "7z", "gz", "pkg", "rar", "rpm", "zip",
+                "zipx", "bin", "iso", "msi", "part", "torrent"
         };
-        StringBuilder out = new StringBuilder();
-        String sep = "";
+        ISet<String> out = new ChainedHashSet<>();
         for (String extension : blacklist) {
-            out.append(sep);
-            sep = "|";
-
-            out.append("/.*" + extension);
-            out.append(sep);
-            out.append("/.*" + extension.toUpperCase());
+            out.add(extension);
         }
-
-        return new UriMatchRule(null, Pattern.compile(out.toString()));
+        return out;
     }
 }
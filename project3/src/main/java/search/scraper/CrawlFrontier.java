@@ -0,0 +1,507 @@
+package search.scraper;
+
+import search.scraper.CrawlScheduler.PendingUri;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * Every page a crawl has queued, kept on disk so that a crawl can pick up
+ * where it left off after it is stopped or crashes.
+ *
+ * Pages are appended to one segment file per distance from the seeds, and
+ * handed out from the closest segment that has pages left, in the order
+ * they were added (a page that is refused when offered goes to the back of
+ * its segment again, see 'poll'). Nothing but a read position and a small set of pages in
+ * progress is kept in memory for each segment, however large the crawl.
+ *
+ * A page handed out stays "unfinished" until it is marked done: once it has
+ * been saved, or given up on. Every CHECKPOINT_INTERVAL pages, and when the
+ * frontier is closed, we record the position of the first unfinished page
+ * in each segment. Reopening the frontier starts reading from there again,
+ * skipping pages that were saved since (see 'markAllSaved').
+ *
+ * Segments are written through a buffer, which is only flushed at each
+ * checkpoint, when we need to read back a page still in it, and when
+ * 'flush' is called. A crash loses whatever is still in the buffer. Pages
+ * found on a page that is fetched again after resuming are simply found
+ * again, but a page recorded as saved anywhere else (see 'markAllSaved') is
+ * skipped, so the caller must call 'flush' before recording that any page
+ * is saved. A record cut short by a crash is dropped when the frontier is
+ * reopened. Segments are read through a buffer as well, from wherever we
+ * left off.
+ *
+ * Every page queued is also in the crawl's seen set. Once that set has been
+ * synced to disk (see 'markSeenSynced'), the checkpoint records how long
+ * each segment was then, and reopening the frontier only adds the pages
+ * queued after that to the seen set again.
+ *
+ * All methods may be called from any number of threads at once. Writing a
+ * checkpoint to disk doesn't block the other methods.
+ */
+public class CrawlFrontier implements Closeable {
+    public static final int CHECKPOINT_INTERVAL = 100;
+
+    private static final String SEGMENT_PREFIX = "distance-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    private final Path directory;
+    private final boolean isTemporary;
+    private final boolean isResumed;
+
+    // By distance, closest first
+    private final TreeMap<Integer, Segment> segments;
+
+    // Pages saved by an earlier run, which we must not hand out again
+    private UrlSeenSet saved;
+
+    // The length of each segment when the seen set was last synced. Every
+    // page before then is in the seen set on disk.
+    private final TreeMap<Integer, Long> syncedLengths;
+
+    private int numDoneSinceCheckpoint;
+
+    // Checkpoints are numbered in the order they're taken, and written one
+    // at a time, while holding 'checkpointLock'. We never replace a
+    // checkpoint with an older one.
+    private final Object checkpointLock;
+    private long numCheckpoints;
+    private long lastWrittenCheckpoint;
+
+    /**
+     * Creates a frontier in a temporary directory, which is deleted when the
+     * frontier is closed.
+     */
+    public CrawlFrontier() throws IOException {
+        this(Files.createTempDirectory("frontier"), true, null);
+    }
+
+    /**
+     * Opens the frontier stored in the given directory, creating it if it
+     * doesn't exist yet, and adds every page it has queued since 'seen' was
+     * last synced to 'seen'.
+     */
+    public CrawlFrontier(Path directory, UrlSeenSet seen) throws IOException {
+        this(directory, false, seen);
+    }
+
+    private CrawlFrontier(Path directory, boolean isTemporary, UrlSeenSet seen) throws IOException {
+        this.directory = directory;
+        this.isTemporary = isTemporary;
+        this.segments = new TreeMap<>();
+        this.syncedLengths = new TreeMap<>();
+        this.saved = null;
+        this.numDoneSinceCheckpoint = 0;
+        this.checkpointLock = new Object();
+        this.numCheckpoints = 0;
+        this.lastWrittenCheckpoint = 0;
+
+        File folder = directory.toFile();
+        if (!folder.exists() && !folder.mkdirs()) {
+            throw new IOException("Unable to make folder " + directory);
+        }
+        if (isTemporary) {
+            folder.deleteOnExit();
+        }
+
+        TreeMap<Integer, Long> positions = new TreeMap<>();
+        TreeMap<Integer, Long> synced = new TreeMap<>();
+        Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+        if (checkpoint.toFile().exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpoint)))) {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    positions.put(in.readInt(), in.readLong());
+                }
+                count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    synced.put(in.readInt(), in.readLong());
+                }
+            } catch (EOFException ex) {
+                // A checkpoint from before we recorded synced lengths, so
+                // every page gets added to 'seen' again
+            }
+        }
+
+        File[] files = folder.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                int distance = Integer.parseInt(
+                        name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                long syncedLength = synced.getOrDefault(distance, 0L);
+                Segment segment = new Segment(file.toPath(), this.recover(file.toPath(), syncedLength, seen));
+                segment.readPosition = Math.min(positions.getOrDefault(distance, 0L), segment.length);
+                this.segments.put(distance, segment);
+                this.syncedLengths.put(distance, Math.min(syncedLength, segment.length));
+            }
+        }
+        this.isResumed = !this.segments.isEmpty();
+    }
+
+    /**
+     * Returns true if this frontier was reopened, rather than created.
+     */
+    public boolean isResumed() {
+        return this.isResumed;
+    }
+
+    /**
+     * Records that every page in the given file of fingerprints (see
+     * 'UrlSeenSet.addAll') was saved by an earlier run, so that it is
+     * skipped, not handed out again, when we come across it.
+     */
+    public synchronized void markAllSaved(Path fingerprintFile) throws IOException {
+        if (this.saved == null) {
+            this.saved = new UrlSeenSet(this.directory.resolve("saved"), UrlSeenSet.DEFAULT_BUFFER_CAPACITY);
+        }
+        this.saved.addAll(fingerprintFile);
+    }
+
+    /**
+     * Queues the given page, which must not have been queued before.
+     */
+    public synchronized void add(URI uri, int distance) throws IOException {
+        Segment segment = this.segments.get(distance);
+        if (segment == null) {
+            Path path = this.directory.resolve(SEGMENT_PREFIX + distance + SEGMENT_SUFFIX);
+            if (this.isTemporary) {
+                path.toFile().deleteOnExit();
+            }
+            segment = new Segment(path, 0);
+            this.segments.put(distance, segment);
+        }
+        segment.append(uri.toString());
+    }
+
+    /**
+     * Writes every page added so far to disk, so that they survive a crash.
+     */
+    public synchronized void flush() throws IOException {
+        for (Segment segment : this.segments.values()) {
+            segment.flush();
+        }
+    }
+
+    /**
+     * Records that every page queued so far is in the seen set on disk, so
+     * that reopening the frontier doesn't add them to it again. The caller
+     * must call 'flush', then sync the seen set (see 'UrlSeenSet.sync'),
+     * then call this, without queueing any new pages in between.
+     */
+    public synchronized void markSeenSynced() {
+        for (Map.Entry<Integer, Segment> entry : this.segments.entrySet()) {
+            this.syncedLengths.put(entry.getKey(), entry.getValue().length);
+        }
+    }
+
+    /**
+     * Returns the next page to fetch, or null if every queued page has been
+     * handed out. The page is unfinished until passed to 'done'.
+     */
+    public synchronized PendingUri poll() throws IOException {
+        for (Map.Entry<Integer, Segment> entry : this.segments.entrySet()) {
+            Segment segment = entry.getValue();
+            while (segment.readPosition < segment.length) {
+                long position = segment.readPosition;
+                String uri = segment.read();
+                if (!this.isSaved(uri)) {
+                    segment.unfinished.add(position);
+                    return new PendingUri(entry.getKey(), URI.create(uri), position);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Offers pages to 'accept', in the order 'poll' would return them, until
+     * it has accepted 'max' of them, refused 'maxRefused', or been offered
+     * every page queued before this call. An accepted page is unfinished
+     * until passed to 'done'. A refused page is queued again, behind every
+     * other page at its distance, and so is not offered twice by one call.
+     * Returns the number of pages refused.
+     *
+     * 'accept' is called while holding this frontier's lock.
+     */
+    public synchronized int poll(int max, int maxRefused, Predicate<PendingUri> accept) throws IOException {
+        long[] ends = new long[this.segments.size()];
+        int i = 0;
+        for (Segment segment : this.segments.values()) {
+            ends[i] = segment.length;
+            i++;
+        }
+
+        int numAccepted = 0;
+        int numRefused = 0;
+        i = 0;
+        for (Map.Entry<Integer, Segment> entry : this.segments.entrySet()) {
+            Segment segment = entry.getValue();
+            long end = ends[i];
+            i++;
+            while (segment.readPosition < end) {
+                if (numAccepted >= max || numRefused >= maxRefused) {
+                    return numRefused;
+                }
+                long position = segment.readPosition;
+                String uri = segment.read();
+                if (this.isSaved(uri)) {
+                    continue;
+                }
+                if (accept.test(new PendingUri(entry.getKey(), URI.create(uri), position))) {
+                    segment.unfinished.add(position);
+                    numAccepted++;
+                } else {
+                    // The next checkpoint flushes the copy before it can
+                    // skip past the original
+                    segment.append(uri);
+                    numRefused++;
+                }
+            }
+        }
+        return numRefused;
+    }
+
+    private boolean isSaved(String uri) {
+        return this.saved != null && this.saved.containsFingerprint(UrlSeenSet.fingerprint(uri));
+    }
+
+    /**
+     * Records that the given page has been saved or given up on, so it is
+     * never handed out again, even after the frontier is reopened. Marking a
+     * page done again has no effect.
+     */
+    public void done(PendingUri pending) throws IOException {
+        Checkpoint checkpoint;
+        synchronized (this) {
+            Segment segment = this.segments.get(pending.distance);
+            if (segment == null || !segment.unfinished.remove(pending.position)) {
+                // Already done, so there's nothing left to record
+                return;
+            }
+            this.numDoneSinceCheckpoint++;
+            if (this.numDoneSinceCheckpoint < CHECKPOINT_INTERVAL) {
+                return;
+            }
+            checkpoint = this.takeCheckpoint();
+        }
+        this.write(checkpoint);
+    }
+
+    /**
+     * Records how far each segment has been read, so that reopening the
+     * frontier resumes from here. The checkpoint is replaced atomically, so a
+     * crash leaves either this checkpoint or the one before it.
+     */
+    public void checkpoint() throws IOException {
+        Checkpoint checkpoint;
+        synchronized (this) {
+            checkpoint = this.takeCheckpoint();
+        }
+        this.write(checkpoint);
+    }
+
+    /**
+     * Flushes every segment, so every page the checkpoint may refer to is
+     * on disk, and returns the position of the first unfinished page in each.
+     */
+    private Checkpoint takeCheckpoint() throws IOException {
+        int[] distances = new int[this.segments.size()];
+        long[] positions = new long[this.segments.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Segment> entry : this.segments.entrySet()) {
+            Segment segment = entry.getValue();
+            segment.flush();
+            distances[i] = entry.getKey();
+            positions[i] = segment.unfinished.isEmpty() ? segment.readPosition : segment.unfinished.first();
+            i++;
+        }
+        this.numDoneSinceCheckpoint = 0;
+        this.numCheckpoints++;
+        return new Checkpoint(this.numCheckpoints, distances, positions, new TreeMap<>(this.syncedLengths));
+    }
+
+    private void write(Checkpoint checkpoint) throws IOException {
+        synchronized (this.checkpointLock) {
+            if (checkpoint.number <= this.lastWrittenCheckpoint) {
+                return;
+            }
+            Path temporary = this.directory.resolve(CHECKPOINT_FILE + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(checkpoint.distances.length);
+                for (int i = 0; i < checkpoint.distances.length; i++) {
+                    out.writeInt(checkpoint.distances[i]);
+                    out.writeLong(checkpoint.positions[i]);
+                }
+                out.writeInt(checkpoint.syncedLengths.size());
+                for (Map.Entry<Integer, Long> entry : checkpoint.syncedLengths.entrySet()) {
+                    out.writeInt(entry.getKey());
+                    out.writeLong(entry.getValue());
+                }
+            }
+            Files.move(temporary, this.directory.resolve(CHECKPOINT_FILE),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            this.lastWrittenCheckpoint = checkpoint.number;
+        }
+    }
+
+    /**
+     * Checkpoints the frontier and closes its files, or deletes it if it is
+     * temporary.
+     */
+    public void close() throws IOException {
+        if (!this.isTemporary) {
+            this.checkpoint();
+        }
+        synchronized (this) {
+            for (Segment segment : this.segments.values()) {
+                segment.writer.close();
+                if (segment.reader != null) {
+                    segment.reader.close();
+                }
+                if (this.isTemporary) {
+                    Files.deleteIfExists(segment.path);
+                }
+            }
+            if (this.saved != null) {
+                this.saved.close();
+            }
+            if (this.isTemporary) {
+                Files.deleteIfExists(this.directory);
+            }
+        }
+    }
+
+    /**
+     * Adds every page in the given segment from 'start' on to 'seen',
+     * dropping a record at the end that a crash cut short. Returns the
+     * length of the segment.
+     */
+    private long recover(Path path, long start, UrlSeenSet seen) throws IOException {
+        long length = start <= Files.size(path) ? start : 0;
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        channel.position(length);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)))) {
+            while (true) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                seen.addFingerprint(UrlSeenSet.fingerprint(new String(bytes, StandardCharsets.UTF_8)));
+                length += 4 + bytes.length;
+            }
+        } catch (EOFException ex) {
+            // We've read every complete record
+        }
+
+        if (length < Files.size(path)) {
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+                file.setLength(length);
+            }
+        }
+        return length;
+    }
+
+    private static class Segment {
+        public final Path path;
+        public final DataOutputStream writer;
+        public long length;
+
+        // Everything before flushedLength is on disk; the rest is still in
+        // the writer's buffer.
+        public long flushedLength;
+
+        // Reads from readPosition on, or null until the first read, since a
+        // checkpoint may move readPosition before then.
+        public DataInputStream reader;
+        public long readPosition;
+
+        // The positions of the pages handed out but not yet done
+        public final TreeSet<Long> unfinished;
+
+        public Segment(Path path, long length) throws IOException {
+            this.path = path;
+            this.writer = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(
+                    path, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+            this.length = length;
+            this.flushedLength = length;
+            this.reader = null;
+            this.readPosition = 0;
+            this.unfinished = new TreeSet<>();
+        }
+
+        public void append(String uri) throws IOException {
+            byte[] bytes = uri.getBytes(StandardCharsets.UTF_8);
+            this.writer.writeInt(bytes.length);
+            this.writer.write(bytes);
+            this.length += 4 + bytes.length;
+        }
+
+        /**
+         * Reads the page at readPosition, and moves past it.
+         */
+        public String read() throws IOException {
+            if (this.readPosition >= this.flushedLength) {
+                this.flush();
+            }
+            if (this.reader == null) {
+                this.openReader();
+            }
+            byte[] bytes = new byte[this.reader.readInt()];
+            this.reader.readFully(bytes);
+            this.readPosition += 4 + bytes.length;
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        public void flush() throws IOException {
+            if (this.flushedLength < this.length) {
+                this.writer.flush();
+                this.flushedLength = this.length;
+            }
+        }
+
+        public void openReader() throws IOException {
+            FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ);
+            channel.position(this.readPosition);
+            this.reader = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        }
+    }
+
+    /**
+     * The position of the first unfinished page in each segment, and the
+     * length of each segment when the seen set was last synced, at some
+     * point in time.
+     */
+    private static class Checkpoint {
+        public final long number;
+        public final int[] distances;
+        public final long[] positions;
+        public final TreeMap<Integer, Long> syncedLengths;
+
+        public Checkpoint(long number, int[] distances, long[] positions, TreeMap<Integer, Long> syncedLengths) {
+            this.number = number;
+            this.distances = distances;
+            this.positions = positions;
+            this.syncedLengths = syncedLengths;
+        }
+    }
+}
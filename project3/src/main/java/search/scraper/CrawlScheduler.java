@@ -0,0 +1,409 @@
+package search.scraper;
+
+import datastructures.concrete.ArrayHeap;
+import datastructures.concrete.dictionaries.ChainedHashDictionary;
+import datastructures.interfaces.IDictionary;
+import datastructures.interfaces.IPriorityQueue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+
+/**
+ * Decides which page each of a crawler's fetcher threads should fetch next,
+ * so that many hosts can be crawled at once while each individual host is
+ * still crawled politely.
+ *
+ * Pages are queued in a CrawlFrontier on disk. Up to HEAD_CAPACITY of them
+ * at a time are moved into memory, where every host has its own queue of
+ * pending pages, closest to a seed first. No host may have more than
+ * MAX_PENDING_PER_HOST pages pending, so that a host with many pages queued
+ * can't fill up memory and keep every other host from being crawled: its
+ * other pages are left in the frontier until it has room.
+ * A host is handed to at most one fetcher at a time, and after that fetcher
+ * releases it, the host rests for the delay it asks for (see 'release')
+ * before it is handed out again. Hosts that are ready are handed out in the
+ * order they became ready.
+ *
+ * A page handed out stays outstanding until it is completed (see
+ * 'complete'), which may be well after its host is released: for example,
+ * once its links have been extracted and added. The crawl is only over
+ * when nothing is pending or outstanding. A page is only removed from the
+ * frontier for good once it is marked done (see 'done'), which is what lets
+ * a crawl be resumed.
+ *
+ * All methods may be called from any number of threads at once. The
+ * frontier and the seen set are read and written without holding this
+ * scheduler's lock (the seen set has a lock of its own), so their disk I/O
+ * never holds up threads that are taking or releasing pages.
+ *
+ * New pages go into the frontier while holding the seen set's lock, and the
+ * seen set is synced to disk whenever it writes a new run, once the
+ * frontier has been flushed. So a page in the seen set on disk is always in
+ * the frontier on disk too, and is never lost if the crawl crashes.
+ */
+public class CrawlScheduler {
+    public static final int HEAD_CAPACITY = 1024;
+    public static final int MAX_PENDING_PER_HOST = 64;
+
+    // The number of pages a refill may send back to the frontier because
+    // their hosts are full. Every page sent back is written to disk again.
+    public static final int MAX_REFUSED_PER_REFILL = HEAD_CAPACITY / 4;
+
+    private final IDictionary<String, Host> hosts;
+
+    // Only used while holding its own lock
+    private final UrlSeenSet seen;
+    private final CrawlFrontier frontier;
+
+    // Every host that has pending pages and is not being fetched from,
+    // ordered by when it may next be fetched from.
+    private final IPriorityQueue<Host> ready;
+
+    private int numPending;
+    private int numOutstanding;
+    private boolean isStopped;
+
+    // The number of threads using the frontier outside of our lock (see
+    // 'refill'), and the number of pages they may move into memory
+    private int numRefilling;
+    private int numReserved;
+
+    // Once a refill has sent pages back to the frontier, most of what's left
+    // there is likely for full hosts, so we don't refill again until this
+    // many pages have been taken (or none are pending).
+    private int numTakesUntilRefill;
+
+    /**
+     * Creates a scheduler whose state is thrown away once it is closed.
+     */
+    public CrawlScheduler() throws IOException {
+        this(new UrlSeenSet(), new CrawlFrontier());
+    }
+
+    /**
+     * Creates a scheduler that queues pages in the given frontier, and
+     * records every page it has ever queued in the given set.
+     */
+    public CrawlScheduler(UrlSeenSet seen, CrawlFrontier frontier) {
+        this.hosts = new ChainedHashDictionary<>();
+        this.seen = seen;
+        this.frontier = frontier;
+        this.ready = new ArrayHeap<>();
+        this.numPending = 0;
+        this.numOutstanding = 0;
+        this.isStopped = false;
+        this.numRefilling = 0;
+        this.numReserved = 0;
+        this.numTakesUntilRefill = 0;
+    }
+
+    /**
+     * Queues the given page to be fetched, unless it has been added (or
+     * marked as seen) before.
+     *
+     * @param distance  The number of links between the page and a seed page.
+     * @return true if the page was queued, false if it was already seen
+     */
+    public boolean add(URI uri, int distance) throws IOException {
+        return this.refill(uri, distance);
+    }
+
+    /**
+     * Records that the given page has already been fetched (for example, by
+     * an earlier run), so that it is never queued.
+     */
+    public void markSeen(URI uri) throws IOException {
+        synchronized (this.seen) {
+            this.seen.add(uri);
+        }
+    }
+
+    /**
+     * Marks every page in the given file of fingerprints (see
+     * 'UrlSeenSet.addAll') as saved by an earlier run, so that it is never
+     * queued. If the frontier was resumed, these pages are not handed out
+     * again either, even if they were queued before they were saved.
+     */
+    public void markAllSaved(Path fingerprintFile) throws IOException {
+        synchronized (this.seen) {
+            this.seen.addAll(fingerprintFile);
+        }
+        if (this.frontier.isResumed()) {
+            this.frontier.markAllSaved(fingerprintFile);
+        }
+    }
+
+    /**
+     * Returns the number of pages that have ever been queued or marked seen.
+     */
+    public long getNumSeen() {
+        synchronized (this.seen) {
+            return this.seen.size();
+        }
+    }
+
+    /**
+     * Waits until some host may be fetched from, then returns the next page
+     * to fetch from it. The caller must pass the page to 'release' once it
+     * is done fetching it, and to 'complete' once it has added the page's
+     * links, even if fetching the page fails, and to 'done' once it no
+     * longer needs to be fetched ('finish' does all three).
+     *
+     * Returns null once there is nothing left to crawl: no pages are pending,
+     * and none are outstanding (and so could lead to more). Also returns null
+     * once 'stop' has been called.
+     */
+    public PendingUri take() throws InterruptedException, IOException {
+        this.refill(null, 0);
+        PendingUri pending = this.takePending();
+        if (pending != null) {
+            this.refill(null, 0);
+        }
+        return pending;
+    }
+
+    /**
+     * Waits until some host may be fetched from, then returns the next page
+     * to fetch from it, or null if there is nothing left to crawl.
+     */
+    private synchronized PendingUri takePending() throws InterruptedException {
+        while (true) {
+            if (this.isStopped) {
+                return null;
+            }
+            if (this.ready.isEmpty()) {
+                // A page may yet come out of the frontier
+                if (this.numOutstanding == 0 && this.numRefilling == 0) {
+                    return null;
+                }
+                this.wait();
+                continue;
+            }
+
+            Host host = this.ready.peekMin();
+            long wait = host.nextAllowed - System.currentTimeMillis();
+            if (wait > 0) {
+                // Another host may become ready sooner, so we wait to be
+                // woken up as well as for this one
+                this.wait(wait);
+                continue;
+            }
+
+            this.ready.removeMin();
+            if (this.numTakesUntilRefill > 0) {
+                this.numTakesUntilRefill--;
+            }
+            host.isBusy = true;
+            this.numOutstanding++;
+            this.numPending--;
+            return host.pending.removeMin();
+        }
+    }
+
+    /**
+     * Records that a fetcher is done fetching the given page, so its host
+     * may be fetched from again after 'delayMilliseconds' milliseconds.
+     */
+    public synchronized void release(PendingUri pending, long delayMilliseconds) {
+        Host host = this.hosts.get(pending.uri.getHost());
+        host.isBusy = false;
+        host.nextAllowed = System.currentTimeMillis() + delayMilliseconds;
+        if (!host.pending.isEmpty()) {
+            this.ready.insert(host);
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * Records that every link on the given page has been added, so it can no
+     * longer lead to more pages.
+     */
+    public synchronized void complete(PendingUri pending) {
+        this.numOutstanding--;
+        if (this.numOutstanding == 0) {
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * Writes every page queued so far to disk. Call this before recording
+     * that any page is saved anywhere else (see 'markAllSaved'): a resumed
+     * crawl skips saved pages, so it would never find their links again.
+     */
+    public void flush() throws IOException {
+        this.frontier.flush();
+    }
+
+    /**
+     * Records that the given page has been saved, or given up on, so that it
+     * is not fetched again if the crawl is resumed. Pages that are never
+     * marked done are fetched again. Marking a page done again has no effect.
+     */
+    public void done(PendingUri pending) throws IOException {
+        this.frontier.done(pending);
+    }
+
+    /**
+     * Releases the given page's host, then completes the page and marks it
+     * done.
+     */
+    public void finish(PendingUri pending, long delayMilliseconds) throws IOException {
+        this.release(pending, delayMilliseconds);
+        this.complete(pending);
+        this.done(pending);
+    }
+
+    /**
+     * Stops handing out pages: every current and future call to 'take'
+     * returns null.
+     */
+    public synchronized void stop() {
+        this.isStopped = true;
+        this.notifyAll();
+    }
+
+    /**
+     * Syncs the seen set, checkpoints the frontier (see
+     * 'CrawlFrontier.close') and closes the seen set. The scheduler must
+     * not be used afterwards.
+     */
+    public void close() throws IOException {
+        synchronized (this.seen) {
+            this.syncSeen();
+        }
+        this.frontier.close();
+        synchronized (this.seen) {
+            this.seen.close();
+        }
+    }
+
+    /**
+     * Flushes the frontier, then syncs the seen set, so that every page in
+     * the seen set on disk is in the frontier on disk too. Must be called
+     * while holding the seen set's lock.
+     */
+    private void syncSeen() throws IOException {
+        this.frontier.flush();
+        this.seen.sync();
+        this.frontier.markSeenSynced();
+    }
+
+    /**
+     * Adds the given page to the frontier, unless it is null or has been
+     * seen before, then moves pages from the frontier into memory, until
+     * HEAD_CAPACITY are pending there or the frontier has none left to hand
+     * out. Pages whose hosts are full go back to the frontier. Returns false
+     * if the page had been seen before.
+     *
+     * We only hold our lock to reserve room for the pages beforehand, to move
+     * each one in as the frontier offers it, and to release the room we
+     * didn't use afterwards. Meanwhile, 'numRefilling' keeps 'take' from
+     * deciding there's nothing left to crawl.
+     */
+    private boolean refill(URI uri, int distance) throws IOException {
+        if (uri != null) {
+            synchronized (this.seen) {
+                if (!this.seen.add(uri)) {
+                    return false;
+                }
+                this.frontier.add(uri, distance);
+                if (this.seen.hasUnsyncedRuns()) {
+                    this.syncSeen();
+                }
+            }
+        }
+
+        int wanted = 0;
+        synchronized (this) {
+            if (this.numTakesUntilRefill == 0 || this.numPending == 0) {
+                wanted = Math.max(0, HEAD_CAPACITY - this.numPending - this.numReserved);
+            }
+            if (wanted == 0) {
+                return true;
+            }
+            this.numRefilling++;
+            this.numReserved += wanted;
+        }
+
+        int numRefused = 0;
+        try {
+            numRefused = this.frontier.poll(wanted, MAX_REFUSED_PER_REFILL, this::offer);
+        } finally {
+            synchronized (this) {
+                if (numRefused >= MAX_REFUSED_PER_REFILL) {
+                    this.numTakesUntilRefill = MAX_PENDING_PER_HOST;
+                } else if (numRefused > 0) {
+                    this.numTakesUntilRefill = 1;
+                }
+                this.numRefilling--;
+                this.numReserved -= wanted;
+                this.notifyAll();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the given page to its host's queue in memory, unless the host
+     * already has MAX_PENDING_PER_HOST pages pending. Returns false if the
+     * page was refused.
+     */
+    private synchronized boolean offer(PendingUri pending) {
+        String name = pending.uri.getHost();
+        if (!this.hosts.containsKey(name)) {
+            this.hosts.put(name, new Host());
+        }
+        Host host = this.hosts.get(name);
+        if (host.pending.size() >= MAX_PENDING_PER_HOST) {
+            return false;
+        }
+        host.pending.insert(pending);
+        this.numPending++;
+        if (!host.isBusy && host.pending.size() == 1) {
+            this.ready.insert(host);
+            this.notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * A page waiting to be fetched.
+     */
+    public static class PendingUri implements Comparable<PendingUri> {
+        public final int distance;
+        public final URI uri;
+
+        // Where the page is stored in the frontier
+        final long position;
+
+        PendingUri(int distance, URI uri, long position) {
+            if (uri == null) {
+                throw new IllegalArgumentException();
+            }
+            this.distance = distance;
+            this.uri = uri;
+            this.position = position;
+        }
+
+        public int compareTo(PendingUri other) {
+            return Integer.compare(this.distance, other.distance);
+        }
+    }
+
+    private static class Host implements Comparable<Host> {
+        public final IPriorityQueue<PendingUri> pending;
+        public long nextAllowed;
+        public boolean isBusy;
+
+        public Host() {
+            this.pending = new ArrayHeap<>();
+            this.nextAllowed = 0L;
+            this.isBusy = false;
+        }
+
+        public int compareTo(Host other) {
+            return Long.compare(this.nextAllowed, other.nextAllowed);
+        }
+    }
+}
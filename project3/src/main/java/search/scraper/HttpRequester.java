@@ -3,39 +3,98 @@ package search.scraper;
 import datastructures.concrete.dictionaries.ChainedHashDictionary;
 import datastructures.interfaces.IDictionary;
 import datastructures.interfaces.ISet;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.DeflateInputStream;
+import org.apache.http.client.entity.InputStreamFactory;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
+import search.scraper.ValidatorStore.Validators;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.net.URI;
-import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
+/**
+ * Fetches pages over HTTP, skipping any that robots.txt or our file type
+ * blacklist rule out.
+ *
+ * A requester does not pace its own requests: callers should wait at least
+ * 'getDelay' between requests to the same host (see CrawlScheduler). It may
+ * be used from any number of threads at once.
+ *
+ * Connections are pooled and kept alive between requests to the same host,
+ * and responses may be compressed with gzip or deflate. Given a cache
+ * directory, a requester remembers each page's ETag and Last-Modified date
+ * on disk (see ValidatorStore), so that fetching it again sends a conditional request, and a server that
+ * says it hasn't changed sends no body at all.
+ */
 public class HttpRequester implements AutoCloseable {
     public static final String DEFAULT_USER_AGENT = "Cse373Crawler (contact mlee42@cs.washington.edu)";
     public static final long DEFAULT_DELAY = 1000; // 1 second
 
+    // CrawlScheduler only ever sends a host one request at a time, so one
+    // kept-alive connection per host is all we can use.
+    public static final int MAX_CONNECTIONS = 64;
+    public static final int MAX_CONNECTIONS_PER_HOST = 1;
+    public static final long KEEP_ALIVE_MILLISECONDS = 30000;
+
+    private static final int BUFFER_SIZE = 8192;
+
     private final String userAgent;
     private final long delayMilliseconds;
+    private final Path cacheDirectory;
 
     // Internal state
-    private long lastRequestTimestamp;
     private CloseableHttpClient client;
 
-    private UriMatchRule defaultMatchRule;
+    // The ETag and Last-Modified date of every page fetched, or null if we
+    // have no cache directory
+    private final ValidatorStore validators;
+
+    private ISet<String> extensionBlacklist;
     private IDictionary<String, UriMatchRule> matchPattern;
+    private IDictionary<String, Long> crawlDelays;
     private ISet<String> allowableContentTypes;
 
-    public HttpRequester() {
+    public HttpRequester() throws IOException {
         this(DEFAULT_USER_AGENT, DEFAULT_DELAY);
     }
 
-    public HttpRequester(String userAgent, long delayMilliseconds) {
+    public HttpRequester(String userAgent, long delayMilliseconds) throws IOException {
+        this(userAgent, delayMilliseconds, null);
+    }
+
+    /**
+     * Creates a requester that remembers each page's ETag and Last-Modified
+     * date, and a copy of each robots.txt file, in the given directory, so
+     * that a later requester using the same directory can make conditional
+     * requests.
+     */
+    public HttpRequester(String userAgent, long delayMilliseconds, Path cacheDirectory) throws IOException {
         if (delayMilliseconds < 500) {
             throw new IllegalArgumentException(
                     "Setting your delay to too low a number can cause your bot to be blacklisted"
@@ -45,12 +104,42 @@ public class HttpRequester implements AutoCloseable {
 
         this.userAgent = userAgent;
         this.delayMilliseconds = delayMilliseconds;
-        this.lastRequestTimestamp = 0L;
+        this.cacheDirectory = cacheDirectory;
         this.matchPattern = new ChainedHashDictionary<>();
+        this.crawlDelays = new ChainedHashDictionary<>();
+
+        if (cacheDirectory != null) {
+            File folder = cacheDirectory.toFile();
+            if (!folder.exists() && !folder.mkdirs()) {
+                throw new IOException("Unable to make folder " + cacheDirectory);
+            }
+            this.validators = new ValidatorStore(cacheDirectory);
+        } else {
+            this.validators = null;
+        }
+
+        // HTTP config. We keep connections alive for reuse, and ask for
+        // compressed responses; the decoders we register are the encodings
+        // we advertise in Accept-Encoding.
+        PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+        connections.setMaxTotal(MAX_CONNECTIONS);
+        connections.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_HOST);
+        connections.setValidateAfterInactivity(1000);
+
+        Map<String, InputStreamFactory> decoders = new LinkedHashMap<>();
+        decoders.put("gzip", GZIPInputStream::new);
+        decoders.put("x-gzip", GZIPInputStream::new);
+        decoders.put("deflate", DeflateInputStream::new);
 
-        // HTTP config
         this.client = HttpClients.custom()
                 .setUserAgent(userAgent)
+                .setConnectionManager(connections)
+                .setContentDecoderRegistry(decoders)
+                .setKeepAliveStrategy((response, context) -> {
+                    long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    return duration < 0 ? KEEP_ALIVE_MILLISECONDS : Math.min(duration, KEEP_ALIVE_MILLISECONDS);
+                })
+                .evictIdleConnections(KEEP_ALIVE_MILLISECONDS, TimeUnit.MILLISECONDS)
                 .setDefaultRequestConfig(RequestConfig
                         .copy(RequestConfig.DEFAULT)
                         .setConnectionRequestTimeout(5000)
@@ -59,76 +148,208 @@ public class HttpRequester implements AutoCloseable {
                         .build())
                 .build();
         this.allowableContentTypes = Constants.contentTypeWhitelist();
-        this.defaultMatchRule = Constants.fileExtensionBlacklist();
+        this.extensionBlacklist = Constants.fileExtensionBlacklist();
     }
 
-    public String makeRequest(URI uri) throws IOException, URISyntaxException {
+    /**
+     * Fetches the given page, writing its body to 'destination'. The body is
+     * streamed, not held in memory, and converted to UTF-8 if the server
+     * names another charset.
+     *
+     * If we have fetched the page before and the server says it has not
+     * changed since, nothing is written.
+     */
+    public FetchResult fetch(URI uri, Path destination) throws IOException {
         if (this.isBlacklistedUri(uri)) {
             System.out.println("Is blacklisted uri: " + uri);
-            return null;
+            return FetchResult.SKIPPED;
         } else {
             System.out.println("Is ok uri: " + uri);
         }
-        this.respectDelay();
-        return this.rawHttpRequest(uri);
-    }
 
-    private void respectDelay() {
-        long current = System.currentTimeMillis();
-
-        long timeElapsed = current - this.lastRequestTimestamp;
-        long timeLeft = this.delayMilliseconds - timeElapsed;
+        try (CloseableHttpResponse response = this.execute(uri, true)) {
+            if (response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+                return FetchResult.NOT_MODIFIED;
+            }
+            HttpEntity entity = this.getAllowedEntity(uri, response);
+            if (entity == null) {
+                return FetchResult.SKIPPED;
+            }
 
-        if (timeLeft > 0) {
-            try {
-                Thread.sleep(timeLeft);
-            } catch (InterruptedException ex) {
-                throw new RuntimeException(ex);
+            Charset charset = ContentType.get(entity).getCharset();
+            try (InputStream in = entity.getContent();
+                    OutputStream out = Files.newOutputStream(destination)) {
+                if (charset == null || charset.equals(StandardCharsets.UTF_8)) {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int length = in.read(buffer);
+                    while (length >= 0) {
+                        out.write(buffer, 0, length);
+                        length = in.read(buffer);
+                    }
+                } else {
+                    Reader reader = new InputStreamReader(in, charset);
+                    Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                    char[] buffer = new char[BUFFER_SIZE];
+                    int length = reader.read(buffer);
+                    while (length >= 0) {
+                        writer.write(buffer, 0, length);
+                        length = reader.read(buffer);
+                    }
+                    writer.flush();
+                }
             }
+            this.storeValidators(uri, response);
+            return FetchResult.FETCHED;
         }
-        this.lastRequestTimestamp = System.currentTimeMillis();
     }
 
-    private String rawHttpRequest(URI uri) throws IOException, URISyntaxException {
+    /**
+     * Returns how long to wait, in milliseconds, between requests to the
+     * host of the given URI: our own delay, or the host's robots.txt
+     * Crawl-delay if that is longer and we have already fetched it.
+     */
+    public long getDelay(URI uri) {
+        synchronized (this.matchPattern) {
+            return Math.max(this.delayMilliseconds, this.crawlDelays.getOrDefault(uri.getHost(), -1L));
+        }
+    }
+
+    /**
+     * Sends a GET request for the given URI. If 'isConditional' and we know
+     * the page's ETag or Last-Modified date, asks the server to only send
+     * the page if it has changed.
+     */
+    private CloseableHttpResponse execute(URI uri, boolean isConditional) throws IOException {
         HttpGet request = new HttpGet(uri);
-        try (CloseableHttpResponse response = this.client.execute(request)) {
-            HttpEntity entity = response.getEntity();
-            if (entity == null) {
-                throw new IOException("Response had no entity");
+        if (isConditional && this.validators != null) {
+            Validators validators = this.validators.get(uri);
+            if (validators != null && validators.etag != null) {
+                request.setHeader(HttpHeaders.IF_NONE_MATCH, validators.etag);
             }
+            if (validators != null && validators.lastModified != null) {
+                request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, validators.lastModified);
+            }
+        }
+        return this.client.execute(request);
+    }
 
-            ContentType contentType = ContentType.get(entity);
-            if (!this.allowableContentTypes.contains(contentType.getMimeType())) {
-                System.out.println("Unknown content type for " + uri + ": " + contentType);
-                System.out.println(this.allowableContentTypes);
+    /**
+     * Returns the response's entity, or null if it is not a content type we
+     * handle.
+     */
+    private HttpEntity getAllowedEntity(URI uri, CloseableHttpResponse response) throws IOException {
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            throw new IOException("Response had no entity");
+        }
+
+        ContentType contentType = ContentType.get(entity);
+        if (contentType == null || !this.allowableContentTypes.contains(contentType.getMimeType())) {
+            System.out.println("Unknown content type for " + uri + ": " + contentType);
+            System.out.println(this.allowableContentTypes);
+            return null;
+        }
+        return entity;
+    }
+
+    /**
+     * Remembers the response's ETag and Last-Modified date, if any, so that
+     * the next request for the same URI can be conditional.
+     */
+    private void storeValidators(URI uri, CloseableHttpResponse response) throws IOException {
+        Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+        Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+        if (this.validators == null || (etag == null && lastModified == null)) {
+            return;
+        }
+        this.validators.put(uri, new Validators(
+                etag == null ? null : etag.getValue(),
+                lastModified == null ? null : lastModified.getValue()));
+    }
+
+    /**
+     * Returns the contents of the robots.txt file at the given URI, or null
+     * if there is none we can use. If we have a copy of it from an earlier
+     * run, we only download it again if it has changed.
+     */
+    private String fetchRobots(URI robotsUri) throws IOException {
+        Path cached = null;
+        if (this.cacheDirectory != null) {
+            cached = this.cacheDirectory.resolve("robots")
+                    .resolve(robotsUri.getHost() + "_" + robotsUri.getPort() + ".txt");
+        }
+        boolean hasCopy = cached != null && cached.toFile().exists();
+
+        try (CloseableHttpResponse response = this.execute(robotsUri, hasCopy)) {
+            if (hasCopy && response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+                return new String(Files.readAllBytes(cached), StandardCharsets.UTF_8);
+            }
+            HttpEntity entity = this.getAllowedEntity(robotsUri, response);
+            if (entity == null) {
                 return null;
             }
 
-            return EntityUtils.toString(entity, "UTF-8");
+            String contents = EntityUtils.toString(entity, "UTF-8");
+            if (cached != null) {
+                File folder = cached.getParent().toFile();
+                if (!folder.exists() && !folder.mkdirs()) {
+                    throw new IOException("Unable to make folder " + folder);
+                }
+                Files.write(cached, contents.getBytes(StandardCharsets.UTF_8));
+                this.storeValidators(robotsUri, response);
+            }
+            return contents;
         }
     }
 
     private boolean isBlacklistedUri(URI uri) {
         String host = uri.getHost();
-        if (!this.defaultMatchRule.matches(uri)) {
-            return false;
+        if (this.hasBlacklistedExtension(uri)) {
+            return true;
         }
-        if (!this.matchPattern.containsKey(host)) {
+        UriMatchRule rule;
+        synchronized (this.matchPattern) {
+            rule = this.matchPattern.getOrDefault(host, null);
+        }
+        if (rule == null) {
+            // Two threads requesting from the same new host could both fetch
+            // its robots.txt, but CrawlScheduler never lets that happen
             String robotsContents;
             try {
-                robotsContents = this.rawHttpRequest(uri.resolve("/robots.txt"));
-            } catch (IOException | URISyntaxException ex) {
+                robotsContents = this.fetchRobots(uri.resolve("/robots.txt"));
+            } catch (IOException ex) {
                 throw new RuntimeException(ex);
             }
-            UriMatchRule newRule;
+            long crawlDelay = -1;
             if (robotsContents == null) {
-                newRule = new UriMatchRule(null, null);
+                rule = new UriMatchRule(null, null);
             } else {
-                newRule = new RobotsTxt(this.userAgent, robotsContents).getMatchRule();
+                RobotsTxt robots = new RobotsTxt(this.userAgent, robotsContents);
+                rule = robots.getMatchRule();
+                crawlDelay = robots.getCrawlDelay();
+            }
+            synchronized (this.matchPattern) {
+                this.matchPattern.put(host, rule);
+                this.crawlDelays.put(host, crawlDelay);
             }
-            this.matchPattern.put(host, newRule);
         }
-        return !this.matchPattern.get(host).matches(uri);
+        return !rule.matches(uri);
+    }
+
+    /**
+     * Returns true if the last segment of the URI's path ends in one of the
+     * extensions we never fetch, ignoring case.
+     */
+    private boolean hasBlacklistedExtension(URI uri) {
+        String path = uri.getRawPath();
+        if (path == null) {
+            return false;
+        }
+        int dot = path.lastIndexOf('.');
+        if (dot <= path.lastIndexOf('/')) {
+            return false;
+        }
+        return this.extensionBlacklist.contains(path.substring(dot + 1).toLowerCase());
     }
 
 
@@ -137,5 +358,21 @@ public class HttpRequester implements AutoCloseable {
             this.client.close();
             this.client = null;
         }
+        if (this.validators != null) {
+            this.validators.close();
+        }
+    }
+
+    /**
+     * What became of a request to fetch a page.
+     */
+    public enum FetchResult {
+        // The page's body was written out
+        FETCHED,
+        // The page hasn't changed since we last fetched it
+        NOT_MODIFIED,
+        // The page is ruled out by robots.txt, our file type blacklist or
+        // its content type
+        SKIPPED
     }
 }
@@ -7,10 +7,12 @@ import datastructures.interfaces.IList;
 public class RobotsTxt {
     private IList<String> allowed;
     private IList<String> disallowed;
+    private long crawlDelay;
 
     public RobotsTxt(String userAgent, String text) {
         this.allowed = new DoubleLinkedList<>();
         this.disallowed = new DoubleLinkedList<>();
+        this.crawlDelay = -1;
 
         Pattern currentUserAgent = Pattern.compile(".*");
 
@@ -40,24 +42,16 @@ public class RobotsTxt {
         return this.disallowed;
     }
 
-    public UriMatchRule getMatchRule() {
-        return new UriMatchRule(
-                this.coalesce(this.allowed),
-                this.coalesce(this.disallowed));
+    /**
+     * Returns the number of milliseconds the site asks crawlers to wait
+     * between requests, or -1 if it doesn't say.
+     */
+    public long getCrawlDelay() {
+        return this.crawlDelay;
     }
 
-    private Pattern coalesce(IList<String> patterns) {
-        if (patterns == null) {
-            return null;
-        }
-        StringBuilder out = new StringBuilder();
-        String separator = "";
-        for (String pattern : patterns) {
-            out.append(separator);
-            out.append(Pattern.quote(pattern));
-            separator = "|";
-        }
-        return Pattern.compile(out.toString());
+    public UriMatchRule getMatchRule() {
+        return new UriMatchRule(this.allowed, this.disallowed);
     }
 
     private String clean(String line) {
@@ -89,9 +83,19 @@ public class RobotsTxt {
         }
 
         if (directive.equals("Disallow")) {
-            this.disallowed.add(data.replace("*", ".*"));
+            this.disallowed.add(data);
         } else if (directive.equals("Allow")) {
-            this.allowed.add(data.replace("*", ".*"));
+            this.allowed.add(data);
+        } else if (directive.equals("Crawl-delay")) {
+            // The delay is in seconds, and may be fractional
+            try {
+                double seconds = Double.parseDouble(data);
+                if (seconds >= 0.0) {
+                    this.crawlDelay = (long) (seconds * 1000);
+                }
+            } catch (NumberFormatException ex) {
+                // Ignore malformed delays, like any other unknown directive
+            }
         }
     }
 }
@@ -1,39 +1,150 @@
 package search.scraper;
 
-import datastructures.concrete.ArrayHeap;
 import datastructures.concrete.ChainedHashSet;
-import datastructures.interfaces.IPriorityQueue;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
 import datastructures.interfaces.ISet;
+import search.misc.PageArchive;
 import search.misc.WebUtils;
+import search.scraper.CrawlScheduler.PendingUri;
+import search.scraper.HttpRequester.FetchResult;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.URISyntaxException;
 import java.net.URI;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Crawls the web outward from a set of seed pages, saving every page it
+ * fetches to disk.
+ *
+ * A crawl is a pipeline of three stages, connected by bounded queues:
+ *
+ * 1. Fetchers download pages, streaming each one to a ".part" file in the
+ *    "partial" folder under the output folder. CrawlScheduler lets several hosts be crawled
+ *    at once, while each host still only sees one request at a time, spaced
+ *    out by the delay HttpRequester asks for.
+ * 2. Parsers extract the links from each downloaded page and queue them.
+ * 3. A single writer appends pages to a PageArchive, pages.warc, in
+ *    batches of up to WRITE_BATCH_SIZE, flushing the list of saved pages
+ *    once per batch. Pages are gzipped one at a time if 'setCompressed' says
+ *    so.
+ *
+ * When a stage falls behind, the queue in front of it fills up, and the
+ * stage before it blocks until there is room again, so memory use stays
+ * bounded no matter which stage is the bottleneck. The counters in
+ * 'formatStats' show how busy each stage is and how full each queue is.
+ *
+ * Every page ever queued is remembered in a UrlSeenSet, which spills to the
+ * "seen" folder under the output folder, so links are only queued once.
+ * Resuming a crawl reopens that set, rather than adding every page in the
+ * frontier to it again.
+ * Pages saved by earlier runs are loaded from list.fp, which holds their
+ * fingerprints.
+ *
+ * A page whose body is byte for byte the same as one already saved (a
+ * mirror, or the same page under another query string) is not saved again,
+ * though we still follow its links. The fingerprints of the bodies of saved
+ * pages are kept in content.fp, and loaded into a second UrlSeenSet in the
+ * "contents" folder. SearchEngine collapses pages that are only nearly the
+ * same when it indexes them.
+ *
+ * Queued pages are kept in a CrawlFrontier in the "frontier" folder, so
+ * running a scraper again on the same folder, after it stopped at its limit
+ * or crashed, resumes the crawl where it left off.
+ */
 public class Scraper {
+    public static final int DEFAULT_NUM_FETCHERS = 8;
+    public static final int DEFAULT_NUM_PARSERS = Runtime.getRuntime().availableProcessors();
+    public static final int QUEUE_CAPACITY = 64;
+    public static final int WRITE_BATCH_SIZE = 32;
+
+    // Sent through a queue to tell the stage reading it there is no more work.
+    private static final Page END_OF_INPUT = new Page(null, null, false, 0);
+
     private Path outputPath;
-    private IPriorityQueue<PendingUri> pendingUris;
+    private IList<URI> seeds;
+    private CrawlScheduler scheduler;
+
+    // The fingerprints of the bodies of every page saved. Only the writer
+    // uses this during a crawl.
+    private UrlSeenSet contents;
+
     private ISet<String> domainWhitelist;
-    private ISet<URI> alreadyEncountered;
     private HttpRequester requester;
+    private int numFetchers;
+    private int numParsers;
+    private boolean isCompressed;
+
+    // Every page saved, by this crawl or earlier ones
+    private PageArchive archive;
+
+    // The queues of the current crawl, if any; see 'formatStats'
+    private volatile BlockingQueue<Page> parseQueue;
+    private volatile BlockingQueue<Page> writeQueue;
+
+    private final Stage fetchStage;
+    private final Stage parseStage;
+    private final Stage writeStage;
+    private final AtomicLong numFetchFailures;
+    private final AtomicLong numNotModified;
+    private final AtomicLong numWriteBatches;
+    private final AtomicLong numDuplicates;
 
-    public Scraper(Path outputPath) {
+    /**
+     * Creates a scraper that remembers what it has fetched, for conditional
+     * requests, in the "http" folder under the output folder.
+     */
+    public Scraper(Path outputPath) throws IOException {
+        this(outputPath, new HttpRequester(
+                HttpRequester.DEFAULT_USER_AGENT, HttpRequester.DEFAULT_DELAY, outputPath.resolve("http")));
+    }
+
+    public Scraper(Path outputPath, HttpRequester requester) {
         this.outputPath = outputPath;
-        this.pendingUris = new ArrayHeap<>();
+        this.seeds = new DoubleLinkedList<>();
+        this.scheduler = null;
         this.domainWhitelist = new ChainedHashSet<>();
-        this.requester = new HttpRequester();
-        this.alreadyEncountered = new ChainedHashSet<>();
+        this.requester = requester;
+        this.numFetchers = DEFAULT_NUM_FETCHERS;
+        this.numParsers = DEFAULT_NUM_PARSERS;
+        this.isCompressed = false;
+
+        this.fetchStage = new Stage();
+        this.parseStage = new Stage();
+        this.writeStage = new Stage();
+        this.numFetchFailures = new AtomicLong(0);
+        this.numNotModified = new AtomicLong(0);
+        this.numWriteBatches = new AtomicLong(0);
+        this.numDuplicates = new AtomicLong(0);
     }
 
     public Scraper addSeedUri(URI uri) {
@@ -41,7 +152,7 @@ public class Scraper {
         if (!normalizedUri.isPresent()) {
             throw new IllegalArgumentException("URI is malformed: " + uri);
         }
-        this.pendingUris.insert(new PendingUri(0, normalizedUri.get()));
+        this.seeds.add(normalizedUri.get());
         return this;
     }
 
@@ -50,107 +161,496 @@ public class Scraper {
         return this;
     }
 
+    /**
+     * Sets how many pages may be fetched at once. Each host is still only
+     * sent one request at a time, so there is no point in using more
+     * fetchers than there are hosts in the whitelist.
+     */
+    public Scraper setNumFetchers(int numFetchers) {
+        if (numFetchers < 1) {
+            throw new IllegalArgumentException("Need at least one fetcher");
+        }
+        this.numFetchers = numFetchers;
+        return this;
+    }
+
+    /**
+     * Sets how many pages may be parsed at once.
+     */
+    public Scraper setNumParsers(int numParsers) {
+        if (numParsers < 1) {
+            throw new IllegalArgumentException("Need at least one parser");
+        }
+        this.numParsers = numParsers;
+        return this;
+    }
+
+    /**
+     * Sets whether pages are gzipped as they are saved. Pages saved by
+     * earlier crawls stay as they are.
+     */
+    public Scraper setCompressed(boolean isCompressed) {
+        this.isCompressed = isCompressed;
+        return this;
+    }
+
     public void run(int limit) throws IOException, URISyntaxException {
         File outputFile = this.outputPath.toFile();
         if (!outputFile.exists() && !outputFile.mkdirs()) {
             throw new IOException("Unable to make folder " + this.outputPath);
         }
 
-        File saveFile = this.outputPath.resolve("list.sav").toFile();
-        this.loadAlreadyEncountered(saveFile);
-        try (PrintWriter saveWriter = this.makePrintWriter(saveFile, true)) {
-            int limitCount = 0;
-            while (limitCount < limit && !this.pendingUris.isEmpty()) {
-                // Handle page
-                PendingUri pending = this.pendingUris.removeMin();
-                URI uri = pending.uri;
-                this.alreadyEncountered.add(uri);
+        UrlSeenSet seen = new UrlSeenSet(this.outputPath.resolve("seen"), UrlSeenSet.DEFAULT_BUFFER_CAPACITY);
+        CrawlFrontier frontier = new CrawlFrontier(this.outputPath.resolve("frontier"), seen);
+        if (!frontier.isResumed()) {
+            // Whatever is left there is from a crawl whose frontier is gone
+            seen.clear();
+        }
+        this.scheduler = new CrawlScheduler(seen, frontier);
+        this.contents = new UrlSeenSet(this.outputPath.resolve("contents"), UrlSeenSet.DEFAULT_BUFFER_CAPACITY);
+        this.archive = new PageArchive(this.outputPath.resolve("pages" + PageArchive.ARCHIVE_SUFFIX), this.isCompressed);
+        try {
+            // A resumed crawl has to know which of its pages were saved
+            // before it hands any out, and already has its seeds. Otherwise
+            // we queue the seeds first, even if a crawl from before the
+            // frontier existed saved them, since we have no other way to
+            // find their links.
+            File saveFile = this.outputPath.resolve("list.sav").toFile();
+            File fingerprintFile = this.outputPath.resolve("list.fp").toFile();
+            if (frontier.isResumed()) {
+                this.loadAlreadyEncountered(saveFile, fingerprintFile);
+            }
+            for (URI seed : this.seeds) {
+                this.scheduler.add(seed, 0);
+            }
+            if (!frontier.isResumed()) {
+                this.loadAlreadyEncountered(saveFile, fingerprintFile);
+            }
+            File contentFile = this.outputPath.resolve("content.fp").toFile();
+            if (contentFile.exists()) {
+                this.contents.addAll(contentFile.toPath());
+            }
+            this.crawl(limit, saveFile, fingerprintFile, contentFile);
+        } finally {
+            this.scheduler.close();
+            this.contents.close();
+            this.archive.close();
+        }
+    }
 
-                // Skip invalid pages
-                if (!this.domainWhitelist.contains(uri.getHost())) {
-                    System.out.println(String.format("Skipping '%s'; host not in whitelist", uri));
-                    continue;
+    private void crawl(int limit, File saveFile, File fingerprintFile, File contentFile)
+            throws IOException, URISyntaxException {
+        try (PrintWriter saveWriter = this.makePrintWriter(saveFile, true);
+                DataOutputStream fingerprintWriter = this.makeDataOutputStream(fingerprintFile, true);
+                DataOutputStream contentWriter = this.makeDataOutputStream(contentFile, true)) {
+            this.parseQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+            this.writeQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+            AtomicInteger numFetched = new AtomicInteger(0);
+            AtomicReference<Throwable> failure = new AtomicReference<>(null);
+
+            ExecutorService pool = Executors.newFixedThreadPool(this.numFetchers + this.numParsers + 1);
+            try {
+                // If any stage fails, we stop everything, interrupting any
+                // thread stuck waiting on a queue the failed stage would
+                // have emptied
+                Runnable abort = () -> {
+                    this.scheduler.stop();
+                    pool.shutdownNow();
+                };
+
+                List<Future<?>> fetchers = new ArrayList<>();
+                for (int i = 0; i < this.numFetchers; i++) {
+                    fetchers.add(pool.submit(() -> runStage(failure, abort, () -> this.fetchAll(limit, numFetched))));
+                }
+                List<Future<?>> parsers = new ArrayList<>();
+                for (int i = 0; i < this.numParsers; i++) {
+                    parsers.add(pool.submit(() -> runStage(failure, abort, this::parseAll)));
                 }
+                Future<?> writer = pool.submit(() -> runStage(failure, abort,
+                        () -> this.writeAll(saveWriter, fingerprintWriter, contentWriter)));
 
-                String body = this.requester.makeRequest(pending.uri);
-                if (body == null) {
-                    System.out.println(String.format("Unable to fetch content from '%s'", uri));
-                    continue;
+                // Each stage finishes once the one before it has, and has
+                // told it so
+                this.awaitAll(fetchers);
+                this.endInput(this.parseQueue, this.numParsers, failure);
+                this.awaitAll(parsers);
+                this.endInput(this.writeQueue, 1, failure);
+                this.awaitAll(Collections.singletonList(writer));
+            } finally {
+                pool.shutdownNow();
+            }
+
+            Throwable cause = failure.get();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof URISyntaxException) {
+                throw (URISyntaxException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause != null) {
+                throw new RuntimeException(cause);
+            }
+        }
+    }
+
+    /**
+     * Returns every counter for this scraper's crawls, one "name value" pair
+     * per line.
+     *
+     * For each stage, "pages" counts the pages it has handled and "millis" the
+     * total time its threads spent handling them, so pages / millis is its
+     * throughput. Queue depths are the number of pages currently waiting for
+     * the next stage.
+     */
+    public String formatStats() {
+        BlockingQueue<Page> parseQueue = this.parseQueue;
+        BlockingQueue<Page> writeQueue = this.writeQueue;
+        return "scraper_fetch_pages " + this.fetchStage.getNumPages() + "\n"
+                + "scraper_fetch_millis " + this.fetchStage.getMillis() + "\n"
+                + "scraper_fetch_failures " + this.numFetchFailures.get() + "\n"
+                + "scraper_fetch_not_modified " + this.numNotModified.get() + "\n"
+                + "scraper_parse_queue_depth " + (parseQueue == null ? 0 : parseQueue.size()) + "\n"
+                + "scraper_parse_pages " + this.parseStage.getNumPages() + "\n"
+                + "scraper_parse_millis " + this.parseStage.getMillis() + "\n"
+                + "scraper_write_queue_depth " + (writeQueue == null ? 0 : writeQueue.size()) + "\n"
+                + "scraper_write_pages " + this.writeStage.getNumPages() + "\n"
+                + "scraper_write_millis " + this.writeStage.getMillis() + "\n"
+                + "scraper_write_batches " + this.numWriteBatches.get() + "\n"
+                + "scraper_duplicate_pages " + this.numDuplicates.get() + "\n"
+                + "scraper_seen_pages " + (this.scheduler == null ? 0 : this.scheduler.getNumSeen()) + "\n";
+    }
+
+    /**
+     * Fetches pages until there are none left, or 'limit' pages have been
+     * fetched in total, and passes them on to the parsers.
+     */
+    private void fetchAll(int limit, AtomicInteger numFetched) throws Exception {
+        while (true) {
+            PendingUri pending = this.scheduler.take();
+            if (pending == null) {
+                return;
+            }
+
+            long start = System.nanoTime();
+            Path bodyPath = this.getPartPath(pending.uri);
+            FetchResult result = null;
+            try {
+                result = this.fetch(pending, bodyPath);
+            } finally {
+                this.scheduler.release(pending, this.requester.getDelay(pending.uri));
+                if (result == FetchResult.NOT_MODIFIED) {
+                    this.numNotModified.incrementAndGet();
+                } else if (result != FetchResult.FETCHED) {
+                    this.numFetchFailures.incrementAndGet();
+                }
+                if (result != FetchResult.FETCHED
+                        && (result != FetchResult.NOT_MODIFIED || !this.archive.contains(pending.uri))) {
+                    this.scheduler.complete(pending);
+                    this.scheduler.done(pending);
+                }
+                this.fetchStage.record(start);
+            }
+
+            if (result == FetchResult.NOT_MODIFIED) {
+                // We already have the page, but still follow its links
+                byte[] saved = this.archive.read(pending.uri);
+                if (saved != null) {
+                    Files.write(bodyPath, saved);
+                    this.parseQueue.put(new Page(pending, bodyPath, true, 0));
                 }
+                continue;
+            } else if (result != FetchResult.FETCHED) {
+                continue;
+            }
+
+            // Keep the page, unless other fetchers have already fetched enough.
+            // Pages we drop are not done, so a resumed crawl fetches them.
+            int count = numFetched.incrementAndGet();
+            if (count > limit) {
+                Files.deleteIfExists(bodyPath);
+                this.scheduler.complete(pending);
+                continue;
+            } else if (count == limit) {
+                this.scheduler.stop();
+            }
+            this.parseQueue.put(new Page(pending, bodyPath, false, 0));
+        }
+    }
+
+    /**
+     * Fetches the given page, streaming its body to 'bodyPath'.
+     */
+    private FetchResult fetch(PendingUri pending, Path bodyPath) throws IOException {
+        URI uri = pending.uri;
+
+        // Skip invalid pages
+        if (!this.domainWhitelist.contains(uri.getHost())) {
+            System.out.println(String.format("Skipping '%s'; host not in whitelist", uri));
+            return FetchResult.SKIPPED;
+        }
+
+        FetchResult result = this.requester.fetch(uri, bodyPath);
+        if (result == FetchResult.SKIPPED) {
+            System.out.println(String.format("Unable to fetch content from '%s'", uri));
+        }
+        return result;
+    }
 
-                // Save loaded page
-                limitCount += 1;
-                this.saveHtml(uri, body);
-                saveWriter.print(uri.toString() + "\n");
+    /**
+     * Queues the links of every fetched page, and passes the pages on to the
+     * writer with the fingerprints of their bodies.
+     */
+    private void parseAll() throws Exception {
+        Page page = this.parseQueue.take();
+        while (page != END_OF_INPUT) {
+            long start = System.nanoTime();
+            long contentFingerprint;
+            try {
+                byte[] body = Files.readAllBytes(page.path);
+                contentFingerprint = UrlSeenSet.fingerprint(body);
 
-                // Add children (if applicable)
-                Document document = Jsoup.parse(body);
-                for (URI link : WebUtils.extractLinks(uri, document)) {
+                // Add children (if applicable). Links to other hosts are
+                // dropped here, rather than queued only to be skipped later.
+                Document document = Jsoup.parse(
+                        new ByteArrayInputStream(body), null, page.pending.uri.toString());
+                for (URI link : WebUtils.extractLinks(page.pending.uri, document)) {
                     Optional<URI> normalizedUri = WebUtils.normalize(link);
 
-                    if (normalizedUri.isPresent() && !this.alreadyEncountered.contains(link)) {
-                        this.pendingUris.insert(new PendingUri(pending.distance + 1, normalizedUri.get()));
+                    if (normalizedUri.isPresent() && this.domainWhitelist.contains(normalizedUri.get().getHost())) {
+                        this.scheduler.add(normalizedUri.get(), page.pending.distance + 1);
                     }
                 }
+            } finally {
+                this.scheduler.complete(page.pending);
+                this.parseStage.record(start);
+            }
+            this.writeQueue.put(new Page(page.pending, page.path, page.isSaved, contentFingerprint));
+            page = this.parseQueue.take();
+        }
+    }
+
+    /**
+     * Saves every parsed page, a batch at a time, and adds it to list.sav,
+     * list.fp and content.fp. Pages whose bodies we have already saved are
+     * dropped instead.
+     */
+    private void writeAll(PrintWriter saveWriter, DataOutputStream fingerprintWriter, DataOutputStream contentWriter)
+            throws Exception {
+        List<Page> batch = new ArrayList<>();
+        boolean isDone = false;
+        while (!isDone) {
+            // Wait for one page, then take whatever else is already waiting
+            batch.clear();
+            batch.add(this.writeQueue.take());
+            this.writeQueue.drainTo(batch, WRITE_BATCH_SIZE - 1);
+
+            // Every page in the batch has had its links queued. They must be
+            // on disk before the page is in list.fp, since a resumed crawl
+            // never parses a page in list.fp again.
+            this.scheduler.flush();
+
+            long start = System.nanoTime();
+            int numWritten = 0;
+            for (Page page : batch) {
+                if (page == END_OF_INPUT) {
+                    isDone = true;
+                    continue;
+                } else if (page.isSaved) {
+                    Files.delete(page.path);
+                    continue;
+                } else if (!this.contents.addFingerprint(page.contentFingerprint)) {
+                    Files.delete(page.path);
+                    this.numDuplicates.incrementAndGet();
+                    System.out.println(String.format("Skipping '%s'; same content as a saved page", page.pending.uri));
+                    continue;
+                }
+                this.saveHtml(page.pending.uri, page.path);
+                saveWriter.print(page.pending.uri.toString() + "\n");
+                fingerprintWriter.writeLong(UrlSeenSet.fingerprint(page.pending.uri));
+                contentWriter.writeLong(page.contentFingerprint);
+                numWritten++;
 
                 // Log
-                System.out.println(String.format("Fetched %s", uri));
+                System.out.println(String.format("Fetched %s", page.pending.uri));
+            }
+            saveWriter.flush();
+            fingerprintWriter.flush();
+            contentWriter.flush();
+            for (Page page : batch) {
+                if (page != END_OF_INPUT) {
+                    this.scheduler.done(page.pending);
+                }
+            }
+            if (numWritten > 0) {
+                this.numWriteBatches.incrementAndGet();
+                this.writeStage.record(start, numWritten);
             }
         }
     }
 
-    private void saveHtml(URI uri, String body) throws IOException {
-        String hex = DigestUtils.md5Hex(uri.toString());
-        Path saveDomainPath = this.outputPath.resolve(uri.getHost());
-        Path savePath = saveDomainPath.resolve(hex + ".html");
+    /**
+     * Runs one thread's share of a stage. If it fails, records why (unless
+     * another stage already failed) and aborts the whole crawl.
+     */
+    private static void runStage(AtomicReference<Throwable> failure, Runnable abort, StageBody body) {
+        try {
+            body.run();
+        } catch (InterruptedException ex) {
+            // We were aborted because another stage failed
+            failure.compareAndSet(null, ex);
+        } catch (Exception ex) {
+            failure.compareAndSet(null, ex);
+            abort.run();
+        }
+    }
 
-        if (!saveDomainPath.toFile().exists() && !saveDomainPath.toFile().mkdirs()) {
-            throw new IOException("Unable to make folder " + saveDomainPath);
+    private void awaitAll(List<Future<?>> results) throws IOException {
+        for (Future<?> result : results) {
+            try {
+                result.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                this.scheduler.stop();
+                throw new IOException("Interrupted while crawling", ex);
+            } catch (ExecutionException ex) {
+                // runStage catches everything, so this can't happen
+                throw new RuntimeException(ex.getCause());
+            } catch (CancellationException ex) {
+                // The crawl was aborted before this task started
+            }
         }
+    }
 
-        try (PrintWriter writer = this.makePrintWriter(savePath.toFile(), false)) {
-            writer.print("<!-- METADATA\n");
-            writer.printf("uri: %s\n", uri.toString());
-            writer.print("local: false\n");
-            writer.print("-->\n");
-            writer.print(body);
+    /**
+     * Tells each of the given number of readers of the given queue that
+     * there is no more input, unless the crawl has already failed.
+     */
+    private void endInput(BlockingQueue<Page> queue, int numReaders, AtomicReference<Throwable> failure)
+            throws IOException {
+        try {
+            for (int i = 0; i < numReaders && failure.get() == null; i++) {
+                queue.put(END_OF_INPUT);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while crawling", ex);
         }
     }
 
+    /**
+     * Returns where the body of the given page is fetched to, until it is
+     * saved, making its folder if need be.
+     */
+    private Path getPartPath(URI uri) throws IOException {
+        String hex = DigestUtils.md5Hex(uri.toString());
+        Path partialPath = this.outputPath.resolve("partial");
+        if (!partialPath.toFile().exists() && !partialPath.toFile().mkdirs()) {
+            throw new IOException("Unable to make folder " + partialPath);
+        }
+        return partialPath.resolve(hex + ".part");
+    }
+
+    /**
+     * Appends the given page, whose body was fetched to 'bodyPath', to the
+     * archive, then deletes 'bodyPath'.
+     */
+    private void saveHtml(URI uri, Path bodyPath) throws IOException {
+        this.archive.append(uri, bodyPath);
+        Files.delete(bodyPath);
+    }
+
     private PrintWriter makePrintWriter(File file, boolean append) throws IOException {
         return new PrintWriter(new BufferedWriter(new FileWriter(file, append)));
     }
 
-    private void loadAlreadyEncountered(File saveFile) throws IOException {
+    private DataOutputStream makeDataOutputStream(File file, boolean append) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, append)));
+    }
+
+    /**
+     * Marks every page saved by an earlier run as seen, and as saved.
+     *
+     * list.fp holds the fingerprint of every URI in list.sav, so it can be
+     * mapped straight into the seen set. Crawls from before list.fp existed
+     * only have list.sav, so we build list.fp from it first.
+     */
+    private void loadAlreadyEncountered(File saveFile, File fingerprintFile) throws IOException {
         if (saveFile.exists() && !saveFile.isFile()) {
             throw new IOException("list.sav is not a file?");
         }
+        if (fingerprintFile.exists() && !fingerprintFile.isFile()) {
+            throw new IOException("list.fp is not a file?");
+        }
 
-        if (saveFile.exists()) {
-            try (BufferedReader reader = new BufferedReader(new FileReader(saveFile))) {
+        if (saveFile.exists() && !fingerprintFile.exists()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(saveFile));
+                    DataOutputStream writer = this.makeDataOutputStream(fingerprintFile, false)) {
                 String line = reader.readLine();
                 while (line != null) {
-                    this.alreadyEncountered.add(URI.create(line.trim()));
+                    writer.writeLong(UrlSeenSet.fingerprint(line.trim()));
                     line = reader.readLine();
                 }
             }
         }
+        if (fingerprintFile.exists()) {
+            this.scheduler.markAllSaved(fingerprintFile.toPath());
+        }
     }
 
-    private static class PendingUri implements Comparable<PendingUri> {
-        public final int distance;
-        public final URI uri;
+    /**
+     * A fetched page, on its way through the pipeline. Its body stays on
+     * disk, at 'path', so the queues never hold whole pages in memory.
+     */
+    private static class Page {
+        public final PendingUri pending;
+        public final Path path;
 
-        public PendingUri(int distance, URI uri) {
-            if (uri == null) {
-                throw new IllegalArgumentException();
-            }
-            this.distance = distance;
-            this.uri = uri;
+        // True if the page was saved by an earlier crawl, and hasn't changed
+        public final boolean isSaved;
+
+        // The fingerprint of the page's body, once it has been parsed
+        public final long contentFingerprint;
+
+        public Page(PendingUri pending, Path path, boolean isSaved, long contentFingerprint) {
+            this.pending = pending;
+            this.path = path;
+            this.isSaved = isSaved;
+            this.contentFingerprint = contentFingerprint;
+        }
+    }
+
+    @FunctionalInterface
+    private interface StageBody {
+        void run() throws Exception;
+    }
+
+    /**
+     * Counts the pages a stage has handled, and the time spent on them.
+     */
+    private static class Stage {
+        private final AtomicLong numPages;
+        private final AtomicLong nanos;
+
+        public Stage() {
+            this.numPages = new AtomicLong(0);
+            this.nanos = new AtomicLong(0);
+        }
+
+        public void record(long startNanos) {
+            this.record(startNanos, 1);
+        }
+
+        public void record(long startNanos, int numPages) {
+            this.numPages.addAndGet(numPages);
+            this.nanos.addAndGet(System.nanoTime() - startNanos);
+        }
+
+        public long getNumPages() {
+            return this.numPages.get();
         }
 
-        public int compareTo(PendingUri other) {
-            return Integer.compare(this.distance, other.distance);
+        public long getMillis() {
+            return this.nanos.get() / 1000000;
         }
     }
 }
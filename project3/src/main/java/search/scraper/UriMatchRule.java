@@ -1,57 +1,286 @@
 package search.scraper;
 
-import com.google.re2j.Pattern;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
 
 import java.net.URI;
+import java.util.Arrays;
 
+/**
+ * Decides which paths robots.txt lets us crawl, given its Allow and Disallow
+ * rules.
+ *
+ * A rule matches a path if it matches some prefix of it, where '*' in a rule
+ * matches any run of characters and a '$' at the end of a rule means the
+ * path must end there. When several rules match, the longest one wins, and
+ * Allow wins a tie. Paths no rule matches are allowed.
+ *
+ * All rules are compiled into one trie, so matching a path walks it once:
+ * O(path length) for rules without '*'. With '*', the work for each
+ * character of the path grows with the number of partial matches in
+ * progress, which is small unless many rules share a '*' prefix.
+ *
+ * Rules are immutable, and may be used from any number of threads at once.
+ */
 public class UriMatchRule {
-    private final Pattern allowed;
-    private final Pattern disallowed;
-    private final Pattern internalAllowed;
-    private final Pattern internalDisallowed;
+    private final IList<String> allowed;
+    private final IList<String> disallowed;
 
-    public UriMatchRule(Pattern allowed, Pattern disallowed) {
-        this.allowed = allowed;
-        this.disallowed = disallowed;
-        this.internalAllowed = this.sanitize(allowed);
-        this.internalDisallowed = this.sanitize(disallowed);
+    // The number of nodes we first make room for when following every way
+    // through a trie with wildcards
+    private static final int INITIAL_ACTIVE_CAPACITY = 16;
+
+    private final Node root;
+    private final boolean hasWildcards;
+
+    /**
+     * Creates a rule from the given Allow and Disallow rules, either of
+     * which may be null if there are none.
+     */
+    public UriMatchRule(IList<String> allowed, IList<String> disallowed) {
+        this.allowed = allowed == null ? new DoubleLinkedList<>() : allowed;
+        this.disallowed = disallowed == null ? new DoubleLinkedList<>() : disallowed;
+
+        this.root = new Node();
+        boolean wildcards = false;
+        for (int i = 0; i < 2; i++) {
+            boolean isAllow = i == 0;
+            for (String rule : isAllow ? this.allowed : this.disallowed) {
+                Node node = this.root;
+                boolean isAnchored = rule.endsWith("$");
+                int end = isAnchored ? rule.length() - 1 : rule.length();
+                for (int j = 0; j < end; j++) {
+                    char c = rule.charAt(j);
+                    if (c == '*' && node.isStar) {
+                        // "**" is the same as "*"
+                        continue;
+                    } else if (c == '*') {
+                        wildcards = true;
+                        if (node.star == null) {
+                            node.star = new Node();
+                            node.star.isStar = true;
+                        }
+                        node = node.star;
+                    } else {
+                        Node child = node.getChild(c);
+                        if (child == null) {
+                            child = node.addChild(c, new Node());
+                        }
+                        node = child;
+                    }
+                }
+                node.addRule(isAllow, isAnchored, rule.length());
+            }
+        }
+        this.hasWildcards = wildcards;
     }
 
     @Override
     public String toString() {
-        return "allowed: " + this.internalAllowed + " disallowed: " + this.internalDisallowed;
-    }
-
-    private Pattern sanitize(Pattern general) {
-        return general == null ? null : Pattern.compile("^(" + general + ")");
+        return "allowed: " + this.allowed + " disallowed: " + this.disallowed;
     }
 
+    /**
+     * Returns true if the given URI may be crawled.
+     */
     public boolean matches(URI uri) {
-        String filepath = uri.getPath() + ((uri.getQuery() != null) ? "?" + uri.getQuery() : "");
-        if (allowed != null && internalAllowed.matcher(filepath).find()) {
-            return true;
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        if (uri.getRawQuery() != null) {
+            path += "?" + uri.getRawQuery();
         }
-        if (disallowed != null && internalDisallowed.matcher(filepath).find()) {
-            return false;
+        return this.matches(path);
+    }
+
+    /**
+     * Returns true if the given path, including any query string, may be
+     * crawled.
+     */
+    public boolean matches(String path) {
+        Match match = new Match();
+        if (this.hasWildcards) {
+            this.walkWithWildcards(path, match);
+        } else {
+            this.walk(path, match);
         }
-        return true;
+        return match.longestAllow >= match.longestDisallow;
     }
 
+    /**
+     * Returns a rule with the Allow and Disallow rules of both this rule and
+     * the given one.
+     */
     public UriMatchRule combine(UriMatchRule other) {
-        return new UriMatchRule(
-                this.combine(this.allowed, other.allowed),
-                this.combine(this.disallowed, other.disallowed));
-    }
-
-    private Pattern combine(Pattern a, Pattern b) {
-        if (a == null && b == null) {
-            return null;
-        } else if (a == null) {
-            return b;
-        } else if (b == null) {
-            return a;
-        } else {
-            return Pattern.compile(a.pattern() + "|" + b.pattern());
+        IList<String> allowed = new DoubleLinkedList<>();
+        IList<String> disallowed = new DoubleLinkedList<>();
+        for (UriMatchRule rule : new UriMatchRule[] {this, other}) {
+            for (String pattern : rule.allowed) {
+                allowed.add(pattern);
+            }
+            for (String pattern : rule.disallowed) {
+                disallowed.add(pattern);
+            }
+        }
+        return new UriMatchRule(allowed, disallowed);
+    }
+
+    /**
+     * Matches the path against a trie with no wildcards: a single walk down
+     * from the root.
+     */
+    private void walk(String path, Match match) {
+        Node node = this.root;
+        node.record(match, path.isEmpty());
+        for (int i = 0; i < path.length() && node != null; i++) {
+            node = node.getChild(path.charAt(i));
+            if (node != null) {
+                node.record(match, i == path.length() - 1);
+            }
+        }
+    }
+
+    /**
+     * Matches the path by following every way through the trie at once. A
+     * node reached through '*' stays active on any character, and whenever
+     * a node is active so is its '*' child, since '*' may match nothing.
+     */
+    private void walkWithWildcards(String path, Match match) {
+        // Few nodes are active at once, so we start small, and checking for
+        // a node already in the set is cheap
+        Node[] active = new Node[INITIAL_ACTIVE_CAPACITY];
+        Node[] next = new Node[active.length];
+        int numActive = addWithStars(this.root, active, 0);
+        for (int j = 0; j < numActive; j++) {
+            active[j].record(match, path.isEmpty());
+        }
+
+        for (int i = 0; i < path.length() && numActive > 0; i++) {
+            char c = path.charAt(i);
+            int numNext = 0;
+            for (int j = 0; j < numActive; j++) {
+                Node node = active[j];
+                if (node.isStar) {
+                    next = ensureCapacity(next, numNext);
+                    numNext = addWithStars(node, next, numNext);
+                }
+                Node child = node.getChild(c);
+                if (child != null) {
+                    next = ensureCapacity(next, numNext);
+                    numNext = addWithStars(child, next, numNext);
+                }
+            }
+
+            boolean isEnd = i == path.length() - 1;
+            for (int j = 0; j < numNext; j++) {
+                next[j].record(match, isEnd);
+            }
+            Node[] swap = active;
+            active = next;
+            next = swap;
+            numActive = numNext;
+        }
+    }
+
+    /**
+     * Adds the node, and its '*' child, to the given set of nodes, unless
+     * they are already there. Returns the new size of the set.
+     */
+    private static int addWithStars(Node node, Node[] nodes, int size) {
+        for (; node != null; node = node.star) {
+            for (int i = 0; i < size; i++) {
+                if (nodes[i] == node) {
+                    return size;
+                }
+            }
+            nodes[size] = node;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the given array of nodes, or a copy twice as large if it might
+     * not have room to add a node and its '*' child past the given size.
+     */
+    private static Node[] ensureCapacity(Node[] nodes, int size) {
+        return size + 2 <= nodes.length ? nodes : Arrays.copyOf(nodes, 2 * nodes.length);
+    }
+
+    private static class Match {
+        public int longestAllow = -1;
+        public int longestDisallow = -1;
+    }
+
+    private static class Node {
+        // True if this node was reached through '*', and so matches any
+        // number of any character. Such a node never has a '*' child.
+        public boolean isStar;
+
+        // The children for literal characters, sorted by character
+        private char[] labels;
+        private Node[] children;
+        public Node star;
+
+        // The length of the longest rule of each kind ending here, or -1.
+        // Anchored rules only match if the path ends here too.
+        private int allow;
+        private int disallow;
+        private int anchoredAllow;
+        private int anchoredDisallow;
+
+        public Node() {
+            this.isStar = false;
+            this.labels = new char[0];
+            this.children = new Node[0];
+            this.star = null;
+            this.allow = -1;
+            this.disallow = -1;
+            this.anchoredAllow = -1;
+            this.anchoredDisallow = -1;
+        }
+
+        public Node getChild(char c) {
+            int index = Arrays.binarySearch(this.labels, c);
+            return index >= 0 ? this.children[index] : null;
+        }
+
+        public Node addChild(char c, Node child) {
+            int index = -(Arrays.binarySearch(this.labels, c) + 1);
+            char[] labels = new char[this.labels.length + 1];
+            Node[] children = new Node[this.children.length + 1];
+            System.arraycopy(this.labels, 0, labels, 0, index);
+            System.arraycopy(this.children, 0, children, 0, index);
+            labels[index] = c;
+            children[index] = child;
+            System.arraycopy(this.labels, index, labels, index + 1, this.labels.length - index);
+            System.arraycopy(this.children, index, children, index + 1, this.children.length - index);
+            this.labels = labels;
+            this.children = children;
+            return child;
+        }
+
+        public void addRule(boolean isAllow, boolean isAnchored, int length) {
+            if (isAllow && isAnchored) {
+                this.anchoredAllow = Math.max(this.anchoredAllow, length);
+            } else if (isAllow) {
+                this.allow = Math.max(this.allow, length);
+            } else if (isAnchored) {
+                this.anchoredDisallow = Math.max(this.anchoredDisallow, length);
+            } else {
+                this.disallow = Math.max(this.disallow, length);
+            }
+        }
+
+        /**
+         * Records every rule ending here in the given match, given whether
+         * we are at the end of the path.
+         */
+        public void record(Match match, boolean isEnd) {
+            match.longestAllow = Math.max(match.longestAllow, this.allow);
+            match.longestDisallow = Math.max(match.longestDisallow, this.disallow);
+            if (isEnd) {
+                match.longestAllow = Math.max(match.longestAllow, this.anchoredAllow);
+                match.longestDisallow = Math.max(match.longestDisallow, this.anchoredDisallow);
+            }
         }
     }
 }
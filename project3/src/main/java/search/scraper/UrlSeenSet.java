@@ -0,0 +1,589 @@
+package search.scraper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The set of every page a crawl has seen, built to stay small in memory
+ * even for crawls of tens of millions of pages.
+ *
+ * Pages are stored as 64-bit fingerprints of their URIs (see 'fingerprint').
+ * The most recently added fingerprints are kept in a small in-memory hash
+ * table. Once it fills up, they are sorted and written out to a "run" file,
+ * which is memory-mapped and binary searched from then on. Whenever the
+ * newest run is at least half the size of the one before it, the two are
+ * merged, so there are only ever logarithmically many runs.
+ *
+ * The runs that make up the set are listed in a "runs" file, which 'sync'
+ * and 'close' replace atomically. Opening a set over a directory an earlier
+ * set was synced to maps that set's runs back into memory, rather than
+ * adding each of its URIs again. Runs written since the last sync are
+ * deleted instead, so a crash loses whatever was added since then.
+ *
+ * In front of all of that sits a scalable Bloom filter, which answers most
+ * lookups for pages we have not seen without touching the runs at all. It
+ * grows a new, larger and stricter filter every time the current one fills
+ * up, so it never needs to know in advance how large the crawl will get.
+ *
+ * Two distinct URIs share a fingerprint with probability about n^2 / 2^65:
+ * roughly once in every 300,000 crawls of ten million pages. When that
+ * happens, the second URI is treated as already seen and never fetched.
+ *
+ * This class is not thread-safe.
+ */
+public class UrlSeenSet implements Closeable {
+    public static final int DEFAULT_BUFFER_CAPACITY = 1 << 16;
+
+    // Each Bloom filter holds twice as many fingerprints as the one before
+    // it, at half the false positive rate, so that the rate across every
+    // filter never exceeds 2 * INITIAL_FALSE_POSITIVE_RATE.
+    private static final int INITIAL_BLOOM_CAPACITY = 1 << 16;
+    private static final double INITIAL_FALSE_POSITIVE_RATE = 0.01;
+
+    private static final String RUN_SUFFIX = ".run";
+    private static final String RUNS_FILE = "runs";
+
+    private Path directory;
+    private final boolean isTemporary;
+    private boolean isDirectoryReady;
+
+    // An open-addressed hash table of the fingerprints added since the last
+    // run was written. Zero marks an empty slot; see 'fingerprint'.
+    private final int bufferCapacity;
+    private final long[] buffer;
+    private int bufferSize;
+
+    // Oldest (and largest) first
+    private final List<Run> runs;
+    private int nextRunId;
+
+    // Runs merged away since the last sync, which the runs file may still
+    // list, so we can't delete them yet
+    private final List<Path> obsolete;
+
+    private final List<BloomFilter> filters;
+    private long size;
+
+    /**
+     * Creates a set that spills to a temporary directory, which is deleted
+     * when the set is closed.
+     */
+    public UrlSeenSet() {
+        this(null, true, DEFAULT_BUFFER_CAPACITY);
+    }
+
+    /**
+     * Opens the set last synced to the given directory, creating it if
+     * there is none, and spills to that directory from then on.
+     *
+     * @param bufferCapacity  The number of fingerprints to keep in memory
+     *                        before writing them to disk.
+     */
+    public UrlSeenSet(Path directory, int bufferCapacity) throws IOException {
+        this(directory, false, bufferCapacity);
+        this.open();
+    }
+
+    private UrlSeenSet(Path directory, boolean isTemporary, int bufferCapacity) {
+        if (bufferCapacity < 1) {
+            throw new IllegalArgumentException("Buffer capacity must be positive");
+        }
+        this.directory = directory;
+        this.isTemporary = isTemporary;
+        this.isDirectoryReady = false;
+
+        this.bufferCapacity = bufferCapacity;
+        this.buffer = new long[Integer.highestOneBit(bufferCapacity) * 4];
+        this.bufferSize = 0;
+
+        this.runs = new ArrayList<>();
+        this.nextRunId = 0;
+        this.obsolete = new ArrayList<>();
+
+        this.filters = new ArrayList<>();
+        this.filters.add(new BloomFilter(INITIAL_BLOOM_CAPACITY, INITIAL_FALSE_POSITIVE_RATE));
+        this.size = 0;
+    }
+
+    /**
+     * Returns the fingerprint of the given URI, as stored in this set. The
+     * fingerprint is never zero.
+     */
+    public static long fingerprint(URI uri) {
+        return fingerprint(uri.toString());
+    }
+
+    /**
+     * Returns the fingerprint of the URI with the given string form.
+     */
+    public static long fingerprint(String uri) {
+        return fingerprint(uri.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the fingerprint of the given bytes. Scraper also uses this to
+     * recognize pages whose contents it has already saved.
+     */
+    public static long fingerprint(byte[] bytes) {
+        // 64-bit FNV-1a, followed by the MurmurHash3 finalizer to spread the
+        // bits FNV leaves clustered
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * Adds the given URI to this set.
+     *
+     * @return true if it was added, false if it was already in the set
+     */
+    public boolean add(URI uri) throws IOException {
+        return this.addFingerprint(fingerprint(uri));
+    }
+
+    public boolean contains(URI uri) {
+        return this.containsFingerprint(fingerprint(uri));
+    }
+
+    /**
+     * Adds the URI with the given fingerprint to this set.
+     *
+     * @return true if it was added, false if it was already in the set
+     * @throws IllegalArgumentException  if the fingerprint is zero
+     */
+    public boolean addFingerprint(long fingerprint) throws IOException {
+        if (fingerprint == 0) {
+            throw new IllegalArgumentException("Fingerprints are never zero");
+        }
+        if (this.containsFingerprint(fingerprint)) {
+            return false;
+        }
+
+        this.addToFilter(fingerprint);
+        this.buffer[this.findSlot(fingerprint)] = fingerprint;
+        this.bufferSize++;
+        this.size++;
+        if (this.bufferSize >= this.bufferCapacity) {
+            this.flush();
+        }
+        return true;
+    }
+
+    public boolean containsFingerprint(long fingerprint) {
+        boolean mightContain = false;
+        for (BloomFilter filter : this.filters) {
+            if (filter.mightContain(fingerprint)) {
+                mightContain = true;
+                break;
+            }
+        }
+        if (!mightContain) {
+            return false;
+        }
+
+        if (this.buffer[this.findSlot(fingerprint)] == fingerprint) {
+            return true;
+        }
+        for (int i = this.runs.size() - 1; i >= 0; i--) {
+            if (this.runs.get(i).contains(fingerprint)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds every fingerprint in the given file: a flat array of big-endian
+     * longs, as written by 'DataOutputStream.writeLong'. The file is mapped
+     * into memory rather than parsed.
+     */
+    public void addAll(Path fingerprintFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(fingerprintFile, StandardOpenOption.READ)) {
+            LongBuffer fingerprints = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asLongBuffer();
+            while (fingerprints.hasRemaining()) {
+                this.addFingerprint(fingerprints.get());
+            }
+        }
+    }
+
+    /**
+     * Returns the number of URIs in this set.
+     */
+    public long size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the number of run files this set is currently spread across.
+     */
+    public int getNumRuns() {
+        return this.runs.size();
+    }
+
+    /**
+     * Returns true if runs have been written since the last sync: a sync
+     * would then be needed for them to survive a crash.
+     */
+    public boolean hasUnsyncedRuns() {
+        for (Run run : this.runs) {
+            if (!run.isSynced) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes every URI added so far to disk, and lists the runs holding them
+     * in the runs file, so that reopening the set finds them even after a
+     * crash. A temporary set is never reopened, so this does nothing.
+     */
+    public void sync() throws IOException {
+        if (this.isTemporary) {
+            return;
+        }
+        if (this.bufferSize > 0) {
+            this.flush();
+        }
+        if (!this.hasUnsyncedRuns() && this.obsolete.isEmpty()) {
+            return;
+        }
+
+        Path temporary = this.directory.resolve(RUNS_FILE + ".tmp");
+        try (DataOutputStream out = this.makeOutputStream(temporary)) {
+            out.writeInt(this.runs.size());
+            for (Run run : this.runs) {
+                out.writeInt(run.id);
+            }
+        }
+        Files.move(temporary, this.directory.resolve(RUNS_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        for (Run run : this.runs) {
+            run.isSynced = true;
+        }
+        for (Path path : this.obsolete) {
+            Files.deleteIfExists(path);
+        }
+        this.obsolete.clear();
+    }
+
+    /**
+     * Removes every URI from this set, and deletes every file it has
+     * written.
+     */
+    public void clear() throws IOException {
+        for (Run run : this.runs) {
+            Files.deleteIfExists(run.path);
+        }
+        for (Path path : this.obsolete) {
+            Files.deleteIfExists(path);
+        }
+        if (this.directory != null) {
+            Files.deleteIfExists(this.directory.resolve(RUNS_FILE));
+        }
+        this.runs.clear();
+        this.obsolete.clear();
+
+        Arrays.fill(this.buffer, 0);
+        this.bufferSize = 0;
+        this.filters.clear();
+        this.filters.add(new BloomFilter(INITIAL_BLOOM_CAPACITY, INITIAL_FALSE_POSITIVE_RATE));
+        this.size = 0;
+    }
+
+    /**
+     * Syncs the set, so that it can be reopened, or deletes every file it
+     * has written if it is temporary. The set must not be used afterwards.
+     */
+    public void close() throws IOException {
+        if (this.isTemporary) {
+            this.clear();
+            if (this.directory != null) {
+                Files.deleteIfExists(this.directory);
+            }
+        } else {
+            this.sync();
+            this.runs.clear();
+        }
+    }
+
+    /**
+     * Maps every run listed in the runs file back into memory, and deletes
+     * every other run file in the directory: runs merged away, or written
+     * since the last sync.
+     */
+    private void open() throws IOException {
+        File folder = this.directory.toFile();
+        if (!folder.exists()) {
+            // It's made when the first run is written
+            return;
+        }
+
+        Path runsFile = this.directory.resolve(RUNS_FILE);
+        Set<Path> listed = new HashSet<>();
+        if (runsFile.toFile().exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(runsFile)))) {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    Run run = new Run(in.readInt(), this.directory);
+                    run.isSynced = true;
+                    this.runs.add(run);
+                    listed.add(run.path);
+                    this.nextRunId = Math.max(this.nextRunId, run.id + 1);
+                }
+            }
+        }
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(RUN_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                if (!listed.contains(file.toPath())) {
+                    Files.delete(file.toPath());
+                }
+            }
+        }
+
+        // The Bloom filters only live in memory, so we fill them in again
+        for (Run run : this.runs) {
+            for (int i = 0; i < run.size; i++) {
+                this.addToFilter(run.get(i));
+            }
+            this.size += run.size;
+        }
+        this.isDirectoryReady = true;
+    }
+
+    private void addToFilter(long fingerprint) {
+        BloomFilter filter = this.filters.get(this.filters.size() - 1);
+        if (filter.isFull()) {
+            filter = new BloomFilter(filter.capacity * 2, filter.falsePositiveRate / 2);
+            this.filters.add(filter);
+        }
+        filter.add(fingerprint);
+    }
+
+    /**
+     * Returns the slot holding the given fingerprint, or the empty slot it
+     * would go in.
+     */
+    private int findSlot(long fingerprint) {
+        int mask = this.buffer.length - 1;
+        int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+        while (this.buffer[slot] != 0 && this.buffer[slot] != fingerprint) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Writes out the buffer as a new run, then merges runs until each is
+     * more than twice the size of the next.
+     */
+    private void flush() throws IOException {
+        long[] fingerprints = new long[this.bufferSize];
+        int count = 0;
+        for (long fingerprint : this.buffer) {
+            if (fingerprint != 0) {
+                fingerprints[count] = fingerprint;
+                count++;
+            }
+        }
+        Arrays.sort(fingerprints);
+        Arrays.fill(this.buffer, 0);
+        this.bufferSize = 0;
+
+        int id = this.nextRunId();
+        try (DataOutputStream out = this.makeOutputStream(Run.getPath(id, this.directory))) {
+            for (long fingerprint : fingerprints) {
+                out.writeLong(fingerprint);
+            }
+        }
+        this.runs.add(new Run(id, this.directory));
+
+        int last = this.runs.size() - 1;
+        while (last > 0 && this.runs.get(last - 1).size <= 2 * this.runs.get(last).size) {
+            Run merged = this.merge(this.runs.get(last - 1), this.runs.get(last));
+            this.runs.remove(last);
+            this.runs.set(last - 1, merged);
+            last--;
+        }
+    }
+
+    private Run merge(Run older, Run newer) throws IOException {
+        int id = this.nextRunId();
+        try (DataOutputStream out = this.makeOutputStream(Run.getPath(id, this.directory))) {
+            int i = 0;
+            int j = 0;
+            while (i < older.size || j < newer.size) {
+                if (j == newer.size || (i < older.size && older.get(i) < newer.get(j))) {
+                    out.writeLong(older.get(i));
+                    i++;
+                } else {
+                    out.writeLong(newer.get(j));
+                    j++;
+                }
+            }
+        }
+        this.discard(older);
+        this.discard(newer);
+        return new Run(id, this.directory);
+    }
+
+    /**
+     * Deletes the given run, once the runs file no longer lists it.
+     */
+    private void discard(Run run) throws IOException {
+        if (run.isSynced) {
+            this.obsolete.add(run.path);
+        } else {
+            Files.delete(run.path);
+        }
+    }
+
+    private int nextRunId() throws IOException {
+        if (!this.isDirectoryReady) {
+            if (this.directory == null) {
+                this.directory = Files.createTempDirectory("seen");
+            }
+            File folder = this.directory.toFile();
+            if (!folder.exists() && !folder.mkdirs()) {
+                throw new IOException("Unable to make folder " + this.directory);
+            }
+            this.isDirectoryReady = true;
+        }
+        int id = this.nextRunId;
+        this.nextRunId++;
+        return id;
+    }
+
+    private DataOutputStream makeOutputStream(Path path) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+    }
+
+    /**
+     * A sorted array of fingerprints on disk.
+     */
+    private static class Run {
+        public final int id;
+        public final Path path;
+        public final LongBuffer fingerprints;
+        public final int size;
+
+        // True once the runs file lists this run
+        public boolean isSynced;
+
+        public Run(int id, Path directory) throws IOException {
+            this.id = id;
+            this.path = getPath(id, directory);
+            this.isSynced = false;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                this.fingerprints = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asLongBuffer();
+            }
+            this.size = this.fingerprints.limit();
+        }
+
+        public static Path getPath(int id, Path directory) {
+            return directory.resolve("seen-" + id + RUN_SUFFIX);
+        }
+
+        public long get(int index) {
+            return this.fingerprints.get(index);
+        }
+
+        public boolean contains(long fingerprint) {
+            int low = 0;
+            int high = this.size - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                long value = this.fingerprints.get(middle);
+                if (value < fingerprint) {
+                    low = middle + 1;
+                } else if (value > fingerprint) {
+                    high = middle - 1;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A Bloom filter over fingerprints. Since fingerprints are already
+     * well-mixed hashes, each filter derives all of its bit positions from
+     * the fingerprint itself, by double hashing.
+     */
+    private static class BloomFilter {
+        public final long capacity;
+        public final double falsePositiveRate;
+        private final long[] bits;
+        private final long numBits;
+        private final int numHashes;
+        private long size;
+
+        public BloomFilter(long capacity, double falsePositiveRate) {
+            this.capacity = capacity;
+            this.falsePositiveRate = falsePositiveRate;
+            double ln2 = Math.log(2);
+            long words = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (ln2 * ln2) / 64);
+            this.bits = new long[(int) Math.max(1, words)];
+            this.numBits = this.bits.length * 64L;
+            this.numHashes = (int) Math.max(1, Math.round((double) this.numBits / capacity * ln2));
+            this.size = 0;
+        }
+
+        public boolean isFull() {
+            return this.size >= this.capacity;
+        }
+
+        public void add(long fingerprint) {
+            long hash = fingerprint;
+            long step = Long.rotateLeft(fingerprint, 32) | 1;
+            for (int i = 0; i < this.numHashes; i++) {
+                long bit = (hash & Long.MAX_VALUE) % this.numBits;
+                this.bits[(int) (bit >>> 6)] |= 1L << bit;
+                hash += step;
+            }
+            this.size++;
+        }
+
+        public boolean mightContain(long fingerprint) {
+            long hash = fingerprint;
+            long step = Long.rotateLeft(fingerprint, 32) | 1;
+            for (int i = 0; i < this.numHashes; i++) {
+                long bit = (hash & Long.MAX_VALUE) % this.numBits;
+                if ((this.bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                    return false;
+                }
+                hash += step;
+            }
+            return true;
+        }
+    }
+}
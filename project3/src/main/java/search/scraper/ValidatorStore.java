@@ -0,0 +1,376 @@
+package search.scraper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The ETag and Last-Modified date of every page a crawl has fetched, kept on
+ * disk and looked up one page at a time, so that remembering them costs next
+ * to no memory however large the crawl.
+ *
+ * Validators are appended to a log, VALIDATOR_FILE. An index, INDEX_FILE, maps
+ * the fingerprint of each page's URI (see 'UrlSeenSet.fingerprint') to its
+ * latest entry in the log. The index is an open-addressed hash table,
+ * memory-mapped, which doubles in size whenever it is half full.
+ *
+ * The index records how long the log was when the store was last closed. If
+ * the store wasn't closed cleanly, the index is rebuilt from the log, and an
+ * entry at the end of the log that a crash cut short is dropped. When it is
+ * opened, a store whose log is mostly entries that were replaced since is
+ * compacted: its log is rewritten with only the latest entry of each page.
+ *
+ * Two distinct URIs share a fingerprint about as rarely as in UrlSeenSet.
+ * When they do, one page may be sent the other's validators, and at worst is
+ * fetched as if it hadn't changed.
+ *
+ * Any number of threads may use a store at once.
+ */
+public class ValidatorStore implements Closeable {
+    public static final String VALIDATOR_FILE = "validators.dat";
+    public static final String INDEX_FILE = "validators.idx";
+
+    private static final int INITIAL_CAPACITY = 1 << 12;
+
+    // A buffer can only map 2GB, so the index can't grow past this
+    private static final int MAX_CAPACITY = 1 << 26;
+    private static final int MIN_ENTRIES_TO_COMPACT = 1 << 12;
+
+    // The index starts with the length of the log when the store was closed
+    // (or -1 while it is open), and the number of entries in the log. Each
+    // slot after that holds a fingerprint, or zero if empty, and the offset
+    // of the latest log entry for it.
+    private static final int INDEX_HEADER_LENGTH = 16;
+    private static final int SLOT_LENGTH = 16;
+
+    // Each entry in the log holds the fingerprint and the length of the rest
+    private static final int ENTRY_HEADER_LENGTH = 12;
+
+    private final Path directory;
+    private FileChannel log;
+    private long logLength;
+    private long numEntries;
+
+    private FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private int capacity;
+    private int numPages;
+
+    /**
+     * Opens the store in the given directory, creating it if it doesn't
+     * exist yet.
+     */
+    public ValidatorStore(Path directory) throws IOException {
+        this.directory = directory;
+        Path logPath = directory.resolve(VALIDATOR_FILE);
+        this.log = FileChannel.open(logPath,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        this.logLength = this.log.size();
+
+        if (!this.openIndex()) {
+            this.rebuildIndex();
+        }
+        if (this.numEntries >= MIN_ENTRIES_TO_COMPACT && this.numEntries > 2L * this.numPages) {
+            this.compact();
+        }
+
+        // Until we're closed, the index may not match the log on disk
+        this.index.putLong(0, -1);
+        this.index.force();
+    }
+
+    /**
+     * Returns the validators of the given page, or null if we have none.
+     */
+    public synchronized Validators get(URI uri) throws IOException {
+        long fingerprint = UrlSeenSet.fingerprint(uri);
+        int slot = this.findSlot(fingerprint);
+        if (this.getFingerprint(slot) == 0) {
+            return null;
+        }
+        return this.readEntry(this.getOffset(slot));
+    }
+
+    /**
+     * Records the given validators of the given page, replacing any we had.
+     */
+    public synchronized void put(URI uri, Validators validators) throws IOException {
+        long fingerprint = UrlSeenSet.fingerprint(uri);
+        long offset = this.appendEntry(fingerprint, validators);
+        this.addToIndex(fingerprint, offset);
+    }
+
+    /**
+     * Returns the number of distinct pages we have validators for.
+     */
+    public synchronized int size() {
+        return this.numPages;
+    }
+
+    /**
+     * Records that the index matches the log, and closes both.
+     */
+    public synchronized void close() throws IOException {
+        if (this.log == null) {
+            return;
+        }
+        this.log.force(false);
+        this.index.putLong(0, this.logLength);
+        this.index.putLong(8, this.numEntries);
+        this.index.force();
+        this.indexChannel.close();
+        this.log.close();
+        this.log = null;
+    }
+
+    /**
+     * Maps the index, if it exists and matches the log. Returns false if it
+     * has to be rebuilt.
+     */
+    private boolean openIndex() throws IOException {
+        Path indexPath = this.directory.resolve(INDEX_FILE);
+        if (!indexPath.toFile().exists() || Files.size(indexPath) <= INDEX_HEADER_LENGTH) {
+            return false;
+        }
+        this.mapIndex(indexPath, (int) ((Files.size(indexPath) - INDEX_HEADER_LENGTH) / SLOT_LENGTH));
+        if (this.index.getLong(0) != this.logLength) {
+            this.indexChannel.close();
+            return false;
+        }
+        this.numEntries = this.index.getLong(8);
+        this.numPages = 0;
+        for (int slot = 0; slot < this.capacity; slot++) {
+            if (this.getFingerprint(slot) != 0) {
+                this.numPages++;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Builds a new index over every complete entry in the log, dropping an
+     * entry at the end that a crash cut short.
+     */
+    private void rebuildIndex() throws IOException {
+        Path indexPath = this.directory.resolve(INDEX_FILE);
+        Files.deleteIfExists(indexPath);
+        this.mapIndex(indexPath, INITIAL_CAPACITY);
+        this.index.putLong(0, -1);
+        this.numPages = 0;
+        this.numEntries = 0;
+
+        long offset = 0;
+        Path logPath = this.directory.resolve(VALIDATOR_FILE);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logPath)))) {
+            while (true) {
+                long fingerprint = in.readLong();
+                int length = in.readInt();
+                if (in.skipBytes(length) < length) {
+                    break;
+                }
+                this.addToIndex(fingerprint, offset);
+                this.numEntries++;
+                offset += ENTRY_HEADER_LENGTH + length;
+            }
+        } catch (EOFException ex) {
+            // We've read every complete entry
+        }
+
+        if (this.log.size() > offset) {
+            this.log.truncate(offset);
+        }
+        this.logLength = offset;
+        this.index.force();
+    }
+
+    /**
+     * Rewrites the log with only the latest entry of each page.
+     */
+    private void compact() throws IOException {
+        // Once we start pointing the index into the new log, it no longer
+        // matches the old one, so a crash from here on means a rebuild
+        this.index.putLong(0, -1);
+        this.index.force();
+
+        Path logPath = this.directory.resolve(VALIDATOR_FILE);
+        Path temporary = this.directory.resolve(VALIDATOR_FILE + ".tmp");
+        long offset = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temporary)))) {
+            for (int slot = 0; slot < this.capacity; slot++) {
+                long fingerprint = this.getFingerprint(slot);
+                if (fingerprint == 0) {
+                    continue;
+                }
+                byte[] body = encode(this.readEntry(this.getOffset(slot)));
+                out.writeLong(fingerprint);
+                out.writeInt(body.length);
+                out.write(body);
+                this.setSlot(slot, fingerprint, offset);
+                offset += ENTRY_HEADER_LENGTH + body.length;
+            }
+        }
+
+        this.log.close();
+        Files.move(temporary, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.log = FileChannel.open(logPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.logLength = offset;
+        this.numEntries = this.numPages;
+    }
+
+    private long appendEntry(long fingerprint, Validators validators) throws IOException {
+        byte[] body = encode(validators);
+        ByteBuffer buffer = ByteBuffer.allocate(ENTRY_HEADER_LENGTH + body.length);
+        buffer.putLong(fingerprint);
+        buffer.putInt(body.length);
+        buffer.put(body);
+        buffer.flip();
+
+        long offset = this.logLength;
+        while (buffer.hasRemaining()) {
+            this.log.write(buffer, offset + buffer.position());
+        }
+        this.logLength += buffer.limit();
+        this.numEntries++;
+        return offset;
+    }
+
+    private Validators readEntry(long offset) throws IOException {
+        ByteBuffer header = this.read(offset, ENTRY_HEADER_LENGTH);
+        header.getLong();
+        ByteBuffer body = this.read(offset + ENTRY_HEADER_LENGTH, header.getInt());
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body.array()));
+        String etag = in.readUTF();
+        String lastModified = in.readUTF();
+        return new Validators(etag.isEmpty() ? null : etag, lastModified.isEmpty() ? null : lastModified);
+    }
+
+    private ByteBuffer read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (this.log.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Entry at " + offset + " is cut short in " + VALIDATOR_FILE);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static byte[] encode(Validators validators) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(validators.etag == null ? "" : validators.etag);
+        out.writeUTF(validators.lastModified == null ? "" : validators.lastModified);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Points the given fingerprint at the log entry at the given offset,
+     * doubling the index first if it is half full.
+     */
+    private void addToIndex(long fingerprint, long offset) throws IOException {
+        int slot = this.findSlot(fingerprint);
+        if (this.getFingerprint(slot) == 0) {
+            if (2 * (this.numPages + 1) > this.capacity) {
+                this.grow();
+                slot = this.findSlot(fingerprint);
+            }
+            this.numPages++;
+        }
+        this.setSlot(slot, fingerprint, offset);
+    }
+
+    private void grow() throws IOException {
+        if (this.capacity >= MAX_CAPACITY) {
+            throw new IOException("Too many pages for " + INDEX_FILE);
+        }
+        MappedByteBuffer old = this.index;
+        int oldCapacity = this.capacity;
+        FileChannel oldChannel = this.indexChannel;
+
+        Path temporary = this.directory.resolve(INDEX_FILE + ".tmp");
+        Files.deleteIfExists(temporary);
+        this.mapIndex(temporary, oldCapacity * 2);
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            long fingerprint = old.getLong(INDEX_HEADER_LENGTH + slot * SLOT_LENGTH);
+            if (fingerprint != 0) {
+                long offset = old.getLong(INDEX_HEADER_LENGTH + slot * SLOT_LENGTH + 8);
+                this.setSlot(this.findSlot(fingerprint), fingerprint, offset);
+            }
+        }
+        this.index.putLong(0, -1);
+        oldChannel.close();
+        this.replaceIndex(temporary);
+    }
+
+    /**
+     * Moves the index at the given temporary path over the real one.
+     */
+    private void replaceIndex(Path temporary) throws IOException {
+        this.index.force();
+        Files.move(temporary, this.directory.resolve(INDEX_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void mapIndex(Path path, int capacity) throws IOException {
+        this.indexChannel = FileChannel.open(path,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        long length = INDEX_HEADER_LENGTH + (long) capacity * SLOT_LENGTH;
+        this.index = this.indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the slot holding the given fingerprint, or the empty slot it
+     * would go in.
+     */
+    private int findSlot(long fingerprint) {
+        int mask = this.capacity - 1;
+        int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+        while (this.getFingerprint(slot) != 0 && this.getFingerprint(slot) != fingerprint) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private long getFingerprint(int slot) {
+        return this.index.getLong(INDEX_HEADER_LENGTH + slot * SLOT_LENGTH);
+    }
+
+    private long getOffset(int slot) {
+        return this.index.getLong(INDEX_HEADER_LENGTH + slot * SLOT_LENGTH + 8);
+    }
+
+    private void setSlot(int slot, long fingerprint, long offset) {
+        this.index.putLong(INDEX_HEADER_LENGTH + slot * SLOT_LENGTH, fingerprint);
+        this.index.putLong(INDEX_HEADER_LENGTH + slot * SLOT_LENGTH + 8, offset);
+    }
+
+    /**
+     * The ETag and Last-Modified date of a page, either of which may be null.
+     */
+    public static class Validators {
+        public final String etag;
+        public final String lastModified;
+
+        public Validators(String etag, String lastModified) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+}
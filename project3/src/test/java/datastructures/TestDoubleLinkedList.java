@@ -567,4 +567,24 @@ public class TestDoubleLinkedList extends BaseTest {
             count += 2;
         }
     }
+
+    @Test(timeout=SECOND)
+    public void testAppendMovesAllNodes() {
+        DoubleLinkedList<String> list = (DoubleLinkedList<String>) this.makeBasicList();
+        DoubleLinkedList<String> other = (DoubleLinkedList<String>) this.makeBasicList();
+        other.add("d");
+
+        list.append(other);
+        this.assertListMatches(new String[] {"a", "b", "c", "a", "b", "c", "d"}, list);
+        this.assertListMatches(new String[] {}, other);
+
+        list.remove();
+        list.add("e");
+        this.assertListMatches(new String[] {"a", "b", "c", "a", "b", "c", "e"}, list);
+
+        DoubleLinkedList<String> empty = new DoubleLinkedList<>();
+        empty.append(list);
+        this.assertListMatches(new String[] {"a", "b", "c", "a", "b", "c", "e"}, empty);
+        this.assertListMatches(new String[] {}, list);
+    }
 }
@@ -0,0 +1,90 @@
+package datastructures;
+
+import static org.junit.Assert.fail;
+
+import datastructures.concrete.PersistentArray;
+import misc.BaseTest;
+import org.junit.Test;
+
+public class TestPersistentArray extends BaseTest {
+    @Test(timeout=SECOND)
+    public void testPlusAndGetBasic() {
+        PersistentArray<String> array = new PersistentArray<String>().plus("a").plus("b").plus("c");
+        assertEquals(3, array.size());
+        assertEquals("a", array.get(0));
+        assertEquals("b", array.get(1));
+        assertEquals("c", array.get(2));
+    }
+
+    @Test(timeout=SECOND)
+    public void testChangesLeaveOriginalUnchanged() {
+        PersistentArray<String> original = new PersistentArray<String>().plus("a").plus("b");
+        PersistentArray<String> changed = original.with(0, "x");
+        PersistentArray<String> longer = original.plus("c");
+
+        assertEquals("a", original.get(0));
+        assertEquals(2, original.size());
+        assertEquals("x", changed.get(0));
+        assertEquals("b", changed.get(1));
+        assertEquals(3, longer.size());
+        assertEquals("a", longer.get(0));
+    }
+
+    @Test(timeout=SECOND)
+    public void testManyElements() {
+        // Enough elements for the tree to grow several levels
+        PersistentArray<Integer> array = new PersistentArray<>();
+        for (int i = 0; i < 40000; i++) {
+            array = array.plus(i);
+        }
+        PersistentArray<Integer> doubled = array;
+        for (int i = 0; i < 40000; i += 7) {
+            doubled = doubled.with(i, 2 * i);
+        }
+
+        assertEquals(40000, array.size());
+        for (int i = 0; i < 40000; i++) {
+            assertEquals(i, array.get(i));
+            assertEquals(i % 7 == 0 ? 2 * i : i, doubled.get(i));
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testBuildFromArrayMatchesPlus() {
+        for (int size : new int[] {0, 1, 31, 32, 33, 1024, 1025, 40000}) {
+            Integer[] elements = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                elements[i] = i;
+            }
+            PersistentArray<Integer> array = new PersistentArray<>(elements);
+            assertEquals(size, array.size());
+            for (int i = 0; i < size; i++) {
+                assertEquals(i, array.get(i));
+            }
+
+            // The array must keep growing correctly from where it was built
+            array = array.plus(size);
+            assertEquals(size + 1, array.size());
+            assertEquals(size, array.get(size));
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testOutOfBoundsThrowsException() {
+        PersistentArray<String> array = new PersistentArray<String>().plus("a");
+        for (int index : new int[] {-1, 1}) {
+            try {
+                array.get(index);
+                fail("Expected IndexOutOfBoundsException");
+            } catch (IndexOutOfBoundsException ex) {
+                // All ok -- expected result
+            }
+            try {
+                array.with(index, "b");
+                fail("Expected IndexOutOfBoundsException");
+            } catch (IndexOutOfBoundsException ex) {
+                // All ok -- expected result
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package datastructures.dictionaries;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import datastructures.concrete.KVPair;
+import datastructures.concrete.dictionaries.ChainedHashDictionary;
+import datastructures.concrete.dictionaries.PersistentHashDictionary;
+import datastructures.interfaces.IDictionary;
+import misc.BaseTest;
+import misc.exceptions.NoSuchKeyException;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class TestPersistentHashDictionary extends BaseTest {
+    @Test(timeout=SECOND)
+    public void testPlusAndGetBasic() {
+        PersistentHashDictionary<String, Integer> dict = new PersistentHashDictionary<String, Integer>()
+                .plus("a", 1)
+                .plus("b", 2)
+                .plus("a", 3);
+        assertEquals(2, dict.size());
+        assertEquals(3, dict.get("a"));
+        assertEquals(2, dict.get("b"));
+        assertFalse(dict.containsKey("c"));
+        assertEquals(-1, dict.getOrDefault("c", -1));
+    }
+
+    @Test(timeout=SECOND)
+    public void testChangesLeaveOriginalUnchanged() {
+        PersistentHashDictionary<String, Integer> original = new PersistentHashDictionary<String, Integer>()
+                .plus("a", 1)
+                .plus("b", 2);
+        PersistentHashDictionary<String, Integer> changed = original.plus("a", 10).plus("c", 3).minus("b");
+
+        assertEquals(2, original.size());
+        assertEquals(1, original.get("a"));
+        assertTrue(original.containsKey("b"));
+        assertFalse(original.containsKey("c"));
+
+        assertEquals(2, changed.size());
+        assertEquals(10, changed.get("a"));
+        assertFalse(changed.containsKey("b"));
+        assertEquals(3, changed.get("c"));
+    }
+
+    @Test(timeout=SECOND)
+    public void testManyObjectsWithSameHashCode() {
+        PersistentHashDictionary<Wrapper<String>, Integer> dict = new PersistentHashDictionary<>();
+        for (int i = 0; i < 300; i++) {
+            dict = dict.plus(new Wrapper<>("" + i, 0), i);
+        }
+        dict = dict.plus(new Wrapper<>("other", -1), -1);
+        assertEquals(301, dict.size());
+        for (int i = 0; i < 300; i++) {
+            assertEquals(i, dict.get(new Wrapper<>("" + i, 0)));
+            assertFalse(dict.containsKey(new Wrapper<>(i + "a", 0)));
+        }
+
+        for (int i = 0; i < 300; i += 2) {
+            dict = dict.minus(new Wrapper<>("" + i, 0));
+        }
+        assertEquals(151, dict.size());
+        for (int i = 0; i < 300; i++) {
+            assertEquals(i % 2 == 1, dict.containsKey(new Wrapper<>("" + i, 0)));
+        }
+        assertEquals(-1, dict.get(new Wrapper<>("other", -1)));
+    }
+
+    @Test(timeout=SECOND)
+    public void testMatchesChainedHashDictionary() {
+        Random rand = new Random(30);
+        IDictionary<Integer, Integer> expected = new ChainedHashDictionary<>();
+        PersistentHashDictionary<Integer, Integer> actual = new PersistentHashDictionary<>();
+        for (int i = 0; i < 20000; i++) {
+            int key = rand.nextInt(5000) - 2500;
+            if (rand.nextInt(3) == 0 && expected.containsKey(key)) {
+                expected.remove(key);
+                actual = actual.minus(key);
+            } else {
+                expected.put(key, i);
+                actual = actual.plus(key, i);
+            }
+        }
+
+        assertEquals(expected.size(), actual.size());
+        for (int key = -2500; key < 2500; key++) {
+            assertEquals(expected.containsKey(key), actual.containsKey(key));
+            if (expected.containsKey(key)) {
+                assertEquals(expected.get(key), actual.get(key));
+            }
+        }
+
+        // Iterating visits every pair exactly once
+        IDictionary<Integer, Integer> seen = new ChainedHashDictionary<>();
+        for (KVPair<Integer, Integer> pair : actual) {
+            assertFalse(seen.containsKey(pair.getKey()));
+            assertEquals(expected.get(pair.getKey()), pair.getValue());
+            seen.put(pair.getKey(), pair.getValue());
+        }
+        assertEquals(expected.size(), seen.size());
+    }
+
+    @Test(timeout=SECOND)
+    public void testRemoveEverything() {
+        PersistentHashDictionary<Integer, Integer> dict = new PersistentHashDictionary<>();
+        for (int i = 0; i < 1000; i++) {
+            dict = dict.plus(i, i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            dict = dict.minus(i);
+        }
+        assertTrue(dict.isEmpty());
+        assertFalse(dict.iterator().hasNext());
+    }
+
+    @Test(timeout=SECOND)
+    public void testMissingKeyThrowsException() {
+        PersistentHashDictionary<String, Integer> dict = new PersistentHashDictionary<String, Integer>().plus("a", 1);
+        try {
+            dict.get("b");
+            fail("Expected NoSuchKeyException");
+        } catch (NoSuchKeyException ex) {
+            // All ok -- expected result
+        }
+        try {
+            dict.minus("b");
+            fail("Expected NoSuchKeyException");
+        } catch (NoSuchKeyException ex) {
+            // All ok -- expected result
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package search;
+
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import misc.BaseTest;
+import search.models.Webpage;
+
+import java.net.URI;
+
+/**
+ * Helpers shared by the tests that build small sets of pages by hand.
+ */
+public abstract class BaseSearchTest extends BaseTest {
+    /**
+     * Returns the words of the given input, split on single spaces.
+     */
+    protected static IList<String> strToIList(String input) {
+        IList<String> output = new DoubleLinkedList<>();
+        for (String word : input.split(" ")) {
+            output.add(word);
+        }
+        return output;
+    }
+
+    /**
+     * Returns a page at "http://example.com/<name>.html" with no links, whose
+     * words are those of the given text, split on single spaces.
+     */
+    protected static Webpage makePage(String name, String text) {
+        return new Webpage(
+                URI.create("http://example.com/" + name + ".html"),
+                new DoubleLinkedList<>(),
+                strToIList(text),
+                name + " title",
+                name + " blurb");
+    }
+}
@@ -0,0 +1,100 @@
+package search;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import datastructures.concrete.ChainedHashSet;
+import datastructures.interfaces.ISet;
+import org.junit.Test;
+import search.analyzers.Bm25Scorer;
+import search.analyzers.PositionalIndex;
+import search.analyzers.Scorer;
+import search.analyzers.TermDictionary;
+import search.analyzers.TfIdfAnalyzer;
+import search.models.Webpage;
+
+import java.net.URI;
+
+public class TestBm25Scorer extends BaseSearchTest {
+    public static final double DELTA = 0.000001;
+
+    private URI uri(String name) {
+        return URI.create("http://example.com/" + name + ".html");
+    }
+
+    private Bm25Scorer makeExampleScorer(double k1, double b) {
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        pages.add(makePage("a", "the mouse played with the cat"));
+        pages.add(makePage("b", "the quick brown fox jumped over the lazy dog"));
+        pages.add(makePage("c", "dog 1 and dog 2 ate the hot dog"));
+        TermDictionary terms = new TfIdfAnalyzer(pages).getTermDictionary();
+        return new Bm25Scorer(new PositionalIndex(pages, terms), terms, k1, b);
+    }
+
+    private double idf(int numPages, int documentFrequency) {
+        return Math.log(1.0 + (numPages - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+
+    @Test(timeout=SECOND)
+    public void testSpecificScores() {
+        Bm25Scorer scorer = this.makeExampleScorer(1.2, 0.75);
+        Scorer.PreparedQuery query = scorer.prepare(strToIList("dog unicorn"));
+
+        // The pages have 6, 9 and 9 words, so the average is 8
+        double idf = this.idf(3, 2);
+        double normB = 1.2 * (1 - 0.75 + 0.75 * 9 / 8.0);
+        double normC = normB;
+        assertEquals(0.0, query.score(this.uri("a")), DELTA);
+        assertEquals(idf * 1 * 2.2 / (1 + normB), query.score(this.uri("b")), DELTA);
+        assertEquals(idf * 3 * 2.2 / (3 + normC), query.score(this.uri("c")), DELTA);
+        assertEquals(idf * 2.2, query.getMaxScore(), DELTA);
+
+        // Words repeated in the query count once per repetition
+        Scorer.PreparedQuery doubled = scorer.prepare(strToIList("dog dog"));
+        assertEquals(2 * query.score(this.uri("c")), doubled.score(this.uri("c")), DELTA);
+    }
+
+    @Test(timeout=SECOND)
+    public void testParametersChangeLengthPenalty() {
+        // With b = 0, page length doesn't matter at all
+        Scorer.PreparedQuery query = this.makeExampleScorer(1.2, 0.0).prepare(strToIList("the"));
+        double idf = this.idf(3, 3);
+        assertEquals(idf * 2 * 2.2 / (2 + 1.2), query.score(this.uri("a")), DELTA);
+        assertEquals(idf * 2 * 2.2 / (2 + 1.2), query.score(this.uri("b")), DELTA);
+
+        // With k1 = 0, only whether a page contains a word matters
+        query = this.makeExampleScorer(0.0, 0.75).prepare(strToIList("the dog"));
+        assertEquals(this.idf(3, 3) + this.idf(3, 2), query.score(this.uri("c")), DELTA);
+    }
+
+    @Test(timeout=SECOND)
+    public void testScoresNeverExceedMax() {
+        Bm25Scorer scorer = this.makeExampleScorer(1.2, 0.75);
+        String[] queries = {"dog", "the the cat", "dog hot 1 2", "unicorn"};
+        for (String text : queries) {
+            Scorer.PreparedQuery query = scorer.prepare(strToIList(text));
+            for (String name : new String[] {"a", "b", "c"}) {
+                double score = query.score(this.uri(name));
+                assertTrue(score >= 0.0);
+                assertTrue(score <= query.getMaxScore());
+            }
+        }
+        assertEquals(0.0, scorer.prepare(strToIList("unicorn")).getMaxScore(), DELTA);
+    }
+
+    @Test(timeout=SECOND)
+    public void testRejectsBadParameters() {
+        try {
+            this.makeExampleScorer(-1.0, 0.75);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // All ok -- expected result
+        }
+        try {
+            this.makeExampleScorer(1.2, 1.5);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // All ok -- expected result
+        }
+    }
+}
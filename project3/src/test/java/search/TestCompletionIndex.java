@@ -0,0 +1,237 @@
+package search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import misc.BaseTest;
+import org.junit.Test;
+import search.analyzers.CompletionIndex;
+import search.analyzers.TermDictionary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class TestCompletionIndex extends BaseTest {
+    private IList<String> strToIList(String input) {
+        IList<String> output = new DoubleLinkedList<>();
+        if (input.isEmpty()) {
+            return output;
+        }
+        for (String word : input.split(" ")) {
+            output.add(word);
+        }
+        return output;
+    }
+
+    private void assertListMatches(String expected, IList<String> actual) {
+        IList<String> expectedList = this.strToIList(expected);
+        assertEquals(expectedList.size(), actual.size());
+        for (int i = 0; i < expectedList.size(); i++) {
+            assertEquals(expectedList.get(i), actual.get(i));
+        }
+    }
+
+    private CompletionIndex makeIndex(String words, int[] weightsInOrder, int maxResults) {
+        IList<String> vocabulary = this.strToIList(words);
+        TermDictionary terms = new TermDictionary(vocabulary);
+        int[] weights = new int[terms.size()];
+        for (int i = 0; i < vocabulary.size(); i++) {
+            weights[terms.getId(vocabulary.get(i))] = weightsInOrder[i];
+        }
+        return new CompletionIndex(terms, weights, maxResults);
+    }
+
+    private int[] ids(TermDictionary terms, String words) {
+        String[] split = words.split(" ");
+        int[] ids = new int[split.length];
+        for (int i = 0; i < split.length; i++) {
+            ids[i] = terms.getId(split[i]);
+        }
+        return ids;
+    }
+
+    @Test(timeout=SECOND)
+    public void testBasicCompletions() {
+        CompletionIndex index = this.makeIndex(
+                "car cart carbon cat dog do", new int[] {5, 2, 9, 1, 4, 4}, 3);
+
+        this.assertListMatches("carbon car cart", index.complete("ca", 3));
+        this.assertListMatches("carbon car", index.complete("car", 2));
+        this.assertListMatches("cart", index.complete("cart", 3));
+        this.assertListMatches("", index.complete("carts", 3));
+        this.assertListMatches("", index.complete("x", 3));
+        this.assertListMatches("", index.complete("c", 0));
+
+        // Ties go to the alphabetically first word
+        this.assertListMatches("do dog", index.complete("d", 3));
+        this.assertListMatches("carbon car do", index.complete("", 3));
+        assertEquals(6, index.size());
+    }
+
+    @Test(timeout=SECOND)
+    public void testSkipsUnweightedWords() {
+        CompletionIndex index = this.makeIndex("apple apricot avocado", new int[] {0, 3, 1}, 5);
+        this.assertListMatches("apricot", index.complete("ap", 5));
+        this.assertListMatches("apricot avocado", index.complete("a", 5));
+        assertEquals(2, index.size());
+    }
+
+    @Test(timeout=SECOND)
+    public void testEmptyIndex() {
+        CompletionIndex index = this.makeIndex("apple", new int[] {0}, 5);
+        this.assertListMatches("", index.complete("", 5));
+        this.assertListMatches("", index.complete("a", 5));
+    }
+
+    @Test(timeout=SECOND)
+    public void testRejectsBadLimits() {
+        CompletionIndex index = this.makeIndex("a b c", new int[] {1, 1, 1}, 2);
+        try {
+            index.complete("a", 3);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // All ok -- expected result
+        }
+        try {
+            index.complete("a", -1);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // All ok -- expected result
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testUpdates() {
+        IList<String> vocabulary = this.strToIList("car cart carbon");
+        TermDictionary terms = new TermDictionary(vocabulary);
+        int[] weights = new int[10];
+        weights[terms.getId("car")] = 5;
+        weights[terms.getId("cart")] = 2;
+        weights[terms.getId("carbon")] = 9;
+        CompletionIndex index = new CompletionIndex(terms, weights, 3);
+
+        terms = terms.withTerms(this.strToIList("cat ca"));
+        weights[terms.getId("cat")] = 7;
+        weights[terms.getId("ca")] = 1;
+        weights[terms.getId("carbon")] = 0;
+        weights[terms.getId("cart")] = 6;
+        CompletionIndex updated = index.update(
+                terms, this.ids(terms, "cat ca carbon cart"), id -> weights[id]);
+
+        this.assertListMatches("cat cart car", updated.complete("c", 3));
+        this.assertListMatches("cart car", updated.complete("car", 3));
+        this.assertListMatches("", updated.complete("carb", 3));
+        assertEquals(4, updated.size());
+
+        // The old index is unchanged
+        this.assertListMatches("carbon car cart", index.complete("c", 3));
+        assertEquals(3, index.size());
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testUpdatesMatchRebuilding() {
+        Random rand = new Random(374);
+        IList<String> vocabulary = new DoubleLinkedList<>();
+        vocabulary.add("a");
+        TermDictionary terms = new TermDictionary(vocabulary);
+        int[] weights = new int[3000];
+        weights[0] = 1;
+        CompletionIndex index = new CompletionIndex(terms, weights, 4);
+
+        // Words come and go, and change weights, including long words that
+        // differ only near their ends
+        for (int update = 0; update < 300; update++) {
+            IList<String> changed = new DoubleLinkedList<>();
+            for (int i = 0; i < 1 + rand.nextInt(10); i++) {
+                StringBuilder word = new StringBuilder();
+                int length = rand.nextInt(4) == 0 ? 20 + rand.nextInt(3) : 1 + rand.nextInt(5);
+                for (int j = 0; j < length; j++) {
+                    word.append(j < 18 && length >= 20 ? 'b' : (char) ('a' + rand.nextInt(3)));
+                }
+                changed.add(word.toString());
+            }
+            terms = terms.withTerms(changed);
+            int[] changedIds = new int[changed.size()];
+            int numChanged = 0;
+            for (String word : changed) {
+                changedIds[numChanged] = terms.getId(word);
+                weights[changedIds[numChanged]] = rand.nextInt(4);
+                numChanged++;
+            }
+            index = index.update(terms, changedIds, id -> weights[id]);
+        }
+        CompletionIndex rebuilt = new CompletionIndex(terms, weights, 4);
+
+        assertEquals(rebuilt.size(), index.size());
+        for (int trial = 0; trial < 500; trial++) {
+            StringBuilder prefix = new StringBuilder();
+            int length = rand.nextInt(4);
+            for (int i = 0; i < length; i++) {
+                prefix.append((char) ('a' + rand.nextInt(3)));
+            }
+            if (rand.nextBoolean()) {
+                prefix.insert(0, "bbbbbbbbbbbbbbbbbb".substring(rand.nextInt(18)));
+            }
+            IList<String> expected = rebuilt.complete(prefix.toString(), 4);
+            IList<String> actual = index.complete(prefix.toString(), 4);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i), actual.get(i));
+            }
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testMatchesNaiveScan() {
+        Random rand = new Random(373);
+        List<String> words = new ArrayList<>();
+        StringBuilder vocabulary = new StringBuilder();
+        while (words.size() < 2000) {
+            StringBuilder word = new StringBuilder();
+            int length = 1 + rand.nextInt(6);
+            for (int i = 0; i < length; i++) {
+                word.append((char) ('a' + rand.nextInt(4)));
+            }
+            if (!words.contains(word.toString())) {
+                words.add(word.toString());
+                vocabulary.append(vocabulary.length() == 0 ? "" : " ").append(word);
+            }
+        }
+        int[] weights = new int[words.size()];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = rand.nextInt(20);
+        }
+        CompletionIndex index = this.makeIndex(vocabulary.toString(), weights, 7);
+
+        for (int trial = 0; trial < 300; trial++) {
+            StringBuilder prefix = new StringBuilder();
+            int length = rand.nextInt(5);
+            for (int i = 0; i < length; i++) {
+                prefix.append((char) ('a' + rand.nextInt(5)));
+            }
+
+            Integer[] matches = new Integer[words.size()];
+            int numMatches = 0;
+            for (int i = 0; i < words.size(); i++) {
+                if (weights[i] > 0 && words.get(i).startsWith(prefix.toString())) {
+                    matches[numMatches] = i;
+                    numMatches++;
+                }
+            }
+            Arrays.sort(matches, 0, numMatches, (a, b) -> weights[a] != weights[b]
+                    ? Integer.compare(weights[b], weights[a])
+                    : words.get(a).compareTo(words.get(b)));
+
+            int limit = rand.nextInt(8);
+            IList<String> actual = index.complete(prefix.toString(), limit);
+            assertEquals(Math.min(limit, numMatches), actual.size());
+            for (int i = 0; i < actual.size(); i++) {
+                assertEquals(words.get(matches[i]), actual.get(i));
+            }
+        }
+    }
+}
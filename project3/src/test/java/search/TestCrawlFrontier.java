@@ -0,0 +1,251 @@
+package search;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import misc.BaseTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import search.scraper.CrawlFrontier;
+import search.scraper.CrawlScheduler.PendingUri;
+import search.scraper.UrlSeenSet;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+public class TestCrawlFrontier extends BaseTest {
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("frontier");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private URI uri(int page) {
+        return URI.create("http://example.com/page" + page + ".html");
+    }
+
+    private CrawlFrontier open(UrlSeenSet seen) throws IOException {
+        return new CrawlFrontier(this.directory.resolve("frontier"), seen);
+    }
+
+    @Test(timeout=SECOND)
+    public void testHandsOutClosestFirst() throws IOException {
+        CrawlFrontier frontier = this.open(new UrlSeenSet());
+        frontier.add(this.uri(2), 2);
+        frontier.add(this.uri(0), 0);
+        frontier.add(this.uri(1), 1);
+        frontier.add(this.uri(3), 0);
+
+        assertEquals(this.uri(0), frontier.poll().uri);
+        assertEquals(this.uri(3), frontier.poll().uri);
+        PendingUri next = frontier.poll();
+        assertEquals(this.uri(1), next.uri);
+        assertEquals(1, next.distance);
+        assertEquals(this.uri(2), frontier.poll().uri);
+        assertNull(frontier.poll());
+        frontier.close();
+    }
+
+    @Test(timeout=SECOND)
+    public void testResumesUnfinishedPages() throws IOException {
+        CrawlFrontier frontier = this.open(new UrlSeenSet());
+        assertFalse(frontier.isResumed());
+        for (int i = 0; i < 5; i++) {
+            frontier.add(this.uri(i), 0);
+        }
+        PendingUri first = frontier.poll();
+        PendingUri second = frontier.poll();
+        PendingUri third = frontier.poll();
+        frontier.done(first);
+        frontier.done(third);
+        frontier.close();
+
+        // The second page was never done, so we start again from there,
+        // skipping the third page because it was saved
+        Path saved = this.directory.resolve("list.fp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(saved))) {
+            out.writeLong(UrlSeenSet.fingerprint(third.uri));
+        }
+        UrlSeenSet seen = new UrlSeenSet();
+        frontier = this.open(seen);
+        assertTrue(frontier.isResumed());
+        frontier.markAllSaved(saved);
+        assertEquals(second.uri, frontier.poll().uri);
+        assertEquals(this.uri(3), frontier.poll().uri);
+        assertEquals(this.uri(4), frontier.poll().uri);
+        assertNull(frontier.poll());
+
+        // Every page ever added counts as seen
+        for (int i = 0; i < 5; i++) {
+            assertTrue(seen.contains(this.uri(i)));
+        }
+        frontier.close();
+    }
+
+    @Test(timeout=SECOND)
+    public void testRefusedPagesAreQueuedAgain() throws IOException {
+        CrawlFrontier frontier = this.open(new UrlSeenSet());
+        for (int i = 0; i < 6; i++) {
+            frontier.add(this.uri(i), 0);
+        }
+        List<PendingUri> accepted = new ArrayList<>();
+        Predicate<PendingUri> acceptOdd = pending -> {
+            if (pending.uri.getPath().matches(".*[13579]\\.html")) {
+                accepted.add(pending);
+                return true;
+            }
+            return false;
+        };
+
+        // We stop once we've refused as many pages as we may
+        assertEquals(2, frontier.poll(10, 2, acceptOdd));
+        assertEquals(1, accepted.size());
+        assertEquals(this.uri(1), accepted.get(0).uri);
+
+        // Refused pages are offered again after every other page, but never
+        // twice in one call
+        assertEquals(3, frontier.poll(10, 10, acceptOdd));
+        assertEquals(3, accepted.size());
+        for (PendingUri pending : accepted) {
+            frontier.done(pending);
+        }
+        for (int i : new int[] {4, 0, 2}) {
+            PendingUri pending = frontier.poll();
+            assertEquals(this.uri(i), pending.uri);
+            frontier.done(pending);
+        }
+        assertNull(frontier.poll());
+        frontier.close();
+
+        // Nothing is left over once every page is done
+        frontier = this.open(new UrlSeenSet());
+        assertNull(frontier.poll());
+        frontier.close();
+    }
+
+    @Test(timeout=SECOND)
+    public void testDoneTwiceHasNoEffect() throws IOException {
+        CrawlFrontier frontier = this.open(new UrlSeenSet());
+        frontier.add(this.uri(0), 0);
+        frontier.add(this.uri(1), 0);
+        PendingUri first = frontier.poll();
+        frontier.done(first);
+        frontier.done(first);
+        PendingUri second = frontier.poll();
+        frontier.close();
+
+        // The second page is still unfinished, so it's handed out again
+        frontier = this.open(new UrlSeenSet());
+        assertEquals(second.uri, frontier.poll().uri);
+        assertNull(frontier.poll());
+        frontier.close();
+    }
+
+    @Test(timeout=SECOND)
+    public void testKeepsLinksOfSavedPagesAfterCrash() throws IOException {
+        UrlSeenSet seen = new UrlSeenSet();
+        CrawlFrontier frontier = this.open(seen);
+        frontier.add(this.uri(0), 0);
+        PendingUri parent = frontier.poll();
+        frontier.add(this.uri(1), 1);
+        frontier.add(this.uri(2), 1);
+        frontier.flush();
+
+        // The parent page is saved, then we crash long before any checkpoint
+        Path saved = this.directory.resolve("list.fp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(saved))) {
+            out.writeLong(UrlSeenSet.fingerprint(parent.uri));
+        }
+
+        seen = new UrlSeenSet();
+        frontier = this.open(seen);
+        frontier.markAllSaved(saved);
+        assertEquals(this.uri(1), frontier.poll().uri);
+        assertEquals(this.uri(2), frontier.poll().uri);
+        assertNull(frontier.poll());
+        assertTrue(seen.contains(this.uri(2)));
+        frontier.close();
+    }
+
+    @Test(timeout=SECOND)
+    public void testRecoversFromCrash() throws IOException {
+        CrawlFrontier frontier = this.open(new UrlSeenSet());
+        for (int i = 0; i < CrawlFrontier.CHECKPOINT_INTERVAL + 10; i++) {
+            frontier.add(this.uri(i), 1);
+        }
+        frontier.add(this.uri(-1), 1);
+        for (int i = 0; i < CrawlFrontier.CHECKPOINT_INTERVAL; i++) {
+            frontier.done(frontier.poll());
+        }
+        PendingUri lost = frontier.poll();
+
+        // Pages added since the last checkpoint may be lost, since the pages
+        // they were found on are fetched again anyway
+        frontier.add(this.uri(-3), 1);
+
+        // We crash without closing, part way through writing a record
+        Path segment = this.directory.resolve("frontier").resolve("distance-1.seg");
+        try (OutputStream out = Files.newOutputStream(segment, StandardOpenOption.APPEND)) {
+            out.write(new byte[] {0, 0, 0, 50, 'h', 't'});
+        }
+
+        frontier = this.open(new UrlSeenSet());
+        assertEquals(lost.uri, frontier.poll().uri);
+        for (int i = CrawlFrontier.CHECKPOINT_INTERVAL + 1; i < CrawlFrontier.CHECKPOINT_INTERVAL + 10; i++) {
+            assertEquals(this.uri(i), frontier.poll().uri);
+        }
+        assertEquals(this.uri(-1), frontier.poll().uri);
+        assertNull(frontier.poll());
+
+        // The frontier is still usable after dropping the broken record
+        frontier.add(this.uri(-2), 1);
+        assertEquals(this.uri(-2), frontier.poll().uri);
+        frontier.close();
+    }
+
+    @Test(timeout=SECOND)
+    public void testOnlyAddsPagesQueuedSinceSeenWasSynced() throws IOException {
+        CrawlFrontier frontier = this.open(new UrlSeenSet());
+        frontier.add(this.uri(0), 0);
+        frontier.add(this.uri(1), 1);
+        frontier.flush();
+        frontier.markSeenSynced();
+        frontier.add(this.uri(2), 1);
+        frontier.add(this.uri(3), 2);
+        frontier.close();
+
+        UrlSeenSet seen = new UrlSeenSet();
+        frontier = this.open(seen);
+        assertFalse(seen.contains(this.uri(0)));
+        assertFalse(seen.contains(this.uri(1)));
+        assertTrue(seen.contains(this.uri(2)));
+        assertTrue(seen.contains(this.uri(3)));
+
+        // Every page is still handed out
+        for (int i = 0; i < 4; i++) {
+            assertEquals(this.uri(i), frontier.poll().uri);
+        }
+        assertNull(frontier.poll());
+        frontier.close();
+    }
+}
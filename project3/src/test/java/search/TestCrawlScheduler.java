@@ -0,0 +1,192 @@
+package search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import misc.BaseTest;
+import org.junit.Test;
+import search.scraper.CrawlScheduler;
+import search.scraper.CrawlScheduler.PendingUri;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestCrawlScheduler extends BaseTest {
+    private URI uri(String host, String path) {
+        return URI.create("http://" + host + "/" + path);
+    }
+
+    @Test(timeout=SECOND)
+    public void testOrdersEachHostByDistance() throws Exception {
+        CrawlScheduler scheduler = new CrawlScheduler();
+        assertTrue(scheduler.add(this.uri("a.com", "far"), 2));
+        assertTrue(scheduler.add(this.uri("a.com", "near"), 0));
+        assertFalse(scheduler.add(this.uri("a.com", "far"), 1));
+        scheduler.markSeen(this.uri("a.com", "done"));
+        assertFalse(scheduler.add(this.uri("a.com", "done"), 0));
+
+        PendingUri first = scheduler.take();
+        assertEquals(this.uri("a.com", "near"), first.uri);
+        scheduler.finish(first, 0);
+        PendingUri second = scheduler.take();
+        assertEquals(this.uri("a.com", "far"), second.uri);
+        assertEquals(2, second.distance);
+        scheduler.finish(second, 0);
+        scheduler.done(second);
+
+        // Nothing pending and nothing in flight, so we're done
+        assertNull(scheduler.take());
+    }
+
+    @Test(timeout=SECOND)
+    public void testWaitsForHostDelay() throws Exception {
+        CrawlScheduler scheduler = new CrawlScheduler();
+        scheduler.add(this.uri("a.com", "1"), 0);
+        scheduler.add(this.uri("a.com", "2"), 0);
+        scheduler.add(this.uri("b.com", "1"), 0);
+
+        PendingUri first = scheduler.take();
+        PendingUri second = scheduler.take();
+        assertFalse(first.uri.getHost().equals(second.uri.getHost()));
+
+        // Whichever host finishes, the other one's page must not be handed
+        // out before the delay is up
+        long start = System.currentTimeMillis();
+        PendingUri fromA = first.uri.getHost().equals("a.com") ? first : second;
+        scheduler.finish(fromA, 200);
+        scheduler.finish(fromA == first ? second : first, 0);
+        PendingUri third = scheduler.take();
+        assertEquals(this.uri("a.com", "2"), third.uri);
+        assertTrue(System.currentTimeMillis() - start >= 190);
+        scheduler.finish(third, 0);
+        assertNull(scheduler.take());
+    }
+
+    @Test(timeout=SECOND)
+    public void testBusyHostDoesNotStarveOthers() throws Exception {
+        CrawlScheduler scheduler = new CrawlScheduler();
+        int numPages = CrawlScheduler.MAX_PENDING_PER_HOST + 10;
+        for (int i = 0; i < numPages; i++) {
+            scheduler.add(this.uri("a.com", "" + i), 0);
+        }
+        scheduler.add(this.uri("b.com", "0"), 0);
+
+        // b.com's page was queued behind every one of a.com's, but a.com
+        // can't take up all the room in memory, so b.com is not kept waiting
+        // until a.com is done
+        PendingUri first = scheduler.take();
+        assertEquals("a.com", first.uri.getHost());
+        PendingUri second = scheduler.take();
+        assertEquals(this.uri("b.com", "0"), second.uri);
+        scheduler.finish(first, 0);
+        scheduler.finish(second, 0);
+
+        // Every page of a.com's is still handed out in the end
+        int numTaken = 1;
+        PendingUri pending = scheduler.take();
+        while (pending != null) {
+            assertEquals("a.com", pending.uri.getHost());
+            numTaken++;
+            scheduler.finish(pending, 0);
+            pending = scheduler.take();
+        }
+        assertEquals(numPages, numTaken);
+    }
+
+    @Test(timeout=SECOND)
+    public void testStopWakesWaitingFetchers() throws Exception {
+        CrawlScheduler scheduler = new CrawlScheduler();
+        scheduler.add(this.uri("a.com", "1"), 0);
+        PendingUri busy = scheduler.take();
+
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            // The only host is busy, so this waits until we stop
+            Future<PendingUri> waiting = pool.submit(scheduler::take);
+            Thread.sleep(50);
+            assertFalse(waiting.isDone());
+            scheduler.stop();
+            assertNull(waiting.get());
+            scheduler.finish(busy, 0);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testConcurrentFetchersArePolite() throws Exception {
+        final int numHosts = 6;
+        final int pagesPerHost = 5;
+        final long delay = 40;
+
+        CrawlScheduler scheduler = new CrawlScheduler();
+        for (int host = 0; host < numHosts; host++) {
+            scheduler.add(this.uri("host" + host + ".com", "0"), 0);
+        }
+
+        ConcurrentHashMap<String, Long> lastFinish = new ConcurrentHashMap<>();
+        ConcurrentHashMap<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+        AtomicInteger maxInFlight = new AtomicInteger(0);
+        AtomicInteger totalInFlight = new AtomicInteger(0);
+        AtomicInteger numFetched = new AtomicInteger(0);
+        List<String> violations = new ArrayList<>();
+
+        ExecutorService pool = Executors.newFixedThreadPool(numHosts);
+        try {
+            List<Future<Void>> results = new ArrayList<>();
+            for (int i = 0; i < numHosts; i++) {
+                results.add(pool.submit(() -> {
+                    PendingUri pending = scheduler.take();
+                    while (pending != null) {
+                        String host = pending.uri.getHost();
+                        long now = System.currentTimeMillis();
+                        Long previous = lastFinish.get(host);
+                        if (previous != null && now - previous < delay) {
+                            synchronized (violations) {
+                                violations.add(host + " after " + (now - previous) + "ms");
+                            }
+                        }
+                        if (inFlight.computeIfAbsent(host, h -> new AtomicInteger()).incrementAndGet() > 1) {
+                            synchronized (violations) {
+                                violations.add(host + " fetched twice at once");
+                            }
+                        }
+                        maxInFlight.accumulateAndGet(totalInFlight.incrementAndGet(), Math::max);
+
+                        // Simulate a slow fetch, which finds the next page
+                        Thread.sleep(20);
+                        int page = Integer.parseInt(pending.uri.getPath().substring(1));
+                        if (page + 1 < pagesPerHost) {
+                            scheduler.add(this.uri(host, "" + (page + 1)), pending.distance + 1);
+                        }
+                        numFetched.incrementAndGet();
+
+                        totalInFlight.decrementAndGet();
+                        inFlight.get(host).decrementAndGet();
+                        lastFinish.put(host, System.currentTimeMillis());
+                        scheduler.finish(pending, delay);
+                        pending = scheduler.take();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(numHosts * pagesPerHost, numFetched.get());
+        assertTrue(violations.toString(), violations.isEmpty());
+        assertTrue(maxInFlight.get() > 1);
+    }
+}
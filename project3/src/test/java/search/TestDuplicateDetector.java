@@ -0,0 +1,126 @@
+package search;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import datastructures.concrete.ChainedHashSet;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import datastructures.interfaces.ISet;
+import misc.BaseTest;
+import org.junit.Test;
+import search.analyzers.DuplicateDetector;
+import search.models.Webpage;
+
+import java.net.URI;
+import java.util.Random;
+
+public class TestDuplicateDetector extends BaseTest {
+    private URI uri(String name) {
+        return URI.create("http://example.com/" + name);
+    }
+
+    private Webpage makePage(String name, IList<String> words, String... links) {
+        IList<URI> uris = new DoubleLinkedList<>();
+        for (String link : links) {
+            uris.add(this.uri(link));
+        }
+        return new Webpage(this.uri(name), uris, words, "title", "blurb");
+    }
+
+    private IList<String> makeWords(Random rand, int count) {
+        IList<String> words = new DoubleLinkedList<>();
+        for (int i = 0; i < count; i++) {
+            words.add("word" + rand.nextInt(5000));
+        }
+        return words;
+    }
+
+    private IList<String> copy(IList<String> words) {
+        IList<String> output = new DoubleLinkedList<>();
+        for (String word : words) {
+            output.add(word);
+        }
+        return output;
+    }
+
+    @Test(timeout=SECOND)
+    public void testCollapsesExactDuplicates() {
+        Random rand = new Random(1);
+        IList<String> words = this.makeWords(rand, 100);
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        pages.add(this.makePage("page.html?session=12", words));
+        pages.add(this.makePage("page.html", this.copy(words)));
+        pages.add(this.makePage("mirror/page.html", this.copy(words)));
+        pages.add(this.makePage("other.html", this.makeWords(rand, 100), "page.html?session=12", "other.html"));
+
+        DuplicateDetector detector = new DuplicateDetector(pages);
+        assertEquals(2, detector.getNumDuplicates());
+        assertEquals(this.uri("page.html"), detector.getCanonical(this.uri("page.html?session=12")));
+        assertEquals(this.uri("page.html"), detector.getCanonical(this.uri("mirror/page.html")));
+        assertEquals(this.uri("page.html"), detector.getCanonical(this.uri("page.html")));
+        assertFalse(detector.isDuplicate(this.uri("page.html")));
+        assertFalse(detector.isDuplicate(this.uri("other.html")));
+
+        // Only canonical pages are left, and links to duplicates now point at
+        // their canonical page
+        ISet<Webpage> collapsed = detector.collapse(pages);
+        assertEquals(2, collapsed.size());
+        for (Webpage page : collapsed) {
+            if (page.getUri().equals(this.uri("other.html"))) {
+                assertEquals(this.uri("page.html"), page.getLinks().get(0));
+                assertEquals(this.uri("other.html"), page.getLinks().get(1));
+            } else {
+                assertEquals(this.uri("page.html"), page.getUri());
+            }
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testCollapsesNearDuplicates() {
+        Random rand = new Random(2);
+        IList<String> words = this.makeWords(rand, 500);
+        IList<String> edited = this.copy(words);
+        edited.set(250, "changed");
+        edited.add("footer");
+
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        pages.add(this.makePage("a.html", words));
+        pages.add(this.makePage("b.html", edited));
+        pages.add(this.makePage("c.html", this.makeWords(rand, 500)));
+
+        DuplicateDetector detector = new DuplicateDetector(pages);
+        assertTrue(DuplicateDetector.computeDistance(
+                DuplicateDetector.computeSignature(words),
+                DuplicateDetector.computeSignature(edited)) <= DuplicateDetector.MAX_DISTANCE);
+        assertEquals(this.uri("a.html"), detector.getCanonical(this.uri("b.html")));
+        assertFalse(detector.isDuplicate(this.uri("c.html")));
+        assertEquals(1, detector.getNumDuplicates());
+    }
+
+    @Test(timeout=SECOND)
+    public void testShortPagesAreNeverDuplicates() {
+        IList<String> words = new DoubleLinkedList<>();
+        words.add("home");
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        pages.add(this.makePage("a.html", words));
+        pages.add(this.makePage("b.html", this.copy(words)));
+        pages.add(this.makePage("c.html", new DoubleLinkedList<>()));
+        pages.add(this.makePage("d.html", new DoubleLinkedList<>()));
+
+        DuplicateDetector detector = new DuplicateDetector(pages);
+        assertEquals(0, detector.getNumDuplicates());
+        assertEquals(4, detector.collapse(pages).size());
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testDistinctPagesStayDistinct() {
+        Random rand = new Random(3);
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        for (int i = 0; i < 20000; i++) {
+            pages.add(this.makePage("page" + i + ".html", this.makeWords(rand, 50)));
+        }
+        DuplicateDetector detector = new DuplicateDetector(pages);
+        assertEquals(0, detector.getNumDuplicates());
+    }
+}
@@ -0,0 +1,194 @@
+package search;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import misc.BaseTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import search.scraper.HttpRequester;
+import search.scraper.HttpRequester.FetchResult;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Makes requests to a stub HTTP server on this machine, which supports
+ * conditional requests and gzip like a real one would.
+ */
+public class TestHttpRequester extends BaseTest {
+    private static final String ETAG = "\"v1\"";
+    private static final String PAGE = "<html><body>Hello, world</body></html>";
+
+    private HttpServer server;
+    private Path directory;
+
+    // Every request the server got, as "path header: value" for the headers
+    // we care about, and the port of each connection it was sent over
+    private List<String> requests;
+    private Set<Integer> ports;
+    private boolean sentGzip;
+
+    @Before
+    public void setUp() throws IOException {
+        this.requests = Collections.synchronizedList(new ArrayList<>());
+        this.ports = Collections.synchronizedSet(new HashSet<>());
+        this.sentGzip = false;
+        this.directory = Files.createTempDirectory("requester");
+
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/", this::handle);
+        this.server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.server.stop(0);
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        this.ports.add(exchange.getRemoteAddress().getPort());
+        for (String header : new String[] {"If-None-Match", "Accept-Encoding"}) {
+            String value = exchange.getRequestHeaders().getFirst(header);
+            if (value != null) {
+                this.requests.add(path + " " + header + ": " + value);
+            }
+        }
+
+        if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+
+        byte[] body;
+        if (path.equals("/robots.txt")) {
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            body = "User-agent: *\nCrawl-delay: 0.7\nDisallow: /private\n".getBytes(StandardCharsets.UTF_8);
+        } else if (path.equals("/latin.html")) {
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=ISO-8859-1");
+            body = "<p>café</p>".getBytes(StandardCharsets.ISO_8859_1);
+        } else {
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+            body = PAGE.getBytes(StandardCharsets.UTF_8);
+        }
+        exchange.getResponseHeaders().set("ETag", ETAG);
+
+        String encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (encoding != null && encoding.contains("gzip")) {
+            this.sentGzip = true;
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = new GZIPOutputStream(exchange.getResponseBody())) {
+                out.write(body);
+            }
+        } else {
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://127.0.0.1:" + this.server.getAddress().getPort() + path);
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testStreamsCompressedBody() throws IOException {
+        Path output = this.directory.resolve("page.part");
+        try (HttpRequester requester = new HttpRequester(HttpRequester.DEFAULT_USER_AGENT, 500)) {
+            assertEquals(FetchResult.FETCHED, requester.fetch(this.uri("/page.html"), output));
+        }
+        assertEquals(PAGE, new String(Files.readAllBytes(output), StandardCharsets.UTF_8));
+        assertTrue(this.sentGzip);
+        String accepted = this.requests.get(this.requests.size() - 1);
+        assertTrue(accepted, accepted.startsWith("/page.html Accept-Encoding: "));
+        assertTrue(accepted, accepted.contains("gzip") && accepted.contains("deflate"));
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testConvertsToUtf8() throws IOException {
+        Path output = this.directory.resolve("latin.part");
+        try (HttpRequester requester = new HttpRequester(HttpRequester.DEFAULT_USER_AGENT, 500)) {
+            assertEquals(FetchResult.FETCHED, requester.fetch(this.uri("/latin.html"), output));
+        }
+        assertArrayEquals("<p>café</p>".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(output));
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testConditionalRequests() throws IOException {
+        Path cache = this.directory.resolve("cache");
+        Path output = this.directory.resolve("page.part");
+        try (HttpRequester requester = new HttpRequester(HttpRequester.DEFAULT_USER_AGENT, 500, cache)) {
+            assertEquals(FetchResult.FETCHED, requester.fetch(this.uri("/page.html"), output));
+            Files.delete(output);
+            assertEquals(FetchResult.NOT_MODIFIED, requester.fetch(this.uri("/page.html"), output));
+            assertTrue(!output.toFile().exists());
+        }
+        assertTrue(this.requests.contains("/page.html If-None-Match: " + ETAG));
+
+        // A new requester using the same cache knows the page, and reuses
+        // its copy of robots.txt once the server says it hasn't changed
+        this.requests.clear();
+        try (HttpRequester requester = new HttpRequester(HttpRequester.DEFAULT_USER_AGENT, 500, cache)) {
+            assertEquals(FetchResult.NOT_MODIFIED, requester.fetch(this.uri("/page.html"), output));
+            assertEquals(700L, requester.getDelay(this.uri("/page.html")));
+        }
+        assertTrue(this.requests.contains("/robots.txt If-None-Match: " + ETAG));
+
+        // Without a cache, every request is unconditional
+        try (HttpRequester requester = new HttpRequester(HttpRequester.DEFAULT_USER_AGENT, 500)) {
+            assertEquals(FetchResult.FETCHED, requester.fetch(this.uri("/page.html"), output));
+        }
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testSkipsRuledOutPages() throws IOException {
+        Path output = this.directory.resolve("page.part");
+        try (HttpRequester requester = new HttpRequester(HttpRequester.DEFAULT_USER_AGENT, 500)) {
+            assertEquals(FetchResult.SKIPPED, requester.fetch(this.uri("/private/page.html"), output));
+            assertEquals(FetchResult.SKIPPED, requester.fetch(this.uri("/paper.PDF"), output));
+            assertEquals(FetchResult.SKIPPED, requester.fetch(this.uri("/archive.tar.gz"), output));
+            assertEquals(FetchResult.FETCHED, requester.fetch(this.uri("/public.pdf.html"), output));
+        }
+
+        // Only robots.txt and the last page were ever requested
+        for (String request : this.requests) {
+            assertTrue(request, request.startsWith("/robots.txt ") || request.startsWith("/public.pdf.html "));
+        }
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testReusesConnection() throws IOException {
+        try (HttpRequester requester = new HttpRequester(HttpRequester.DEFAULT_USER_AGENT, 500)) {
+            for (int i = 0; i < 5; i++) {
+                Path output = this.directory.resolve("page" + i + ".part");
+                assertEquals(FetchResult.FETCHED, requester.fetch(this.uri("/page" + i + ".html"), output));
+            }
+        }
+
+        // robots.txt and all five pages came over a single connection
+        assertEquals(1, this.ports.size());
+    }
+}
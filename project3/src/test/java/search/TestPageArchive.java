@@ -0,0 +1,224 @@
+package search;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import datastructures.interfaces.IList;
+import datastructures.interfaces.ISet;
+import misc.BaseTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import search.misc.PageArchive;
+import search.misc.PageCache;
+import search.models.Webpage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class TestPageArchive extends BaseTest {
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("archive");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private URI uri(int page) {
+        return URI.create("http://example.com/page" + page + ".html");
+    }
+
+    private byte[] html(int page) {
+        return ("<html><body>Page " + page + ", café</body></html>").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test(timeout=SECOND)
+    public void testReadsBackRecords() throws IOException {
+        for (boolean isCompressed : new boolean[] {false, true}) {
+            Path path = this.directory.resolve("pages" + isCompressed + ".warc");
+            try (PageArchive archive = new PageArchive(path, isCompressed)) {
+                for (int i = 0; i < 100; i++) {
+                    archive.append(this.uri(i), this.html(i));
+                }
+                assertEquals(100, archive.size());
+                assertArrayEquals(this.html(42), archive.read(this.uri(42)));
+                assertNull(archive.read(this.uri(100)));
+                assertFalse(archive.contains(this.uri(100)));
+            }
+
+            // Reopening the archive reads its index, not the records
+            try (PageArchive archive = new PageArchive(path)) {
+                IList<URI> uris = archive.getUris();
+                assertEquals(100, uris.size());
+                for (int i = 0; i < 100; i++) {
+                    assertEquals(this.uri(i), uris.get(i));
+                    assertArrayEquals(this.html(i), archive.read(this.uri(i)));
+                }
+            }
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testLatestRecordWins() throws IOException {
+        Path path = this.directory.resolve("pages.warc");
+        try (PageArchive archive = new PageArchive(path, false)) {
+            archive.append(this.uri(1), this.html(1));
+            archive.append(this.uri(2), this.html(2));
+        }
+        try (PageArchive archive = new PageArchive(path, true)) {
+            archive.append(this.uri(1), this.html(3));
+        }
+        try (PageArchive archive = new PageArchive(path)) {
+            assertEquals(2, archive.size());
+            assertEquals(this.uri(2), archive.getUris().get(0));
+            assertEquals(this.uri(1), archive.getUris().get(1));
+            assertArrayEquals(this.html(3), archive.read(this.uri(1)));
+            try {
+                archive.append(this.uri(4), this.html(4));
+                fail("Expected IllegalStateException");
+            } catch (IllegalStateException ex) {
+                // All ok -- expected result
+            }
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testRecoversFromCrash() throws IOException {
+        Path path = this.directory.resolve("pages.warc");
+        try (PageArchive archive = new PageArchive(path, false)) {
+            archive.append(this.uri(1), this.html(1));
+            archive.append(this.uri(2), this.html(2));
+        }
+
+        // We crash part way through writing a record, then part way through
+        // writing its index entry
+        try (OutputStream out = Files.newOutputStream(path, StandardOpenOption.APPEND)) {
+            out.write("WARC/1.0\r\nWARC-Target-URI: http://exa".getBytes(StandardCharsets.UTF_8));
+        }
+        Path index = PageArchive.getIndexPath(path);
+        long indexLength = Files.size(index);
+        try (OutputStream out = Files.newOutputStream(index, StandardOpenOption.APPEND)) {
+            out.write(new byte[] {0, 0, 0, 0, 0, 0});
+        }
+
+        try (PageArchive archive = new PageArchive(path, false)) {
+            assertEquals(2, archive.size());
+            archive.append(this.uri(3), this.html(3));
+            assertArrayEquals(this.html(3), archive.read(this.uri(3)));
+        }
+        try (PageArchive archive = new PageArchive(path)) {
+            assertEquals(3, archive.size());
+            assertArrayEquals(this.html(2), archive.read(this.uri(2)));
+            assertArrayEquals(this.html(3), archive.read(this.uri(3)));
+        }
+        assertTrue(Files.size(index) > indexLength);
+
+        // A broken record is reported, not silently misread
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(0);
+            file.write('X');
+        }
+        try (PageArchive archive = new PageArchive(path)) {
+            archive.read(this.uri(1));
+            fail("Expected IOException");
+        } catch (IOException ex) {
+            // All ok -- expected result
+        }
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testPacksDataFolder() throws IOException {
+        Path folder = this.directory.resolve("data");
+        Files.createDirectories(folder.resolve("example.com"));
+        for (int i = 0; i < 3; i++) {
+            String page = "<!-- METADATA\nuri: " + this.uri(i) + "\nlocal: false\n-->\n"
+                    + "<html><head><title>Page " + i + "</title></head><body><p>Hello from page " + i
+                    + "</p><a href=\"page" + (i + 1) + ".html\">next</a></body></html>";
+            Files.write(folder.resolve("example.com").resolve(i + ".html"), page.getBytes(StandardCharsets.UTF_8));
+        }
+        Path cacheFile = folder.resolve("example.com").resolve("0.cache");
+        Files.write(cacheFile, new byte[] {1});
+
+        // Caches are only deleted if we ask for it
+        assertEquals(3, PackCorpus.pack(folder, true, true, false));
+        try (Stream<Path> files = Files.list(folder.resolve("example.com"))) {
+            assertEquals(1L, files.count());
+        }
+        assertTrue(Files.exists(cacheFile));
+        try (PageArchive archive = new PageArchive(folder.resolve("pages.warc"))) {
+            String html = new String(archive.read(this.uri(1)), StandardCharsets.UTF_8);
+            assertTrue(html, html.startsWith("<html><head><title>Page 1</title>"));
+        }
+
+        // The engine loads the same pages from the archive as it did from
+        // the files
+        ISet<Webpage> pages = SearchEngine.collectWebpages(folder);
+        assertEquals(3, pages.size());
+        for (Webpage page : pages) {
+            int i = Integer.parseInt(page.getUri().getPath().replaceAll("[^0-9]", ""));
+            assertEquals(this.uri(i), page.getUri());
+            assertTrue(page.getWords().contains("hello"));
+            assertEquals(this.uri(i + 1), page.getLinks().get(0));
+        }
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testCachesParsedPages() throws IOException {
+        Path path = this.directory.resolve("pages.warc");
+        Path cachePath = PageCache.getCachePath(path);
+        try (PageArchive archive = new PageArchive(path, false)) {
+            archive.append(this.uri(1), this.html(1));
+            archive.append(this.uri(2), this.html(2));
+        }
+        try (PageArchive archive = new PageArchive(path); PageCache cache = new PageCache(cachePath)) {
+            assertTrue(cache.load(archive, this.uri(1)).getWords().contains("1"));
+            assertTrue(cache.load(archive, this.uri(2)).getWords().contains("2"));
+            assertNull(cache.load(archive, this.uri(3)));
+        }
+
+        // We change page 1's HTML behind the cache's back, without changing
+        // its length, so the cached copy is still used. We also crash part
+        // way through writing another entry.
+        byte[] archived = Files.readAllBytes(path);
+        String text = new String(archived, StandardCharsets.UTF_8).replace("Page 1,", "Xxxx 1,");
+        Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+        long cacheLength = Files.size(cachePath);
+        try (OutputStream out = Files.newOutputStream(cachePath, StandardOpenOption.APPEND)) {
+            out.write(new byte[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+        }
+        try (PageArchive archive = new PageArchive(path); PageCache cache = new PageCache(cachePath)) {
+            Webpage page = cache.load(archive, this.uri(1));
+            assertEquals(this.uri(1), page.getUri());
+            assertTrue(page.getWords().contains("page"));
+            assertFalse(page.getWords().contains("xxxx"));
+        }
+        assertEquals(cacheLength, Files.size(cachePath));
+
+        // Saving the page again means parsing it again
+        try (PageArchive archive = new PageArchive(path, false)) {
+            archive.append(this.uri(1), "<html><body>Updated</body></html>".getBytes(StandardCharsets.UTF_8));
+        }
+        try (PageArchive archive = new PageArchive(path); PageCache cache = new PageCache(cachePath)) {
+            assertTrue(cache.load(archive, this.uri(1)).getWords().contains("updated"));
+            assertTrue(cache.load(archive, this.uri(2)).getWords().contains("2"));
+        }
+    }
+}
@@ -1,15 +1,20 @@
 package search;
 
+import static org.junit.Assert.fail;
+
 import datastructures.concrete.ChainedHashSet;
 import datastructures.concrete.DoubleLinkedList;
 import datastructures.interfaces.IList;
 import datastructures.interfaces.ISet;
 import misc.BaseTest;
+import misc.exceptions.NoSuchKeyException;
 import org.junit.Test;
 import search.analyzers.PageRankAnalyzer;
 import search.models.Webpage;
 
 import java.net.URI;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 public class TestPageRankAnalyzer extends BaseTest {
     // We say two floating point numbers are equal if they're within
@@ -92,4 +97,139 @@ public class TestPageRankAnalyzer extends BaseTest {
         assertEquals(0.05244, analyzer.computePageRank(pageEUri), DELTA);
     }
 
+    @Test(timeout=5 * SECOND)
+    public void testManyDanglingPagesIsEfficient() {
+        // Every page links to the hub, and the hub links nowhere. Handling
+        // each dangling page by visiting every page would be quadratic.
+        int numPages = 20000;
+        URI hubUri = URI.create("http://example.com/hub.html");
+
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        pages.add(this.buildPage(hubUri, new URI[] {}));
+        for (int i = 0; i < numPages; i++) {
+            URI uri = URI.create("http://example.com/page-" + i + ".html");
+            pages.add(this.buildPage(uri, new URI[] {hubUri}));
+        }
+
+        PageRankAnalyzer analyzer = new PageRankAnalyzer(pages, 0.85, 0.00001, 100);
+
+        double total = analyzer.computePageRank(hubUri);
+        double leafRank = analyzer.computePageRank(URI.create("http://example.com/page-0.html"));
+        for (int i = 0; i < numPages; i++) {
+            double rank = analyzer.computePageRank(URI.create("http://example.com/page-" + i + ".html"));
+            assertEquals(leafRank, rank, DELTA);
+            total += rank;
+        }
+        assertEquals(1.0, total, DELTA);
+        assertEquals(true, analyzer.computePageRank(hubUri) > leafRank);
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testParallelMatchesSequential() {
+        // Enough pages for several blocks of PageRankAnalyzer.BLOCK_SIZE (4096),
+        // so the per-block sums are really combined
+        int numPages = 10000;
+        URI[] uris = new URI[numPages];
+        for (int i = 0; i < numPages; i++) {
+            uris[i] = URI.create("http://example.com/page-" + i + ".html");
+        }
+
+        Random rand = new Random(373);
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        for (int i = 0; i < numPages; i++) {
+            // Roughly a tenth of the pages are dangling
+            URI[] links = new URI[rand.nextInt(10) == 0 ? 0 : 1 + rand.nextInt(8)];
+            for (int j = 0; j < links.length; j++) {
+                links[j] = uris[rand.nextInt(numPages)];
+            }
+            pages.add(this.buildPage(uris[i], links));
+        }
+
+        // Ranks average 1/numPages, so we converge much further than usual,
+        // and compare far more closely than DELTA
+        PageRankAnalyzer sequential = new PageRankAnalyzer(pages, 0.85, 1e-13, 1000);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            PageRankAnalyzer parallel = new PageRankAnalyzer(pages, 0.85, 1e-13, 1000, pool);
+            PageRankAnalyzer parallelAgain = new PageRankAnalyzer(pages, 0.85, 1e-13, 1000, pool);
+            for (URI uri : uris) {
+                assertEquals(sequential.computePageRank(uri), parallel.computePageRank(uri), 1e-11);
+                assertEquals(parallel.computePageRank(uri), parallelAgain.computePageRank(uri), 0.0);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testIncrementalUpdatesMatchFullBuild() {
+        int numPages = 500;
+        URI[] uris = new URI[numPages];
+        for (int i = 0; i < numPages; i++) {
+            uris[i] = URI.create("http://example.com/page-" + i + ".html");
+        }
+
+        Random rand = new Random(373);
+        Webpage[] pages = new Webpage[numPages];
+        for (int i = 0; i < numPages; i++) {
+            URI[] links = new URI[rand.nextInt(6)];
+            for (int j = 0; j < links.length; j++) {
+                links[j] = uris[rand.nextInt(numPages)];
+            }
+            pages[i] = this.buildPage(uris[i], links);
+        }
+
+        // Start with all but the last ten pages, plus a page we'll remove
+        URI extraUri = URI.create("http://example.com/extra.html");
+        ISet<Webpage> initial = new ChainedHashSet<>();
+        for (int i = 0; i < numPages - 10; i++) {
+            initial.add(pages[i]);
+        }
+        initial.add(this.buildPage(extraUri, new URI[] {uris[0], uris[1]}));
+        PageRankAnalyzer analyzer = new PageRankAnalyzer(initial, 0.85, 1e-10, 1000);
+
+        IList<Webpage> added = new DoubleLinkedList<>();
+        for (int i = numPages - 10; i < numPages; i++) {
+            added.add(pages[i]);
+        }
+        pages[0] = this.buildPage(uris[0], new URI[] {uris[numPages - 1]});
+        added.add(pages[0]);
+        IList<URI> removed = new DoubleLinkedList<>();
+        removed.add(extraUri);
+        PageRankAnalyzer original = analyzer;
+        analyzer = analyzer.update(added, removed);
+
+        ISet<Webpage> all = new ChainedHashSet<>();
+        for (Webpage page : pages) {
+            all.add(page);
+        }
+        PageRankAnalyzer expected = new PageRankAnalyzer(all, 0.85, 1e-10, 1000);
+        for (URI uri : uris) {
+            assertEquals(expected.computePageRank(uri), analyzer.computePageRank(uri), DELTA);
+        }
+        assertEquals(true, original.computePageRank(extraUri) > 0.0);
+    }
+
+    @Test(timeout=SECOND)
+    public void testUnknownUri() {
+        URI pageAUri = URI.create("http://example.com/page-a.html");
+        URI pageBUri = URI.create("http://example.com/page-b.html");
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        pages.add(this.buildPage(pageAUri, new URI[] {pageBUri}));
+
+        PageRankAnalyzer analyzer = new PageRankAnalyzer(pages, 0.85, 0.00001, 100);
+        try {
+            // Page B is linked to, but was never indexed
+            analyzer.computePageRank(pageBUri);
+            fail("Expected NoSuchKeyException");
+        } catch (NoSuchKeyException ex) {
+            // All ok -- expected result
+        }
+        try {
+            analyzer.computePageRank(URI.create("http://example.com/missing.html"));
+            fail("Expected NoSuchKeyException");
+        } catch (NoSuchKeyException ex) {
+            // All ok -- expected result
+        }
+    }
 }
@@ -0,0 +1,355 @@
+package search;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import datastructures.concrete.ChainedHashSet;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import datastructures.interfaces.ISet;
+import misc.exceptions.NoSuchKeyException;
+import org.junit.Test;
+import search.analyzers.PositionalIndex;
+import search.analyzers.TermDictionary;
+import search.analyzers.TfIdfAnalyzer;
+import search.misc.QueryParser;
+import search.models.Webpage;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+public class TestPositionalIndex extends BaseSearchTest {
+    private ISet<Webpage> makeExamplePages() {
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        pages.add(makePage("a", "the mouse played with the cat"));
+        pages.add(makePage("b", "the quick brown fox jumped over the lazy dog"));
+        pages.add(makePage("c", "dog 1 and dog 2 ate the hot dog"));
+        return pages;
+    }
+
+    private int[] ids(TermDictionary termDictionary, String words) {
+        String[] split = words.split(" ");
+        int[] ids = new int[split.length];
+        for (int i = 0; i < split.length; i++) {
+            ids[i] = termDictionary.getId(split[i]);
+        }
+        return ids;
+    }
+
+    @Test(timeout=SECOND)
+    public void testPositions() {
+        ISet<Webpage> pages = this.makeExamplePages();
+        TermDictionary terms = new TfIdfAnalyzer(pages).getTermDictionary();
+        PositionalIndex index = new PositionalIndex(pages, terms);
+
+        assertEquals(3, index.size());
+        int pageC = index.getPageId(URI.create("http://example.com/c.html"));
+        assertEquals(URI.create("http://example.com/c.html"), index.getUri(pageC));
+        assertArrayEquals(new int[] {0, 3, 8}, index.getPositions(terms.getId("dog"), pageC));
+        assertEquals(3, index.getCount(terms.getId("dog"), pageC));
+        assertEquals(0, index.getCount(terms.getId("cat"), pageC));
+        assertEquals(9, index.getPageLength(pageC));
+        assertEquals(8.0, index.getAveragePageLength(), 0.000001);
+        assertArrayEquals(new int[] {6}, index.getPositions(terms.getId("the"), pageC));
+        assertArrayEquals(new int[0], index.getPositions(terms.getId("cat"), pageC));
+
+        assertEquals(PositionalIndex.NO_SUCH_PAGE, index.getPageId(URI.create("http://example.com/d.html")));
+    }
+
+    @Test(timeout=SECOND)
+    public void testPhrasesAndDistances() {
+        ISet<Webpage> pages = this.makeExamplePages();
+        TermDictionary terms = new TfIdfAnalyzer(pages).getTermDictionary();
+        PositionalIndex index = new PositionalIndex(pages, terms);
+        int pageA = index.getPageId(URI.create("http://example.com/a.html"));
+        int pageB = index.getPageId(URI.create("http://example.com/b.html"));
+        int pageC = index.getPageId(URI.create("http://example.com/c.html"));
+
+        assertTrue(index.containsPhrase(pageB, this.ids(terms, "quick brown fox")));
+        assertTrue(index.containsPhrase(pageB, this.ids(terms, "the lazy")));
+        assertFalse(index.containsPhrase(pageB, this.ids(terms, "brown quick")));
+        assertFalse(index.containsPhrase(pageA, this.ids(terms, "quick brown")));
+        assertTrue(index.containsPhrase(pageC, this.ids(terms, "hot dog")));
+
+        assertEquals(1, index.findMinDistance(pageA, terms.getId("with"), terms.getId("the")));
+        assertEquals(1, index.findMinDistance(pageA, terms.getId("the"), terms.getId("with")));
+        assertEquals(4, index.findMinDistance(pageA, terms.getId("the"), terms.getId("the")));
+        assertEquals(3, index.findMinDistance(pageC, terms.getId("dog"), terms.getId("dog")));
+        assertEquals(Integer.MAX_VALUE, index.findMinDistance(pageA, terms.getId("dog"), terms.getId("cat")));
+        assertEquals(Integer.MAX_VALUE, index.findMinDistance(pageB, terms.getId("fox"), terms.getId("fox")));
+
+        int[] withThe = index.findPagesWithAll(this.ids(terms, "the dog"));
+        Arrays.sort(withThe);
+        int[] expected = new int[] {pageB, pageC};
+        Arrays.sort(expected);
+        assertArrayEquals(expected, withThe);
+        assertEquals(3, index.findPagesWithAll(new int[0]).length);
+    }
+
+    @Test(timeout=SECOND)
+    public void testPageText() {
+        ISet<Webpage> pages = this.makeExamplePages();
+        TermDictionary terms = new TfIdfAnalyzer(pages).getTermDictionary();
+        PositionalIndex index = new PositionalIndex(pages, terms);
+        int pageB = index.getPageId(URI.create("http://example.com/b.html"));
+
+        assertArrayEquals(this.ids(terms, "brown fox jumped"), index.getTermIds(pageB, 2, 5));
+        assertArrayEquals(this.ids(terms, "the quick brown fox jumped over the lazy dog"),
+                index.getTermIds(pageB, 0, 9));
+        assertArrayEquals(new int[0], index.getTermIds(pageB, 9, 9));
+        try {
+            index.getTermIds(pageB, 5, 10);
+            fail("Expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException ex) {
+            // All ok -- expected result
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testFindBestWindow() {
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        pages.add(makePage("a", "x fox x x x x x dog x fox x dog x x x x x x x x x"));
+        pages.add(makePage("b", "x x x x x x x x dog x"));
+        TermDictionary terms = new TfIdfAnalyzer(pages).getTermDictionary();
+        PositionalIndex index = new PositionalIndex(pages, terms);
+        int pageA = index.getPageId(URI.create("http://example.com/a.html"));
+        int pageB = index.getPageId(URI.create("http://example.com/b.html"));
+
+        // Both "fox x x x x x dog" (1..7) and "dog x fox x dog" (7..11) hold
+        // both words, but the second holds more of them. It's then centered.
+        assertEquals(6, index.findBestWindow(pageA, this.ids(terms, "dog fox"), 7));
+
+        // Everything fits, but the window can't start before the page does
+        assertEquals(0, index.findBestWindow(pageA, this.ids(terms, "dog fox"), 15));
+
+        // ... or run past its end
+        assertEquals(4, index.findBestWindow(pageB, this.ids(terms, "dog"), 6));
+        assertEquals(0, index.findBestWindow(pageB, this.ids(terms, "dog"), 40));
+        assertEquals(-1, index.findBestWindow(pageA, new int[] {terms.getId("x") + 100}, 5));
+    }
+
+    @Test(timeout=SECOND)
+    public void testIntersectMatchesNaive() {
+        Random rand = new Random(12);
+        for (int trial = 0; trial < 500; trial++) {
+            int[] a = this.randomSortedSet(rand, rand.nextInt(50), 1 + rand.nextInt(1000));
+            int[] b = this.randomSortedSet(rand, rand.nextInt(500), 1 + rand.nextInt(1000));
+
+            int[] expected = Arrays.stream(a).filter(x -> Arrays.binarySearch(b, x) >= 0).toArray();
+            assertArrayEquals(expected, PositionalIndex.intersect(a, b));
+            assertArrayEquals(expected, PositionalIndex.intersect(b, a));
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testSubtractAndUnionMatchNaive() {
+        Random rand = new Random(56);
+        for (int trial = 0; trial < 500; trial++) {
+            int[] a = this.randomSortedSet(rand, rand.nextInt(500), 1 + rand.nextInt(1000));
+            int[] b = this.randomSortedSet(rand, rand.nextInt(500), 1 + rand.nextInt(1000));
+
+            int[] expected = Arrays.stream(a).filter(x -> Arrays.binarySearch(b, x) < 0).toArray();
+            assertArrayEquals(expected, PositionalIndex.subtract(a, b));
+
+            expected = IntStream.concat(Arrays.stream(a), Arrays.stream(b)).distinct().sorted().toArray();
+            assertArrayEquals(expected, PositionalIndex.union(a, b));
+            assertArrayEquals(expected, PositionalIndex.union(b, a));
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testBooleanFilters() {
+        ISet<Webpage> pages = this.makeExamplePages();
+        TermDictionary terms = new TfIdfAnalyzer(pages).getTermDictionary();
+        PositionalIndex index = new PositionalIndex(pages, terms);
+
+        assertEquals("b c", this.findPages(index, terms, "the AND dog"));
+        assertEquals("a b", this.findPages(index, terms, "cat OR fox"));
+        assertEquals("a", this.findPages(index, terms, "the NOT dog"));
+        assertEquals("a", this.findPages(index, terms, "NOT dog"));
+        assertEquals("b", this.findPages(index, terms, "(cat OR dog) NOT (hot OR mouse)"));
+        assertEquals("b c", this.findPages(index, terms, "\"hot dog\" OR fox NEAR/1 brown"));
+        assertEquals("c", this.findPages(index, terms, "dog NOT \"lazy dog\""));
+        assertEquals("", this.findPages(index, terms, "dog AND unicorn"));
+        assertEquals("a b c", this.findPages(index, terms, "NOT unicorn"));
+    }
+
+    /**
+     * Returns the names of the pages matching the given boolean query, in
+     * sorted order.
+     */
+    private String findPages(PositionalIndex index, TermDictionary terms, String query) {
+        int[] pageIds = index.findPages(QueryParser.parse(query).getFilter(), terms);
+        String[] names = new String[pageIds.length];
+        for (int i = 0; i < pageIds.length; i++) {
+            String path = index.getUri(pageIds[i]).getPath();
+            names[i] = path.substring(1, path.length() - ".html".length());
+        }
+        Arrays.sort(names);
+        return String.join(" ", names);
+    }
+
+    private int[] randomSortedSet(Random rand, int size, int bound) {
+        return rand.ints(size, 0, bound).distinct().sorted().toArray();
+    }
+
+    @Test(timeout=SECOND)
+    public void testIncrementalUpdatesMatchFullBuild() {
+        Random rand = new Random(34);
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        for (int i = 0; i < 50; i++) {
+            pages.add(this.randomPage(rand, "page" + i));
+        }
+        TfIdfAnalyzer analyzer = new TfIdfAnalyzer(pages);
+        PositionalIndex index = new PositionalIndex(pages, analyzer.getTermDictionary());
+
+        IList<Webpage> added = new DoubleLinkedList<>();
+        IList<URI> removed = new DoubleLinkedList<>();
+        for (int i = 0; i < 10; i++) {
+            removed.add(URI.create("http://example.com/page" + i + ".html"));
+        }
+        for (int i = 10; i < 15; i++) {
+            added.add(this.randomPage(rand, "page" + i));
+        }
+        for (int i = 50; i < 60; i++) {
+            added.add(this.randomPage(rand, "page" + i));
+        }
+
+        ISet<Webpage> expectedPages = new ChainedHashSet<>();
+        for (Webpage page : pages) {
+            if (!removed.contains(page.getUri()) && !this.containsUri(added, page.getUri())) {
+                expectedPages.add(page);
+            }
+        }
+        for (Webpage page : added) {
+            expectedPages.add(page);
+        }
+
+        TfIdfAnalyzer updatedAnalyzer = analyzer.update(added, removed);
+        TermDictionary terms = updatedAnalyzer.getTermDictionary();
+        PositionalIndex updated = index.update(added, removed, terms);
+        PositionalIndex expected = new PositionalIndex(expectedPages, terms);
+
+        assertEquals(expected.size(), updated.size());
+        for (Webpage page : expectedPages) {
+            int expectedId = expected.getPageId(page.getUri());
+            int actualId = updated.getPageId(page.getUri());
+            assertTrue(actualId != PositionalIndex.NO_SUCH_PAGE);
+            assertEquals(expected.getPageLength(expectedId), updated.getPageLength(actualId));
+            for (int termId = 0; termId < terms.size(); termId++) {
+                assertArrayEquals(expected.getPositions(termId, expectedId), updated.getPositions(termId, actualId));
+                assertEquals(expected.getCount(termId, expectedId), updated.getCount(termId, actualId));
+            }
+        }
+        for (int termId = 0; termId < terms.size(); termId++) {
+            assertEquals(expected.getPages(termId).length, updated.getPages(termId).length);
+        }
+        assertEquals(expected.getAveragePageLength(), updated.getAveragePageLength(), 0.000001);
+
+        // The original index is left as it was
+        assertEquals(50, index.size());
+        assertTrue(index.getPageId(URI.create("http://example.com/page0.html")) != PositionalIndex.NO_SUCH_PAGE);
+    }
+
+    @Test(timeout=SECOND)
+    public void testUpdatesReuseFreedPageIds() {
+        ISet<Webpage> pages = this.makeExamplePages();
+        TfIdfAnalyzer analyzer = new TfIdfAnalyzer(pages);
+        PositionalIndex index = new PositionalIndex(pages, analyzer.getTermDictionary());
+        URI uriA = URI.create("http://example.com/a.html");
+        int freedId = index.getPageId(uriA);
+
+        // Replacing pages one at a time, over and over, never needs new ids
+        for (int i = 0; i < 100; i++) {
+            IList<URI> removed = new DoubleLinkedList<>();
+            removed.add(i == 0 ? uriA : URI.create("http://example.com/d" + (i - 1) + ".html"));
+            IList<Webpage> added = new DoubleLinkedList<>();
+            added.add(makePage("d" + i, "the cat sat on the mat " + i));
+            analyzer = analyzer.update(added, removed);
+            index = index.update(added, removed, analyzer.getTermDictionary());
+
+            URI uri = URI.create("http://example.com/d" + i + ".html");
+            assertEquals(freedId, index.getPageId(uri));
+            assertEquals(uri, index.getUri(freedId));
+            assertEquals(3, index.size());
+        }
+
+        TermDictionary terms = analyzer.getTermDictionary();
+        assertEquals(3, index.getPages(terms.getId("the")).length);
+        assertEquals(1, index.getPages(terms.getId("cat")).length);
+        assertEquals(0, index.getPages(terms.getId("mouse")).length);
+        assertEquals(0, index.getPages(terms.getId("0")).length);
+        assertArrayEquals(new int[] {0, 4}, index.getPositions(terms.getId("the"), freedId));
+
+        // The last update changed the words of the page it removed and those of the page it added
+        int[] updated = this.ids(terms, "the cat sat on mat 98 99");
+        Arrays.sort(updated);
+        assertArrayEquals(updated, index.getUpdatedTerms());
+        assertArrayEquals(new int[0], new PositionalIndex(pages, terms).getUpdatedTerms());
+    }
+
+    @Test(timeout=SECOND)
+    public void testRemovingPageTwiceIsSameAsOnce() {
+        ISet<Webpage> pages = this.makeExamplePages();
+        TfIdfAnalyzer analyzer = new TfIdfAnalyzer(pages);
+        PositionalIndex index = new PositionalIndex(pages, analyzer.getTermDictionary());
+        URI uriA = URI.create("http://example.com/a.html");
+        IList<URI> removed = new DoubleLinkedList<>();
+        removed.add(uriA);
+        removed.add(URI.create("http://example.com/b.html"));
+        removed.add(uriA);
+        IList<Webpage> added = new DoubleLinkedList<>();
+        added.add(makePage("d", "the cat sat on the mat"));
+
+        analyzer = analyzer.update(added, removed);
+        index = index.update(added, removed, analyzer.getTermDictionary());
+        assertEquals(2, index.size());
+        assertEquals(PositionalIndex.NO_SUCH_PAGE, index.getPageId(uriA));
+        assertTrue(index.getPageId(URI.create("http://example.com/d.html")) != PositionalIndex.NO_SUCH_PAGE);
+
+        TermDictionary terms = analyzer.getTermDictionary();
+        assertEquals(2, index.getPages(terms.getId("the")).length);
+        assertEquals(0, index.getPages(terms.getId("mouse")).length);
+        assertEquals((9 + 6) / 2.0, index.getAveragePageLength(), 1e-9);
+    }
+
+    @Test(timeout=SECOND)
+    public void testRemoveMissingPageThrowsException() {
+        ISet<Webpage> pages = this.makeExamplePages();
+        PositionalIndex index = new PositionalIndex(pages, new TfIdfAnalyzer(pages).getTermDictionary());
+        IList<URI> removed = new DoubleLinkedList<>();
+        removed.add(URI.create("http://example.com/d.html"));
+        try {
+            index.update(new DoubleLinkedList<>(), removed, new TfIdfAnalyzer(pages).getTermDictionary());
+            fail("Expected NoSuchKeyException");
+        } catch (NoSuchKeyException ex) {
+            // This is ok: do nothing
+        }
+    }
+
+    private Webpage randomPage(Random rand, String name) {
+        StringBuilder text = new StringBuilder();
+        int numWords = 1 + rand.nextInt(40);
+        for (int i = 0; i < numWords; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            // A skewed vocabulary, so some words repeat within a page
+            text.append("w").append(rand.nextInt(1 + rand.nextInt(60)));
+        }
+        return makePage(name, text.toString());
+    }
+
+    private boolean containsUri(IList<Webpage> pages, URI uri) {
+        for (Webpage page : pages) {
+            if (page.getUri().equals(uri)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
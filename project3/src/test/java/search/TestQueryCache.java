@@ -0,0 +1,137 @@
+package search;
+
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import misc.BaseTest;
+import org.junit.Test;
+import search.models.Result;
+import search.models.WebpageSummary;
+
+import java.net.URI;
+
+public class TestQueryCache extends BaseTest {
+    private long now = 0;
+
+    private IList<String> makeQuery(String... words) {
+        IList<String> output = new DoubleLinkedList<>();
+        for (String word : words) {
+            output.add(word);
+        }
+        return output;
+    }
+
+    private IList<Result> makeResults(int n) {
+        IList<Result> output = new DoubleLinkedList<>();
+        for (int i = 0; i < n; i++) {
+            URI uri = URI.create("http://example.com/page-" + i + ".html");
+            output.add(new Result(new WebpageSummary(uri, "title", "blurb"), n - i));
+        }
+        return output;
+    }
+
+    private QueryCache makeCache(int maxEntries, long maxBytes, long ttlMillis) {
+        return new QueryCache(maxEntries, maxBytes, ttlMillis, () -> this.now);
+    }
+
+    @Test(timeout=SECOND)
+    public void testKeyIgnoresWordOrder() {
+        assertEquals(
+                QueryCache.makeKey(this.makeQuery("cat", "the", "dog")),
+                QueryCache.makeKey(this.makeQuery("dog", "cat", "the")));
+        assertEquals(
+                false,
+                QueryCache.makeKey(this.makeQuery("cat", "cat")).equals(
+                        QueryCache.makeKey(this.makeQuery("cat"))));
+    }
+
+    @Test(timeout=SECOND)
+    public void testServesSmallerK() {
+        QueryCache cache = this.makeCache(10, Long.MAX_VALUE, 0);
+        IList<Result> results = this.makeResults(5);
+        cache.put("a", 5, results);
+
+        IList<Result> top3 = cache.get("a", 3);
+        assertEquals(3, top3.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(results.get(i), top3.get(i));
+        }
+        assertEquals(null, cache.get("a", 6));
+        assertEquals(1L, cache.getHits());
+        assertEquals(1L, cache.getMisses());
+    }
+
+    @Test(timeout=SECOND)
+    public void testServesAnyKWhenEveryPageIsCached() {
+        QueryCache cache = this.makeCache(10, Long.MAX_VALUE, 0);
+        cache.put("a", 20, this.makeResults(5));
+        assertEquals(5, cache.get("a", 100).size());
+    }
+
+    @Test(timeout=SECOND)
+    public void testEvictsLeastRecentlyUsed() {
+        QueryCache cache = this.makeCache(2, Long.MAX_VALUE, 0);
+        cache.put("a", 1, this.makeResults(1));
+        cache.put("b", 1, this.makeResults(1));
+        cache.get("a", 1);
+        cache.put("c", 1, this.makeResults(1));
+
+        assertEquals(2, cache.size());
+        assertEquals(1L, cache.getEvictions());
+        assertEquals(null, cache.get("b", 1));
+        assertEquals(1, cache.get("a", 1).size());
+        assertEquals(1, cache.get("c", 1).size());
+    }
+
+    @Test(timeout=SECOND)
+    public void testEvictsToStayUnderByteLimit() {
+        QueryCache cache = this.makeCache(100, 1000, 0);
+        for (int i = 0; i < 50; i++) {
+            cache.put("query" + i, 10, this.makeResults(10));
+            assertEquals(true, cache.getBytes() <= 1000);
+        }
+        assertEquals(true, cache.size() < 50);
+        assertEquals((long) (50 - cache.size()), cache.getEvictions());
+
+        // An entry larger than the whole cache is never stored
+        cache.put("huge", 1000, this.makeResults(1000));
+        assertEquals(null, cache.get("huge", 1));
+    }
+
+    @Test(timeout=SECOND)
+    public void testEntriesExpire() {
+        QueryCache cache = this.makeCache(10, Long.MAX_VALUE, 100);
+        cache.put("a", 1, this.makeResults(1));
+        this.now = 99;
+        assertEquals(1, cache.get("a", 1).size());
+        this.now = 100;
+        assertEquals(null, cache.get("a", 1));
+        assertEquals(1L, cache.getExpirations());
+        assertEquals(0, cache.size());
+    }
+
+    @Test(timeout=SECOND)
+    public void testClearRemovesEverything() {
+        QueryCache cache = this.makeCache(10, Long.MAX_VALUE, 0);
+        cache.put("a", 1, this.makeResults(1));
+        cache.put("b", 1, this.makeResults(1));
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertEquals(0L, cache.getBytes());
+        assertEquals(1L, cache.getInvalidations());
+        assertEquals(null, cache.get("a", 1));
+
+        cache.put("a", 1, this.makeResults(1));
+        assertEquals(1, cache.get("a", 1).size());
+    }
+
+    @Test(timeout=SECOND)
+    public void testReplacingEntryKeepsSizeConsistent() {
+        QueryCache cache = this.makeCache(10, Long.MAX_VALUE, 0);
+        cache.put("a", 1, this.makeResults(1));
+        long bytes = cache.getBytes();
+        cache.put("a", 1, this.makeResults(1));
+        assertEquals(1, cache.size());
+        assertEquals(bytes, cache.getBytes());
+    }
+}
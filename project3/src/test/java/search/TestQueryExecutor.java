@@ -0,0 +1,190 @@
+package search;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import misc.BaseTest;
+import org.junit.Test;
+import search.misc.exceptions.OverloadedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestQueryExecutor extends BaseTest {
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testCoalescesIdenticalSearches() throws Exception {
+        QueryExecutor<Integer> executor = new QueryExecutor<>(2, 10, 4000);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger numRuns = new AtomicInteger(0);
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(callers.submit(() -> executor.execute("cat", () -> {
+                    numRuns.incrementAndGet();
+                    await(release);
+                    return 42;
+                })));
+            }
+
+            // Wait until every caller has joined the one search in flight
+            while (!executor.formatStats().contains("search_executor_coalesced 7\n")) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+            for (Future<Integer> result : results) {
+                assertEquals(42, result.get());
+            }
+            assertEquals(1, numRuns.get());
+
+            // Once it's done, the same search runs again
+            assertEquals(43, executor.execute("cat", () -> 43));
+            assertTrue(executor.formatStats().contains("search_executor_computed 2\n"));
+        } finally {
+            callers.shutdownNow();
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testRejectsWhenQueueIsFull() throws Exception {
+        QueryExecutor<Integer> executor = new QueryExecutor<>(1, 1, 4000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            // One search runs, and one waits for the thread
+            Future<Integer> running = callers.submit(() -> executor.execute("a", () -> {
+                started.countDown();
+                await(release);
+                return 1;
+            }));
+            started.await();
+            Future<Integer> queued = callers.submit(() -> executor.execute("b", () -> 2));
+            while (executor.getQueueDepth() < 1) {
+                Thread.sleep(5);
+            }
+
+            try {
+                executor.execute("c", () -> 3);
+                fail("Expected OverloadedException");
+            } catch (OverloadedException ex) {
+                // All ok -- expected result
+            }
+            assertTrue(executor.formatStats().contains("search_executor_rejected 1\n"));
+
+            release.countDown();
+            assertEquals(1, running.get());
+            assertEquals(2, queued.get());
+            assertEquals(3, executor.execute("c", () -> 3));
+        } finally {
+            callers.shutdownNow();
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testGivesUpAtDeadline() throws Exception {
+        QueryExecutor<Integer> executor = new QueryExecutor<>(1, 10, 100);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger numRuns = new AtomicInteger(0);
+        try {
+            long start = System.currentTimeMillis();
+            try {
+                executor.execute("slow", () -> {
+                    await(release);
+                    return 1;
+                });
+                fail("Expected OverloadedException");
+            } catch (OverloadedException ex) {
+                // All ok -- expected result
+            }
+            assertTrue(System.currentTimeMillis() - start < 2000);
+
+            // A search that waited in the queue past its deadline is skipped
+            // rather than run for nobody
+            try {
+                executor.execute("queued", () -> numRuns.incrementAndGet());
+                fail("Expected OverloadedException");
+            } catch (OverloadedException ex) {
+                // All ok -- expected result
+            }
+            release.countDown();
+            executor.execute("after", () -> 0);
+            assertEquals(0, numRuns.get());
+            assertTrue(executor.formatStats().contains("search_executor_timed_out 2\n"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testJoinedSearchRunsUntilLastCallersDeadline() throws Exception {
+        QueryExecutor<Integer> executor = new QueryExecutor<>(1, 10, 400);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(3);
+        try {
+            // Keep the only thread busy, so "cat" waits in the queue
+            callers.submit(() -> executor.execute("slow", () -> {
+                await(release);
+                return 0;
+            }));
+            Future<Integer> first = callers.submit(() -> executor.execute("cat", () -> 42));
+            while (executor.getQueueDepth() < 1) {
+                Thread.sleep(5);
+            }
+            Thread.sleep(200);
+            Future<Integer> second = callers.submit(() -> executor.execute("cat", () -> 42));
+            while (!executor.formatStats().contains("search_executor_coalesced 1\n")) {
+                Thread.sleep(5);
+            }
+
+            // The first caller gives up at its own deadline...
+            try {
+                first.get();
+                fail("Expected OverloadedException");
+            } catch (ExecutionException ex) {
+                assertTrue(ex.getCause() instanceof OverloadedException);
+            }
+
+            // ...but the search still runs for the second, whose deadline
+            // hasn't passed yet
+            release.countDown();
+            assertEquals(42, second.get());
+            assertTrue(executor.formatStats().contains("search_executor_computed 2\n"));
+        } finally {
+            callers.shutdownNow();
+            executor.shutdown();
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testPropagatesExceptions() {
+        QueryExecutor<Integer> executor = new QueryExecutor<>(1, 10, 1000);
+        try {
+            executor.execute("bad", () -> {
+                throw new IllegalArgumentException("bad query");
+            });
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // All ok -- expected result
+            assertEquals("bad query", ex.getMessage());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
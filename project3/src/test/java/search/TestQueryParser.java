@@ -0,0 +1,107 @@
+package search;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import datastructures.interfaces.IList;
+import misc.BaseTest;
+import org.junit.Test;
+import search.misc.QueryParser;
+import search.models.Query;
+
+public class TestQueryParser extends BaseTest {
+    private String join(IList<String> words) {
+        return String.join(" ", words);
+    }
+
+    @Test(timeout=SECOND)
+    public void testPlainWords() {
+        Query query = QueryParser.parse("  Hello, World!  near/3 ");
+        assertEquals("hello world near3", this.join(query.getTerms()));
+        assertFalse(query.hasClauses());
+    }
+
+    @Test(timeout=SECOND)
+    public void testPhrases() {
+        Query query = QueryParser.parse("cheap \"New York\" flights \"to  Boston, MA");
+        assertEquals("cheap new york flights to boston ma", this.join(query.getTerms()));
+        assertTrue(query.hasClauses());
+        assertEquals(2, query.getPhrases().size());
+        assertEquals("new york", this.join(query.getPhrases().get(0)));
+        assertEquals("to boston ma", this.join(query.getPhrases().get(1)));
+        assertEquals(0, query.getNearClauses().size());
+    }
+
+    @Test(timeout=SECOND)
+    public void testEmptyPhrasesAreIgnored() {
+        Query query = QueryParser.parse("a \"\" \"!!\" b");
+        assertEquals("a b", this.join(query.getTerms()));
+        assertFalse(query.hasClauses());
+    }
+
+    @Test(timeout=SECOND)
+    public void testNear() {
+        Query query = QueryParser.parse("apple NEAR/5 Banana cherry");
+        assertEquals("apple banana cherry", this.join(query.getTerms()));
+        assertEquals(1, query.getNearClauses().size());
+        Query.Near near = query.getNearClauses().get(0);
+        assertEquals("apple", near.getFirst());
+        assertEquals("banana", near.getSecond());
+        assertEquals(5, near.getDistance());
+    }
+
+    @Test(timeout=SECOND)
+    public void testNearBindsToPhraseEdges() {
+        Query query = QueryParser.parse("\"big red\" NEAR/2 \"fire truck\"");
+        assertEquals(2, query.getPhrases().size());
+        assertEquals(1, query.getNearClauses().size());
+        Query.Near near = query.getNearClauses().get(0);
+        assertEquals("red", near.getFirst());
+        assertEquals("fire", near.getSecond());
+        assertEquals(2, near.getDistance());
+    }
+
+    @Test(timeout=SECOND)
+    public void testDanglingNearIsIgnored() {
+        Query query = QueryParser.parse("NEAR/2 apple NEAR/3");
+        assertEquals("apple", this.join(query.getTerms()));
+        assertFalse(query.hasClauses());
+
+        query = QueryParser.parse("apple NEAR/99999999999 banana");
+        assertEquals(Integer.MAX_VALUE, query.getNearClauses().get(0).getDistance());
+    }
+
+    @Test(timeout=SECOND)
+    public void testBooleanOperators() {
+        Query query = QueryParser.parse("cat OR dog NOT \"hot dog\" AND (pet OR animal)");
+        assertEquals("cat dog pet animal", this.join(query.getTerms()));
+        assertTrue(query.hasClauses());
+        assertEquals("(cat OR (dog AND NOT \"hot dog\" AND (pet OR animal)))", query.getFilter().toString());
+        assertEquals(1, query.getPhrases().size());
+    }
+
+    @Test(timeout=SECOND)
+    public void testBooleanOperatorsWithNear() {
+        Query query = QueryParser.parse("a NEAR/3 \"b c\" OR NOT NOT d");
+        assertEquals("a b c d", this.join(query.getTerms()));
+        assertEquals("((a AND a NEAR/3 b AND \"b c\") OR NOT NOT d)", query.getFilter().toString());
+    }
+
+    @Test(timeout=SECOND)
+    public void testLowercaseOperatorsAreWords() {
+        Query query = QueryParser.parse("cats and dogs or (mice)");
+        assertEquals("cats and dogs or mice", this.join(query.getTerms()));
+        assertFalse(query.hasClauses());
+    }
+
+    @Test(timeout=SECOND)
+    public void testDanglingBooleanOperatorsAreIgnored() {
+        Query query = QueryParser.parse("AND ) cat OR NOT ( dog AND");
+        assertEquals("cat", this.join(query.getTerms()));
+        assertEquals("(cat OR NOT dog)", query.getFilter().toString());
+
+        query = QueryParser.parse("OR NOT");
+        assertEquals("", this.join(query.getTerms()));
+        assertFalse(query.hasClauses());
+    }
+}
@@ -0,0 +1,291 @@
+package search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import misc.BaseTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import search.misc.PageArchive;
+import search.scraper.HttpRequester;
+import search.scraper.Scraper;
+import search.scraper.UrlSeenSet;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Crawls a stub HTTP server on this machine. The server answers to both
+ * 'localhost' and '127.0.0.1', which the scraper treats as different hosts.
+ */
+public class TestScraper extends BaseTest {
+    private static final int PAGES_PER_HOST = 3;
+    private static final long DELAY = 500;
+    private static final long LOCALHOST_CRAWL_DELAY = 800;
+    private static final long RESPONSE_TIME = 200;
+    private static final int GRAPH_SIZE = 12;
+
+    private HttpServer server;
+    private Path outputPath;
+
+    // Every page request each host received, as (start, end) times
+    private Map<String, List<long[]>> requests;
+    private AtomicInteger numInFlight;
+    private AtomicInteger maxInFlight;
+
+    @Before
+    public void setUp() throws IOException {
+        this.requests = new ConcurrentHashMap<>();
+        this.numInFlight = new AtomicInteger(0);
+        this.maxInFlight = new AtomicInteger(0);
+        this.outputPath = Files.createTempDirectory("scraper");
+
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.createContext("/", this::handle);
+        this.server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.server.stop(0);
+        try (Stream<Path> files = Files.walk(this.outputPath)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String host = exchange.getRequestHeaders().getFirst("Host").split(":")[0];
+        String path = exchange.getRequestURI().getPath();
+        if (path.equals("/robots.txt")) {
+            String robots = "User-agent: *\n";
+            if (host.equals("localhost")) {
+                robots += "Crawl-delay: " + (LOCALHOST_CRAWL_DELAY / 1000.0) + "\n";
+            }
+            this.respond(exchange, "text/plain", robots);
+            return;
+        }
+        if (path.startsWith("/mirror")) {
+            // Every mirror serves the same page, linking to the others
+            this.respond(exchange, "text/html", "<html><body>Mirrored"
+                    + " <a href=\"/mirror1.html\">1</a> <a href=\"/mirror2.html\">2</a></body></html>");
+            return;
+        }
+        if (path.startsWith("/graph")) {
+            // A synthetic link graph: page i links to its parent and two
+            // children in a binary tree, plus one page further along
+            int node = Integer.parseInt(path.replaceAll("[^0-9]", ""));
+            StringBuilder body = new StringBuilder("<html><body>Node " + node);
+            for (int link : new int[] {node / 2, 2 * node + 1, 2 * node + 2, (node * 7 + 3) % GRAPH_SIZE}) {
+                if (link < GRAPH_SIZE) {
+                    body.append(" <a href=\"/graph").append(link).append(".html\">").append(link).append("</a>");
+                }
+            }
+            this.respond(exchange, "text/html", body.append("</body></html>").toString());
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        this.maxInFlight.accumulateAndGet(this.numInFlight.incrementAndGet(), Math::max);
+        try {
+            Thread.sleep(RESPONSE_TIME);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        int page = Integer.parseInt(path.replaceAll("[^0-9]", ""));
+        String body = "<html><body>Page " + page + " of " + host
+                + (page + 1 < PAGES_PER_HOST ? " <a href=\"/page" + (page + 1) + ".html\">next</a>" : "")
+                + " <a href=\"http://elsewhere.invalid/page0.html\">away</a>"
+                + "</body></html>";
+        this.numInFlight.decrementAndGet();
+        this.requests.computeIfAbsent(host, h -> new ArrayList<>());
+        synchronized (this.requests) {
+            this.requests.get(host).add(new long[] {start, System.currentTimeMillis()});
+        }
+        this.respond(exchange, "text/html", body);
+    }
+
+    private void respond(HttpExchange exchange, String type, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", type + "; charset=UTF-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private URI pageUri(String host, int page) {
+        return URI.create("http://" + host + ":" + this.server.getAddress().getPort() + "/page" + page + ".html");
+    }
+
+    @Test(timeout=15 * SECOND)
+    public void testCrawlsHostsConcurrentlyAndPolitely() throws Exception {
+        try (HttpRequester requester = new HttpRequester(HttpRequester.DEFAULT_USER_AGENT, DELAY)) {
+            new Scraper(this.outputPath, requester)
+                    .addDomainToWhitelist("localhost")
+                    .addDomainToWhitelist("127.0.0.1")
+                    .addSeedUri(this.pageUri("localhost", 0))
+                    .addSeedUri(this.pageUri("127.0.0.1", 0))
+                    .setNumFetchers(4)
+                    .run(100);
+        }
+
+        // Every page was saved exactly once, and links to hosts outside the
+        // whitelist were never followed
+        Set<String> saved = new HashSet<>(Files.readAllLines(this.outputPath.resolve("list.sav")));
+        assertEquals(2 * PAGES_PER_HOST, saved.size());
+        for (int page = 0; page < PAGES_PER_HOST; page++) {
+            assertTrue(saved.contains(this.pageUri("localhost", page).toString()));
+            assertTrue(saved.contains(this.pageUri("127.0.0.1", page).toString()));
+        }
+
+        // The two hosts were fetched from at the same time, but each host
+        // only ever had one request at a time, spaced out by its delay
+        assertTrue(this.maxInFlight.get() > 1);
+        this.assertPolite(this.requests.get("localhost"), LOCALHOST_CRAWL_DELAY);
+        this.assertPolite(this.requests.get("127.0.0.1"), DELAY);
+    }
+
+    @Test(timeout=15 * SECOND)
+    public void testStopsAtLimit() throws Exception {
+        try (HttpRequester requester = new HttpRequester(HttpRequester.DEFAULT_USER_AGENT, DELAY)) {
+            new Scraper(this.outputPath, requester)
+                    .addDomainToWhitelist("localhost")
+                    .addDomainToWhitelist("127.0.0.1")
+                    .addSeedUri(this.pageUri("localhost", 0))
+                    .addSeedUri(this.pageUri("127.0.0.1", 0))
+                    .run(3);
+        }
+        List<String> saved = Files.readAllLines(this.outputPath.resolve("list.sav"));
+        assertEquals(3, saved.size());
+
+        // list.fp holds the fingerprint of every page in list.sav, in order
+        try (DataInputStream fingerprints = new DataInputStream(
+                Files.newInputStream(this.outputPath.resolve("list.fp")))) {
+            for (String uri : saved) {
+                assertEquals(UrlSeenSet.fingerprint(uri), fingerprints.readLong());
+            }
+            assertEquals(-1, fingerprints.read());
+        }
+    }
+
+    @Test(timeout=15 * SECOND)
+    public void testResumesCrawl() throws Exception {
+        for (int limit : new int[] {2, 100}) {
+            try (HttpRequester requester = new HttpRequester(HttpRequester.DEFAULT_USER_AGENT, DELAY)) {
+                new Scraper(this.outputPath, requester)
+                        .addDomainToWhitelist("localhost")
+                        .addDomainToWhitelist("127.0.0.1")
+                        .addSeedUri(this.pageUri("localhost", 0))
+                        .addSeedUri(this.pageUri("127.0.0.1", 0))
+                        .setCompressed(limit > 2)
+                        .run(limit);
+            }
+        }
+
+        // The second run picked up where the first stopped, so every page
+        // was saved exactly once, in the same archive, whether or not it was
+        // compressed
+        List<String> saved = Files.readAllLines(this.outputPath.resolve("list.sav"));
+        assertEquals(2 * PAGES_PER_HOST, saved.size());
+        assertEquals(2 * PAGES_PER_HOST, new HashSet<>(saved).size());
+        try (PageArchive archive = new PageArchive(this.outputPath.resolve("pages.warc"))) {
+            assertEquals(2 * PAGES_PER_HOST, archive.size());
+            for (String uri : saved) {
+                String html = new String(archive.read(URI.create(uri)), StandardCharsets.UTF_8);
+                assertTrue(html, html.startsWith("<html><body>Page "));
+            }
+        }
+    }
+
+    @Test(timeout=15 * SECOND)
+    public void testPipelinesLinkGraph() throws Exception {
+        Scraper scraper;
+        try (HttpRequester requester = new HttpRequester(HttpRequester.DEFAULT_USER_AGENT, DELAY)) {
+            scraper = new Scraper(this.outputPath, requester)
+                    .addDomainToWhitelist("127.0.0.1")
+                    .addSeedUri(URI.create("http://127.0.0.1:" + this.server.getAddress().getPort() + "/graph0.html"))
+                    .setNumParsers(3);
+            scraper.run(1000);
+        }
+
+        // Every node was fetched, parsed and written exactly once
+        List<String> saved = Files.readAllLines(this.outputPath.resolve("list.sav"));
+        assertEquals(GRAPH_SIZE, saved.size());
+        assertEquals(GRAPH_SIZE, new HashSet<>(saved).size());
+        try (PageArchive archive = new PageArchive(this.outputPath.resolve("pages.warc"))) {
+            assertEquals(GRAPH_SIZE, archive.size());
+        }
+        try (Stream<Path> files = Files.list(this.outputPath.resolve("partial"))) {
+            assertEquals(0L, files.count());
+        }
+
+        Map<String, Long> stats = new HashMap<>();
+        for (String line : scraper.formatStats().split("\n")) {
+            String[] parts = line.split(" ");
+            stats.put(parts[0], Long.parseLong(parts[1]));
+        }
+        assertEquals((long) GRAPH_SIZE, (long) stats.get("scraper_fetch_pages"));
+        assertEquals(0L, (long) stats.get("scraper_fetch_failures"));
+        assertEquals((long) GRAPH_SIZE, (long) stats.get("scraper_parse_pages"));
+        assertEquals((long) GRAPH_SIZE, (long) stats.get("scraper_write_pages"));
+        assertTrue(stats.get("scraper_write_batches") >= 1);
+        assertEquals(0L, (long) stats.get("scraper_parse_queue_depth"));
+        assertEquals(0L, (long) stats.get("scraper_write_queue_depth"));
+    }
+
+    @Test(timeout=15 * SECOND)
+    public void testSkipsDuplicateContent() throws Exception {
+        Scraper scraper;
+        try (HttpRequester requester = new HttpRequester(HttpRequester.DEFAULT_USER_AGENT, DELAY)) {
+            scraper = new Scraper(this.outputPath, requester)
+                    .addDomainToWhitelist("127.0.0.1")
+                    .addSeedUri(URI.create("http://127.0.0.1:" + this.server.getAddress().getPort() + "/mirror0.html"));
+            scraper.run(100);
+        }
+
+        // Every mirror was fetched and its links followed, but only the first
+        // was saved
+        List<String> saved = Files.readAllLines(this.outputPath.resolve("list.sav"));
+        assertEquals(1, saved.size());
+        assertTrue(saved.get(0).endsWith("/mirror0.html"));
+        try (PageArchive archive = new PageArchive(this.outputPath.resolve("pages.warc"))) {
+            assertEquals(1, archive.size());
+            String html = new String(archive.read(URI.create(saved.get(0))), StandardCharsets.UTF_8);
+            assertTrue(html.contains("Mirrored"));
+        }
+        assertEquals(8L, Files.size(this.outputPath.resolve("content.fp")));
+        assertTrue(scraper.formatStats().contains("scraper_fetch_pages 3\n"));
+        assertTrue(scraper.formatStats().contains("scraper_duplicate_pages 2\n"));
+    }
+
+    private void assertPolite(List<long[]> times, long delay) {
+        assertEquals(PAGES_PER_HOST, times.size());
+        times.sort(Comparator.comparingLong(time -> time[0]));
+        for (int i = 1; i < times.size(); i++) {
+            long gap = times.get(i)[0] - times.get(i - 1)[1];
+            // Allow for the clock ticking between the server and the scheduler
+            assertTrue("Gap was only " + gap + "ms", gap >= delay - 20);
+        }
+    }
+}
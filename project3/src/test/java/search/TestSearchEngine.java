@@ -0,0 +1,352 @@
+package search;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import datastructures.concrete.ChainedHashSet;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.concrete.dictionaries.ChainedHashDictionary;
+import datastructures.interfaces.IDictionary;
+import datastructures.interfaces.IList;
+import datastructures.interfaces.ISet;
+import org.junit.Test;
+import search.misc.QueryParser;
+import search.models.Query;
+import search.models.Result;
+import search.models.Webpage;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class TestSearchEngine extends BaseSearchTest {
+    private static final int NUM_PAGES = 300;
+    private static final int NUM_WORDS = 200;
+    private static final int NUM_THREADS = 16;
+    private static final double DELTA = 0.000001;
+
+    private ISet<Webpage> makeCorpus(Random rand) {
+        URI[] uris = new URI[NUM_PAGES];
+        for (int i = 0; i < NUM_PAGES; i++) {
+            uris[i] = URI.create("http://example.com/page-" + i + ".html");
+        }
+
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        for (int i = 0; i < NUM_PAGES; i++) {
+            IList<URI> links = new DoubleLinkedList<>();
+            for (int j = rand.nextInt(6); j > 0; j--) {
+                links.add(uris[rand.nextInt(NUM_PAGES)]);
+            }
+            IList<String> words = new DoubleLinkedList<>();
+            for (int j = 1 + rand.nextInt(50); j > 0; j--) {
+                words.add("word" + rand.nextInt(NUM_WORDS));
+            }
+            pages.add(new Webpage(uris[i], links, words, "title", "blurb"));
+        }
+        return pages;
+    }
+
+    private IList<String> makeQuery(Random rand) {
+        IList<String> query = new DoubleLinkedList<>();
+        for (int j = 1 + rand.nextInt(3); j > 0; j--) {
+            query.add("word" + rand.nextInt(NUM_WORDS));
+        }
+        return query;
+    }
+
+    private IDictionary<URI, Double> toScores(IList<Result> results) {
+        IDictionary<URI, Double> scores = new ChainedHashDictionary<>();
+        for (Result result : results) {
+            scores.put(result.getUri(), result.getScore());
+        }
+        return scores;
+    }
+
+    private void assertSorted(IList<Result> results) {
+        double previous = Double.POSITIVE_INFINITY;
+        for (Result result : results) {
+            assertTrue(result.getScore() <= previous);
+            previous = result.getScore();
+        }
+    }
+
+    /**
+     * Runs every task on its own thread at once, rethrowing the first
+     * exception or assertion failure any of them hit.
+     */
+    private void runConcurrently(List<Runnable> tasks) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Runnable task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test(timeout=20 * SECOND)
+    public void testParallelQueriesMatchSequential() throws Exception {
+        ISet<Webpage> corpus = this.makeCorpus(new Random(373));
+        SearchEngine expectedEngine = new SearchEngine(corpus, 1);
+        SearchEngine engine = new SearchEngine(corpus, 1);
+
+        int numQueries = 500;
+        Random rand = new Random(143);
+        IList<String>[] queries = new IList[numQueries];
+        IDictionary<URI, Double>[] expected = new IDictionary[numQueries];
+        for (int i = 0; i < numQueries; i++) {
+            queries[i] = this.makeQuery(rand);
+            expected[i] = this.toScores(expectedEngine.getTopKResults(queries[i], NUM_PAGES));
+        }
+
+        List<Runnable> tasks = new ArrayList<>();
+        for (int t = 0; t < NUM_THREADS; t++) {
+            Random threadRand = new Random(t);
+            tasks.add(() -> {
+                for (int i = 0; i < 250; i++) {
+                    int q = threadRand.nextInt(numQueries);
+                    int k = 1 + threadRand.nextInt(NUM_PAGES);
+                    IList<Result> results = engine.getTopKResults(queries[q], k);
+
+                    assertEquals(k, results.size());
+                    this.assertSorted(results);
+                    for (Result result : results) {
+                        assertEquals(expected[q].get(result.getUri()), result.getScore(), 0.0);
+                    }
+                }
+            });
+        }
+        this.runConcurrently(tasks);
+    }
+
+    @Test(timeout=20 * SECOND)
+    public void testQueriesDuringUpdatesSeeConsistentIndex() throws Exception {
+        ISet<Webpage> corpus = this.makeCorpus(new Random(373));
+        SearchEngine engine = new SearchEngine(corpus, 1);
+
+        URI extraUri = URI.create("http://example.com/extra.html");
+        IList<String> extraWords = new DoubleLinkedList<>();
+        extraWords.add("zebra");
+        IList<URI> extraLinks = new DoubleLinkedList<>();
+        extraLinks.add(URI.create("http://example.com/page-0.html"));
+        Webpage extra = new Webpage(extraUri, extraLinks, extraWords, "title", "blurb");
+
+        AtomicBoolean isDone = new AtomicBoolean(false);
+        List<Runnable> tasks = new ArrayList<>();
+        tasks.add(() -> {
+            try {
+                for (int i = 0; i < 20; i++) {
+                    engine.addOrUpdate(extra);
+                    engine.remove(extraUri);
+                }
+            } finally {
+                isDone.set(true);
+            }
+        });
+        for (int t = 0; t < NUM_THREADS - 1; t++) {
+            Random threadRand = new Random(t);
+            tasks.add(() -> {
+                while (!isDone.get()) {
+                    IList<String> query = this.makeQuery(threadRand);
+                    query.add("zebra");
+                    IList<Result> results = engine.getTopKResults(query, NUM_PAGES + 1);
+                    this.assertSorted(results);
+
+                    // Each query must see the extra page either fully indexed or not at all
+                    IDictionary<URI, Double> scores = this.toScores(results);
+                    if (results.size() == NUM_PAGES + 1) {
+                        assertTrue(scores.get(extraUri) > 0.0);
+                    } else {
+                        assertEquals(NUM_PAGES, results.size());
+                        assertFalse(scores.containsKey(extraUri));
+                    }
+                }
+            });
+        }
+        this.runConcurrently(tasks);
+        assertEquals(NUM_PAGES, engine.getNumPages());
+    }
+
+    @Test(timeout=SECOND)
+    public void testPhraseAndNearQueries() {
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        pages.add(makePage("a", "the quick brown fox jumped over the lazy dog"));
+        pages.add(makePage("b", "the brown quick fox jumped over the lazy dog"));
+        pages.add(makePage("c", "quick thinking saved the dog from a brown bear"));
+        pages.add(makePage("d", "nothing to see here"));
+        SearchEngine engine = new SearchEngine(pages, 1);
+
+        IDictionary<URI, Double> scores = this.toScores(
+                engine.getTopKResults(QueryParser.parse("\"quick brown\""), 10));
+        assertEquals(1, scores.size());
+        assertTrue(scores.containsKey(URI.create("http://example.com/a.html")));
+
+        scores = this.toScores(engine.getTopKResults(QueryParser.parse("quick NEAR/1 brown"), 10));
+        assertEquals(2, scores.size());
+        assertFalse(scores.containsKey(URI.create("http://example.com/c.html")));
+
+        scores = this.toScores(engine.getTopKResults(QueryParser.parse("quick NEAR/7 brown"), 10));
+        assertEquals(3, scores.size());
+
+        scores = this.toScores(engine.getTopKResults(QueryParser.parse("\"quick unicorn\" fox"), 10));
+        assertEquals(0, scores.size());
+    }
+
+    @Test(timeout=SECOND)
+    public void testCloserWordsScoreHigher() {
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        pages.add(makePage("a", "quick fox one two three four five six"));
+        pages.add(makePage("b", "quick one two three four five six fox"));
+        pages.add(makePage("c", "one two three"));
+        SearchEngine engine = new SearchEngine(pages, 1);
+
+        IList<Result> results = engine.getTopKResults(QueryParser.parse("fox quick"), 10);
+        assertEquals(3, results.size());
+        assertEquals(URI.create("http://example.com/a.html"), results.get(0).getUri());
+        assertTrue(results.get(0).getScore() > results.get(1).getScore());
+    }
+
+    @Test(timeout=SECOND)
+    public void testBooleanQueriesOnlyScoreMatchingPages() {
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        pages.add(makePage("a", "apple pie with apple sauce"));
+        pages.add(makePage("b", "apple and banana bread"));
+        pages.add(makePage("c", "banana split"));
+        pages.add(makePage("d", "cherry tart"));
+        SearchEngine engine = new SearchEngine(pages, 1);
+
+        IDictionary<URI, Double> scores = this.toScores(
+                engine.getTopKResults(QueryParser.parse("apple NOT banana"), 10));
+        assertEquals(1, scores.size());
+        assertTrue(scores.containsKey(URI.create("http://example.com/a.html")));
+
+        IList<Result> results = engine.getTopKResults(QueryParser.parse("apple OR cherry"), 10);
+        assertEquals(3, results.size());
+        for (Result result : results) {
+            assertTrue(result.getScore() > 0.0);
+        }
+
+        // Plain words still score every page, and get a different cache entry
+        assertEquals(4, engine.getTopKResults(QueryParser.parse("apple cherry"), 10).size());
+        assertEquals(0, engine.getTopKResults(QueryParser.parse("apple AND cherry"), 10).size());
+    }
+
+    @Test(timeout=20 * SECOND)
+    public void testPruningKeepsExactTopK() {
+        Random rand = new Random(42);
+        SearchEngine engine = new SearchEngine(this.makeCorpus(rand), 1);
+        for (String scorer : new String[] {SearchEngine.TF_IDF_SCORER, SearchEngine.BM25_SCORER}) {
+            for (int i = 0; i < 50; i++) {
+                IList<String> query = this.makeQuery(rand);
+
+                // Asking for every page means nothing can be pruned
+                IList<Result> all = engine.getTopKResults(Query.fromTerms(query), NUM_PAGES, scorer);
+                IList<Result> top = engine.getTopKResults(Query.fromTerms(query), 10, scorer);
+                assertEquals(10, top.size());
+                for (int j = 0; j < top.size(); j++) {
+                    assertEquals(all.get(j).getScore(), top.get(j).getScore(), DELTA);
+                }
+            }
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testScorersAreSelectable() {
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        pages.add(makePage("a", "apple apple apple apple apple banana"));
+        pages.add(makePage("b", "apple banana cherry date elderberry fig"));
+        SearchEngine engine = new SearchEngine(pages, 1);
+
+        Query query = QueryParser.parse("apple");
+        IList<Result> tfIdf = engine.getTopKResults(query, 10, SearchEngine.TF_IDF_SCORER);
+        IList<Result> bm25 = engine.getTopKResults(query, 10, SearchEngine.BM25_SCORER);
+        assertEquals(2, bm25.size());
+        assertEquals(URI.create("http://example.com/a.html"), bm25.get(0).getUri());
+        assertTrue(bm25.get(0).getScore() > bm25.get(1).getScore());
+        assertEquals("<b>apple</b> <b>apple</b> <b>apple</b> <b>apple</b> <b>apple</b> banana",
+                bm25.get(0).getSnippet());
+
+        // Every page contains 'apple', so it has no TF-IDF weight at all, but
+        // BM25 still tells the pages apart
+        assertEquals(0.0, tfIdf.get(0).getScore(), DELTA);
+
+        try {
+            engine.getTopKResults(query, 10, "pagerank-only");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // All ok -- expected result
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testSuggestionsCompleteLastWord() {
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        pages.add(makePage("a", "apple apricot banana"));
+        pages.add(makePage("b", "apricot avocado"));
+        pages.add(makePage("c", "apricot apple"));
+        SearchEngine engine = new SearchEngine(pages, 1);
+
+        IList<String> suggestions = engine.getSuggestions("AP", 10);
+        assertEquals(2, suggestions.size());
+        assertEquals("apricot", suggestions.get(0));
+        assertEquals("apple", suggestions.get(1));
+
+        suggestions = engine.getSuggestions("banana av", 10);
+        assertEquals(1, suggestions.size());
+        assertEquals("banana avocado", suggestions.get(0));
+        assertEquals(0, engine.getSuggestions("apple ", 10).size());
+
+        // Words only on removed pages are no longer suggested
+        IList<URI> removed = new DoubleLinkedList<>();
+        removed.add(URI.create("http://example.com/b.html"));
+        engine.update(new DoubleLinkedList<>(), removed);
+        assertEquals(0, engine.getSuggestions("av", 10).size());
+
+        try {
+            engine.getSuggestions("a", SearchEngine.MAX_SUGGESTIONS + 1);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // All ok -- expected result
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testMisspelledWordsAreCorrected() {
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        pages.add(makePage("a", "elephants are large grey animals"));
+        pages.add(makePage("b", "giraffes are tall animals"));
+        pages.add(makePage("c", "nothing to see here"));
+        SearchEngine engine = new SearchEngine(pages, 1);
+
+        for (String scorer : new String[] {SearchEngine.TF_IDF_SCORER, SearchEngine.BM25_SCORER}) {
+            IList<Result> results = engine.getTopKResults(QueryParser.parse("elephnats"), 10, scorer);
+            assertEquals(URI.create("http://example.com/a.html"), results.get(0).getUri());
+            assertTrue(results.get(0).getScore() > 0.0);
+            assertEquals(0.0, results.get(1).getScore(), DELTA);
+            assertEquals("<b>elephants</b> are large grey animals", results.get(0).getSnippet());
+        }
+
+        // A correction counts for less than the word itself
+        double corrected = engine.getTopKResults(
+                QueryParser.parse("elephnats"), 1, SearchEngine.BM25_SCORER).get(0).getScore();
+        double exact = engine.getTopKResults(
+                QueryParser.parse("elephants"), 1, SearchEngine.BM25_SCORER).get(0).getScore();
+        assertEquals(exact * SearchEngine.CORRECTION_WEIGHT, corrected, DELTA);
+
+        // Words that are too short, or too far from anything, aren't corrected
+        assertEquals(0.0, engine.getTopKResults(QueryParser.parse("xq"), 10).get(0).getScore(), DELTA);
+        assertEquals(0.0, engine.getTopKResults(QueryParser.parse("zebras"), 10).get(0).getScore(), DELTA);
+    }
+}
@@ -0,0 +1,104 @@
+package search;
+
+import static org.junit.Assert.assertNull;
+
+import datastructures.concrete.ChainedHashSet;
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.ISet;
+import org.junit.Test;
+import search.analyzers.PositionalIndex;
+import search.analyzers.TermDictionary;
+import search.analyzers.TfIdfAnalyzer;
+import search.misc.WordTokenizer;
+import search.models.Webpage;
+
+import java.net.URI;
+import java.util.Arrays;
+
+public class TestSnippetGenerator extends BaseSearchTest {
+    private int[] ids(TermDictionary terms, String words) {
+        int[] ids = Arrays.stream(words.split(" ")).mapToInt(terms::getId).toArray();
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private String repeat(String word, int times) {
+        String[] words = new String[times];
+        Arrays.fill(words, word);
+        return String.join(" ", words);
+    }
+
+    @Test(timeout=SECOND)
+    public void testShortPageIsShownWhole() {
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        pages.add(makePage("a", "the quick brown fox jumped over the lazy dog"));
+        TermDictionary terms = new TfIdfAnalyzer(pages).getTermDictionary();
+        PositionalIndex index = new PositionalIndex(pages, terms);
+        SnippetGenerator generator = new SnippetGenerator(10);
+        URI uri = URI.create("http://example.com/a.html");
+
+        assertEquals("<b>the</b> quick brown <b>fox</b> jumped over <b>the</b> lazy dog",
+                generator.getSnippet(0, index, terms, uri, this.ids(terms, "fox the")));
+        assertNull(generator.getSnippet(0, index, terms, uri, new int[0]));
+    }
+
+    @Test(timeout=SECOND)
+    public void testLongPageShowsBestWindow() {
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        String text = this.repeat("a", 50) + " cheap flights to boston " + this.repeat("b", 50);
+        pages.add(makePage("a", text));
+        TermDictionary terms = new TfIdfAnalyzer(pages).getTermDictionary();
+        PositionalIndex index = new PositionalIndex(pages, terms);
+        SnippetGenerator generator = new SnippetGenerator(10);
+
+        String snippet = generator.getSnippet(
+                0, index, terms, URI.create("http://example.com/a.html"), this.ids(terms, "boston cheap"));
+        String expected = "... " + this.repeat("a", 13) + " <b>cheap</b> flights to <b>boston</b> "
+                + this.repeat("b", 13) + " ...";
+        assertEquals(expected, snippet);
+        assertEquals(SnippetGenerator.WINDOW_SIZE, snippet.split(" ").length - 2);
+    }
+
+    @Test(timeout=SECOND)
+    public void testShowsTextAsWritten() {
+        String text = "Is the  Quick brown fox -- (the FOX!) -- faster than AT&T's\nnetwork?";
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        pages.add(new Webpage(URI.create("http://example.com/a.html"), new DoubleLinkedList<>(),
+                WordTokenizer.extract(text), "title", "blurb", text));
+        TermDictionary terms = new TfIdfAnalyzer(pages).getTermDictionary();
+        PositionalIndex index = new PositionalIndex(pages, terms);
+        SnippetGenerator generator = new SnippetGenerator(10);
+
+        assertEquals("Is the Quick brown <b>fox</b> -- (the <b>FOX</b>!) -- faster than <b>AT&amp;T's</b> network?",
+                generator.getSnippet(0, index, terms, URI.create("http://example.com/a.html"),
+                        this.ids(terms, "fox atts")));
+    }
+
+    @Test(timeout=SECOND)
+    public void testCacheEvictsLeastRecentlyUsed() {
+        ISet<Webpage> pages = new ChainedHashSet<>();
+        pages.add(makePage("a", "apple banana cherry"));
+        TermDictionary terms = new TfIdfAnalyzer(pages).getTermDictionary();
+        PositionalIndex index = new PositionalIndex(pages, terms);
+        SnippetGenerator generator = new SnippetGenerator(2);
+        URI uri = URI.create("http://example.com/a.html");
+
+        generator.getSnippet(0, index, terms, uri, this.ids(terms, "apple"));
+        generator.getSnippet(0, index, terms, uri, this.ids(terms, "banana"));
+        generator.getSnippet(0, index, terms, uri, this.ids(terms, "apple"));
+        generator.getSnippet(0, index, terms, uri, this.ids(terms, "cherry"));
+        assertEquals(2, generator.size());
+        assertEquals(1L, generator.getHits());
+        assertEquals(3L, generator.getMisses());
+
+        // 'banana' was evicted; 'apple' was not
+        generator.getSnippet(0, index, terms, uri, this.ids(terms, "apple"));
+        assertEquals(2L, generator.getHits());
+        generator.getSnippet(0, index, terms, uri, this.ids(terms, "banana"));
+        assertEquals(4L, generator.getMisses());
+
+        // Snippets from a different index version are never shared
+        generator.getSnippet(1, index, terms, uri, this.ids(terms, "banana"));
+        assertEquals(5L, generator.getMisses());
+    }
+}
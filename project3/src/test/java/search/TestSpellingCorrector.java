@@ -0,0 +1,184 @@
+package search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.concrete.KVPair;
+import datastructures.interfaces.IList;
+import misc.BaseTest;
+import org.junit.Test;
+import search.analyzers.SpellingCorrector;
+import search.analyzers.TermDictionary;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class TestSpellingCorrector extends BaseTest {
+    private SpellingCorrector makeCorrector(String[] words, int[] weightsInOrder, int maxDistance) {
+        IList<String> vocabulary = new DoubleLinkedList<>();
+        for (String word : words) {
+            vocabulary.add(word);
+        }
+        TermDictionary terms = new TermDictionary(vocabulary);
+        int[] weights = new int[terms.size()];
+        for (int i = 0; i < words.length; i++) {
+            weights[terms.getId(words[i])] = weightsInOrder[i];
+        }
+        return new SpellingCorrector(terms, weights, maxDistance);
+    }
+
+    private void assertCorrections(String expected, IList<KVPair<String, Integer>> actual) {
+        assertEquals(expected, this.toString(actual));
+    }
+
+    @Test(timeout=SECOND)
+    public void testDistance() {
+        assertEquals(0, SpellingCorrector.computeDistance("search", "search", 2));
+        assertEquals(1, SpellingCorrector.computeDistance("search", "serch", 2));
+        assertEquals(1, SpellingCorrector.computeDistance("search", "saerch", 2));
+        assertEquals(1, SpellingCorrector.computeDistance("search", "searcj", 2));
+        assertEquals(1, SpellingCorrector.computeDistance("search", "searchy", 2));
+        assertEquals(2, SpellingCorrector.computeDistance("search", "sarech", 2));
+        assertEquals(3, SpellingCorrector.computeDistance("", "abc", 5));
+
+        // Anything too far apart is reported as just past the limit
+        assertEquals(2, SpellingCorrector.computeDistance("search", "engine", 1));
+        assertEquals(3, SpellingCorrector.computeDistance("a", "abcdef", 2));
+    }
+
+    @Test(timeout=SECOND)
+    public void testBasicCorrections() {
+        SpellingCorrector corrector = this.makeCorrector(
+                new String[] {"search", "starch", "sear", "engine", "unrelated"},
+                new int[] {10, 3, 5, 8, 0},
+                2);
+
+        this.assertCorrections("search:1", corrector.findCorrections("saerch", 1, 5));
+        this.assertCorrections("search:1 starch:2", corrector.findCorrections("serch", 2, 5));
+        this.assertCorrections("search:1", corrector.findCorrections("serch", 2, 1));
+        this.assertCorrections("sear:0 search:2", corrector.findCorrections("sear", 2, 5));
+
+        // Equally close words are ordered by weight
+        this.assertCorrections("search:1 sear:1", corrector.findCorrections("searh", 1, 5));
+        this.assertCorrections("engine:0", corrector.findCorrections("engine", 2, 5));
+        this.assertCorrections("", corrector.findCorrections("unrelated", 2, 5));
+        this.assertCorrections("", corrector.findCorrections("xyz", 2, 5));
+        assertEquals(4, corrector.size());
+    }
+
+    @Test(timeout=SECOND)
+    public void testRejectsBadArguments() {
+        SpellingCorrector corrector = this.makeCorrector(new String[] {"word"}, new int[] {1}, 1);
+        try {
+            corrector.findCorrections("word", 2, 5);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // All ok -- expected result
+        }
+        try {
+            corrector.findCorrections("word", 1, -1);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // All ok -- expected result
+        }
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testMatchesBruteForce() {
+        // A tiny alphabet and long words, so plenty of words are close
+        // together, including ones that differ only past PREFIX_LENGTH
+        Random rand = new Random(373);
+        Set<String> seen = new HashSet<>();
+        List<String> words = new ArrayList<>();
+        while (words.size() < 1500) {
+            String word = this.randomWord(rand, 1 + rand.nextInt(11));
+            if (seen.add(word)) {
+                words.add(word);
+            }
+        }
+        int[] weights = new int[words.size()];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = 1 + rand.nextInt(5);
+        }
+        SpellingCorrector corrector = this.makeCorrector(words.toArray(new String[0]), weights, 2);
+
+        for (int trial = 0; trial < 300; trial++) {
+            String query = this.randomWord(rand, 1 + rand.nextInt(11));
+            for (int maxDistance = 0; maxDistance <= 2; maxDistance++) {
+                Set<String> expected = new HashSet<>();
+                for (String word : words) {
+                    if (SpellingCorrector.computeDistance(query, word, maxDistance) <= maxDistance) {
+                        expected.add(word);
+                    }
+                }
+
+                Set<String> actual = new HashSet<>();
+                int previousDistance = 0;
+                for (KVPair<String, Integer> pair : corrector.findCorrections(query, maxDistance, words.size())) {
+                    actual.add(pair.getKey());
+                    assertEquals(SpellingCorrector.computeDistance(query, pair.getKey(), maxDistance),
+                            (int) pair.getValue());
+                    assertTrue(pair.getValue() >= previousDistance);
+                    previousDistance = pair.getValue();
+                }
+                assertEquals(expected, actual);
+            }
+        }
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testUpdatesMatchRebuilding() {
+        Random rand = new Random(374);
+        IList<String> vocabulary = new DoubleLinkedList<>();
+        vocabulary.add("search");
+        TermDictionary terms = new TermDictionary(vocabulary);
+        int[] weights = new int[2000];
+        weights[0] = 1;
+        SpellingCorrector corrector = new SpellingCorrector(terms, id -> weights[id], 2);
+
+        // Many small updates, so the recently added words are merged in several times
+        for (int update = 0; update < 200; update++) {
+            IList<String> added = new DoubleLinkedList<>();
+            for (int i = 0; i < 5; i++) {
+                added.add(this.randomWord(rand, 1 + rand.nextInt(8)));
+            }
+            terms = terms.withTerms(added);
+            for (String word : added) {
+                weights[terms.getId(word)] = rand.nextInt(3);
+            }
+            corrector = corrector.update(terms, id -> weights[id]);
+        }
+        SpellingCorrector rebuilt = new SpellingCorrector(terms, weights, 2);
+
+        assertEquals(rebuilt.size(), corrector.size());
+        for (int trial = 0; trial < 300; trial++) {
+            String query = this.randomWord(rand, 1 + rand.nextInt(8));
+            this.assertCorrections(
+                    this.toString(rebuilt.findCorrections(query, 2, 20)),
+                    corrector.findCorrections(query, 2, 20));
+        }
+        this.assertCorrections("search:1", corrector.findCorrections("serch", 1, 5));
+    }
+
+    private String toString(IList<KVPair<String, Integer>> corrections) {
+        StringBuilder output = new StringBuilder();
+        for (KVPair<String, Integer> pair : corrections) {
+            output.append(output.length() == 0 ? "" : " ");
+            output.append(pair.getKey()).append(":").append(pair.getValue());
+        }
+        return output.toString();
+    }
+
+    private String randomWord(Random rand, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + rand.nextInt(3));
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,126 @@
+package search;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.github.mustachejava.MustacheException;
+import misc.BaseTest;
+import org.junit.Test;
+import search.misc.StaticAssets;
+import search.misc.TemplateRenderer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+public class TestTemplateRenderer extends BaseTest {
+    private Path writeFile(Path folder, String name, String contents) throws IOException {
+        Path path = folder.resolve(name);
+        Files.write(path, contents.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    @Test(timeout=SECOND)
+    public void testRendersPrecompiledTemplates() throws IOException {
+        TemplateRenderer renderer = new TemplateRenderer(
+                "webapp/templates", null, "main.mustache", "error.mustache");
+        assertFalse(renderer.isHotReloaded());
+
+        Map<String, Object> model = new HashMap<>();
+        model.put("siteTitle", "Nöodle");
+        String page = renderer.render("main.mustache", model);
+        assertTrue(page.contains("<h1 class=\"logo uw-purple\">Nöodle</h1>"));
+
+        // Rendering into a stream gives the same page, every time
+        for (int i = 0; i < 3; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int length = renderer.render("main.mustache", model, out);
+            assertEquals(out.size(), length);
+            assertEquals(page, new String(out.toByteArray(), StandardCharsets.UTF_8));
+        }
+
+        model.put("exception", "<oops>");
+        assertTrue(renderer.render("error.mustache", model).contains("&lt;oops&gt;"));
+
+        try {
+            renderer.render("search.mustache", model);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // All ok -- expected result
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testMissingTemplateFailsAtStartup() {
+        try {
+            new TemplateRenderer("webapp/templates", null, "main.mustache", "missing.mustache");
+            fail("Expected MustacheException");
+        } catch (MustacheException ex) {
+            // All ok -- expected result
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testHotReloadsFromSourceFolder() throws IOException {
+        Path folder = Files.createTempDirectory("templates");
+        Path template = this.writeFile(folder, "page.mustache", "Hello {{name}}");
+        try {
+            TemplateRenderer renderer = new TemplateRenderer("webapp/templates", folder, "page.mustache");
+            assertTrue(renderer.isHotReloaded());
+            Map<String, Object> model = new HashMap<>();
+            model.put("name", "world");
+            assertEquals("Hello world", renderer.render("page.mustache", model));
+
+            this.writeFile(folder, "page.mustache", "Goodbye {{name}}");
+            assertEquals("Goodbye world", renderer.render("page.mustache", model));
+        } finally {
+            Files.delete(template);
+            Files.delete(folder);
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testServesStaticAssets() throws IOException {
+        StaticAssets assets = new StaticAssets("webapp/static", null);
+        StaticAssets.Asset styles = assets.get("/styles.css");
+        assertTrue(styles.getContentType().startsWith("text/css"));
+        assertTrue(styles.getContents().length > 0);
+        assertTrue(styles.getEtag().startsWith("\"") && styles.getEtag().endsWith("\""));
+
+        // The same file is only read once
+        assertTrue(styles == assets.get("/styles.css"));
+        assertTrue(styles.matches(styles.getEtag()));
+        assertTrue(styles.matches("\"abc\", W/" + styles.getEtag()));
+        assertFalse(styles.matches("\"abc\""));
+        assertFalse(styles.matches(null));
+
+        assertEquals(null, assets.get("/missing.css"));
+        assertEquals(null, assets.get("/../templates/main.mustache"));
+        assertEquals(null, assets.get("styles.css"));
+    }
+
+    @Test(timeout=SECOND)
+    public void testHotReloadsStaticAssets() throws IOException {
+        Path folder = Files.createTempDirectory("static");
+        Path file = this.writeFile(folder, "app.js", "var a = 1;");
+        try {
+            StaticAssets assets = new StaticAssets("webapp/static", folder);
+            String etag = assets.get("/app.js").getEtag();
+            assertEquals(etag, assets.get("/app.js").getEtag());
+
+            this.writeFile(folder, "app.js", "var a = 2;");
+            StaticAssets.Asset asset = assets.get("/app.js");
+            assertEquals("var a = 2;", new String(asset.getContents(), StandardCharsets.UTF_8));
+            assertFalse(asset.matches(etag));
+            assertEquals(null, assets.get("/styles.css"));
+        } finally {
+            Files.delete(file);
+            Files.delete(folder);
+        }
+    }
+}
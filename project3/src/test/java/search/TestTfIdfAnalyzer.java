@@ -1,5 +1,8 @@
 package search;
 
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
 import datastructures.concrete.ChainedHashSet;
 import datastructures.concrete.DoubleLinkedList;
 import datastructures.concrete.KVPair;
@@ -8,6 +11,7 @@ import datastructures.interfaces.IDictionary;
 import datastructures.interfaces.IList;
 import datastructures.interfaces.ISet;
 import misc.BaseTest;
+import misc.exceptions.NoSuchKeyException;
 import org.junit.Test;
 import search.analyzers.TfIdfAnalyzer;
 import search.models.Webpage;
@@ -135,4 +139,92 @@ public class TestTfIdfAnalyzer extends BaseTest {
                 analyzer.computeRelevance(query, URI.create("http://example.com/fake-page-c.html")),
                 DELTA);
     }
+
+    @Test(timeout=SECOND)
+    public void testIncrementalUpdatesMatchFullBuild() {
+        URI uriA = URI.create("http://example.com/fake-page-a.html");
+        URI uriB = URI.create("http://example.com/fake-page-b.html");
+        URI uriC = URI.create("http://example.com/fake-page-c.html");
+        URI uriD = URI.create("http://example.com/fake-page-d.html");
+
+        ISet<Webpage> documents = new ChainedHashSet<>();
+        documents.add(new Webpage(uriA, new DoubleLinkedList<>(),
+                strToIList("the mouse played with the cat"), "", ""));
+        documents.add(new Webpage(uriB, new DoubleLinkedList<>(),
+                strToIList("a cat sat on a mat"), "", ""));
+        documents.add(new Webpage(uriD, new DoubleLinkedList<>(),
+                strToIList("the zebra is not in the example"), "", ""));
+        TfIdfAnalyzer analyzer = new TfIdfAnalyzer(documents);
+
+        // Turn this into the spec example: update B, add C and remove D
+        IList<Webpage> added = new DoubleLinkedList<>();
+        added.add(new Webpage(uriB, new DoubleLinkedList<>(),
+                strToIList("the quick brown fox jumped over the lazy dog"), "", ""));
+        added.add(new Webpage(uriC, new DoubleLinkedList<>(),
+                strToIList("dog 1 and dog 2 ate the hot dog"), "", ""));
+        IList<URI> removed = new DoubleLinkedList<>();
+        removed.add(uriD);
+        TfIdfAnalyzer original = analyzer;
+        analyzer = analyzer.update(added, removed);
+
+        TfIdfAnalyzer expected = this.makeExampleAnalyzer();
+        IDictionary<URI, IDictionary<String, Double>> expectedVectors = expected.getDocumentTfIdfVectors();
+        IDictionary<URI, IDictionary<String, Double>> actualVectors = analyzer.getDocumentTfIdfVectors();
+        assertEquals(expectedVectors.size(), actualVectors.size());
+        for (KVPair<URI, IDictionary<String, Double>> pair : expectedVectors) {
+            compareVectors(pair.getValue(), actualVectors.get(pair.getKey()));
+        }
+
+        IList<String> query = strToIList("the 1 cat");
+        for (URI uri : new URI[] {uriA, uriB, uriC}) {
+            assertEquals(expected.computeRelevance(query, uri), analyzer.computeRelevance(query, uri), DELTA);
+        }
+
+        // The original analyzer must be unaffected
+        assertEquals(3, original.getDocumentTfIdfVectors().size());
+        assertEquals(true, original.getDocumentTfIdfVectors().containsKey(uriD));
+        assertEquals(0.0, original.computeRelevance(strToIList("dog"), uriA), DELTA);
+    }
+
+    @Test(timeout=SECOND)
+    public void testSnapshotsKeepTheirOwnNorms() {
+        URI uriA = URI.create("http://example.com/fake-page-a.html");
+        URI uriE = URI.create("http://example.com/fake-page-e.html");
+        TfIdfAnalyzer original = this.makeExampleAnalyzer();
+
+        // E takes the place A leaves behind
+        IList<Webpage> added = new DoubleLinkedList<>();
+        added.add(new Webpage(uriE, new DoubleLinkedList<>(),
+                strToIList("the cat sat on the dog"), "", ""));
+        IList<URI> removed = new DoubleLinkedList<>();
+        removed.add(uriA);
+        TfIdfAnalyzer updated = original.update(added, removed);
+
+        URI uriB = URI.create("http://example.com/fake-page-b.html");
+        IList<String> query = strToIList("the dog");
+        double originalScore = original.computeRelevance(query, uriB);
+        double updatedScore = updated.computeRelevance(query, uriB);
+        assertTrue(Math.abs(originalScore - updatedScore) > DELTA);
+
+        // Scoring with one analyzer mustn't change the other's scores
+        for (int i = 0; i < 3; i++) {
+            assertEquals(originalScore, original.computeRelevance(query, uriB), DELTA);
+            assertEquals(updatedScore, updated.computeRelevance(query, uriB), DELTA);
+        }
+        assertEquals(0.0, original.computeRelevance(strToIList("dog"), uriA), DELTA);
+        assertTrue(updated.computeRelevance(strToIList("cat"), uriE) > 0.0);
+    }
+
+    @Test(timeout=SECOND)
+    public void testRemoveMissingPageThrowsException() {
+        TfIdfAnalyzer analyzer = this.makeExampleAnalyzer();
+        try {
+            IList<URI> removed = new DoubleLinkedList<>();
+            removed.add(URI.create("http://example.com/fake-page-z.html"));
+            analyzer.update(new DoubleLinkedList<>(), removed);
+            fail("Expected NoSuchKeyException");
+        } catch (NoSuchKeyException ex) {
+            // All ok -- expected result
+        }
+    }
 }
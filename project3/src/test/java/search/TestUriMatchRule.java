@@ -0,0 +1,130 @@
+package search;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import misc.BaseTest;
+import org.junit.Test;
+import search.scraper.RobotsTxt;
+import search.scraper.UriMatchRule;
+
+import java.net.URI;
+
+public class TestUriMatchRule extends BaseTest {
+    private UriMatchRule rule(String robots) {
+        return new RobotsTxt("TestBot", robots).getMatchRule();
+    }
+
+    @Test(timeout=SECOND)
+    public void testEmptyRulesAllowEverything() {
+        UriMatchRule rule = new UriMatchRule(null, null);
+        assertTrue(rule.matches(URI.create("http://example.com/")));
+        assertTrue(rule.matches(URI.create("http://example.com/a/b?c=d")));
+        assertTrue(rule.matches(""));
+    }
+
+    @Test(timeout=SECOND)
+    public void testPrefixMatching() {
+        UriMatchRule rule = this.rule("User-agent: *\nDisallow: /fish\n");
+        assertFalse(rule.matches("/fish"));
+        assertFalse(rule.matches("/fish.html"));
+        assertFalse(rule.matches("/fishheads/yummy.html"));
+        assertFalse(rule.matches("/fish?id=anything"));
+        assertTrue(rule.matches("/Fish.asp"));
+        assertTrue(rule.matches("/catfish"));
+        assertTrue(rule.matches("/"));
+
+        // A URI with no path is the root
+        assertTrue(rule.matches(URI.create("http://example.com")));
+        assertFalse(this.rule("Disallow: /\n").matches(URI.create("http://example.com")));
+    }
+
+    @Test(timeout=SECOND)
+    public void testWildcards() {
+        UriMatchRule rule = this.rule("User-agent: *\nDisallow: /*.php\nDisallow: /a*b*c\n");
+        assertFalse(rule.matches("/index.php"));
+        assertFalse(rule.matches("/folder/any.php.file.html"));
+        assertFalse(rule.matches("/filename.php?parameters"));
+        assertTrue(rule.matches("/"));
+        assertTrue(rule.matches("/windows.PHP"));
+
+        assertFalse(rule.matches("/abc"));
+        assertFalse(rule.matches("/a/b/c/d"));
+        assertFalse(rule.matches("/aaabbbccc"));
+        assertTrue(rule.matches("/acb"));
+        assertTrue(rule.matches("/ab"));
+
+        // Everything else in a rule is literal, not a regular expression
+        UriMatchRule literal = this.rule("Disallow: /a.c\nDisallow: /(x|y)\n");
+        assertFalse(literal.matches("/a.c"));
+        assertTrue(literal.matches("/abc"));
+        assertFalse(literal.matches("/(x|y)"));
+        assertTrue(literal.matches("/x"));
+    }
+
+    @Test(timeout=SECOND)
+    public void testEndAnchor() {
+        UriMatchRule rule = this.rule("User-agent: *\nDisallow: /*.php$\nDisallow: /exact$\n");
+        assertFalse(rule.matches("/filename.php"));
+        assertFalse(rule.matches("/folder/filename.php"));
+        assertTrue(rule.matches("/filename.php?parameters"));
+        assertTrue(rule.matches("/filename.php/"));
+        assertTrue(rule.matches("/filename.php5"));
+
+        assertFalse(rule.matches("/exact"));
+        assertTrue(rule.matches("/exactly"));
+        assertTrue(rule.matches("/exact?query"));
+    }
+
+    @Test(timeout=SECOND)
+    public void testLongestMatchWins() {
+        UriMatchRule rule = this.rule(
+                "User-agent: *\n"
+                + "Disallow: /private\n"
+                + "Allow: /private/public\n"
+                + "Disallow: /private/public/secret\n"
+                + "Allow: /*.html$\n");
+        assertFalse(rule.matches("/private/a"));
+        assertTrue(rule.matches("/private/public/a"));
+        assertFalse(rule.matches("/private/public/secret/a"));
+
+        // "/*.html$" is longer than "/private", but not "/private/public/secret"
+        assertTrue(rule.matches("/private/a.html"));
+        assertFalse(rule.matches("/private/public/secret/a.html"));
+    }
+
+    @Test(timeout=SECOND)
+    public void testAllowWinsTies() {
+        UriMatchRule rule = this.rule("User-agent: *\nDisallow: /page\nAllow: /page\nDisallow: /*ab\nAllow: /x*b\n");
+        assertTrue(rule.matches("/page"));
+        assertTrue(rule.matches("/xab"));
+    }
+
+    @Test(timeout=SECOND)
+    public void testEmptyDirectivesAreIgnored() {
+        // An empty Allow used to be compiled to a pattern matching nothing,
+        // and an empty Disallow means nothing is disallowed
+        UriMatchRule rule = this.rule("User-agent: *\nAllow:\nDisallow:\n");
+        assertTrue(rule.matches("/anything"));
+
+        rule = this.rule("User-agent: *\nAllow:\nDisallow: /\n");
+        assertFalse(rule.matches("/anything"));
+    }
+
+    @Test(timeout=SECOND)
+    public void testQueryStrings() {
+        UriMatchRule rule = this.rule("User-agent: *\nDisallow: /*?\nAllow: /search?q=\n");
+        assertTrue(rule.matches(URI.create("http://example.com/page")));
+        assertFalse(rule.matches(URI.create("http://example.com/page?id=1")));
+        assertTrue(rule.matches(URI.create("http://example.com/search?q=cats")));
+    }
+
+    @Test(timeout=SECOND)
+    public void testCombine() {
+        UriMatchRule rule = this.rule("Disallow: /a\n").combine(this.rule("Disallow: /b\nAllow: /a/ok\n"));
+        assertFalse(rule.matches("/a/x"));
+        assertFalse(rule.matches("/b/x"));
+        assertTrue(rule.matches("/a/ok"));
+        assertTrue(rule.matches("/c"));
+    }
+}
@@ -0,0 +1,169 @@
+package search;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import misc.BaseTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import search.scraper.UrlSeenSet;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class TestUrlSeenSet extends BaseTest {
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("seen");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private URI uri(int page) {
+        return URI.create("http://example.com/page" + page + ".html");
+    }
+
+    private long countRunFiles() throws IOException {
+        try (Stream<Path> files = Files.list(this.directory)) {
+            return files.filter(path -> path.toString().endsWith(".run")).count();
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testAddAndContains() throws IOException {
+        UrlSeenSet seen = new UrlSeenSet(this.directory, 100);
+        assertFalse(seen.contains(this.uri(1)));
+        assertTrue(seen.add(this.uri(1)));
+        assertTrue(seen.contains(this.uri(1)));
+        assertFalse(seen.add(this.uri(1)));
+        assertFalse(seen.contains(this.uri(2)));
+        assertEquals(1L, seen.size());
+
+        // Nothing has spilled yet
+        assertEquals(0, seen.getNumRuns());
+        assertEquals(0L, this.countRunFiles());
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testSpillsAndMergesRuns() throws IOException {
+        final int count = 50000;
+        UrlSeenSet seen = new UrlSeenSet(this.directory, 64);
+        for (int i = 0; i < count; i += 2) {
+            assertTrue(seen.add(this.uri(i)));
+        }
+        for (int i = 0; i < count; i += 2) {
+            assertFalse(seen.add(this.uri(i)));
+        }
+        assertEquals((long) count / 2, seen.size());
+
+        // Merging keeps the number of runs logarithmic in the number of
+        // buffers written
+        int numBuffers = count / 2 / 64;
+        assertTrue("Too many runs: " + seen.getNumRuns(),
+                seen.getNumRuns() <= 2 * (32 - Integer.numberOfLeadingZeros(numBuffers)));
+        assertEquals((long) seen.getNumRuns(), this.countRunFiles());
+
+        for (int i = 0; i < count; i++) {
+            assertEquals(i % 2 == 0, seen.contains(this.uri(i)));
+        }
+
+        seen.clear();
+        assertEquals(0L, seen.size());
+        assertFalse(seen.contains(this.uri(0)));
+        assertEquals(0L, this.countRunFiles());
+    }
+
+    @Test(timeout=SECOND)
+    public void testAddAllFromFingerprintFile() throws IOException {
+        Path file = this.directory.resolve("list.fp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            for (int i = 0; i < 100; i++) {
+                out.writeLong(UrlSeenSet.fingerprint(this.uri(i)));
+            }
+        }
+
+        UrlSeenSet seen = new UrlSeenSet(this.directory.resolve("runs"), 16);
+        seen.addAll(file);
+        assertEquals(100L, seen.size());
+        for (int i = 0; i < 100; i++) {
+            assertTrue(seen.contains(this.uri(i)));
+        }
+        assertFalse(seen.contains(this.uri(100)));
+    }
+
+    @Test(timeout=SECOND)
+    public void testReopensClosedSet() throws IOException {
+        UrlSeenSet first = new UrlSeenSet(this.directory, 4);
+        for (int i = 0; i < 10; i++) {
+            first.add(this.uri(i));
+        }
+        first.close();
+
+        UrlSeenSet second = new UrlSeenSet(this.directory, 4);
+        assertEquals(10L, second.size());
+        assertEquals((long) second.getNumRuns(), this.countRunFiles());
+        for (int i = 0; i < 10; i++) {
+            assertFalse(second.add(this.uri(i)));
+        }
+        for (int i = 10; i < 20; i++) {
+            assertTrue(second.add(this.uri(i)));
+        }
+        for (int i = 0; i < 20; i++) {
+            assertTrue(second.contains(this.uri(i)));
+        }
+        assertFalse(second.contains(this.uri(20)));
+    }
+
+    @Test(timeout=SECOND)
+    public void testDropsRunsWrittenSinceSync() throws IOException {
+        UrlSeenSet first = new UrlSeenSet(this.directory, 4);
+        for (int i = 0; i < 8; i++) {
+            first.add(this.uri(i));
+        }
+        first.sync();
+        assertFalse(first.hasUnsyncedRuns());
+
+        // Merging with a synced run must not delete it before the next sync
+        for (int i = 8; i < 40; i++) {
+            first.add(this.uri(i));
+        }
+        assertTrue(first.hasUnsyncedRuns());
+
+        // As if the crawl crashed here
+        UrlSeenSet second = new UrlSeenSet(this.directory, 4);
+        assertEquals(8L, second.size());
+        for (int i = 0; i < 8; i++) {
+            assertTrue(second.contains(this.uri(i)));
+        }
+        for (int i = 8; i < 40; i++) {
+            assertFalse(second.contains(this.uri(i)));
+        }
+        assertEquals((long) second.getNumRuns(), this.countRunFiles());
+    }
+
+    @Test(timeout=SECOND)
+    public void testFingerprintIsStable() throws IOException {
+        assertEquals(UrlSeenSet.fingerprint(this.uri(1)), UrlSeenSet.fingerprint(this.uri(1).toString()));
+        assertFalse(UrlSeenSet.fingerprint(this.uri(1)) == UrlSeenSet.fingerprint(this.uri(2)));
+        try {
+            new UrlSeenSet(this.directory, 16).addFingerprint(0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // All ok -- expected result
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package search;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import misc.BaseTest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import search.scraper.ValidatorStore;
+import search.scraper.ValidatorStore.Validators;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class TestValidatorStore extends BaseTest {
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("validators");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private URI uri(int page) {
+        return URI.create("http://example.com/page" + page + ".html");
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testRemembersValidatorsAcrossRuns() throws IOException {
+        // Enough pages that the index has to grow
+        final int numPages = 10000;
+        try (ValidatorStore store = new ValidatorStore(this.directory)) {
+            for (int i = 0; i < numPages; i++) {
+                store.put(this.uri(i), new Validators("\"" + i + "\"", i % 2 == 0 ? null : "day " + i));
+            }
+            store.put(this.uri(0), new Validators(null, "Mon, 01 Jan 2024 00:00:00 GMT"));
+            assertEquals(numPages, store.size());
+        }
+
+        try (ValidatorStore store = new ValidatorStore(this.directory)) {
+            assertEquals(numPages, store.size());
+            Validators first = store.get(this.uri(0));
+            assertNull(first.etag);
+            assertEquals("Mon, 01 Jan 2024 00:00:00 GMT", first.lastModified);
+            for (int i = 1; i < numPages; i++) {
+                Validators validators = store.get(this.uri(i));
+                assertEquals("\"" + i + "\"", validators.etag);
+                assertEquals(i % 2 == 0 ? null : "day " + i, validators.lastModified);
+            }
+            assertNull(store.get(this.uri(numPages)));
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testRecoversFromCrash() throws IOException {
+        ValidatorStore crashed = new ValidatorStore(this.directory);
+        crashed.put(this.uri(1), new Validators("\"a\"", null));
+        crashed.put(this.uri(2), new Validators("\"b\"", null));
+
+        // We never close the store, and crash part way through an entry
+        Path log = this.directory.resolve(ValidatorStore.VALIDATOR_FILE);
+        long length = Files.size(log);
+        try (OutputStream out = Files.newOutputStream(log, StandardOpenOption.APPEND)) {
+            out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 0, 0, 0, 100, 1});
+        }
+
+        try (ValidatorStore store = new ValidatorStore(this.directory)) {
+            assertEquals(2, store.size());
+            assertEquals("\"a\"", store.get(this.uri(1)).etag);
+            assertEquals("\"b\"", store.get(this.uri(2)).etag);
+            assertEquals(length, Files.size(log));
+            store.put(this.uri(3), new Validators("\"c\"", null));
+        }
+        try (ValidatorStore store = new ValidatorStore(this.directory)) {
+            assertEquals("\"c\"", store.get(this.uri(3)).etag);
+        }
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testCompactsReplacedEntries() throws IOException {
+        try (ValidatorStore store = new ValidatorStore(this.directory)) {
+            for (int i = 0; i < 10000; i++) {
+                store.put(this.uri(i % 10), new Validators("\"" + i + "\"", null));
+            }
+        }
+        Path log = this.directory.resolve(ValidatorStore.VALIDATOR_FILE);
+        long length = Files.size(log);
+
+        // Only the latest entry of each page is kept
+        try (ValidatorStore store = new ValidatorStore(this.directory)) {
+            assertTrue(Files.size(log) * 100 < length);
+            assertEquals(10, store.size());
+            for (int i = 0; i < 10; i++) {
+                assertEquals("\"" + (9990 + i) + "\"", store.get(this.uri(i)).etag);
+            }
+        }
+    }
+}
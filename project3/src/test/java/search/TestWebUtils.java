@@ -0,0 +1,98 @@
+package search;
+
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import misc.BaseTest;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Test;
+import search.misc.WebUtils;
+import search.misc.WordTokenizer;
+
+import java.net.URI;
+import java.util.Random;
+
+public class TestWebUtils extends BaseTest {
+    private static final URI ROOT = URI.create("http://example.com/dir/page.html");
+
+    private static final String[] TAGS = {"b", "i", "span", "p", "div", "li", "pre", "td", "h1"};
+    private static final String[] TEXT = {
+        "Hello", "WORLD", "it's", "e-mail", "  ", "\\n\\t", " ", "&amp;", "&nbsp;",
+        "\u0001", "ΣΟΦΙΑ", "x", "...", "Straße", "İ",
+    };
+
+    private <T> void assertListsEqual(String message, IList<T> expected, IList<T> actual) {
+        assertEquals(message, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(message, expected.get(i), actual.get(i));
+        }
+    }
+
+    private void assertMatchesTwoPass(String html) {
+        Document document = Jsoup.parse(html, ROOT.toString());
+        IList<URI> expectedLinks = WebUtils.extractLinks(ROOT, document);
+        IList<String> expectedWords = WordTokenizer.extract(document.body().text());
+
+        IList<URI> links = new DoubleLinkedList<>();
+        IList<String> words = new DoubleLinkedList<>();
+        StringBuilder text = new StringBuilder();
+        WebUtils.extractLinksAndWords(ROOT, document, links, words, text);
+
+        this.assertListsEqual("Links differ for: " + html, expectedLinks, links);
+        this.assertListsEqual("Words differ for: " + html, expectedWords, words);
+        // Runs of whitespace are left as they were, where Jsoup collapses them
+        assertEquals("Text differs for: " + html, document.body().text().replaceAll("[\\x00-\\x20]+", " "),
+                text.toString().replaceAll("[\\x00-\\x20]+", " "));
+    }
+
+    private String makeRandomHtml(Random rand, int depth) {
+        StringBuilder html = new StringBuilder();
+        for (int i = rand.nextInt(5); i > 0; i--) {
+            int choice = rand.nextInt(10);
+            if (choice < 4) {
+                html.append(TEXT[rand.nextInt(TEXT.length)]);
+            } else if (choice == 4) {
+                html.append("<br>");
+            } else if (choice == 5) {
+                html.append("<a href=\"/link-").append(rand.nextInt(5)).append("\">")
+                        .append(TEXT[rand.nextInt(TEXT.length)]).append("</a>");
+            } else if (choice == 6) {
+                html.append("<script>var hidden = 'text';</script><!-- a comment -->");
+            } else if (depth < 4) {
+                String tag = TAGS[rand.nextInt(TAGS.length)];
+                html.append('<').append(tag).append('>')
+                        .append(this.makeRandomHtml(rand, depth + 1))
+                        .append("</").append(tag).append('>');
+            }
+        }
+        return html.toString();
+    }
+
+    @Test(timeout=SECOND)
+    public void testBasicExamples() {
+        this.assertMatchesTwoPass("");
+        this.assertMatchesTwoPass("<p>Hello <b>wor</b>ld</p><p>again</p>");
+        this.assertMatchesTwoPass("<div>one</div>two<br>three<span>four</span>");
+        this.assertMatchesTwoPass("<head><title>Title words</title></head><body>\u0001 body \u0001</body>");
+        this.assertMatchesTwoPass("<a href='a.html'>A</a> <a name='x'>B</a> <a href='http://other.com/'>C</a>");
+        this.assertMatchesTwoPass("<pre>  keep\n  spacing  </pre>and<pre>MORE</pre>");
+
+        IList<URI> links = new DoubleLinkedList<>();
+        IList<String> words = new DoubleLinkedList<>();
+        WebUtils.extractLinksAndWords(
+                ROOT, Jsoup.parse("<p>Hi <b>the</b>re</p><a href='b.html'>Link</a>"), links, words);
+        assertEquals(1, links.size());
+        assertEquals(URI.create("http://example.com/dir/b.html"), links.get(0));
+        assertEquals(2, words.size());
+        assertEquals("hi", words.get(0));
+        assertEquals("therelink", words.get(1));
+    }
+
+    @Test(timeout=10 * SECOND)
+    public void testMatchesTwoPassOnRandomHtml() {
+        Random rand = new Random(373);
+        for (int i = 0; i < 3000; i++) {
+            this.assertMatchesTwoPass(this.makeRandomHtml(rand, 0));
+        }
+    }
+}
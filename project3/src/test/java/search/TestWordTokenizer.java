@@ -0,0 +1,106 @@
+package search;
+
+import datastructures.concrete.DoubleLinkedList;
+import datastructures.interfaces.IList;
+import misc.BaseTest;
+import org.junit.Test;
+import search.misc.WordTokenizer;
+
+import java.util.Locale;
+import java.util.Random;
+
+public class TestWordTokenizer extends BaseTest {
+    // A mix of ASCII, whitespace the tokenizer must and must not split on,
+    // and characters whose lowercase form depends on context or locale.
+    private static final String ALPHABET =
+            "aZq09 !.,'-_@[~\t\n\r\u000B\f  ÉßİIΣσΑΩ̇́😀";
+
+    /**
+     * The original, regex-based tokenizer.
+     */
+    private IList<String> extractWithRegex(String input) {
+        IList<String> out = new DoubleLinkedList<>();
+        for (String word : input.toLowerCase().split("\\s+")) {
+            word = word.replaceAll("\\p{Punct}", "");
+            if (!word.isEmpty()) {
+                out.add(word);
+            }
+        }
+        return out;
+    }
+
+    private void assertMatchesRegex(String input) {
+        IList<String> expected = this.extractWithRegex(input);
+        IList<String> actual = WordTokenizer.extract(input);
+        assertEquals("Mismatch on input '" + input + "'", expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals("Mismatch on input '" + input + "'", expected.get(i), actual.get(i));
+        }
+    }
+
+    private void assertMatchesRegexOnRandomInputs(Random rand, int numInputs) {
+        for (int n = 0; n < numInputs; n++) {
+            StringBuilder input = new StringBuilder();
+            for (int i = rand.nextInt(40); i > 0; i--) {
+                input.append(ALPHABET.charAt(rand.nextInt(ALPHABET.length())));
+            }
+            this.assertMatchesRegex(input.toString());
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testBasicExamples() {
+        this.assertMatchesRegex("");
+        this.assertMatchesRegex("   ");
+        this.assertMatchesRegex("The quick, brown FOX -- jumped!");
+        this.assertMatchesRegex("  leading and trailing\twhitespace\n");
+        this.assertMatchesRegex("don't e-mail me@example.com ... ?!");
+        this.assertMatchesRegex("ΟΔΟΣ ΟΔΟΣ. Σ");
+
+        IList<String> words = WordTokenizer.extract("Hello, World!");
+        assertEquals(2, words.size());
+        assertEquals("hello", words.get(0));
+        assertEquals("world", words.get(1));
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testMatchesRegexOnRandomInputs() {
+        this.assertMatchesRegexOnRandomInputs(new Random(373), 20000);
+    }
+
+    @Test(timeout=5 * SECOND)
+    public void testMatchesRegexInTurkishLocale() {
+        Locale original = Locale.getDefault();
+        try {
+            Locale.setDefault(new Locale("tr", "TR"));
+            this.assertMatchesRegex("ISTANBUL Istanbul");
+            this.assertMatchesRegexOnRandomInputs(new Random(143), 5000);
+        } finally {
+            Locale.setDefault(original);
+        }
+    }
+
+    @Test(timeout=SECOND)
+    public void testHandlerReceivesEveryWord() {
+        StringBuilder joined = new StringBuilder();
+        WordTokenizer.tokenize("One two, THREE", (buffer, length) -> {
+            joined.append(buffer, 0, length).append('|');
+        });
+        assertEquals("one|two|three|", joined.toString());
+    }
+
+    @Test(timeout=SECOND)
+    public void testFindsWhereWordsAre() {
+        String input = " The quick, -- (FOX)\tjumped!";
+        int[] spans = WordTokenizer.findWords(input);
+        IList<String> words = WordTokenizer.extract(input);
+        assertEquals(2 * words.size(), spans.length);
+
+        // Each span holds the word's raw chars, punctuation and all
+        String[] expected = {"The", "quick,", "(FOX)", "jumped!"};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], input.substring(spans[2 * i], spans[2 * i + 1]));
+        }
+        assertEquals(0, WordTokenizer.findWords("  -- ").length);
+    }
+}